@@ -0,0 +1,403 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Typed access to the application classes from the benchmarks
+ * The application lives in the unnamed package, which a named package cannot import, and JMH
+ * cannot generate code for benchmarks in the unnamed package. Each handle is looked up once and
+ * held in a static final field, so the JIT inlines the call just as it would a direct one
+ */
+final class App {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> ABSTRACT_TURTLE = type("AbstractTurtle");
+    private static final Class<?> HEADLESS_TURTLE = type("HeadlessTurtle");
+    private static final Class<?> SCRIPT_COMPILER = type("ScriptCompiler");
+    private static final Class<?> COMPILED_SCRIPT = type("CompiledScript");
+    private static final Class<?> COMMAND_HISTORY_STORE = type("CommandHistoryStore");
+    private static final Class<?> COMMAND_HISTORY_LIST_MODEL = type("CommandHistoryListModel");
+    private static final Class<?> IMAGE_EXPORT_FORMAT = type("ImageExportFormat");
+    private static final Class<?> PNG_EXPORT_FORMAT = type("PngExportFormat");
+    private static final Class<?> IMAGE_EXPORTER = type("ImageExporter");
+    private static final Class<?> BINARY_SCRIPT = type("BinaryScript");
+    private static final Class<?> BINARY_SCRIPT_FORMAT = type("BinaryScriptFormat");
+    private static final Class<?> SHAPE_GEOMETRY = type("ShapeGeometry");
+    private static final Class<?> SHAPE_GEOMETRY_CACHE = type("ShapeGeometryCache");
+
+    private static final MethodHandle NEW_HEADLESS_TURTLE =
+        constructor(HEADLESS_TURTLE, int.class, int.class, Color.class);
+    private static final MethodHandle PROCESS_COMMAND =
+        virtual(ABSTRACT_TURTLE, "processCommand", void.class, String.class);
+    private static final MethodHandle RUN_SCRIPT =
+        virtual(ABSTRACT_TURTLE, "run", void.class, COMPILED_SCRIPT);
+    private static final MethodHandle RESET_ALL =
+        virtual(ABSTRACT_TURTLE, "resetAll", void.class);
+    private static final MethodHandle CLEAR_ERRORS =
+        virtual(ABSTRACT_TURTLE, "clearErrors", void.class);
+    private static final MethodHandle GET_BUFFERED_IMAGE =
+        virtual(HEADLESS_TURTLE, "getBufferedImage", BufferedImage.class);
+    private static final MethodHandle DISPOSE =
+        virtual(HEADLESS_TURTLE, "dispose", void.class);
+
+    private static final MethodHandle GET_SHAPE_CACHE =
+        staticMethod(SHAPE_GEOMETRY, "getCache", SHAPE_GEOMETRY_CACHE);
+    private static final MethodHandle SET_SHAPE_CACHE_CAPACITY =
+        virtual(SHAPE_GEOMETRY_CACHE, "setCapacity", void.class, int.class);
+    private static final MethodHandle CLEAR_SHAPE_CACHE =
+        virtual(SHAPE_GEOMETRY_CACHE, "clear", void.class);
+
+    private static final MethodHandle NEW_SCRIPT_COMPILER =
+        constructor(SCRIPT_COMPILER);
+    private static final MethodHandle COMPILE =
+        virtual(SCRIPT_COMPILER, "compile", COMPILED_SCRIPT, BufferedReader.class);
+    private static final MethodHandle COMPILE_LINE =
+        virtual(SCRIPT_COMPILER, "compileLine", void.class, String.class, COMPILED_SCRIPT);
+    private static final MethodHandle NEW_COMPILED_SCRIPT =
+        constructor(COMPILED_SCRIPT);
+    private static final MethodHandle CLEAR_SCRIPT =
+        virtual(COMPILED_SCRIPT, "clear", void.class);
+    private static final MethodHandle SCRIPT_SIZE =
+        virtual(COMPILED_SCRIPT, "size", int.class);
+
+    private static final MethodHandle NEW_COMMAND_HISTORY_STORE =
+        constructor(COMMAND_HISTORY_STORE);
+    private static final MethodHandle HISTORY_ADD =
+        virtual(COMMAND_HISTORY_STORE, "add", void.class, String.class);
+    private static final MethodHandle HISTORY_FOR_EACH_RECENT =
+        virtual(COMMAND_HISTORY_STORE, "forEachRecent", void.class, int.class, Consumer.class);
+    private static final MethodHandle HISTORY_CLOSE =
+        virtual(COMMAND_HISTORY_STORE, "close", void.class);
+    private static final MethodHandle NEW_COMMAND_HISTORY_LIST_MODEL =
+        constructor(COMMAND_HISTORY_LIST_MODEL, int.class);
+    private static final MethodHandle MODEL_CLEAR =
+        virtual(COMMAND_HISTORY_LIST_MODEL, "clear", void.class);
+    private static final MethodHandle MODEL_APPEND =
+        virtual(COMMAND_HISTORY_LIST_MODEL, "append", void.class, String.class);
+    private static final MethodHandle MODEL_CAPACITY =
+        virtual(COMMAND_HISTORY_LIST_MODEL, "getCapacity", int.class);
+
+    private static final MethodHandle NEW_PNG_EXPORT_FORMAT =
+        constructor(PNG_EXPORT_FORMAT, int.class, ForkJoinPool.class);
+    private static final MethodHandle EXPORT =
+        staticMethod(IMAGE_EXPORTER, "export", void.class, BufferedImage.class, Path.class, IMAGE_EXPORT_FORMAT, IntConsumer.class);
+
+    private static final MethodHandle WRITE_BINARY_SCRIPT =
+        staticMethod(BINARY_SCRIPT_FORMAT, "write", void.class, COMPILED_SCRIPT, Path.class);
+    private static final MethodHandle MAP_BINARY_SCRIPT =
+        staticMethod(BINARY_SCRIPT_FORMAT, "map", BINARY_SCRIPT, Path.class);
+    private static final MethodHandle TO_COMPILED_SCRIPT =
+        virtual(BINARY_SCRIPT, "toCompiledScript", COMPILED_SCRIPT);
+
+    private App() {
+    }
+
+    // Turtle
+
+    static Object newHeadlessTurtle(int width, int height, Color background) {
+        try {
+            return (Object) NEW_HEADLESS_TURTLE.invokeExact(width, height, background);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void processCommand(Object turtle, String command) {
+        try {
+            PROCESS_COMMAND.invokeExact(turtle, command);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void run(Object turtle, Object compiledScript) {
+        try {
+            RUN_SCRIPT.invokeExact(turtle, compiledScript);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void resetAll(Object turtle) {
+        try {
+            RESET_ALL.invokeExact(turtle);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void clearErrors(Object turtle) {
+        try {
+            CLEAR_ERRORS.invokeExact(turtle);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static BufferedImage getBufferedImage(Object turtle) {
+        try {
+            return (BufferedImage) GET_BUFFERED_IMAGE.invokeExact(turtle);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void dispose(Object turtle) {
+        try {
+            DISPOSE.invokeExact(turtle);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    /**
+     * Resize and empty the cache every turtle draws its shapes from, 0 turns it off
+     */
+    static void setShapeCacheCapacity(int capacity) {
+        try {
+            Object cache = (Object) GET_SHAPE_CACHE.invokeExact();
+            CLEAR_SHAPE_CACHE.invokeExact(cache);
+            SET_SHAPE_CACHE_CAPACITY.invokeExact(cache, capacity);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Compiler
+
+    static Object newScriptCompiler() {
+        try {
+            return (Object) NEW_SCRIPT_COMPILER.invokeExact();
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object compile(Object compiler, BufferedReader reader) {
+        try {
+            return (Object) COMPILE.invokeExact(compiler, reader);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void compileLine(Object compiler, String line, Object compiledScript) {
+        try {
+            COMPILE_LINE.invokeExact(compiler, line, compiledScript);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object newCompiledScript() {
+        try {
+            return (Object) NEW_COMPILED_SCRIPT.invokeExact();
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void clearScript(Object compiledScript) {
+        try {
+            CLEAR_SCRIPT.invokeExact(compiledScript);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static int scriptSize(Object compiledScript) {
+        try {
+            return (int) SCRIPT_SIZE.invokeExact(compiledScript);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Command history
+
+    static Object newCommandHistoryStore() {
+        try {
+            return (Object) NEW_COMMAND_HISTORY_STORE.invokeExact();
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void addHistory(Object store, String command) {
+        try {
+            HISTORY_ADD.invokeExact(store, command);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void forEachRecent(Object store, int count, Consumer<String> action) {
+        try {
+            HISTORY_FOR_EACH_RECENT.invokeExact(store, count, action);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void closeHistory(Object store) {
+        try {
+            HISTORY_CLOSE.invokeExact(store);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object newCommandHistoryListModel(int capacity) {
+        try {
+            return (Object) NEW_COMMAND_HISTORY_LIST_MODEL.invokeExact(capacity);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void clearModel(Object model) {
+        try {
+            MODEL_CLEAR.invokeExact(model);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void appendModel(Object model, String line) {
+        try {
+            MODEL_APPEND.invokeExact(model, line);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static int modelCapacity(Object model) {
+        try {
+            return (int) MODEL_CAPACITY.invokeExact(model);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Files
+
+    static Object newPngExportFormat(int level, ForkJoinPool pool) {
+        try {
+            return (Object) NEW_PNG_EXPORT_FORMAT.invokeExact(level, pool);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void export(BufferedImage image, Path target, Object format, IntConsumer progress) {
+        try {
+            EXPORT.invokeExact(image, target, format, progress);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void writeBinaryScript(Object compiledScript, Path path) {
+        try {
+            WRITE_BINARY_SCRIPT.invokeExact(compiledScript, path);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object mapBinaryScript(Path path) {
+        try {
+            return (Object) MAP_BINARY_SCRIPT.invokeExact(path);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object toCompiledScript(Object binaryScript) {
+        try {
+            return (Object) TO_COMPILED_SCRIPT.invokeExact(binaryScript);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Lookup
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name, false, App.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Application classes in the handle's signature become Object, so callers here can use
+     * invokeExact without naming them; JDK types are left as they are
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isApplicationClass(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isApplicationClass(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isApplicationClass(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+        try {
+            return erase(LOOKUP.findConstructor(owner, MethodType.methodType(void.class, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return erase(LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return erase(LOOKUP.findStatic(owner, name, MethodType.methodType(returnType, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable e) {
+        if (e instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (e instanceof Error error) {
+            throw error;
+        }
+        if (e instanceof IOException io) {
+            throw new UncheckedIOException(io);
+        }
+        throw new IllegalStateException(e);
+    }
+}
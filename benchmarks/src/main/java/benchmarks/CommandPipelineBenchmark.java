@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One command line through the pipeline: parsing alone, then parsing and running it
+ * The commands cover each way a line is parsed - no parameter, a number, a colour list,
+ * a named colour and a line that fails to parse
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandPipelineBenchmark {
+
+    @Param({"penup", "left 90", "move 1", "pencolour 255,128,0", "red", "nosuchcommand 5"})
+    public String command;
+
+    private Object compiler;
+    private Object script;
+    private Object turtle;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        compiler = App.newScriptCompiler();
+        script = App.newCompiledScript();
+        turtle = App.newHeadlessTurtle(800, 400, Color.DARK_GRAY);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetTurtle() {
+        App.resetAll(turtle);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        App.dispose(turtle);
+    }
+
+    /**
+     * Parsing and validation into an instruction, without running it
+     */
+    @Benchmark
+    public int compileLine() {
+        App.clearScript(script);
+        App.compileLine(compiler, command, script);
+        return App.scriptSize(script);
+    }
+
+    /**
+     * What the command box does for each line: parse, dispatch and draw
+     */
+    @Benchmark
+    public void processCommand() {
+        App.processCommand(turtle, command);
+        App.clearErrors(turtle);
+    }
+}
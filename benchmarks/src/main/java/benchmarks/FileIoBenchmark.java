@@ -0,0 +1,158 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving the canvas as an image and loading command files, against a headless canvas
+ * The file dialogs of saveImage and loadCommands are left out; what is measured is the work
+ * done after a file has been chosen. ImageIO is included as the baseline for PNG export
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileIoBenchmark {
+
+    @Param({"800x400", "4000x4000"})
+    public String canvas;
+
+    @Param({"10000"})
+    public int commands;
+
+    private Path directory;
+    private Path textScript;
+    private Path binaryScript;
+    private Path imageFile;
+    private Object turtle;
+    private BufferedImage image;
+    private Object fastPng;
+    private Object defaultPng;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] size = canvas.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+
+        directory = Files.createTempDirectory("turtle-bench");
+        textScript = directory.resolve("script.txt");
+        binaryScript = directory.resolve("script.tbs");
+        imageFile = directory.resolve("canvas.png");
+
+        try (Writer out = Files.newBufferedWriter(textScript, StandardCharsets.UTF_8)) {
+            writeScript(out, commands, Math.min(width, height) / 2);
+        }
+        try (BufferedReader reader = Files.newBufferedReader(textScript, StandardCharsets.UTF_8)) {
+            App.writeBinaryScript(App.compile(App.newScriptCompiler(), reader), binaryScript);
+        }
+
+        turtle = App.newHeadlessTurtle(width, height, Color.DARK_GRAY);
+        try (BufferedReader reader = Files.newBufferedReader(textScript, StandardCharsets.UTF_8)) {
+            App.run(turtle, App.compile(App.newScriptCompiler(), reader));
+        }
+        image = App.getBufferedImage(turtle);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        fastPng = App.newPngExportFormat(1, pool);
+        defaultPng = App.newPngExportFormat(6, pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        App.dispose(turtle);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void savePngFast() {
+        App.export(image, imageFile, fastPng, percent -> { });
+    }
+
+    @Benchmark
+    public void savePngDefault() {
+        App.export(image, imageFile, defaultPng, percent -> { });
+    }
+
+    /**
+     * How the image was saved before the export pipeline
+     */
+    @Benchmark
+    public void saveImageIo() throws IOException {
+        ImageIO.write(image, "png", imageFile.toFile());
+    }
+
+    /**
+     * Reading, parsing and drawing a text script
+     */
+    @Benchmark
+    public void loadTextCommands() throws IOException {
+        App.resetAll(turtle);
+        try (BufferedReader reader = Files.newBufferedReader(textScript, StandardCharsets.UTF_8)) {
+            App.run(turtle, App.compile(App.newScriptCompiler(), reader));
+        }
+    }
+
+    /**
+     * Mapping and drawing the same script saved in the binary format
+     */
+    @Benchmark
+    public void loadBinaryCommands() {
+        App.resetAll(turtle);
+        App.run(turtle, App.toCompiledScript(App.mapBinaryScript(binaryScript)));
+    }
+
+    /**
+     * A mix of moves, turns, colours and shapes that stays within a radius of the centre
+     */
+    private static void writeScript(Writer out, int count, int radius) throws IOException {
+        int step = Math.max(1, radius / 10);
+        for (int i = 0; i < count; i++) {
+            switch (i % 8) {
+                case 0 -> out.write("move " + step + "\n");
+                case 1 -> out.write("left " + (i % 360) + "\n");
+                case 2 -> out.write("pencolour " + (i % 256) + "," + (i * 7 % 256) + "," + (i * 13 % 256) + "\n");
+                case 3 -> out.write("square " + step + "\n");
+                case 4 -> out.write("reverse " + step + "\n");
+                case 5 -> out.write("circle " + step / 2 + "\n");
+                case 6 -> out.write("triangle " + step + "\n");
+                default -> out.write((i % 64 == 7 ? "reset" : "right 45") + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Refreshing the history panel as the session grows
+ * Does the same as TurtleGraphics.updateCommandHistoryDisplay, which cannot run without a
+ * window: clear the list model, then fill it with the most recent commands. The time should
+ * stay flat as the history grows, since only the visible part is read back
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryDisplayBenchmark {
+
+    /** Same as HISTORY_DISPLAY_LIMIT in TurtleGraphics */
+    private static final int DISPLAY_CAPACITY = 10000;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int historySize;
+
+    private Object history;
+    private Object model;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        history = App.newCommandHistoryStore();
+        for (int i = 0; i < historySize; i++) {
+            App.addHistory(history, "forward " + i);
+        }
+        model = App.newCommandHistoryListModel(DISPLAY_CAPACITY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        App.closeHistory(history);
+    }
+
+    /**
+     * The cost to the calling thread; the model applies the lines afterwards on the EDT
+     */
+    @Benchmark
+    public void updateCommandHistoryDisplay() {
+        App.clearModel(model);
+        App.forEachRecent(history, App.modelCapacity(model), line -> App.appendModel(model, line));
+    }
+
+    /**
+     * Adding one command, as happens before every refresh
+     */
+    @Benchmark
+    public void addCommand() {
+        App.addHistory(history, "forward 10");
+    }
+}
@@ -0,0 +1,112 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Each shape command drawn onto a headless canvas
+ * The turtle goes back to the centre before every shape, so each one is drawn the same way
+ * and stays on the canvas; pen width changes the cost of stroking as much as the size does
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShapeBenchmark {
+
+    @Param({"1", "8"})
+    public int penWidth;
+
+    @Param({"20", "150"})
+    public int size;
+
+    /** 0 works every outline out again, as before the shape cache */
+    @Param({"0", "1024"})
+    public int shapeCache;
+
+    private Object turtle;
+    private String square;
+    private String triangle;
+    private String triangleSides;
+    private String star;
+    private String hexagon;
+    private String circle;
+    private String move;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        App.setShapeCacheCapacity(shapeCache);
+        turtle = App.newHeadlessTurtle(800, 400, Color.DARK_GRAY);
+        App.processCommand(turtle, "penwidth " + penWidth);
+        square = "square " + size;
+        triangle = "triangle " + size;
+        triangleSides = "triangle " + size + "," + (size * 4 / 5) + "," + (size * 3 / 5);
+        star = "star " + size;
+        hexagon = "hexagon " + size;
+        circle = "circle " + size;
+        move = "move " + size;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        App.dispose(turtle);
+    }
+
+    @Benchmark
+    public void square() {
+        draw(square);
+    }
+
+    @Benchmark
+    public void triangle() {
+        draw(triangle);
+    }
+
+    @Benchmark
+    public void triangleSides() {
+        draw(triangleSides);
+    }
+
+    @Benchmark
+    public void star() {
+        draw(star);
+    }
+
+    @Benchmark
+    public void hexagon() {
+        draw(hexagon);
+    }
+
+    @Benchmark
+    public void circle() {
+        draw(circle);
+    }
+
+    /**
+     * A single line, for comparison with the shapes made of several
+     */
+    @Benchmark
+    public void line() {
+        draw(move);
+    }
+
+    private void draw(String command) {
+        App.processCommand(turtle, "reset");
+        App.processCommand(turtle, command);
+    }
+}
@@ -0,0 +1,265 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turtle state and command handling shared by the turtles that run without Swing
+ * Subclasses decide what drawing means, e.g. painting a BufferedImage or recording a DisplayList
+ */
+public abstract class AbstractTurtle implements TurtleBackend {
+
+    private final int width;
+    private final int height;
+    private final List<String> errors = new ArrayList<>();
+    /** Every error reported, including those cleared since */
+    private long errorCount;
+    private final ScriptCompiler compiler = new ScriptCompiler();
+    private final ScriptInterpreter interpreter = new ScriptInterpreter(this);
+    private final CompiledScript lineScript = new CompiledScript();
+    private final StatementBuffer statements = new StatementBuffer();
+    private double xPos;
+    private double yPos;
+    private int direction;
+    private boolean penDown = true;
+    private Color penColour = Color.BLACK;
+    private int penWidth = 1;
+    private int defaultPenWidth = 1;
+    private Color defaultPenColor = Color.BLACK;
+
+    /**
+     * @param width Canvas width in pixels
+     * @param height Canvas height in pixels
+     */
+    protected AbstractTurtle(int width, int height) {
+        this.width = width;
+        this.height = height;
+        reset();
+    }
+
+    /**
+     * Draw a straight line with the current pen
+     */
+    protected abstract void drawLine(double x1, double y1, double x2, double y2);
+
+    /**
+     * Stroke every edge of a shape with the current pen
+     */
+    protected abstract void drawShapePath(ShapeGeometry shape);
+
+    /**
+     * Draw a circle outline with the current pen
+     */
+    protected abstract void drawCircle(double x, double y, int radius);
+
+    /**
+     * Wipe everything drawn so far
+     */
+    protected abstract void clearCanvas();
+
+    /**
+     * Parse and run a single command line
+     * Errors are collected instead of being shown, see getErrors(). The lines of a block that
+     * spans several lines are held back and run together once the block is closed
+     */
+    public void processCommand(String command) {
+        String statement = statements.add(command);
+        if (statement == null) {
+            return;
+        }
+        lineScript.clear();
+        compiler.compileLine(statement, lineScript);
+        interpreter.run(lineScript);
+    }
+
+    /**
+     * Run what has been held back of a block that was never closed, which reports what is missing
+     * Call at the end of a script
+     */
+    public void flushStatement() {
+        if (statements.isPending()) {
+            String statement = statements.getPending();
+            statements.clear();
+            lineScript.clear();
+            compiler.compileLine(statement, lineScript);
+            interpreter.run(lineScript);
+        }
+    }
+
+    /**
+     * Whether lines of a block have been taken that do not yet make a whole statement
+     */
+    public boolean isStatementPending() {
+        return statements.isPending();
+    }
+
+    /**
+     * Run an already compiled script
+     */
+    public void run(CompiledScript script) {
+        interpreter.run(script);
+    }
+
+    /**
+     * Run the instructions between two byte offsets of a binary script
+     */
+    public void run(BinaryScript script, int from, int to) {
+        interpreter.run(script, from, to);
+    }
+
+    @Override
+    public void forward(int distance) {
+        double radians = Math.toRadians(direction);
+        double newX = xPos + distance * Math.cos(radians);
+        double newY = yPos + distance * Math.sin(radians);
+
+        if (penDown) {
+            drawLine(xPos, yPos, newX, newY);
+        }
+        xPos = newX;
+        yPos = newY;
+    }
+
+    @Override
+    public void drawShape(ShapeGeometry shape) {
+        if (penDown) {
+            drawShapePath(shape);
+        }
+        xPos = shape.getEndX();
+        yPos = shape.getEndY();
+        direction = shape.getEndDirection();
+    }
+
+    @Override
+    public void left(int degrees) {
+        direction = normalise(direction - degrees);
+    }
+
+    @Override
+    public void right(int degrees) {
+        direction = normalise(direction + degrees);
+    }
+
+    @Override
+    public void setPenDown(boolean down) {
+        penDown = down;
+    }
+
+    @Override
+    public void setPenColour(Color colour) {
+        penColour = colour;
+    }
+
+    @Override
+    public void setPenWidth(int width) {
+        penWidth = width;
+    }
+
+    @Override
+    public void circle(int radius) {
+        drawCircle(xPos, yPos, radius);
+    }
+
+    @Override
+    public void moveTo(double x, double y, int direction) {
+        this.xPos = x;
+        this.yPos = y;
+        this.direction = normalise(direction);
+    }
+
+    /**
+     * Move the turtle back to the centre, facing its starting direction
+     */
+    public void reset() {
+        xPos = width / 2;
+        yPos = height / 2;
+        direction = 0;
+        penDown = true;
+    }
+
+    @Override
+    public void resetAll() {
+        reset();
+        penColour = defaultPenColor;
+        penWidth = defaultPenWidth;
+    }
+
+    @Override
+    public void clear() {
+        clearCanvas();
+    }
+
+    @Override
+    public void reportError(String message) {
+        errors.add(message);
+        errorCount++;
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    @Override
+    public void runCommand(String command) {
+        String commandName = command.trim().split("\\s+", 2)[0].toLowerCase();
+        reportError("Command '" + commandName + "' is not available in headless mode.");
+    }
+
+    @Override
+    public void invalidCommand(String command, String message) {
+        reportError(message);
+    }
+
+    /**
+     * Errors reported since the last call to clearErrors(), in the order they happened
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void clearErrors() {
+        errors.clear();
+    }
+
+    @Override
+    public double getPositionX() {
+        return xPos;
+    }
+
+    @Override
+    public double getPositionY() {
+        return yPos;
+    }
+
+    @Override
+    public int getDirection() {
+        return direction;
+    }
+
+    @Override
+    public int getCanvasWidth() {
+        return width;
+    }
+
+    @Override
+    public int getCanvasHeight() {
+        return height;
+    }
+
+    public boolean isPenDown() {
+        return penDown;
+    }
+
+    public Color getPenColour() {
+        return penColour;
+    }
+
+    public int getPenWidth() {
+        return penWidth;
+    }
+
+    private static int normalise(int degrees) {
+        int result = degrees % 360;
+        return result < 0 ? result + 360 : result;
+    }
+}
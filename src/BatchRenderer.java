@@ -0,0 +1,227 @@
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+/**
+ * Command line entry point that renders command scripts to PNG files without a GUI
+ * Usage: java BatchRenderer [-w width] [-h height] [-t tileSize] [-f png|svg] [-o outputDir] [-l logFile] script.txt ...
+ * Scripts may be text or the binary format written by BinaryScriptFormat
+ * Problems are reported with their file and line, on standard error or with -l in a log file,
+ * and counted in a summary at the end
+ * With -t the script is traced to a display list and drawn tile by tile on all cores,
+ * which is the faster choice for very large canvases. With -f svg the display list is written as SVG
+ */
+public class BatchRenderer {
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        int width = HeadlessTurtle.DEFAULT_WIDTH;
+        int height = HeadlessTurtle.DEFAULT_HEIGHT;
+        int tileSize = 0;
+        boolean svg = false;
+        File outputDir = null;
+        File logFile = null;
+        List<File> scripts = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-w":
+                        width = Integer.parseInt(args[++i]);
+                        break;
+                    case "-h":
+                        height = Integer.parseInt(args[++i]);
+                        break;
+                    case "-t":
+                        tileSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "-f":
+                        String format = args[++i].toLowerCase();
+                        if (!format.equals("png") && !format.equals("svg")) {
+                            throw new IllegalArgumentException(format);
+                        }
+                        svg = format.equals("svg");
+                        break;
+                    case "-o":
+                        outputDir = new File(args[++i]);
+                        break;
+                    case "-l":
+                        logFile = new File(args[++i]);
+                        break;
+                    default:
+                        scripts.add(new File(args[i]));
+                        break;
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            printUsage();
+            System.exit(2);
+        }
+
+        if (scripts.isEmpty()) {
+            printUsage();
+            System.exit(2);
+        }
+
+        if (outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Cannot create output directory " + outputDir);
+            System.exit(1);
+        }
+
+        DiagnosticsCollector diagnostics = new DiagnosticsCollector();
+        try {
+            diagnostics.setLog(logFile != null
+                ? new BufferedWriter(new FileWriter(logFile, StandardCharsets.UTF_8))
+                : new OutputStreamWriter(System.err, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Cannot write log file " + logFile + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+        int failures = 0;
+        for (File script : scripts) {
+            File output = outputFor(script, outputDir, svg ? ".svg" : ".png");
+            try {
+                int errors = svg ? renderSvg(script, output, width, height, diagnostics)
+                    : render(script, output, width, height, tileSize, diagnostics);
+                System.out.println(script + " -> " + output + (errors > 0 ? " (" + errors + " errors)" : ""));
+            } catch (IOException e) {
+                System.err.println("Error rendering " + script + ": " + e.getMessage());
+                failures++;
+            }
+        }
+
+        diagnostics.close();
+        if (diagnostics.getCount() > 0) {
+            System.out.println(diagnostics.getSummary() + (logFile != null ? ", see " + logFile : ""));
+        }
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * Run one script and write the canvas as a PNG
+     * @param tileSize Tile size for the parallel rasterizer, or 0 to draw straight onto one image
+     * @param diagnostics Told about every command error, with its line
+     * @return Number of command errors reported while running the script
+     */
+    public static int render(File script, File output, int width, int height, int tileSize,
+                             DiagnosticsCollector diagnostics) throws IOException {
+        AbstractTurtle turtle = tileSize > 0 ? new PathTracer(width, height) : new HeadlessTurtle(width, height, Color.WHITE);
+        int errors = runScript(script, turtle, diagnostics);
+
+        if (turtle instanceof PathTracer) {
+            DisplayList displayList = ((PathTracer) turtle).getDisplayList();
+            TileRasterizer rasterizer = new TileRasterizer(tileSize, ForkJoinPool.commonPool());
+            ImageIO.write(rasterizer.render(displayList, width, height, Color.WHITE), "png", output);
+        } else {
+            HeadlessTurtle headless = (HeadlessTurtle) turtle;
+            ImageIO.write(headless.getBufferedImage(), "png", output);
+            headless.dispose();
+        }
+        return errors;
+    }
+
+    /**
+     * Run one script and write the strokes it drew as an SVG document
+     * @param diagnostics Told about every command error, with its line
+     * @return Number of command errors reported while running the script
+     */
+    public static int renderSvg(File script, File output, int width, int height,
+                                DiagnosticsCollector diagnostics) throws IOException {
+        PathTracer tracer = new PathTracer(width, height);
+        int errors = runScript(script, tracer, diagnostics);
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+            SvgExporter.write(tracer.getDisplayList(), width, height, Color.WHITE, null, writer);
+        }
+        return errors;
+    }
+
+    /**
+     * Feed a script to a turtle line by line, reporting errors with their line numbers
+     * An error in a block that spans several lines is reported at the line the block starts on
+     * @return Number of command errors reported
+     */
+    private static int runScript(File script, AbstractTurtle turtle, DiagnosticsCollector diagnostics) throws IOException {
+        if (BinaryScriptFormat.isBinaryScript(script.toPath())) {
+            return runBinaryScript(script, turtle, diagnostics);
+        }
+        int errors = 0;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(script))) {
+            String line;
+            int lineNumber = 0;
+            int statementLine = 0;
+            boolean blockOpen = false;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.toLowerCase().startsWith("load commands")) {
+                    continue;
+                }
+                if (!blockOpen) {
+                    statementLine = lineNumber;
+                }
+                turtle.processCommand(line);
+                blockOpen = turtle.isStatementPending();
+                errors += reportErrors(script, statementLine, turtle, diagnostics);
+            }
+
+            turtle.flushStatement();
+            errors += reportErrors(script, statementLine, turtle, diagnostics);
+        }
+        return errors;
+    }
+
+    private static int reportErrors(File script, int line, AbstractTurtle turtle, DiagnosticsCollector diagnostics) {
+        int errors = turtle.getErrors().size();
+        for (String error : turtle.getErrors()) {
+            diagnostics.report(DiagnosticsCollector.Severity.ERROR, script.getName(), line, error);
+        }
+        turtle.clearErrors();
+        return errors;
+    }
+
+    /**
+     * Run a binary script straight from the mapped file
+     * Errors are reported with the instruction number, as binary scripts have no lines
+     */
+    private static int runBinaryScript(File script, AbstractTurtle turtle, DiagnosticsCollector diagnostics) throws IOException {
+        BinaryScript binary = BinaryScriptFormat.map(script.toPath());
+        int errors = 0;
+        int instruction = 0;
+        int offset = 0;
+        while (offset < binary.size()) {
+            instruction++;
+            int next = binary.next(offset);
+            turtle.run(binary, offset, next);
+            errors += reportErrors(script, instruction, turtle, diagnostics);
+            offset = next;
+        }
+        return errors;
+    }
+
+    private static File outputFor(File script, File outputDir, String extension) {
+        String name = script.getName();
+        int dot = name.lastIndexOf('.');
+        String outputName = (dot > 0 ? name.substring(0, dot) : name) + extension;
+        File dir = outputDir != null ? outputDir : script.getAbsoluteFile().getParentFile();
+        return new File(dir, outputName);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java BatchRenderer [-w width] [-h height] [-t tileSize] [-f png|svg] [-o outputDir] [-l logFile] script.txt ...");
+    }
+}
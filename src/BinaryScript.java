@@ -0,0 +1,155 @@
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+
+/**
+ * A command script in the binary format, read straight from a buffer such as a mapped file
+ * Each instruction is a one byte opcode followed by its operands as zigzag varints.
+ * Only the constant strings are decoded when the script is opened, see BinaryScriptFormat
+ */
+public final class BinaryScript {
+
+    private final ByteBuffer code;
+    private final String[] constants;
+    private final int instructionCount;
+
+    /**
+     * @param code Instruction bytes, from index 0 up to the limit
+     * @param constants Strings referred to by OP_COMMAND and OP_INVALID
+     * @param instructionCount Number of instructions in the code, as recorded in the header
+     */
+    BinaryScript(ByteBuffer code, String[] constants, int instructionCount) {
+        this.code = code;
+        this.constants = constants;
+        this.instructionCount = instructionCount;
+    }
+
+    /**
+     * Number of bytes of code
+     */
+    public int size() {
+        return code.limit();
+    }
+
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    public String getConstant(int index) {
+        return constants[index];
+    }
+
+    public int getConstantCount() {
+        return constants.length;
+    }
+
+    /**
+     * Opcode of the instruction starting at a byte offset
+     */
+    public int getOpcode(int offset) {
+        int opcode = code.get(offset) & 0xFF;
+        if (!CompiledScript.isSimpleOpcode(opcode)) {
+            throw new IllegalStateException("Unknown opcode " + opcode + " at byte " + offset);
+        }
+        return opcode;
+    }
+
+    /**
+     * Decode the operands of the instruction at a byte offset
+     * @param operands Receives the operands from index 0, must hold at least CompiledScript.MAX_ARITY
+     * @return Offset of the next instruction
+     */
+    public int decodeOperands(int offset, int[] operands) {
+        int arity = CompiledScript.arity(getOpcode(offset));
+        int position = offset + 1;
+        for (int i = 0; i < arity; i++) {
+            int raw = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = code.get(position++);
+                raw |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            operands[i] = BinaryScriptFormat.unzigzag(raw);
+        }
+        return position;
+    }
+
+    /**
+     * Offset of the instruction after the one at a byte offset
+     */
+    public int next(int offset) {
+        int position = offset + 1;
+        for (int i = CompiledScript.arity(getOpcode(offset)); i > 0; i--) {
+            while ((code.get(position++) & 0x80) != 0) {
+                // Skip continuation bytes
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Text form of the instruction at a byte offset, which compiles back to the same instruction
+     */
+    public String toCommandText(int offset) {
+        int[] operands = new int[CompiledScript.MAX_ARITY];
+        decodeOperands(offset, operands);
+        return BinaryScriptFormat.commandText(getOpcode(offset), operands, 0, this::getConstant);
+    }
+
+    /**
+     * Append the text of each instruction from one byte offset up to another, one per line
+     * @param operands Scratch space for decoding, must hold at least CompiledScript.MAX_ARITY
+     */
+    public void appendCommandText(int from, int to, int[] operands, StringBuilder out) {
+        IntFunction<String> constantText = this::getConstant;
+        int offset = from;
+        while (offset < to) {
+            int opcode = getOpcode(offset);
+            offset = decodeOperands(offset, operands);
+            BinaryScriptFormat.appendCommandText(out, opcode, operands, 0, constantText).append('\n');
+        }
+    }
+
+    /**
+     * Decode the whole script into an in-memory CompiledScript, e.g. to keep it after the file is closed
+     */
+    public CompiledScript toCompiledScript() {
+        CompiledScript script = new CompiledScript(Math.max(1, instructionCount * 2));
+        int[] operands = new int[CompiledScript.MAX_ARITY];
+        int offset = 0;
+        while (offset < size()) {
+            int opcode = getOpcode(offset);
+            offset = decodeOperands(offset, operands);
+            switch (opcode) {
+                case CompiledScript.OP_COMMAND:
+                    script.emit(opcode, script.addConstant(constants[operands[0]]));
+                    break;
+                case CompiledScript.OP_INVALID:
+                    script.emit(opcode, script.addConstant(constants[operands[0]]), script.addConstant(constants[operands[1]]));
+                    break;
+                default:
+                    emit(script, opcode, operands);
+                    break;
+            }
+        }
+        return script;
+    }
+
+    private static void emit(CompiledScript script, int opcode, int[] operands) {
+        switch (CompiledScript.arity(opcode)) {
+            case 0:
+                script.emit(opcode);
+                break;
+            case 1:
+                script.emit(opcode, operands[0]);
+                break;
+            case 2:
+                script.emit(opcode, operands[0], operands[1]);
+                break;
+            default:
+                script.emit(opcode, operands[0], operands[1], operands[2]);
+                break;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
+
+/**
+ * Reads and writes command scripts in a compact binary form
+ * Layout, all integers big endian:
+ *   header     magic "TBS1", version (short), flags (short), instruction count, constant count, code length in bytes
+ *   constants  for each constant, its UTF-8 length as a varint followed by the bytes
+ *   code       for each instruction, the opcode as one byte followed by its operands as zigzag varints
+ * Files are written through a FileChannel and opened by mapping them, so running one decodes
+ * straight from the page cache. Converting text to binary and back gives text that compiles to
+ * the same instructions, with named colours written as pencolour
+ */
+public final class BinaryScriptFormat {
+
+    /** "TBS1" in ASCII */
+    public static final int MAGIC = 0x54425331;
+    public static final short VERSION = 1;
+    public static final String EXTENSION = "tbs";
+
+    private static final int HEADER_SIZE = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Opcode byte plus three operands of up to five varint bytes each */
+    private static final int MAX_INSTRUCTION_BYTES = 1 + CompiledScript.MAX_ARITY * 5;
+
+    private BinaryScriptFormat() {
+    }
+
+    /**
+     * Check the magic number at the start of a file
+     */
+    public static boolean isBinaryScript(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // Keep reading until the four bytes are in or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Write a compiled script, replacing the file if it exists
+     * Only single commands can be stored; jumps count ints, which mean nothing in a varint encoding
+     */
+    public static void write(CompiledScript script, Path path) throws IOException {
+        for (int pc = 0; pc < script.size(); pc = script.next(pc)) {
+            if (!CompiledScript.isSimpleOpcode(script.getCode()[pc])) {
+                throw new IOException("Scripts with repeat, procedures or variables can only be saved as text");
+            }
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.position(HEADER_SIZE);
+
+            for (int i = 0; i < script.getConstantCount(); i++) {
+                byte[] bytes = script.getConstant(i).getBytes(StandardCharsets.UTF_8);
+                ensureRoom(channel, buffer, 5);
+                putVarint(buffer, bytes.length);
+                if (bytes.length > buffer.remaining()) {
+                    drain(channel, buffer);
+                    writeFully(channel, ByteBuffer.wrap(bytes));
+                } else {
+                    buffer.put(bytes);
+                }
+            }
+
+            long codeStart = channel.position() + buffer.position();
+            int[] code = script.getCode();
+            int pc = 0;
+            while (pc < script.size()) {
+                ensureRoom(channel, buffer, MAX_INSTRUCTION_BYTES);
+                int opcode = code[pc];
+                buffer.put((byte) opcode);
+                for (int i = 1; i <= CompiledScript.arity(opcode); i++) {
+                    putVarint(buffer, zigzag(code[pc + i]));
+                }
+                pc = script.next(pc);
+            }
+            drain(channel, buffer);
+
+            long codeLength = channel.position() - codeStart;
+            if (codeLength > Integer.MAX_VALUE) {
+                throw new IOException("Script is too large for the binary format");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                .putInt(script.getInstructionCount()).putInt(script.getConstantCount()).putInt((int) codeLength);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+    /**
+     * Map a binary script file into memory
+     * The mapping stays valid after this returns, the channel is only needed to create it
+     */
+    public static BinaryScript map(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Script file is too large to map");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary command script");
+        }
+        short version = mapped.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary script version " + version);
+        }
+        int instructionCount = mapped.getInt(8);
+        int constantCount = mapped.getInt(12);
+        int codeLength = mapped.getInt(16);
+
+        try {
+            mapped.position(HEADER_SIZE);
+            String[] constants = new String[constantCount];
+            for (int i = 0; i < constantCount; i++) {
+                byte[] bytes = new byte[getVarint(mapped)];
+                mapped.get(bytes);
+                constants[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            ByteBuffer code = mapped.slice();
+            if (code.limit() < codeLength) {
+                throw new IOException("Binary command script is truncated");
+            }
+            code.limit(codeLength);
+            return new BinaryScript(code, constants, instructionCount);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt binary command script: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write a binary script as text, one command per line
+     */
+    public static void writeText(BinaryScript script, Writer out) throws IOException {
+        int[] operands = new int[CompiledScript.MAX_ARITY];
+        IntFunction<String> constants = script::getConstant;
+        int offset = 0;
+        while (offset < script.size()) {
+            int opcode = script.getOpcode(offset);
+            offset = script.decodeOperands(offset, operands);
+            out.write(commandText(opcode, operands, 0, constants));
+            out.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Command text that ScriptCompiler turns back into the given instruction
+     * OP_COMMAND and OP_INVALID give back the line exactly as it was compiled
+     */
+    public static String commandText(int opcode, int[] operands, int at, IntFunction<String> constants) {
+        return appendCommandText(new StringBuilder(), opcode, operands, at, constants).toString();
+    }
+
+    /**
+     * Append the command text of an instruction, see commandText
+     * @return The builder, appended to
+     */
+    public static StringBuilder appendCommandText(StringBuilder out, int opcode, int[] operands, int at,
+                                                  IntFunction<String> constants) {
+        switch (opcode) {
+            case CompiledScript.OP_PENUP:
+                return out.append("penup");
+            case CompiledScript.OP_PENDOWN:
+                return out.append("pendown");
+            case CompiledScript.OP_LEFT:
+                return out.append("left ").append(operands[at]);
+            case CompiledScript.OP_RIGHT:
+                return out.append("right ").append(operands[at]);
+            case CompiledScript.OP_MOVE:
+                return out.append("move ").append(operands[at]);
+            case CompiledScript.OP_REVERSE:
+                return out.append("reverse ").append(operands[at]);
+            case CompiledScript.OP_PENCOLOUR:
+                int rgb = operands[at];
+                return out.append("pencolour ").append((rgb >> 16) & 0xFF).append(',')
+                    .append((rgb >> 8) & 0xFF).append(',').append(rgb & 0xFF);
+            case CompiledScript.OP_PENWIDTH:
+                return out.append("penwidth ").append(operands[at]);
+            case CompiledScript.OP_SQUARE:
+                return out.append("square ").append(operands[at]);
+            case CompiledScript.OP_TRIANGLE:
+                return out.append("triangle ").append(operands[at]);
+            case CompiledScript.OP_TRIANGLE3:
+                return out.append("triangle ").append(operands[at]).append(',')
+                    .append(operands[at + 1]).append(',').append(operands[at + 2]);
+            case CompiledScript.OP_STAR:
+                return out.append("star ").append(operands[at]);
+            case CompiledScript.OP_CIRCLE:
+                return out.append("circle ").append(operands[at]);
+            case CompiledScript.OP_HEXAGON:
+                return out.append("hexagon ").append(operands[at]);
+            case CompiledScript.OP_RESET:
+                return out.append("reset");
+            case CompiledScript.OP_CLEAR:
+                return out.append("clear");
+            case CompiledScript.OP_COMMAND:
+            case CompiledScript.OP_INVALID:
+                return out.append(constants.apply(operands[at]));
+            default:
+                throw new IllegalStateException("Unknown opcode " + opcode);
+        }
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(channel, buffer);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Convert a script between the text and binary formats, picking the direction from the input
+     * Usage: java BinaryScriptFormat input output
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java BinaryScriptFormat <input.txt|input.tbs> <output>");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+
+        try {
+            if (isBinaryScript(input)) {
+                try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                    writeText(map(input), writer);
+                }
+            } else {
+                CompiledScript script;
+                try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                    script = new ScriptCompiler().compile(reader);
+                }
+                write(script, output);
+            }
+        } catch (IOException e) {
+            System.err.println("Error converting " + input + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
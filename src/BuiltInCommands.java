@@ -0,0 +1,105 @@
+import java.awt.Color;
+
+/**
+ * The drawing and programming commands every turtle understands, in or out of the GUI
+ * Drawing commands have no handler; ScriptCompiler turns each into the instruction it is
+ * registered with. The programming words are compiled as statements and are registered for
+ * their help text and typo suggestions only
+ */
+public final class BuiltInCommands {
+
+    private BuiltInCommands() {
+    }
+
+    /**
+     * A registry holding just the built in commands, for turtles without a GUI
+     */
+    public static CommandRegistry newRegistry() {
+        CommandRegistry registry = new CommandRegistry();
+        registerDrawing(registry);
+        registerProgramming(registry);
+        return registry;
+    }
+
+    /**
+     * Pen, movement, colour, shape and canvas commands, each section in help order
+     */
+    public static void registerDrawing(CommandRegistry registry) {
+        registry.register(new Command("penup", "Lift pen up", "Pen", null)
+            .compiledTo(CompiledScript.OP_PENUP).withAliases("penp", "penu"));
+        registry.register(new Command("pendown", "Put pen down", "Pen", null)
+            .compiledTo(CompiledScript.OP_PENDOWN).withAliases("pen", "pend"));
+        registry.register(new Command("pencolour", "pencolour <red>,<green>,<blue>", "Set custom RGB pen color",
+            "Pen", Command.ParameterType.INTEGERS, 3, 3, null)
+            .compiledTo(CompiledScript.OP_PENCOLOUR).withAliases("penc", "pencolor"));
+        registry.register(new Command("penwidth", "penwidth <width>", "Set pen width",
+            "Pen", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_PENWIDTH).withAliases("penw"));
+
+        registry.register(new Command("left", "left <degrees>", "Turn left",
+            "Movement", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_LEFT).withAliases("lft"));
+        registry.register(new Command("right", "right <degrees>", "Turn right",
+            "Movement", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_RIGHT).withAliases("rght"));
+        registry.register(new Command("move", "move <distance>", "Move forward",
+            "Movement", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_MOVE).withAliases("mov", "forward"));
+        registry.register(new Command("reverse", "reverse <distance>", "Move backward",
+            "Movement", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_REVERSE).withAliases("rev", "back", "backwards"));
+
+        registerColour(registry, "black", Color.BLACK, "blk");
+        registerColour(registry, "white", Color.WHITE, "wht");
+        registerColour(registry, "red", Color.RED, "rd");
+        registerColour(registry, "green", Color.GREEN, "grn");
+        registerColour(registry, "blue", Color.BLUE, "blu");
+        registerColour(registry, "yellow", Color.YELLOW);
+        registerColour(registry, "orange", Color.ORANGE, "orng");
+        registerColour(registry, "purple", new Color(128, 0, 128), "purp");
+        registerColour(registry, "pink", Color.PINK);
+        registerColour(registry, "cyan", Color.CYAN);
+
+        registry.register(new Command("square", "square <size>", "Draw square and return to original position",
+            "Shapes", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_SQUARE).withAliases("sqr", "squ", "squar", "suqare"));
+        registry.register(new Command("triangle", "triangle <size> | <side1>,<side2>,<side3>", "Draw equilateral or any triangle",
+            "Shapes", Command.ParameterType.INTEGERS, 1, 3, null)
+            .compiledTo(CompiledScript.OP_TRIANGLE).withAliases("tri"));
+        registry.register(new Command("star", "star <size>", "Draw a star",
+            "Shapes", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_STAR));
+        registry.register(new Command("circle", "circle <radius>", "Draw a circle",
+            "Shapes", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_CIRCLE).withAliases("cir", "circ"));
+        registry.register(new Command("hexagon", "hexagon <size>", "Draw a hexagon",
+            "Shapes", Command.ParameterType.INTEGERS, 1, 1, null)
+            .compiledTo(CompiledScript.OP_HEXAGON).withAliases("hex"));
+
+        registry.register(new Command("reset", "Reset position, pen color and width", "Canvas", null)
+            .compiledTo(CompiledScript.OP_RESET));
+        // In the GUI clearing may ask about saving first
+        registry.register(new Command("clear", "Clear the canvas", "Canvas", null)
+            .compiledTo(CompiledScript.OP_CLEAR).onEventThread());
+    }
+
+    /**
+     * repeat, to and make, listed last in the help
+     */
+    public static void registerProgramming(CommandRegistry registry) {
+        registry.register(new Command("repeat", "repeat <count> [ <commands> ]", "Run commands a number of times, repcount counts up from 1",
+            "Programming", Command.ParameterType.TEXT, 1, 1, null));
+        registry.register(new Command("to", "to <name> :<parameter> ... [ <commands> ] | end", "Define a procedure, called as <name> <values>",
+            "Programming", Command.ParameterType.TEXT, 1, 1, null));
+        registry.register(new Command("make", "make <name> <value>", "Set a variable, read back as :<name>",
+            "Programming", Command.ParameterType.TEXT, 1, 1, null));
+    }
+
+    /**
+     * Register a command that sets the pen to a fixed colour
+     */
+    private static void registerColour(CommandRegistry registry, String name, Color colour, String... aliases) {
+        registry.register(new Command(name, "Set pen color", "Colors", null)
+            .compiledTo(CompiledScript.OP_PENCOLOUR, colour.getRGB() & 0xFFFFFF).withAliases(aliases));
+    }
+}
@@ -0,0 +1,150 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Canvases kept for reuse, so sessions that come and go do not each allocate a new image
+ * An image given back waits in the pool for the next canvas of the same size. Every image
+ * the pool has made counts against its memory budget, whether in use or waiting; when a new
+ * one would not fit, the images that have waited longest are dropped first, and if that is
+ * not enough no canvas is given out
+ * Thread safe
+ */
+public class CanvasPool {
+
+    private final Map<Long, Deque<BufferedImage>> free = new LinkedHashMap<>();
+    private long memoryBudget;
+    private long memoryUsed;
+    private int freeCount;
+
+    /**
+     * @param memoryBudget Most bytes all the images together may hold
+     */
+    public CanvasPool(long memoryBudget) {
+        setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * Take a canvas, reusing a waiting one of the same size if there is one
+     * Its pixels are whatever was last drawn on it
+     * @return The canvas, or null if a new one would go over the memory budget
+     */
+    public synchronized BufferedImage acquire(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Canvas size must be positive, got " + width + "x" + height);
+        }
+        Long key = sizeKey(width, height);
+        Deque<BufferedImage> waiting = free.get(key);
+        if (waiting != null) {
+            BufferedImage image = waiting.pollLast();
+            freeCount--;
+            if (waiting.isEmpty()) {
+                free.remove(key);
+            }
+            return image;
+        }
+
+        long bytes = bytesFor(width, height);
+        while (memoryUsed + bytes > memoryBudget && freeCount > 0) {
+            dropOldestFree();
+        }
+        if (memoryUsed + bytes > memoryBudget) {
+            return null;
+        }
+        memoryUsed += bytes;
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Give a canvas back for reuse; it must not be drawn on afterwards
+     */
+    public synchronized void release(BufferedImage image) {
+        Long key = sizeKey(image.getWidth(), image.getHeight());
+        // Removed and put back so sizes stay ordered by when they were last given back
+        Deque<BufferedImage> waiting = free.remove(key);
+        if (waiting == null) {
+            waiting = new ArrayDeque<>();
+        }
+        waiting.addLast(image);
+        free.put(key, waiting);
+        freeCount++;
+        trimToBudget();
+    }
+
+    /**
+     * Drop every waiting canvas
+     */
+    public synchronized void trim() {
+        while (freeCount > 0) {
+            dropOldestFree();
+        }
+    }
+
+    /**
+     * Set the most bytes the images may hold, dropping waiting canvases if they hold more
+     * Canvases in use are never taken back, so the pool can stay over a lowered budget until they are released
+     */
+    public synchronized void setMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Memory budget cannot be negative");
+        }
+        memoryBudget = bytes;
+        trimToBudget();
+    }
+
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Bytes held by every image the pool has made and not dropped, in use or waiting
+     */
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * Canvases waiting to be reused
+     */
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * Bytes one canvas of this size holds, at one int per pixel
+     */
+    public static long bytesFor(int width, int height) {
+        return (long) width * height * Integer.BYTES;
+    }
+
+    private void trimToBudget() {
+        while (memoryUsed > memoryBudget && freeCount > 0) {
+            dropOldestFree();
+        }
+    }
+
+    /**
+     * Drop the canvas that has waited longest, of the size given back least recently
+     */
+    private void dropOldestFree() {
+        Iterator<Map.Entry<Long, Deque<BufferedImage>>> sizes = free.entrySet().iterator();
+        Map.Entry<Long, Deque<BufferedImage>> oldest = sizes.next();
+        oldest.getValue().pollFirst();
+        if (oldest.getValue().isEmpty()) {
+            sizes.remove();
+        }
+        freeCount--;
+        memoryUsed -= bytesFor(oldest.getKey());
+    }
+
+    private static Long sizeKey(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+
+    private static long bytesFor(long sizeKey) {
+        return bytesFor((int) (sizeKey >>> 32), (int) sizeKey);
+    }
+}
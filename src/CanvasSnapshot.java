@@ -0,0 +1,205 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The pixels of an image at one moment, compressed to save memory
+ * A drawing is mostly long runs of one colour, so the pixels are run length encoded first,
+ * which is cheap and already shrinks them many times, and the runs are then deflated at the
+ * fastest level. Images that keep one int per pixel are copied as they are stored, without
+ * converting each pixel to and from ARGB. Taking or restoring a snapshot of a window-sized
+ * canvas takes a few milliseconds and it usually holds a few percent of the raw pixels
+ */
+public class CanvasSnapshot {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int width;
+    private final int height;
+    private final int type;
+    /** Whether the pixels are as the image type stores them rather than ARGB */
+    private final boolean stored;
+    /** Ints in the run length encoding before it was deflated */
+    private final int encodedLength;
+    private final byte[] compressed;
+
+    private CanvasSnapshot(int width, int height, int type, boolean stored, int encodedLength, byte[] compressed) {
+        this.width = width;
+        this.height = height;
+        this.type = type;
+        this.stored = stored;
+        this.encodedLength = encodedLength;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Copy and compress every pixel of an image
+     */
+    public static CanvasSnapshot capture(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean stored = isIntPerPixel(image.getType());
+        int[] pixels = stored
+            ? (int[]) image.getRaster().getDataElements(0, 0, width, height, null)
+            : image.getRGB(0, 0, width, height, null, 0, width);
+        int[] runs = new int[pixels.length + 2];
+        int encodedLength = encodeRuns(pixels, runs);
+        ByteBuffer bytes = ByteBuffer.allocate(encodedLength * Integer.BYTES);
+        bytes.asIntBuffer().put(runs, 0, encodedLength);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes.array());
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            int type = stored ? image.getType() : BufferedImage.TYPE_INT_ARGB;
+            return new CanvasSnapshot(width, height, type, stored, encodedLength, output.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Put the pixels back into an image of the same size
+     * @throws IllegalArgumentException If the image is a different size, see fits()
+     */
+    public void restoreInto(BufferedImage image) {
+        if (!fits(image)) {
+            throw new IllegalArgumentException("Snapshot is " + width + "x" + height
+                + " but the image is " + image.getWidth() + "x" + image.getHeight());
+        }
+        if (stored && image.getType() == type) {
+            image.getRaster().setDataElements(0, 0, width, height, decompress());
+        } else {
+            int[] argb = toImage().getRGB(0, 0, width, height, null, 0, width);
+            image.setRGB(0, 0, width, height, argb, 0, width);
+        }
+    }
+
+    /**
+     * A new image holding the pixels, e.g. when the canvas has been replaced by one of another size
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, type);
+        image.getRaster().setDataElements(0, 0, width, height, decompress());
+        return image;
+    }
+
+    private static boolean isIntPerPixel(int type) {
+        return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+            || type == BufferedImage.TYPE_INT_ARGB_PRE || type == BufferedImage.TYPE_INT_BGR;
+    }
+
+    public boolean fits(BufferedImage image) {
+        return image.getWidth() == width && image.getHeight() == height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Bytes held by the compressed pixels
+     */
+    public int getCompressedSize() {
+        return compressed.length;
+    }
+
+    /**
+     * A positive count is followed by the one pixel it repeats, a negative count by that many
+     * different pixels. Runs shorter than three are kept with their neighbours as literals
+     * @param runs At least two longer than pixels, the most the encoding can take
+     * @return Ints written to runs
+     */
+    static int encodeRuns(int[] pixels, int[] runs) {
+        int length = 0;
+        int i = 0;
+        while (i < pixels.length) {
+            int run = runLength(pixels, i);
+            if (run >= 3) {
+                runs[length++] = run;
+                runs[length++] = pixels[i];
+                i += run;
+                continue;
+            }
+            int header = length++;
+            int start = i;
+            while (i < pixels.length && runLength(pixels, i) < 3) {
+                runs[length++] = pixels[i++];
+            }
+            runs[header] = start - i;
+        }
+        return length;
+    }
+
+    private static int runLength(int[] pixels, int from) {
+        int end = from + 1;
+        while (end < pixels.length && pixels[end] == pixels[from]) {
+            end++;
+        }
+        return end - from;
+    }
+
+    static void decodeRuns(int[] runs, int length, int[] pixels) {
+        int out = 0;
+        int i = 0;
+        while (i < length) {
+            int count = runs[i++];
+            if (count == 0) {
+                throw new IllegalArgumentException("Run length encoding holds an empty run");
+            }
+            if (count > 0) {
+                int end = out + count;
+                int pixel = runs[i++];
+                while (out < end) {
+                    pixels[out++] = pixel;
+                }
+            } else {
+                System.arraycopy(runs, i, pixels, out, -count);
+                i -= count;
+                out -= count;
+            }
+        }
+    }
+
+    private int[] decompress() {
+        byte[] bytes = new byte[encodedLength * Integer.BYTES];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int offset = 0;
+            while (offset < bytes.length && !inflater.finished()) {
+                int read = inflater.inflate(bytes, offset, bytes.length - offset);
+                if (read == 0 && inflater.needsInput()) {
+                    break;
+                }
+                offset += read;
+            }
+            if (offset != bytes.length) {
+                throw new IllegalStateException("Snapshot is incomplete");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Snapshot is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        int[] runs = new int[encodedLength];
+        IntBuffer ints = ByteBuffer.wrap(bytes).asIntBuffer();
+        ints.get(runs);
+        int[] pixels = new int[width * height];
+        decodeRuns(runs, encodedLength, pixels);
+        return pixels;
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A command that can be typed into TurtleGraphics, with the metadata needed to
+ * validate its parameters, list it in the help and suggest it for typos
+ */
+public class Command {
+
+    /**
+     * What kind of parameter a command takes
+     */
+    public enum ParameterType {
+        /** No parameter; anything after the name is ignored */
+        NONE,
+        /** Comma separated whole numbers, e.g. 'move 100' or 'pencolour 255,0,0'; with no minimum they may be left out, e.g. 'undo' */
+        INTEGERS,
+        /** Free text checked by the handler itself, e.g. 'save image'; with no minimum it may be left out, e.g. 'metrics' */
+        TEXT
+    }
+
+    private final String name;
+    private final String usage;
+    private final String description;
+    private final String section;
+    private final ParameterType parameterType;
+    private final int minArguments;
+    private final int maxArguments;
+    private final CommandHandler handler;
+    private final List<String> aliases = new ArrayList<>();
+    private boolean eventThreadOnly;
+    private int opcode = -1;
+    private int[] operands = new int[0];
+
+    /**
+     * Create a command that takes no parameter
+     */
+    public Command(String name, String description, String section, CommandHandler handler) {
+        this(name, name, description, section, ParameterType.NONE, 0, 0, handler);
+    }
+
+    /**
+     * @param name Name typed by the user, in lower case
+     * @param usage How the command is written in the help, e.g. "move <distance>"
+     * @param description One line shown next to the usage in the help
+     * @param section Help heading the command is listed under
+     * @param parameterType Kind of parameter the command takes
+     * @param minArguments Fewest comma separated values allowed for INTEGERS; for TEXT 1 if the text
+     *                     must be given, and for either 0 if the parameter may be left out
+     * @param maxArguments Most comma separated values allowed for INTEGERS
+     * @param handler Code to run once the parameter has been validated; null for a command
+     *                ScriptCompiler turns into an instruction, which never runs a handler
+     */
+    public Command(String name, String usage, String description, String section,
+                   ParameterType parameterType, int minArguments, int maxArguments, CommandHandler handler) {
+        this.name = name;
+        this.usage = usage;
+        this.description = description;
+        this.section = section;
+        this.parameterType = parameterType;
+        this.minArguments = minArguments;
+        this.maxArguments = maxArguments;
+        this.handler = handler;
+    }
+
+    /**
+     * Misspellings or alternative names that should be corrected to this command
+     * @return This command, so aliases can be added where it is registered
+     */
+    public Command withAliases(String... names) {
+        Collections.addAll(aliases, names);
+        return this;
+    }
+
+    /**
+     * Mark the command as one that opens windows or dialogs, so it is always run on the Event Dispatch Thread
+     * @return This command
+     */
+    public Command onEventThread() {
+        eventThreadOnly = true;
+        return this;
+    }
+
+    /**
+     * Mark the command as one ScriptCompiler turns into an instruction instead of running a handler
+     * @param opcode Instruction from CompiledScript
+     * @param operands Fixed operands, e.g. the colour 'red' sets; if none are given they are read
+     *                 from the parameter
+     * @return This command
+     */
+    public Command compiledTo(int opcode, int... operands) {
+        this.opcode = opcode;
+        this.operands = operands.clone();
+        return this;
+    }
+
+    /**
+     * Check the parameter against this command's metadata
+     * @return An error message, or null if the parameter is acceptable
+     */
+    public String validate(String parameter) {
+        if (parameterType == ParameterType.NONE) {
+            return null;
+        }
+        if (parameter == null || parameter.trim().isEmpty()) {
+            return minArguments == 0 ? null : "Missing parameter for '" + name + "'. Usage: " + usage;
+        }
+        if (parameterType == ParameterType.TEXT) {
+            return null;
+        }
+
+        String[] values = parameter.split(",");
+        if (values.length < minArguments || values.length > maxArguments) {
+            return "Invalid number of parameters. Usage: " + usage;
+        }
+        for (String value : values) {
+            try {
+                Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                return "Parameter for '" + name + "' must be a number. Usage: " + usage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run the handler without validating the parameter again
+     */
+    public void execute(String parameter) {
+        if (handler == null) {
+            throw new IllegalStateException("'" + name + "' is compiled to an instruction and has no handler");
+        }
+        handler.execute(parameter);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUsage() {
+        return usage;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getSection() {
+        return section;
+    }
+
+    public ParameterType getParameterType() {
+        return parameterType;
+    }
+
+    public int getMinArguments() {
+        return minArguments;
+    }
+
+    public int getMaxArguments() {
+        return maxArguments;
+    }
+
+    /**
+     * Whether the command may be given without its parameter
+     */
+    public boolean isParameterOptional() {
+        return parameterType == ParameterType.NONE || minArguments == 0;
+    }
+
+    public boolean isEventThreadOnly() {
+        return eventThreadOnly;
+    }
+
+    /**
+     * @return The instruction ScriptCompiler turns the command into, or -1 if it runs its handler
+     */
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * @return Operands fixed when the command was registered, empty if they come from the parameter
+     */
+    public int[] getOperands() {
+        return operands.clone();
+    }
+
+    public List<String> getAliases() {
+        return Collections.unmodifiableList(aliases);
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs commands one at a time on a dedicated worker thread
+ * Commands wait in a bounded queue, so a producer that reads a script faster than it can be
+ * drawn is held back instead of filling the heap. cancel() drops everything still queued;
+ * the command that is running finishes and nothing after it runs
+ */
+public class CommandExecutor {
+
+    private final BlockingQueue<Entry> queue;
+    private final Thread worker;
+    private final AtomicLong generation = new AtomicLong();
+    private final Consumer<RuntimeException> errorHandler;
+    private volatile Runnable idleHandler;
+
+    /**
+     * @param name Name of the worker thread
+     * @param capacity Most commands waiting at once
+     * @param errorHandler Told about anything a command throws, on the worker thread
+     */
+    public CommandExecutor(String name, int capacity, Consumer<RuntimeException> errorHandler) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.errorHandler = errorHandler;
+        this.worker = new Thread(this::runLoop, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queue a command, waiting for space if the queue is full
+     * Called from the worker itself the command runs straight away, as waiting would deadlock
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        if (isWorkerThread()) {
+            task.run();
+            return;
+        }
+        queue.put(new Entry(task, generation.get(), false));
+    }
+
+    /**
+     * Queue a command without waiting
+     * @return False if the queue is full, in which case the command is not queued
+     */
+    public boolean trySubmit(Runnable task) {
+        if (isWorkerThread()) {
+            task.run();
+            return true;
+        }
+        return queue.offer(new Entry(task, generation.get(), false));
+    }
+
+    /**
+     * Queue work that must run even if the commands before it are cancelled, such as closing a progress dialog
+     */
+    public void submitAlways(Runnable task) throws InterruptedException {
+        if (isWorkerThread()) {
+            task.run();
+            return;
+        }
+        queue.put(new Entry(task, generation.get(), true));
+    }
+
+    /**
+     * Drop every queued command
+     * Commands submitted before this call are skipped even if their producer is still adding them
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        queue.removeIf(entry -> !entry.always);
+    }
+
+    /**
+     * Changes every time cancel() is called, so a producer can tell it should stop
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Run something on the worker whenever the queue runs empty, e.g. to finish work held back for batching
+     */
+    public void setIdleHandler(Runnable handler) {
+        this.idleHandler = handler;
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    public boolean isWorkerThread() {
+        return Thread.currentThread() == worker;
+    }
+
+    private void runLoop() {
+        while (true) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (entry.always || entry.generation == generation.get()) {
+                run(entry.task);
+            }
+            Runnable handler = idleHandler;
+            if (handler != null && queue.isEmpty()) {
+                run(handler);
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    private static final class Entry {
+        private final Runnable task;
+        private final long generation;
+        private final boolean always;
+
+        Entry(Runnable task, long generation, boolean always) {
+            this.task = task;
+            this.generation = generation;
+            this.always = always;
+        }
+    }
+}
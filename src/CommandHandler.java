@@ -0,0 +1,11 @@
+/**
+ * Code that runs a registered command
+ */
+@FunctionalInterface
+public interface CommandHandler {
+
+    /**
+     * @param parameter Everything after the command name, lowercased, or null if there was nothing
+     */
+    void execute(String parameter);
+}
@@ -0,0 +1,149 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * List model for the command history window
+ * Lines are kept in a fixed size ring buffer, so the oldest lines drop off once the cap is reached.
+ * Appends from any thread are queued and applied in one batch on the Event Dispatch Thread,
+ * which keeps the cost of a command constant however long the session gets
+ */
+public class CommandHistoryListModel extends AbstractListModel<String> {
+
+    private final String[] lines;
+    private int start;
+    private int size;
+
+    private List<String> pending = new ArrayList<>();
+    private boolean clearPending;
+    private boolean flushScheduled;
+
+    /**
+     * @param capacity Most lines kept for display
+     */
+    public CommandHistoryListModel(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    /**
+     * Queue a line to be added on the next flush
+     */
+    public void append(String line) {
+        synchronized (this) {
+            pending.add(line);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Queue several lines, each ended by a newline, to be added on the next flush
+     * They are split into Strings on the Event Dispatch Thread, and only as many as are kept
+     */
+    public void appendLines(String block) {
+        if (block.isEmpty()) {
+            return;
+        }
+        append(block);
+    }
+
+    /**
+     * Remove every line, including any still waiting to be added
+     */
+    public void clear() {
+        synchronized (this) {
+            pending.clear();
+            clearPending = true;
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[(start + index) % lines.length];
+    }
+
+    public int getCapacity() {
+        return lines.length;
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    /**
+     * Apply everything queued since the last flush and fire at most one event of each kind
+     */
+    private void flush() {
+        List<String> queued;
+        boolean clear;
+        synchronized (this) {
+            queued = pending;
+            pending = new ArrayList<>();
+            clear = clearPending;
+            clearPending = false;
+            flushScheduled = false;
+        }
+
+        if (clear && size > 0) {
+            int removed = size;
+            start = 0;
+            size = 0;
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        if (queued.isEmpty()) {
+            return;
+        }
+
+        List<String> batch = newestLines(queued, lines.length);
+
+        int skip = Math.max(0, batch.size() - lines.length);
+        int added = batch.size() - skip;
+        int overflow = Math.max(0, size + added - lines.length);
+        if (overflow > 0) {
+            for (int i = 0; i < overflow; i++) {
+                lines[(start + i) % lines.length] = null;
+            }
+            start = (start + overflow) % lines.length;
+            size -= overflow;
+            fireIntervalRemoved(this, 0, overflow - 1);
+        }
+
+        for (int i = skip; i < batch.size(); i++) {
+            lines[(start + size) % lines.length] = batch.get(i);
+            size++;
+        }
+        fireIntervalAdded(this, size - added, size - 1);
+    }
+
+    /**
+     * The newest queued lines, at most limit of them, oldest first
+     * Blocks from appendLines are only split as far back as lines are kept
+     */
+    private static List<String> newestLines(List<String> queued, int limit) {
+        ArrayDeque<String> newest = new ArrayDeque<>();
+        for (int i = queued.size() - 1; i >= 0 && newest.size() < limit; i--) {
+            String entry = queued.get(i);
+            if (!entry.endsWith("\n")) {
+                newest.addFirst(entry);
+                continue;
+            }
+            int end = entry.length() - 1;
+            while (end >= 0 && newest.size() < limit) {
+                int start = entry.lastIndexOf('\n', end - 1) + 1;
+                newest.addFirst(entry.substring(start, end));
+                end = start - 1;
+            }
+        }
+        return new ArrayList<>(newest);
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Holds the full command history without keeping every String on the heap
+ * Commands are stored as UTF-8 bytes in fixed size segments. Once more than a set number of
+ * segments are in memory the oldest one is appended to a temporary file, so memory stays
+ * bounded while forEachCommand still sees the whole history in order.
+ * The spill is written by a background thread, so add() never waits for the disk; a segment
+ * stays in memory, and is read from there, until it has been written.
+ * Thread safe. The store's lock guards the segments and counts and is never held during file
+ * I/O; spillLock guards the spill file and is always taken before the store's lock
+ */
+public class CommandHistoryStore {
+
+    private static final int DEFAULT_SEGMENT_SIZE = 4096;
+    private static final int DEFAULT_SEGMENTS_IN_MEMORY = 16;
+
+    private final int segmentSize;
+    private final int segmentsInMemory;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Object spillLock = new Object();
+    /** Guarded by spillLock */
+    private File spillFile;
+    /** Guarded by spillLock */
+    private FileOutputStream spillOutput;
+    /** Bytes of the spill file holding whole segments; guarded by spillLock */
+    private long spillLength;
+    /** A write failed and could not be cut back off the file, so nothing more is spilled; guarded by spillLock */
+    private boolean spillFailed;
+    private ExecutorService spillWriter;
+    /** Whether the spill writer has been asked to spill and has not finished yet */
+    private boolean spillQueued;
+    private long spilledCount;
+    private long memoryCount;
+
+    public CommandHistoryStore() {
+        this(DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENTS_IN_MEMORY);
+    }
+
+    /**
+     * @param segmentSize Commands per segment
+     * @param segmentsInMemory Segments kept in memory before the oldest is spilled to disk
+     */
+    public CommandHistoryStore(int segmentSize, int segmentsInMemory) {
+        this.segmentSize = segmentSize;
+        this.segmentsInMemory = segmentsInMemory;
+    }
+
+    /**
+     * Append a command to the history
+     * Once there are too many segments in memory the spill writer is asked to write out the
+     * oldest; if that fails they are kept in memory instead
+     */
+    public synchronized void add(String command) {
+        byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+        append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Append several commands, each ended by a newline, e.g. a batch of loaded instructions
+     * The whole batch is encoded at once rather than a String per command
+     */
+    public synchronized void addLines(CharSequence lines) {
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                append(bytes, start, i - start);
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Called holding the store's lock
+     */
+    private void append(byte[] command, int offset, int length) {
+        Segment current = segments.peekLast();
+        if (current == null || current.count == segmentSize) {
+            current = new Segment(segmentSize);
+            segments.addLast(current);
+            if (segments.size() > segmentsInMemory && !spillQueued) {
+                spillQueued = true;
+                if (spillWriter == null) {
+                    spillWriter = Executors.newSingleThreadExecutor(task -> {
+                        Thread thread = new Thread(task, "history-spill");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                spillWriter.execute(this::spillExcess);
+            }
+        }
+        current.add(command, offset, length);
+        memoryCount++;
+    }
+
+    /**
+     * Total number of commands, both in memory and on disk
+     */
+    public synchronized long size() {
+        return spilledCount + memoryCount;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Remove every command and empty the spill file
+     * A segment still waiting to be spilled is dropped rather than written
+     */
+    public void clear() {
+        synchronized (spillLock) {
+            synchronized (this) {
+                segments.clear();
+                memoryCount = 0;
+                spilledCount = 0;
+                spillQueued = false;
+            }
+            closeSpill();
+            if (spillFile != null) {
+                spillFile.delete();
+                spillFile = null;
+            }
+            spillLength = 0;
+            spillFailed = false;
+        }
+    }
+
+    /**
+     * Visit every command from oldest to newest
+     * Commands added while the visit runs are not visited; add() does not wait for it
+     */
+    public void forEachCommand(Consumer<String> action) throws IOException {
+        visitNewest(Long.MAX_VALUE, action);
+    }
+
+    /**
+     * Visit the newest commands, oldest first
+     * @param count Most commands to visit
+     */
+    public void forEachRecent(int count, Consumer<String> action) throws IOException {
+        visitNewest(count, action);
+    }
+
+    private void visitNewest(long count, Consumer<String> action) throws IOException {
+        // Held throughout so the spill file is neither written to nor deleted while it is read
+        synchronized (spillLock) {
+            long spilled;
+            List<Segment> inMemory = new ArrayList<>();
+            synchronized (this) {
+                spilled = spilledCount;
+                for (Segment segment : segments) {
+                    inMemory.add(segment.copy());
+                }
+            }
+            long skip = Math.max(0, spilled + countOf(inMemory) - count);
+
+            if (skip < spilled) {
+                readSpilled(spilled, skip, action);
+                skip = 0;
+            } else {
+                skip -= spilled;
+            }
+
+            for (Segment segment : inMemory) {
+                if (skip >= segment.count) {
+                    skip -= segment.count;
+                    continue;
+                }
+                segment.forEach((int) skip, action);
+                skip = 0;
+            }
+        }
+    }
+
+    /**
+     * Delete the spill file and stop the spill writer, the store is empty afterwards
+     */
+    public void close() {
+        clear();
+        synchronized (this) {
+            if (spillWriter != null) {
+                spillWriter.shutdown();
+                spillWriter = null;
+            }
+        }
+    }
+
+    /**
+     * Append the oldest segments to the spill file and drop them from memory, until few enough are left
+     * Runs on the spill writer. Segments the caller is still adding to are never spilled, as
+     * there is always at least one in memory
+     */
+    private void spillExcess() {
+        synchronized (spillLock) {
+            while (true) {
+                Segment oldest;
+                synchronized (this) {
+                    // Cleared meanwhile, caught up, or unable to spill
+                    if (!spillQueued || segments.size() <= segmentsInMemory || spillFailed) {
+                        spillQueued = false;
+                        return;
+                    }
+                    oldest = segments.peekFirst();
+                }
+                // Only this removes from the front of the deque, and clear() waits for spillLock,
+                // so the segment is still the oldest once it has been written
+                try {
+                    if (spillOutput == null) {
+                        if (spillFile == null) {
+                            spillFile = File.createTempFile("turtle-history", ".txt");
+                            spillFile.deleteOnExit();
+                        }
+                        spillOutput = new FileOutputStream(spillFile, true);
+                    }
+                    // Unbuffered: the segment is already one block, and a failed write is known here
+                    spillOutput.write(oldest.data, 0, oldest.used);
+                } catch (IOException e) {
+                    discardPartialWrite();
+                    // Keep the segments in memory rather than lose history; the next new segment tries again
+                    synchronized (this) {
+                        spillQueued = false;
+                    }
+                    return;
+                }
+                spillLength += oldest.used;
+                synchronized (this) {
+                    segments.removeFirst();
+                    memoryCount -= oldest.count;
+                    spilledCount += oldest.count;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cut the spill file back to the segments written whole, after a write failed part way
+     * Otherwise the segment, written again later, would follow its own first lines. If the file
+     * cannot be cut nothing more is spilled. Called holding spillLock
+     */
+    private void discardPartialWrite() {
+        if (spillOutput == null) {
+            return;
+        }
+        try {
+            spillOutput.getChannel().truncate(spillLength);
+        } catch (IOException e) {
+            spillFailed = true;
+        }
+    }
+
+    /**
+     * Called holding spillLock
+     * @param spilled Commands in the file to read, later ones may have been spilled since the caller looked
+     */
+    private void readSpilled(long spilled, long skip, Consumer<String> action) throws IOException {
+        if (spilled == 0) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(spillFile), StandardCharsets.UTF_8))) {
+            String line;
+            long index = 0;
+            while (index < spilled && (line = reader.readLine()) != null) {
+                if (index >= skip) {
+                    action.accept(line);
+                }
+                index++;
+            }
+        }
+    }
+
+    private static long countOf(List<Segment> segments) {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    private void closeSpill() {
+        if (spillOutput != null) {
+            try {
+                spillOutput.close();
+            } catch (IOException e) {
+                // Nothing useful to do, the file is deleted next
+            }
+            spillOutput = null;
+        }
+    }
+
+    /**
+     * A block of commands stored back to back as newline terminated UTF-8,
+     * the same layout as the spill file so a segment is spilled with one write
+     */
+    private static class Segment {
+        private byte[] data = new byte[256];
+        private final int[] ends;
+        private int used;
+        private int count;
+
+        Segment(int capacity) {
+            this.ends = new int[capacity];
+        }
+
+        private Segment(byte[] data, int[] ends, int used, int count) {
+            this.data = data;
+            this.ends = ends;
+            this.used = used;
+            this.count = count;
+        }
+
+        /**
+         * A view of the commands added so far, safe to read after the store's lock is let go
+         * Bytes and ends that are already written never change, and a full array is replaced rather than grown,
+         * so the view shares the arrays
+         */
+        Segment copy() {
+            return new Segment(data, ends, used, count);
+        }
+
+        void add(byte[] command, int offset, int length) {
+            int needed = used + length + 1;
+            if (needed > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, needed));
+            }
+            System.arraycopy(command, offset, data, used, length);
+            used += length;
+            data[used++] = '\n';
+            ends[count++] = used;
+        }
+
+        void forEach(int from, Consumer<String> action) {
+            int offset = from == 0 ? 0 : ends[from - 1];
+            for (int i = from; i < count; i++) {
+                action.accept(new String(data, offset, ends[i] - offset - 1, StandardCharsets.UTF_8));
+                offset = ends[i];
+            }
+        }
+    }
+}
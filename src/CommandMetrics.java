@@ -0,0 +1,364 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where the time goes: per command call counts, errors and latency histograms, the
+ * throughput of loaded scripts, how long repaints take and how well the shape cache works
+ * Recording is safe from any thread and allocates nothing once a command has been seen.
+ * The numbers can be read as text with the 'metrics' command, through JMX, or from a file
+ * rewritten on a fixed interval
+ */
+public class CommandMetrics implements CommandMetricsMBean {
+
+    /** Name recorded for lines that match no command */
+    public static final String UNKNOWN_COMMAND = "(unknown)";
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Map<String, CommandStats> commands = new ConcurrentHashMap<>();
+    private final CommandStats[] opcodeStats = new CommandStats[CompiledScript.OP_INVALID + 1];
+    private final LatencyHistogram repaints = new LatencyHistogram();
+    private final AtomicLong scriptCount = new AtomicLong();
+    private final AtomicLong scriptCommands = new AtomicLong();
+    private final AtomicLong scriptNanos = new AtomicLong();
+    private volatile double lastScriptRate;
+
+    private ScheduledExecutorService dumpExecutor;
+    private ScheduledFuture<?> dumpTask;
+    private ObjectName registeredName;
+
+    public CommandMetrics() {
+        for (int opcode = 0; opcode < opcodeStats.length; opcode++) {
+            String name = CompiledScript.opcodeName(opcode);
+            if (name != null) {
+                opcodeStats[opcode] = statsFor(name);
+            }
+        }
+    }
+
+    /**
+     * Record one run of a command
+     * @param name Registered command name
+     * @param failed Whether the command reported an error
+     */
+    public void record(String name, long nanos, boolean failed) {
+        statsFor(name).record(nanos, failed);
+    }
+
+    /**
+     * Record one compiled instruction, without looking its name up
+     */
+    public void recordOpcode(int opcode, long nanos, boolean failed) {
+        CommandStats stats = opcode >= 0 && opcode < opcodeStats.length ? opcodeStats[opcode] : null;
+        if (stats != null) {
+            stats.record(nanos, failed);
+        }
+    }
+
+    /**
+     * Record a whole script run from start to finish
+     */
+    public void recordScript(long commandCount, long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        scriptCount.incrementAndGet();
+        scriptCommands.addAndGet(commandCount);
+        scriptNanos.addAndGet(nanos);
+        lastScriptRate = commandCount * 1e9 / nanos;
+    }
+
+    public void recordRepaint(long nanos) {
+        repaints.record(nanos);
+    }
+
+    private CommandStats statsFor(String name) {
+        CommandStats stats = commands.get(name);
+        return stats != null ? stats : commands.computeIfAbsent(name, CommandStats::new);
+    }
+
+    // Reading
+
+    @Override
+    public long getCommandCount() {
+        long total = 0;
+        for (CommandStats stats : commands.values()) {
+            total += stats.latency.getCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getErrorCount() {
+        long total = 0;
+        for (CommandStats stats : commands.values()) {
+            total += stats.errors.get();
+        }
+        return total;
+    }
+
+    @Override
+    public long getRepaintCount() {
+        return repaints.getCount();
+    }
+
+    @Override
+    public double getMeanRepaintMillis() {
+        return repaints.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getScriptCount() {
+        return scriptCount.get();
+    }
+
+    @Override
+    public double getLastScriptCommandsPerSecond() {
+        return lastScriptRate;
+    }
+
+    @Override
+    public double getOverallScriptCommandsPerSecond() {
+        long nanos = scriptNanos.get();
+        return nanos == 0 ? 0 : scriptCommands.get() * 1e9 / nanos;
+    }
+
+    @Override
+    public String[] getCommandNames() {
+        List<String> names = new ArrayList<>();
+        for (CommandStats stats : commands.values()) {
+            if (stats.latency.getCount() > 0) {
+                names.add(stats.name);
+            }
+        }
+        Collections.sort(names);
+        return names.toArray(new String[0]);
+    }
+
+    @Override
+    public long getCount(String command) {
+        CommandStats stats = commands.get(command);
+        return stats == null ? 0 : stats.latency.getCount();
+    }
+
+    @Override
+    public long getErrors(String command) {
+        CommandStats stats = commands.get(command);
+        return stats == null ? 0 : stats.errors.get();
+    }
+
+    @Override
+    public double getMeanMillis(String command) {
+        CommandStats stats = commands.get(command);
+        return stats == null ? 0 : stats.latency.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPercentileMillis(String command, double percentile) {
+        CommandStats stats = commands.get(command);
+        return stats == null ? 0 : stats.latency.getPercentileNanos(percentile) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getShapeCacheHits() {
+        return ShapeGeometry.getCache().getHits();
+    }
+
+    @Override
+    public long getShapeCacheMisses() {
+        return ShapeGeometry.getCache().getMisses();
+    }
+
+    @Override
+    public double getShapeCacheHitRate() {
+        return ShapeGeometry.getCache().getHitRate();
+    }
+
+    @Override
+    public int getShapeCacheSize() {
+        return ShapeGeometry.getCache().size();
+    }
+
+    @Override
+    public int getShapeCacheCapacity() {
+        return ShapeGeometry.getCache().getCapacity();
+    }
+
+    @Override
+    public void setShapeCacheCapacity(int capacity) {
+        ShapeGeometry.getCache().setCapacity(capacity);
+    }
+
+    /**
+     * One line per command that has run, then script throughput, repaints and the shape cache
+     */
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-12s %9s %7s %9s %9s %9s %9s%n",
+            "Command", "Count", "Errors", "Mean ms", "p50 ms", "p99 ms", "Max ms"));
+        for (String name : getCommandNames()) {
+            LatencyHistogram latency = commands.get(name).latency;
+            report.append(String.format("%-12s %9d %7d %9.3f %9.3f %9.3f %9.3f%n",
+                name, latency.getCount(), getErrors(name),
+                latency.getMeanNanos() / NANOS_PER_MILLI,
+                latency.getPercentileNanos(50) / NANOS_PER_MILLI,
+                latency.getPercentileNanos(99) / NANOS_PER_MILLI,
+                latency.getMaxNanos() / NANOS_PER_MILLI));
+        }
+        report.append(String.format("%nScripts loaded: %d, last %.0f commands/s, overall %.0f commands/s%n",
+            getScriptCount(), getLastScriptCommandsPerSecond(), getOverallScriptCommandsPerSecond()));
+        report.append(String.format("Repaints: %d, mean %.3f ms, p99 %.3f ms, max %.3f ms%n",
+            repaints.getCount(), getMeanRepaintMillis(),
+            repaints.getPercentileNanos(99) / NANOS_PER_MILLI, repaints.getMaxNanos() / NANOS_PER_MILLI));
+        report.append(String.format("Shape cache: %d of %d shapes, %d hits, %d misses, hit rate %.1f%%%n",
+            getShapeCacheSize(), getShapeCacheCapacity(), getShapeCacheHits(), getShapeCacheMisses(),
+            getShapeCacheHitRate() * 100));
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (CommandStats stats : commands.values()) {
+            stats.reset();
+        }
+        repaints.reset();
+        ShapeGeometry.getCache().resetStatistics();
+        scriptCount.set(0);
+        scriptCommands.set(0);
+        scriptNanos.set(0);
+        lastScriptRate = 0;
+    }
+
+    // Publishing
+
+    /**
+     * Make the metrics visible to JMX clients as TurtleGraphics:type=CommandMetrics,name=...
+     */
+    public synchronized void registerMBean(String name) throws JMException {
+        unregisterMBean();
+        ObjectName objectName = new ObjectName("TurtleGraphics:type=CommandMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+    }
+
+    public synchronized void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(registeredName)) {
+                server.unregisterMBean(registeredName);
+            }
+        } catch (JMException e) {
+            // Already gone
+        }
+        registeredName = null;
+    }
+
+    /**
+     * Rewrite a file with the report every few seconds, replacing any earlier dump schedule
+     * The report is written to a temporary file first, so readers never see half of one
+     * @param onError Told if writing fails; the dump stops after a failure
+     */
+    public synchronized void startDump(Path file, long intervalSeconds, Consumer<IOException> onError) {
+        stopDump();
+        if (dumpExecutor == null) {
+            dumpExecutor = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        dumpTask = dumpExecutor.scheduleAtFixedRate(() -> {
+            try {
+                writeReport(file);
+            } catch (IOException e) {
+                stopDump();
+                onError.accept(e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopDump() {
+        if (dumpTask != null) {
+            dumpTask.cancel(false);
+            dumpTask = null;
+        }
+    }
+
+    public synchronized boolean isDumping() {
+        return dumpTask != null;
+    }
+
+    /**
+     * Write the report once, headed by the time it was taken
+     */
+    public void writeReport(Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path temporary = Files.createTempFile(target.getParent(), ".metrics-", ".tmp");
+        try {
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            Files.writeString(temporary, "Turtle Graphics metrics at " + timestamp + System.lineSeparator()
+                + System.lineSeparator() + getReport(), StandardCharsets.UTF_8);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Stop the dump thread and leave JMX
+     */
+    public synchronized void close() {
+        stopDump();
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdownNow();
+            dumpExecutor = null;
+        }
+        unregisterMBean();
+    }
+
+    private static class CommandStats {
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+
+        CommandStats(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, boolean failed) {
+            latency.record(nanos);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+
+        void reset() {
+            latency.reset();
+            errors.set(0);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * What CommandMetrics shows through JMX, e.g. in JConsole under TurtleGraphics
+ */
+public interface CommandMetricsMBean {
+
+    long getCommandCount();
+
+    long getErrorCount();
+
+    long getRepaintCount();
+
+    double getMeanRepaintMillis();
+
+    long getScriptCount();
+
+    double getLastScriptCommandsPerSecond();
+
+    double getOverallScriptCommandsPerSecond();
+
+    /**
+     * Names of the commands that have run at least once
+     */
+    String[] getCommandNames();
+
+    long getCount(String command);
+
+    long getErrors(String command);
+
+    double getMeanMillis(String command);
+
+    double getPercentileMillis(String command, double percentile);
+
+    long getShapeCacheHits();
+
+    long getShapeCacheMisses();
+
+    double getShapeCacheHitRate();
+
+    int getShapeCacheSize();
+
+    int getShapeCacheCapacity();
+
+    /**
+     * Resize the shape geometry cache, 0 turns it off
+     */
+    void setShapeCacheCapacity(int capacity);
+
+    /**
+     * The same text the 'metrics' command shows
+     */
+    String getReport();
+
+    void reset();
+}
@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Maps command names to commands so lookup, validation and dispatch are a single hash lookup
+ * The help text and the typo suggestions are both generated from what is registered here
+ * Thread safe: commands may be registered while others are being looked up on the command thread
+ */
+public class CommandRegistry {
+
+    private final Map<String, Command> commands = new ConcurrentHashMap<>();
+    private final Map<String, String> suggestions = new ConcurrentHashMap<>();
+    /** Names in the order they were first registered; written under the registry's lock */
+    private final List<String> names = new CopyOnWriteArrayList<>();
+
+    /**
+     * Add a command, replacing any command already registered under the same name
+     * A replaced command keeps its place in the help
+     */
+    public synchronized void register(Command command) {
+        if (commands.put(command.getName(), command) == null) {
+            names.add(command.getName());
+        }
+        for (String alias : command.getAliases()) {
+            suggestions.put(alias, command.getName());
+        }
+    }
+
+    /**
+     * @return The command with this exact name, or null
+     */
+    public Command get(String name) {
+        return commands.get(name);
+    }
+
+    public boolean contains(String name) {
+        return commands.containsKey(name);
+    }
+
+    /**
+     * @return The name of the command a misspelling probably meant, or null
+     */
+    public String getSuggestion(String name) {
+        String suggestion = suggestions.get(name);
+        return suggestion != null && commands.containsKey(suggestion) ? suggestion : null;
+    }
+
+    /**
+     * Commands in the order they were registered, as they are now
+     */
+    public Collection<Command> getCommands() {
+        List<Command> registered = new ArrayList<>(names.size());
+        for (String name : names) {
+            registered.add(commands.get(name));
+        }
+        return registered;
+    }
+
+    /**
+     * Build the help text, one block per section in registration order
+     * Consecutive commands with the same description share a line, e.g. the colours
+     */
+    public String getHelpText() {
+        Map<String, List<Command>> sections = new LinkedHashMap<>();
+        for (Command command : getCommands()) {
+            sections.computeIfAbsent(command.getSection(), k -> new ArrayList<>()).add(command);
+        }
+
+        StringBuilder help = new StringBuilder("Available commands:\n");
+        for (Map.Entry<String, List<Command>> section : sections.entrySet()) {
+            help.append("\n").append(section.getKey()).append(":\n");
+
+            List<Command> sectionCommands = section.getValue();
+            int i = 0;
+            while (i < sectionCommands.size()) {
+                Command first = sectionCommands.get(i);
+                StringBuilder usages = new StringBuilder(first.getUsage());
+                int j = i + 1;
+                while (j < sectionCommands.size()
+                        && sectionCommands.get(j).getDescription().equals(first.getDescription())) {
+                    usages.append(", ").append(sectionCommands.get(j).getUsage());
+                    j++;
+                }
+                help.append(usages).append(" - ").append(first.getDescription()).append("\n");
+                i = j;
+            }
+        }
+        return help.toString();
+    }
+}
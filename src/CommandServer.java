@@ -0,0 +1,331 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Lets other programs on this machine draw by sending commands over a socket
+ * The protocol is lines of UTF-8 text, so a script, netcat or a test can drive it:
+ *   commands  one per line; a block may span lines, as when typed
+ *   .         ends a batch, answered with "error <batch> <command>: <message>" for each error
+ *             and then "ok <batch> <commands> <failed>"; command 0 is the batch as a whole
+ *   snapshot  answered with "png <bytes>" followed by the PNG itself,
+ *             or "error snapshot: <message>"
+ *   quit      closes the connection once every answer has been sent
+ * A batch that has not been ended with "." is ended by snapshot, quit or the end of the input.
+ * Batches are numbered from 1 on each connection and commands from 1 in each batch. A client
+ * may send many batches without waiting and the answers come back in the order it asked.
+ * Each connection has a virtual thread reading it and another writing the answers; once
+ * MAX_PENDING_REPLIES answers are waiting the reader stops taking lines, which holds the
+ * client back through the socket. Only the loopback address is listened on
+ */
+public class CommandServer implements Closeable {
+
+    /** Most answers a connection may have waiting before it stops reading */
+    public static final int MAX_PENDING_REPLIES = 64;
+    /** A longer batch is run in parts, each answered as a batch of its own */
+    public static final int MAX_BATCH_COMMANDS = 1024;
+
+    /** Put after the last answer, so the writer knows to stop */
+    private static final CompletableFuture<byte[]> END = CompletableFuture.completedFuture(new byte[0]);
+
+    private final Target target;
+    private final PngExportFormat png = new PngExportFormat(PngExportFormat.FAST_LEVEL, ForkJoinPool.commonPool());
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private int connectionCount;
+
+    /**
+     * What runs the commands
+     */
+    public interface Target {
+
+        /**
+         * Queue commands to run one after another
+         * @return Finished once every command has run
+         */
+        CompletableFuture<BatchResult> runBatch(List<String> commands) throws InterruptedException;
+
+        /**
+         * Queue a copy of the canvas to be taken once everything queued before it has run
+         */
+        CompletableFuture<BufferedImage> snapshot() throws InterruptedException;
+    }
+
+    /**
+     * What went wrong in a batch
+     */
+    public static final class BatchResult {
+        private final int failed;
+        private final List<String> errors;
+
+        /**
+         * @param failed Commands that failed
+         * @param errors Messages in the order they were shown, each starting with the number of its command
+         */
+        public BatchResult(int failed, List<String> errors) {
+            this.failed = failed;
+            this.errors = errors;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    public CommandServer(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * Start listening
+     * @param port Port on the loopback address, or 0 for any free one, see getPort()
+     */
+    public synchronized void start(int port) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Server is already running on port " + getPort());
+        }
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        ServerSocket listening = serverSocket;
+        Thread.ofVirtual().name("command-server").start(() -> acceptConnections(listening));
+    }
+
+    public synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    /**
+     * Port being listened on, -1 when not running
+     */
+    public synchronized int getPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Stop listening and drop every connection
+     * Batches already queued still run, but their answers are not sent
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (serverSocket == null) {
+            return;
+        }
+        serverSocket.close();
+        serverSocket = null;
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+
+    private void acceptConnections(ServerSocket listening) {
+        while (!listening.isClosed()) {
+            Socket socket;
+            try {
+                socket = listening.accept();
+            } catch (IOException e) {
+                // Closed by close()
+                return;
+            }
+            connections.add(socket);
+            Connection connection = new Connection(socket);
+            String name = "command-client-" + ++connectionCount;
+            Thread.ofVirtual().name(name).start(() -> connection.serve(name));
+        }
+    }
+
+    /**
+     * One client, read by one thread and answered by another
+     */
+    private final class Connection {
+        private final Socket socket;
+        private final BlockingQueue<CompletableFuture<byte[]>> replies = new ArrayBlockingQueue<>(MAX_PENDING_REPLIES);
+        private final StatementBuffer statements = new StatementBuffer();
+        private List<String> batch = new ArrayList<>();
+        private int batchNumber;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void serve(String name) {
+            Thread reader = Thread.currentThread();
+            Thread writer = Thread.ofVirtual().name(name + "-replies").start(() -> writeReplies(reader));
+            try {
+                socket.setTcpNoDelay(true);
+                readRequests();
+                replies.put(END);
+                writer.join();
+            } catch (IOException | InterruptedException e) {
+                // The client went away or the server is closing; nobody is left to answer
+                writer.interrupt();
+            } finally {
+                connections.remove(socket);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+
+        private void readRequests() throws IOException, InterruptedException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                // Inside a block these are left to be reported as errors like any other bad command
+                boolean control = !statements.isPending();
+                if (control && trimmed.equalsIgnoreCase("quit")) {
+                    break;
+                }
+                if (control && trimmed.equalsIgnoreCase("snapshot")) {
+                    if (!batch.isEmpty()) {
+                        endBatch();
+                    }
+                    replies.put(target.snapshot().thenApplyAsync(CommandServer.this::encodeSnapshot)
+                        .exceptionally(CommandServer::describeSnapshotError));
+                    continue;
+                }
+                if (trimmed.equals(".")) {
+                    endBatch();
+                    continue;
+                }
+
+                String statement = statements.add(line);
+                if (statement != null && !statement.trim().isEmpty()) {
+                    batch.add(statement);
+                    if (batch.size() == MAX_BATCH_COMMANDS) {
+                        endBatch();
+                    }
+                }
+            }
+            if (!batch.isEmpty() || statements.isPending()) {
+                endBatch();
+            }
+        }
+
+        /**
+         * Queue the batch read so far; an unfinished block goes with it and reports its own error
+         */
+        private void endBatch() throws InterruptedException {
+            if (statements.isPending()) {
+                batch.add(statements.getPending());
+                statements.clear();
+            }
+            int number = ++batchNumber;
+            List<String> commands = batch;
+            batch = new ArrayList<>();
+            CompletableFuture<BatchResult> result = commands.isEmpty()
+                ? CompletableFuture.completedFuture(new BatchResult(0, Collections.emptyList()))
+                : target.runBatch(commands);
+            replies.put(result.handle((done, error) -> describeBatch(number, commands.size(), done, error)));
+        }
+
+        /**
+         * @param reader Interrupted if the answers cannot be sent, as it may be waiting for room to queue one
+         */
+        private void writeReplies(Thread reader) {
+            try {
+                OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+                while (true) {
+                    CompletableFuture<byte[]> reply = replies.take();
+                    if (reply == END) {
+                        break;
+                    }
+                    output.write(reply.join());
+                    // Answers that are already waiting go out together
+                    if (replies.isEmpty() || !replies.peek().isDone()) {
+                        output.flush();
+                    }
+                }
+                output.flush();
+            } catch (IOException | InterruptedException e) {
+                // The client went away or the server is closing
+                reader.interrupt();
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+    }
+
+    private static byte[] describeBatch(int number, int commands, BatchResult result, Throwable error) {
+        StringBuilder reply = new StringBuilder();
+        int failed;
+        if (error != null) {
+            reply.append("error ").append(number).append(" 0: ").append(messageOf(error)).append('\n');
+            failed = commands;
+        } else {
+            for (String message : result.getErrors()) {
+                reply.append("error ").append(number).append(' ').append(oneLine(message)).append('\n');
+            }
+            failed = result.getFailed();
+        }
+        reply.append("ok ").append(number).append(' ').append(commands).append(' ').append(failed).append('\n');
+        return reply.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] describeSnapshotError(Throwable error) {
+        return ("error snapshot: " + messageOf(error) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] encodeSnapshot(BufferedImage image) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+            png.write(image, Channels.newChannel(bytes), _ -> { });
+            byte[] header = ("png " + bytes.size() + "\n").getBytes(StandardCharsets.US_ASCII);
+            byte[] reply = new byte[header.length + bytes.size()];
+            System.arraycopy(header, 0, reply, 0, header.length);
+            System.arraycopy(bytes.toByteArray(), 0, reply, header.length, bytes.size());
+            return reply;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Message of what went wrong, unwrapped from the future that carried it
+     */
+    private static String messageOf(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return oneLine(String.valueOf(cause.getMessage()));
+    }
+
+    /**
+     * Keep a message on one line, as each answer is one line
+     */
+    private static String oneLine(String message) {
+        return message.replace('\r', ' ').replace('\n', ' ');
+    }
+}
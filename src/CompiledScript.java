@@ -0,0 +1,278 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A command script compiled to a flat int array
+ * Each instruction is an opcode followed by a fixed number of int operands,
+ * so running it again needs no string handling at all. Opcodes up to OP_INVALID are
+ * single commands; the ones after them evaluate expressions on a stack, loop and call
+ * procedures. Jumps are relative to the jumping instruction, so code can be copied
+ * between scripts unchanged
+ */
+public final class CompiledScript {
+
+    public static final int OP_PENUP = 0;
+    public static final int OP_PENDOWN = 1;
+    public static final int OP_LEFT = 2;
+    public static final int OP_RIGHT = 3;
+    public static final int OP_MOVE = 4;
+    public static final int OP_REVERSE = 5;
+    /** Operand is the colour packed as 0xRRGGBB */
+    public static final int OP_PENCOLOUR = 6;
+    public static final int OP_PENWIDTH = 7;
+    public static final int OP_SQUARE = 8;
+    public static final int OP_TRIANGLE = 9;
+    /** Operands are the three side lengths */
+    public static final int OP_TRIANGLE3 = 10;
+    public static final int OP_STAR = 11;
+    public static final int OP_CIRCLE = 12;
+    public static final int OP_HEXAGON = 13;
+    public static final int OP_RESET = 14;
+    public static final int OP_CLEAR = 15;
+    /** Operand is the constant index of a command with no opcode of its own */
+    public static final int OP_COMMAND = 16;
+    /** Operands are the constant indexes of the rejected line and the reason */
+    public static final int OP_INVALID = 17;
+
+    /** Push the operand */
+    public static final int OP_PUSH = 18;
+    /** Push a variable shared by every statement, operand is its slot */
+    public static final int OP_LOAD_GLOBAL = 19;
+    /** Pop into a shared variable */
+    public static final int OP_STORE_GLOBAL = 20;
+    /** Push a parameter or loop counter of the running procedure or statement */
+    public static final int OP_LOAD_LOCAL = 21;
+    public static final int OP_STORE_LOCAL = 22;
+    public static final int OP_ADD = 23;
+    public static final int OP_SUB = 24;
+    public static final int OP_MUL = 25;
+    public static final int OP_DIV = 26;
+    public static final int OP_MOD = 27;
+    public static final int OP_NEG = 28;
+    /** Operand is a command opcode whose operands are popped off the stack, three values for OP_PENCOLOUR */
+    public static final int OP_APPLY = 29;
+    /** Pop a repeat count into the local at the operand, and zero the repcount in the local after it */
+    public static final int OP_REPEAT_START = 30;
+    /** Operands are the counter local and the jump taken once the count reaches zero */
+    public static final int OP_REPEAT = 31;
+    /** Operand is the jump */
+    public static final int OP_JUMP = 32;
+    /** Operands are the procedure number, its local count and the jump past its body */
+    public static final int OP_DEFINE = 33;
+    /** Operands are the procedure number and how many arguments to pop */
+    public static final int OP_CALL = 34;
+    /** End of a procedure body */
+    public static final int OP_RETURN = 35;
+
+    private static final int[] ARITY = {
+        0, 0, 1, 1, 1, 1, 1, 1, 1, 1, 3, 1, 1, 1, 0, 0, 1, 2,
+        1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 1, 1, 2, 1, 3, 2, 0
+    };
+
+    /** Command each opcode was compiled from; OP_COMMAND and OP_INVALID stand for any command */
+    private static final String[] NAMES = {
+        "penup", "pendown", "left", "right", "move", "reverse", "pencolour", "penwidth",
+        "square", "triangle", "triangle", "star", "circle", "hexagon", "reset", "clear", null, null,
+        null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null
+    };
+
+    /** Largest number of operands any opcode takes */
+    public static final int MAX_ARITY = 3;
+
+    private int[] code;
+    private int size;
+    private int instructionCount;
+    private int localCount;
+    private final List<String> constants = new ArrayList<>();
+
+    public CompiledScript() {
+        this(64);
+    }
+
+    /**
+     * @param capacity Number of ints to allocate for code up front
+     */
+    public CompiledScript(int capacity) {
+        this.code = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Number of operands that follow an opcode
+     */
+    public static int arity(int opcode) {
+        return ARITY[opcode];
+    }
+
+    /**
+     * Name of the command an opcode was compiled from, or null for anything that is not a single command
+     */
+    public static String opcodeName(int opcode) {
+        return NAMES[opcode];
+    }
+
+    /**
+     * Whether a number read from outside, e.g. a binary script file, is a known opcode
+     */
+    public static boolean isOpcode(int opcode) {
+        return opcode >= 0 && opcode < ARITY.length;
+    }
+
+    /**
+     * Whether an opcode is a single command rather than part of an expression, loop or procedure
+     */
+    public static boolean isSimpleOpcode(int opcode) {
+        return opcode >= 0 && opcode <= OP_INVALID;
+    }
+
+    public void emit(int opcode) {
+        ensureCapacity(1);
+        code[size++] = opcode;
+        instructionCount++;
+    }
+
+    public void emit(int opcode, int operand) {
+        ensureCapacity(2);
+        code[size++] = opcode;
+        code[size++] = operand;
+        instructionCount++;
+    }
+
+    public void emit(int opcode, int operand1, int operand2) {
+        ensureCapacity(3);
+        code[size++] = opcode;
+        code[size++] = operand1;
+        code[size++] = operand2;
+        instructionCount++;
+    }
+
+    public void emit(int opcode, int operand1, int operand2, int operand3) {
+        ensureCapacity(4);
+        code[size++] = opcode;
+        code[size++] = operand1;
+        code[size++] = operand2;
+        code[size++] = operand3;
+        instructionCount++;
+    }
+
+    /**
+     * Store a string and return its constant index
+     */
+    public int addConstant(String value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    public String getConstant(int index) {
+        return constants.get(index);
+    }
+
+    public int getConstantCount() {
+        return constants.size();
+    }
+
+    /**
+     * Raw instruction array, valid up to size()
+     */
+    public int[] getCode() {
+        return code;
+    }
+
+    /**
+     * Number of ints used in the code array
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Number of locals, i.e. loop counters, the top level of the script needs
+     */
+    public int getLocalCount() {
+        return localCount;
+    }
+
+    public void reserveLocals(int count) {
+        localCount = Math.max(localCount, count);
+    }
+
+    /**
+     * Overwrite one int of code, e.g. a jump emitted before its target was known
+     */
+    public void patch(int offset, int value) {
+        code[offset] = value;
+    }
+
+    /**
+     * Offset of the instruction after the one at pc
+     */
+    public int next(int pc) {
+        return pc + 1 + ARITY[code[pc]];
+    }
+
+    /**
+     * Copy every instruction of another script onto the end of this one
+     * Constant indexes are shifted to point at this script's copy of the constants
+     */
+    public void append(CompiledScript other) {
+        int constantOffset = constants.size();
+        constants.addAll(other.constants);
+        ensureCapacity(other.size);
+
+        int pc = 0;
+        while (pc < other.size) {
+            int opcode = other.code[pc];
+            boolean constantOperands = opcode == OP_COMMAND || opcode == OP_INVALID;
+            code[size] = opcode;
+            for (int i = 1; i <= ARITY[opcode]; i++) {
+                int operand = other.code[pc + i];
+                code[size + i] = constantOperands ? operand + constantOffset : operand;
+            }
+            size += 1 + ARITY[opcode];
+            pc += 1 + ARITY[opcode];
+            instructionCount++;
+        }
+        localCount = Math.max(localCount, other.localCount);
+    }
+
+    /**
+     * New script holding a copy of the instructions between two offsets, with all the constants
+     */
+    public CompiledScript slice(int from, int to) {
+        CompiledScript copy = new CompiledScript(to - from);
+        System.arraycopy(code, from, copy.code, 0, to - from);
+        copy.size = to - from;
+        copy.constants.addAll(constants);
+        for (int pc = 0; pc < copy.size; pc = copy.next(pc)) {
+            copy.instructionCount++;
+        }
+        return copy;
+    }
+
+    /**
+     * Drop all instructions and constants so the script can be reused
+     */
+    public void clear() {
+        size = 0;
+        instructionCount = 0;
+        localCount = 0;
+        constants.clear();
+    }
+
+    /**
+     * Copy of the code array trimmed to its used length
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(code, size);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + extra));
+        }
+    }
+}
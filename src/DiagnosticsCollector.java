@@ -0,0 +1,223 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the problems found while running commands, so they can be looked at together
+ * rather than in one dialog each
+ * Reporting a problem only adds it to a list, so a script with thousands of bad lines still
+ * runs at full speed. The first MAX_KEPT problems are kept for viewing and the rest are only
+ * counted; with a log set, every problem is also written to it on a line of its own
+ * Thread safe
+ */
+public class DiagnosticsCollector implements Closeable {
+
+    public static final int MAX_KEPT = 10000;
+
+    public enum Severity {
+        /** The command did not run */
+        ERROR,
+        /** The command ran, but not as written, e.g. after a typo was corrected */
+        WARNING
+    }
+
+    private final List<Diagnostic> kept = new ArrayList<>();
+    private long errorCount;
+    private long warningCount;
+    private Diagnostic latest;
+    private Writer log;
+    private volatile Runnable listener;
+
+    /**
+     * Add a problem
+     * @param source Where the command came from, e.g. a file name, or null for a typed command
+     * @param line Line in the source, or for binary scripts the instruction; 0 if there is none
+     */
+    public void report(Severity severity, String source, int line, String message) {
+        Diagnostic diagnostic = new Diagnostic(severity, source, line, message);
+        synchronized (this) {
+            if (severity == Severity.ERROR) {
+                errorCount++;
+            } else {
+                warningCount++;
+            }
+            if (kept.size() < MAX_KEPT) {
+                kept.add(diagnostic);
+            }
+            latest = diagnostic;
+            if (log != null) {
+                try {
+                    log.write(diagnostic.toString());
+                    log.write(System.lineSeparator());
+                } catch (IOException e) {
+                    // A log that cannot be written is dropped, the problems are still collected
+                    closeLog();
+                }
+            }
+        }
+        Runnable changed = listener;
+        if (changed != null) {
+            changed.run();
+        }
+    }
+
+    /**
+     * The problems kept so far, oldest first
+     */
+    public synchronized List<Diagnostic> getDiagnostics() {
+        return new ArrayList<>(kept);
+    }
+
+    /**
+     * The problem reported last, kept or not, or null if there is none
+     */
+    public synchronized Diagnostic getLatest() {
+        return latest;
+    }
+
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized long getWarningCount() {
+        return warningCount;
+    }
+
+    /**
+     * Problems reported, including those that were only counted
+     */
+    public synchronized long getCount() {
+        return errorCount + warningCount;
+    }
+
+    /**
+     * One line for a status bar, e.g. "3 errors, 1 warning"
+     */
+    public synchronized String getSummary() {
+        if (getCount() == 0) {
+            return "No problems";
+        }
+        StringBuilder summary = new StringBuilder();
+        if (errorCount > 0) {
+            summary.append(errorCount).append(errorCount == 1 ? " error" : " errors");
+        }
+        if (warningCount > 0) {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(warningCount).append(warningCount == 1 ? " warning" : " warnings");
+        }
+        if (getCount() > kept.size()) {
+            summary.append(" (first ").append(kept.size()).append(" kept)");
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Forget every problem; the log is left as it is
+     */
+    public synchronized void clear() {
+        kept.clear();
+        latest = null;
+        errorCount = 0;
+        warningCount = 0;
+    }
+
+    /**
+     * Also write every problem from now on to a log, closing the one before; null for none
+     * The log is closed by close() or the next call
+     */
+    public synchronized void setLog(Writer writer) {
+        closeLog();
+        log = writer;
+    }
+
+    /**
+     * Called after every report, on the thread that reported, e.g. to schedule a status bar update
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Write out and close the log
+     */
+    @Override
+    public synchronized void close() {
+        closeLog();
+    }
+
+    private void closeLog() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            // Nothing more can be written to it either way
+        }
+        log = null;
+    }
+
+    /**
+     * One problem and where it was found
+     */
+    public static final class Diagnostic {
+        private final Severity severity;
+        private final String source;
+        private final int line;
+        private final String message;
+
+        Diagnostic(Severity severity, String source, int line, String message) {
+            this.severity = severity;
+            this.source = source;
+            this.line = line;
+            this.message = message;
+        }
+
+        public Severity getSeverity() {
+            return severity;
+        }
+
+        /**
+         * File name, or null for a typed command
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * 0 if there is no line
+         */
+        public int getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * As a compiler would print it, e.g. "shapes.txt:12: warning: Did you mean 'move'?"
+         */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            if (source != null) {
+                text.append(source).append(':');
+                if (line > 0) {
+                    text.append(line).append(':');
+                }
+                text.append(' ');
+            } else if (line > 0) {
+                text.append(line).append(": ");
+            }
+            if (severity == Severity.WARNING) {
+                text.append("warning: ");
+            }
+            return text.append(message).toString();
+        }
+    }
+}
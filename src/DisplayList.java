@@ -0,0 +1,255 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Every stroke drawn on a canvas, kept in parallel primitive arrays
+ * Coordinates are kept as doubles, as the turtle computes them, so drawing the list puts every
+ * stroke exactly where drawing it straight onto the canvas did
+ * Lines that continue the previous line are marked as joined, so a shape is stroked
+ * as one path again when the list is drawn. Circles store their radius in x2
+ */
+public class DisplayList {
+
+    public static final byte LINE = 0;
+    /** A line that starts where the previous item ended and is stroked as part of the same path */
+    public static final byte JOINED_LINE = 1;
+    public static final byte CIRCLE = 2;
+
+    /** BasicStroke's default miter limit, used to pad bounds for joined corners */
+    private static final double MITER_LIMIT = 10;
+
+    private byte[] kinds = new byte[256];
+    private double[] x1 = new double[256];
+    private double[] y1 = new double[256];
+    private double[] x2 = new double[256];
+    private double[] y2 = new double[256];
+    private int[] colours = new int[256];
+    private double[] widths = new double[256];
+    private int size;
+
+    public void addLine(double startX, double startY, double endX, double endY, int rgb, double width, boolean joined) {
+        add(joined ? JOINED_LINE : LINE, startX, startY, endX, endY, rgb, width);
+    }
+
+    public void addCircle(double centreX, double centreY, double radius, int rgb, double width) {
+        add(CIRCLE, centreX, centreY, radius, 0, rgb, width);
+    }
+
+    /**
+     * Copy every item of another list onto the end of this one, e.g. a layer being merged in
+     */
+    public void addAll(DisplayList other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.kinds[i], other.x1[i], other.y1[i], other.x2[i], other.y2[i], other.colours[i], other.widths[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Go back to an earlier length, or forward again to a length the list had before, e.g. for undo and redo
+     * Items past the current length stay in the arrays until something is added over them, so
+     * growing again is exact as long as nothing was added since the list was shorter
+     */
+    public void restoreSize(int newSize) {
+        if (newSize < 0 || newSize > kinds.length) {
+            throw new IllegalArgumentException("Display list never held " + newSize + " items");
+        }
+        size = newSize;
+    }
+
+    public byte getKind(int index) {
+        return kinds[index];
+    }
+
+    public double getX1(int index) {
+        return x1[index];
+    }
+
+    public double getY1(int index) {
+        return y1[index];
+    }
+
+    public double getX2(int index) {
+        return x2[index];
+    }
+
+    public double getY2(int index) {
+        return y2[index];
+    }
+
+    public int getColour(int index) {
+        return colours[index];
+    }
+
+    public double getWidth(int index) {
+        return widths[index];
+    }
+
+    /**
+     * Left edge of the area an item can touch, including the pen width
+     */
+    public double getMinX(int index) {
+        double pad = pad(index);
+        return kinds[index] == CIRCLE ? x1[index] - x2[index] - pad : Math.min(x1[index], x2[index]) - pad;
+    }
+
+    public double getMinY(int index) {
+        double pad = pad(index);
+        return kinds[index] == CIRCLE ? y1[index] - x2[index] - pad : Math.min(y1[index], y2[index]) - pad;
+    }
+
+    public double getMaxX(int index) {
+        double pad = pad(index);
+        return kinds[index] == CIRCLE ? x1[index] + x2[index] + pad : Math.max(x1[index], x2[index]) + pad;
+    }
+
+    public double getMaxY(int index) {
+        double pad = pad(index);
+        return kinds[index] == CIRCLE ? y1[index] + x2[index] + pad : Math.max(y1[index], y2[index]) + pad;
+    }
+
+    /**
+     * Whole pixel area every item can touch, or null if the list is empty
+     */
+    public Rectangle getBounds() {
+        if (size == 0) {
+            return null;
+        }
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, getMinX(i));
+            minY = Math.min(minY, getMinY(i));
+            maxX = Math.max(maxX, getMaxX(i));
+            maxY = Math.max(maxY, getMaxY(i));
+        }
+        int left = (int) Math.floor(minX);
+        int top = (int) Math.floor(minY);
+        return new Rectangle(left, top, (int) Math.ceil(maxX) - left, (int) Math.ceil(maxY) - top);
+    }
+
+    /**
+     * Anti-aliased strokes placed at their exact sub-pixel positions, as every canvas draws them
+     */
+    public static void smoothStrokes(Graphics2D g) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+    }
+
+    /**
+     * Draw every item in order
+     */
+    public void draw(Graphics2D g) {
+        int[] all = new int[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = i;
+        }
+        draw(g, all, size);
+    }
+
+    /**
+     * Draw the list onto a new image at a multiple of its original size, e.g. 4 for a 4x export
+     * Only the stored strokes are drawn, so no commands are run again
+     * @param backdrop Raster the strokes were drawn over, scaled with them, or null for a plain background
+     */
+    public BufferedImage rasterize(int width, int height, double scale, Color background, BufferedImage backdrop) {
+        BufferedImage image = new BufferedImage((int) Math.ceil(width * scale), (int) Math.ceil(height * scale),
+            BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(background);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            smoothStrokes(g);
+            g.scale(scale, scale);
+            if (backdrop != null) {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(backdrop, 0, 0, null);
+            }
+            draw(g);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Draw the listed items in the order given
+     * A run of joined lines is stroked as one path, but only while the indexes are consecutive,
+     * so a subset of the list still draws correctly
+     */
+    public void draw(Graphics2D g, int[] indexes, int count) {
+        int i = 0;
+        while (i < count) {
+            int index = indexes[i];
+            g.setColor(new Color(colours[index]));
+            g.setStroke(new BasicStroke((float) widths[index]));
+
+            if (kinds[index] == CIRCLE) {
+                double radius = x2[index];
+                g.draw(new Ellipse2D.Double(x1[index] - radius, y1[index] - radius, radius * 2, radius * 2));
+                i++;
+                continue;
+            }
+
+            int end = i + 1;
+            while (end < count && indexes[end] == indexes[end - 1] + 1 && kinds[indexes[end]] == JOINED_LINE) {
+                end++;
+            }
+            if (end == i + 1) {
+                g.draw(new Line2D.Double(x1[index], y1[index], x2[index], y2[index]));
+            } else {
+                Path2D.Double path = new Path2D.Double();
+                path.moveTo(x1[index], y1[index]);
+                for (int j = i; j < end; j++) {
+                    path.lineTo(x2[indexes[j]], y2[indexes[j]]);
+                }
+                g.draw(path);
+            }
+            i = end;
+        }
+    }
+
+    private double pad(int index) {
+        // Either end of a line may be a joined corner, which can stick out by up to half the miter limit times the width
+        double factor = kinds[index] == CIRCLE ? 0.5 : MITER_LIMIT / 2;
+        return widths[index] * factor + 1;
+    }
+
+    private void add(byte kind, double a, double b, double c, double d, int rgb, double width) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            x1 = Arrays.copyOf(x1, capacity);
+            y1 = Arrays.copyOf(y1, capacity);
+            x2 = Arrays.copyOf(x2, capacity);
+            y2 = Arrays.copyOf(y2, capacity);
+            colours = Arrays.copyOf(colours, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+        }
+        kinds[size] = kind;
+        x1[size] = a;
+        y1[size] = b;
+        x2[size] = c;
+        y2[size] = d;
+        colours[size] = rgb;
+        widths[size] = width;
+        size++;
+    }
+}
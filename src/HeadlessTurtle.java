@@ -0,0 +1,94 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * HeadlessTurtle runs the turtle command language straight into a BufferedImage
+ * It has no Swing dependencies, so scripts can be rendered on machines without a display.
+ * Strokes are anti-aliased at their exact positions, as on the Swing canvas
+ */
+public class HeadlessTurtle extends AbstractTurtle {
+
+    public static final int DEFAULT_WIDTH = 800;
+    public static final int DEFAULT_HEIGHT = 400;
+
+    private final BufferedImage image;
+    private final Graphics2D graphics;
+    private final Color background;
+
+    /**
+     * Create a turtle on a blank canvas of the default size
+     */
+    public HeadlessTurtle() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT, Color.WHITE);
+    }
+
+    /**
+     * Create a turtle on a blank canvas
+     * @param width Canvas width in pixels
+     * @param height Canvas height in pixels
+     * @param background Colour used to fill the canvas on clear
+     */
+    public HeadlessTurtle(int width, int height, Color background) {
+        this(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), background);
+    }
+
+    /**
+     * Create a turtle that draws on an existing image, e.g. one taken from a CanvasPool
+     * The image is cleared to the background colour first
+     */
+    public HeadlessTurtle(BufferedImage image, Color background) {
+        super(image.getWidth(), image.getHeight());
+        this.image = image;
+        this.graphics = image.createGraphics();
+        DisplayList.smoothStrokes(graphics);
+        this.background = background;
+        clear();
+    }
+
+    @Override
+    protected void drawLine(double x1, double y1, double x2, double y2) {
+        usePen();
+        graphics.draw(new Line2D.Double(x1, y1, x2, y2));
+    }
+
+    @Override
+    protected void drawShapePath(ShapeGeometry shape) {
+        usePen();
+        shape.draw(graphics);
+    }
+
+    @Override
+    protected void drawCircle(double x, double y, int radius) {
+        usePen();
+        graphics.draw(new Ellipse2D.Double(x - radius, y - radius, radius * 2, radius * 2));
+    }
+
+    /**
+     * Fill the canvas with the background colour
+     */
+    @Override
+    protected void clearCanvas() {
+        graphics.setColor(background);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+    }
+
+    public BufferedImage getBufferedImage() {
+        return image;
+    }
+
+    /**
+     * Release the graphics context, the image stays usable
+     */
+    public void dispose() {
+        graphics.dispose();
+    }
+
+    private void usePen() {
+        graphics.setColor(getPenColour());
+        graphics.setStroke(new BasicStroke(getPenWidth()));
+    }
+}
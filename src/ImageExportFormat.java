@@ -0,0 +1,32 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.function.IntConsumer;
+
+/**
+ * A file format ImageExporter can write a canvas in
+ * New formats only need to encode the image onto the channel they are given
+ */
+public interface ImageExportFormat {
+
+    /**
+     * Short name, e.g. "png"
+     */
+    String getName();
+
+    /**
+     * Shown in the file chooser, e.g. "PNG Images"
+     */
+    String getDescription();
+
+    /**
+     * File extension without the dot
+     */
+    String getExtension();
+
+    /**
+     * Encode the image onto the channel
+     * @param progress Told the percentage done as the image is written, from 0 to 100
+     */
+    void write(BufferedImage image, FileChannel channel, IntConsumer progress) throws IOException;
+}
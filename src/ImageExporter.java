@@ -0,0 +1,100 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+
+/**
+ * Writes images to files on a background thread in any registered ImageExportFormat
+ * The image is encoded into a temporary file next to the target, which replaces the target
+ * only once it is complete, so a failed export never leaves half a file behind
+ */
+public class ImageExporter {
+
+    private final List<ImageExportFormat> formats = new ArrayList<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "image-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Add a format; the first one registered is the default
+     */
+    public void register(ImageExportFormat format) {
+        formats.add(format);
+    }
+
+    /**
+     * Replace a registered format with another of the same name, e.g. to change PNG compression
+     */
+    public void replace(ImageExportFormat format) {
+        for (int i = 0; i < formats.size(); i++) {
+            if (formats.get(i).getName().equals(format.getName())) {
+                formats.set(i, format);
+                return;
+            }
+        }
+        formats.add(format);
+    }
+
+    public List<ImageExportFormat> getFormats() {
+        return Collections.unmodifiableList(formats);
+    }
+
+    /**
+     * Format whose extension matches the file name, or null if none does
+     */
+    public ImageExportFormat formatFor(File file) {
+        String name = file.getName().toLowerCase();
+        for (ImageExportFormat format : formats) {
+            if (name.endsWith("." + format.getExtension())) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Start writing an image on the export thread
+     * The image must not change until the returned future completes; pass a copy if it might
+     * @param progress Told the percentage done, on the export thread
+     * @return Completes when the file is written, or exceptionally with an UncheckedIOException
+     */
+    public CompletableFuture<Void> exportAsync(BufferedImage image, File file, ImageExportFormat format, IntConsumer progress) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                export(image, file.toPath(), format, progress);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Write an image on the calling thread
+     */
+    public static void export(BufferedImage image, Path target, ImageExportFormat format, IntConsumer progress) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, ".export-", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                format.write(image, channel, progress);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes images no larger than they need to be to fill the canvas
+ * The reader skips rows and columns while decoding (source subsampling), so a large photo
+ * never exists in memory at full size. Images with more pixels than the budget are refused
+ * before anything is decoded. While an image decodes, the partially filled result (or an
+ * embedded thumbnail, if the file has one) can be shown as a preview
+ */
+public class ImageLoader {
+
+    /** 64 megapixels, e.g. 8000 x 8000 */
+    public static final long DEFAULT_PIXEL_BUDGET = 64_000_000L;
+    /** Least time between two previews of the same image */
+    private static final long PREVIEW_INTERVAL_NANOS = 100_000_000L;
+
+    private volatile long pixelBudget;
+
+    public ImageLoader() {
+        this(DEFAULT_PIXEL_BUDGET);
+    }
+
+    /**
+     * @param pixelBudget Most pixels, width times height, an image file may have
+     */
+    public ImageLoader(long pixelBudget) {
+        this.pixelBudget = pixelBudget;
+    }
+
+    public long getPixelBudget() {
+        return pixelBudget;
+    }
+
+    public void setPixelBudget(long pixelBudget) {
+        this.pixelBudget = pixelBudget;
+    }
+
+    /**
+     * Decode an image, subsampled just enough to fit within the given size
+     * @param preview Given images to show while decoding continues, on the decoding thread: first the
+     *                file's thumbnail scaled to the final size if it has one, then the result image
+     *                itself as rows arrive, at most ten times a second. May be null
+     */
+    public BufferedImage read(File file, int maxWidth, int maxHeight, Consumer<BufferedImage> preview) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Cannot open " + file.getName());
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Could not load image. Invalid format.");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > pixelBudget) {
+                    throw new IOException("Image is " + width + "x" + height + ", which is more than the limit of "
+                        + pixelBudget / 1_000_000 + " megapixels. Use 'imagebudget' to raise it.");
+                }
+
+                int step = subsamplingToFit(width, height, maxWidth, maxHeight);
+                if (preview != null) {
+                    if (reader.readerSupportsThumbnails() && reader.hasThumbnails(0)) {
+                        preview.accept(scale(reader.readThumbnail(0, 0), (width + step - 1) / step, (height + step - 1) / step));
+                    }
+                    reader.addIIOReadUpdateListener(new PreviewListener(preview));
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Smallest whole subsampling step that makes an image fit within the given size
+     */
+    public static int subsamplingToFit(int width, int height, int maxWidth, int maxHeight) {
+        int stepX = (width + maxWidth - 1) / maxWidth;
+        int stepY = (height + maxHeight - 1) / maxHeight;
+        return Math.max(1, Math.max(stepX, stepY));
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Passes the image being decoded on as a preview, throttled so showing it stays cheap
+     * Interlaced images arrive as whole coarse passes, others a band of rows at a time
+     */
+    private static class PreviewListener implements IIOReadUpdateListener {
+        private final Consumer<BufferedImage> preview;
+        private long lastPreview = System.nanoTime();
+
+        PreviewListener(Consumer<BufferedImage> preview) {
+            this.preview = preview;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+            long now = System.nanoTime();
+            if (now - lastPreview >= PREVIEW_INTERVAL_NANOS) {
+                lastPreview = now;
+                preview.accept(image);
+            }
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage image) {
+            lastPreview = System.nanoTime();
+            preview.accept(image);
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass, int maxPass,
+                                         int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY, int width, int height,
+                                    int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+        }
+    }
+}
@@ -1,22 +1,26 @@
-import java.awt.FlowLayout;
-import javax.swing.JFrame;
-
-
-public class MainClass extends TurtleGraphics {
-    
-
-    public static void main(String[] args) {
-        new MainClass(); // Create instance of class that extends TurtleGraphics
-    }
-    
-
-    public MainClass() {
-        JFrame mainFrame = new JFrame("Turtle Graphics");
-        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        mainFrame.setLayout(new FlowLayout());
-        mainFrame.add(this);
-        mainFrame.pack();
-        mainFrame.setVisible(true);
-        about();
-    }
-}
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+
+
+public class MainClass extends TurtleGraphics {
+    
+
+    public static void main(String[] args) {
+        new MainClass(); // Create instance of class that extends TurtleGraphics
+    }
+    
+
+    public MainClass() {
+        JFrame mainFrame = new JFrame("Turtle Graphics");
+        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        JPanel canvasPanel = new JPanel(new FlowLayout());
+        canvasPanel.add(this);
+        mainFrame.add(canvasPanel, BorderLayout.CENTER);
+        mainFrame.add(getStatusBar(), BorderLayout.SOUTH);
+        mainFrame.pack();
+        mainFrame.setVisible(true);
+        about();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * A turtle that records what it would draw into a DisplayList instead of painting pixels
+ * Running a compiled script through it gives the turtle path that TileRasterizer renders
+ */
+public class PathTracer extends AbstractTurtle {
+
+    private final DisplayList displayList;
+
+    public PathTracer(int width, int height) {
+        this(width, height, new DisplayList());
+    }
+
+    /**
+     * @param displayList List the strokes are appended to
+     */
+    public PathTracer(int width, int height, DisplayList displayList) {
+        super(width, height);
+        this.displayList = displayList;
+    }
+
+    @Override
+    protected void drawLine(double x1, double y1, double x2, double y2) {
+        displayList.addLine(x1, y1, x2, y2, penRgb(), getPenWidth(), false);
+    }
+
+    @Override
+    protected void drawShapePath(ShapeGeometry shape) {
+        for (int i = 1; i < shape.getPointCount(); i++) {
+            displayList.addLine(shape.getX(i - 1), shape.getY(i - 1), shape.getX(i), shape.getY(i),
+                penRgb(), getPenWidth(), i > 1);
+        }
+    }
+
+    @Override
+    protected void drawCircle(double x, double y, int radius) {
+        displayList.addCircle(x, y, radius, penRgb(), getPenWidth());
+    }
+
+    /**
+     * Clearing the canvas makes everything recorded so far invisible, so it is dropped
+     */
+    @Override
+    protected void clearCanvas() {
+        displayList.clear();
+    }
+
+    public DisplayList getDisplayList() {
+        return displayList;
+    }
+
+    private int penRgb() {
+        return getPenColour().getRGB() & 0xFFFFFF;
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * How fast loadCommands replays a command file
+ */
+public enum PlaybackMode {
+    /** Run every command at full speed and repaint once at the end */
+    INSTANT,
+    /** Aim for a fixed number of commands per second */
+    THROTTLED,
+    /** Pause 100 ms after every command so the drawing can be watched */
+    ANIMATED;
+
+    /**
+     * Look up a mode by its command name, e.g. "instant"
+     * @return The matching mode, or null if the name is not recognised
+     */
+    public static PlaybackMode fromName(String name) {
+        for (PlaybackMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,374 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG writer that filters and deflates bands of rows in parallel
+ * Turtle drawings are flat colours and thin lines, which deflate best unfiltered, so rows are
+ * left unfiltered up to level 6. From level 7 each band is also tried with a filter chosen per
+ * row, which suits loaded photos, and the smaller result is kept.
+ * Every band but the last is ended with a sync flush, which leaves its deflate output on a byte
+ * boundary without closing the stream, so the bands can simply be written one after another.
+ * Only a few bands are in flight at once and each is written as soon as it and the bands before
+ * it are done, so memory use does not grow with the image
+ */
+public class PngExportFormat implements ImageExportFormat {
+
+    /** Compression level used for quick previews */
+    public static final int FAST_LEVEL = Deflater.BEST_SPEED;
+    public static final int DEFAULT_LEVEL = 6;
+    /** Lowest level that also tries per row filters */
+    private static final int ADAPTIVE_LEVEL = 7;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    /** Uncompressed bytes aimed for in one band */
+    private static final int BAND_BYTES = 256 * 1024;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+    /** The first row has nothing above it, so only filters that look left are worth trying */
+    private static final int[] FIRST_ROW_FILTERS = {FILTER_NONE, FILTER_SUB};
+    private static final int[] ALL_FILTERS = {FILTER_NONE, FILTER_SUB, FILTER_UP, FILTER_AVERAGE, FILTER_PAETH};
+
+    private final int level;
+    private final ForkJoinPool pool;
+
+    /**
+     * Default compression on all cores
+     */
+    public PngExportFormat() {
+        this(DEFAULT_LEVEL, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param level Deflate level from 0 (store) to 9 (smallest)
+     * @param pool Pool the bands are compressed on, which sets how many encoder threads are used
+     */
+    public PngExportFormat(int level, ForkJoinPool pool) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+        this.level = level;
+        this.pool = pool;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public String getName() {
+        return "png";
+    }
+
+    @Override
+    public String getDescription() {
+        return "PNG Images";
+    }
+
+    @Override
+    public String getExtension() {
+        return "png";
+    }
+
+    @Override
+    public void write(BufferedImage image, FileChannel channel, IntConsumer progress) throws IOException {
+        write(image, (WritableByteChannel) channel, progress);
+    }
+
+    /**
+     * Write to any channel, e.g. one over a byte array or a socket
+     */
+    public void write(BufferedImage image, WritableByteChannel channel, IntConsumer progress) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        int bytesPerPixel = alpha ? 4 : 3;
+        int rowBytes = width * bytesPerPixel + 1;
+        int rowsPerBand = Math.max(1, BAND_BYTES / rowBytes);
+        int bands = (height + rowsPerBand - 1) / rowsPerBand;
+
+        writeFully(channel, ByteBuffer.wrap(SIGNATURE));
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height)
+            .put((byte) 8)                   // bit depth
+            .put((byte) (alpha ? 6 : 2))     // colour type: RGBA or RGB
+            .put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(channel, "IHDR", header.array(), header.position());
+
+        // zlib header: deflate with a 32K window and the level hint, plus check bits so it divides by 31
+        int levelHint = level <= 1 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int zlibHeader = (0x78 << 8) | (levelHint << 6);
+        if (zlibHeader % 31 != 0) {
+            zlibHeader += 31 - zlibHeader % 31;
+        }
+        writeChunk(channel, "IDAT", new byte[] {(byte) (zlibHeader >> 8), (byte) zlibHeader}, 2);
+
+        Deque<ForkJoinTask<Band>> inFlight = new ArrayDeque<>();
+        int window = Math.max(2, pool.getParallelism() * 2);
+        int nextBand = 0;
+        long adler = 1;
+        int rowsWritten = 0;
+
+        try {
+            while (nextBand < bands || !inFlight.isEmpty()) {
+                while (nextBand < bands && inFlight.size() < window) {
+                    int firstRow = nextBand * rowsPerBand;
+                    int lastRow = Math.min(height, firstRow + rowsPerBand);
+                    boolean last = nextBand == bands - 1;
+                    inFlight.add(pool.submit(() -> encodeBestBand(image, firstRow, lastRow, bytesPerPixel, last)));
+                    nextBand++;
+                }
+
+                Band band = inFlight.poll().join();
+                writeChunk(channel, "IDAT", band.data, band.length);
+                adler = combineAdler32(adler, band.adler, band.rawLength);
+                rowsWritten += band.rows;
+                progress.accept((int) (rowsWritten * 100L / height));
+            }
+        } finally {
+            for (ForkJoinTask<Band> task : inFlight) {
+                task.cancel(false);
+            }
+        }
+
+        byte[] trailer = ByteBuffer.allocate(4).putInt((int) adler).array();
+        writeChunk(channel, "IDAT", trailer, 4);
+        writeChunk(channel, "IEND", new byte[0], 0);
+    }
+
+    private Band encodeBestBand(BufferedImage image, int firstRow, int lastRow, int bytesPerPixel, boolean last) {
+        Band unfiltered = encodeBand(image, firstRow, lastRow, bytesPerPixel, last, false);
+        if (level < ADAPTIVE_LEVEL) {
+            return unfiltered;
+        }
+        Band filtered = encodeBand(image, firstRow, lastRow, bytesPerPixel, last, true);
+        return filtered.length < unfiltered.length ? filtered : unfiltered;
+    }
+
+    /**
+     * Filter and deflate one band of rows
+     * The row above the band is read from the image, so bands do not depend on each other
+     * @param adaptive Choose a filter for every row rather than leaving rows unfiltered
+     */
+    private Band encodeBand(BufferedImage image, int firstRow, int lastRow, int bytesPerPixel, boolean last, boolean adaptive) {
+        int width = image.getWidth();
+        int stride = width * bytesPerPixel;
+        int[] argb = new int[width];
+        byte[] previous = new byte[stride];
+        byte[] current = new byte[stride];
+        byte[] filtered = new byte[stride + 1];
+        byte[] candidate = new byte[stride + 1];
+
+        if (firstRow > 0) {
+            image.getRGB(0, firstRow - 1, width, 1, argb, 0, width);
+            toBytes(argb, previous, bytesPerPixel);
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        Adler32 adler = new Adler32();
+        byte[] output = new byte[Math.max(64, (lastRow - firstRow) * (stride + 1) / 2)];
+        int length = 0;
+        try {
+            for (int y = firstRow; y < lastRow; y++) {
+                image.getRGB(0, y, width, 1, argb, 0, width);
+                toBytes(argb, current, bytesPerPixel);
+                if (adaptive) {
+                    filterRow(current, previous, bytesPerPixel, y == 0, filtered, candidate);
+                } else {
+                    applyFilter(FILTER_NONE, current, previous, bytesPerPixel, filtered);
+                }
+
+                adler.update(filtered);
+                deflater.setInput(filtered);
+                while (!deflater.needsInput()) {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    length += deflater.deflate(output, length, output.length - length, Deflater.NO_FLUSH);
+                }
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    length += deflater.deflate(output, length, output.length - length);
+                }
+            } else {
+                // A sync flush is complete once it leaves room in the output buffer
+                int written;
+                do {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    written = deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+                    length += written;
+                } while (length == output.length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        long rawLength = (long) (lastRow - firstRow) * (stride + 1);
+        return new Band(output, length, adler.getValue(), rawLength, lastRow - firstRow);
+    }
+
+    /**
+     * Pick the filter for a row and write the filter byte and filtered bytes into out
+     * The filter giving the smallest sum of absolute values is kept, the usual PNG heuristic
+     */
+    private void filterRow(byte[] row, byte[] above, int bpp, boolean firstRow, byte[] out, byte[] scratch) {
+        long best = Long.MAX_VALUE;
+        for (int filter : firstRow ? FIRST_ROW_FILTERS : ALL_FILTERS) {
+            applyFilter(filter, row, above, bpp, scratch);
+            long score = 0;
+            for (int i = 1; i < scratch.length; i++) {
+                score += Math.abs(scratch[i]);
+            }
+            if (score < best) {
+                best = score;
+                System.arraycopy(scratch, 0, out, 0, scratch.length);
+            }
+        }
+    }
+
+    private static void applyFilter(int filter, byte[] row, byte[] above, int bpp, byte[] out) {
+        out[0] = (byte) filter;
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int b = above[i] & 0xFF;
+            int c = i >= bpp ? above[i - bpp] & 0xFF : 0;
+            int predicted;
+            switch (filter) {
+                case FILTER_SUB:
+                    predicted = a;
+                    break;
+                case FILTER_UP:
+                    predicted = b;
+                    break;
+                case FILTER_AVERAGE:
+                    predicted = (a + b) >>> 1;
+                    break;
+                case FILTER_PAETH:
+                    predicted = paeth(a, b, c);
+                    break;
+                default:
+                    predicted = 0;
+                    break;
+            }
+            out[i + 1] = (byte) (x - predicted);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static void toBytes(int[] argb, byte[] out, int bytesPerPixel) {
+        int j = 0;
+        for (int pixel : argb) {
+            out[j++] = (byte) (pixel >> 16);
+            out[j++] = (byte) (pixel >> 8);
+            out[j++] = (byte) pixel;
+            if (bytesPerPixel == 4) {
+                out[j++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Adler-32 of two pieces of data joined together, from the checksums of each piece
+     * Same arithmetic as zlib's adler32_combine
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - remainder;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(WritableByteChannel channel, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        ByteBuffer head = ByteBuffer.allocate(8).putInt(length).put(typeBytes);
+        head.flip();
+        ByteBuffer tail = ByteBuffer.allocate(4).putInt((int) crc.getValue());
+        tail.flip();
+        writeFully(channel, head);
+        writeFully(channel, ByteBuffer.wrap(data, 0, length));
+        writeFully(channel, tail);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Compressed output of one band and what is needed to stitch it to the others
+     */
+    private static final class Band {
+        final byte[] data;
+        final int length;
+        final long adler;
+        final long rawLength;
+        final int rows;
+
+        Band(byte[] data, int length, long adler, long rawLength, int rows) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.rawLength = rawLength;
+            this.rows = rows;
+        }
+    }
+}
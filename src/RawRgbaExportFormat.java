@@ -0,0 +1,63 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.IntConsumer;
+
+/**
+ * Uncompressed pixels, four bytes per pixel in R, G, B, A order, rows top to bottom
+ * There is no header; tools reading the file need the width and height from elsewhere
+ */
+public class RawRgbaExportFormat implements ImageExportFormat {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    @Override
+    public String getName() {
+        return "rgba";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Raw RGBA Pixels";
+    }
+
+    @Override
+    public String getExtension() {
+        return "rgba";
+    }
+
+    @Override
+    public void write(BufferedImage image, FileChannel channel, IntConsumer progress) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, width * 4));
+        int lastProgress = -1;
+
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            if (buffer.remaining() < width * 4) {
+                drain(channel, buffer);
+            }
+            for (int argb : row) {
+                buffer.putInt((argb << 8) | (argb >>> 24));
+            }
+
+            int done = (int) ((y + 1) * 100L / height);
+            if (done != lastProgress) {
+                lastProgress = done;
+                progress.accept(done);
+            }
+        }
+        drain(channel, buffer);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,89 @@
+import java.awt.Rectangle;
+import java.util.function.Consumer;
+import javax.swing.Timer;
+
+/**
+ * Collects the areas of the canvas that changed and repaints them at most once per frame
+ * Every call to markDirty grows a single dirty rectangle; a Swing timer then hands the
+ * union to the repaint callback on the Event Dispatch Thread and starts a fresh region
+ */
+public class RepaintScheduler {
+
+    /** Roughly one frame at 60 Hz */
+    public static final int FRAME_MILLIS = 16;
+
+    private final Consumer<Rectangle> repaint;
+    private final Timer timer;
+    private Rectangle dirty;
+    private boolean suspended;
+    private long frameCount;
+
+    /**
+     * @param repaint Called on the EDT with the area to repaint
+     */
+    public RepaintScheduler(Consumer<Rectangle> repaint) {
+        this.repaint = repaint;
+        this.timer = new Timer(FRAME_MILLIS, e -> flush());
+        this.timer.setRepeats(false);
+        this.timer.setCoalesce(true);
+    }
+
+    /**
+     * Add an area to the region repainted on the next frame
+     */
+    public synchronized void markDirty(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (dirty == null) {
+            dirty = new Rectangle(x, y, width, height);
+        } else {
+            dirty.add(new Rectangle(x, y, width, height));
+        }
+        if (!suspended && !timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    public void markDirty(Rectangle area) {
+        markDirty(area.x, area.y, area.width, area.height);
+    }
+
+    /**
+     * Keep collecting dirty areas without repainting, e.g. while a file runs in instant mode
+     * Resuming repaints everything collected in the meantime in one go
+     */
+    public synchronized void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+        if (!suspended && dirty != null && !timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    public synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Number of repaints issued so far
+     */
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Repaint the collected region now, must be called on the EDT
+     */
+    public void flush() {
+        Rectangle area;
+        synchronized (this) {
+            if (suspended || dirty == null) {
+                return;
+            }
+            area = dirty;
+            dirty = null;
+            frameCount++;
+        }
+        repaint.accept(area);
+    }
+}
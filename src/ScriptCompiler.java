@@ -0,0 +1,756 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles command lines into a CompiledScript
+ * All parsing and validation happens here once; lines that are not valid are kept as
+ * OP_INVALID instructions so the backend can still report them when the script runs.
+ * Besides single commands the language has 'repeat N [ ... ]', procedures defined with
+ * 'to name :param ... end' and variables set with 'make name value' and read as ':name'.
+ * These compile to loops and calls over already parsed code, so a loop body is never parsed
+ * again. Variables and procedures stay defined for the life of the compiler.
+ * Which commands exist comes from its CommandRegistry: those registered with an instruction
+ * compile to it, and the rest, e.g. ones a program added to TurtleGraphics, compile to
+ * OP_COMMAND so the backend runs them, inside blocks too
+ */
+public class ScriptCompiler {
+
+    private static final Set<String> KEYWORDS = new HashSet<>();
+    /** A parameter that is more than plain numbers, e.g. ':size*2' */
+    private static final Pattern EXPRESSION = Pattern.compile("[:()*/%+\\[]|\\w-|repcount");
+    private static final Pattern NAME = Pattern.compile("[a-z_][a-z0-9_]*");
+
+    static {
+        KEYWORDS.add("repeat");
+        KEYWORDS.add("to");
+        KEYWORDS.add("end");
+        KEYWORDS.add("make");
+        KEYWORDS.add("repcount");
+    }
+
+    private final CommandRegistry registry;
+    private final Map<String, Integer> globals = new ConcurrentHashMap<>();
+    private final Map<String, ProcedureSignature> procedures = new ConcurrentHashMap<>();
+    private int procedureCount;
+
+    /**
+     * A compiler that only knows the built in commands
+     */
+    public ScriptCompiler() {
+        this(BuiltInCommands.newRegistry());
+    }
+
+    /**
+     * @param registry Every command the compiler knows; drawing commands are compiled to the
+     *                 instruction they were registered with, the rest are run by the backend
+     */
+    public ScriptCompiler(CommandRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Compile every non-blank line from a reader
+     * Blocks and procedures may span several lines
+     */
+    public CompiledScript compile(BufferedReader reader) throws IOException {
+        CompiledScript script = new CompiledScript();
+        StatementBuffer statements = new StatementBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String statement = statements.add(line);
+            if (statement != null) {
+                compileLine(statement, script);
+            }
+        }
+        if (statements.isPending()) {
+            compileLine(statements.getPending(), script);
+        }
+        return script;
+    }
+
+    /**
+     * Compile one line and append its instructions to the script
+     * Blank lines produce nothing. A line may hold a whole block joined by StatementBuffer
+     */
+    public void compileLine(String line, CompiledScript script) {
+        compileAhead(line, script);
+    }
+
+    /**
+     * Compile one line that may be dropped before it runs, e.g. by a loader that queues it
+     * Procedures it defines are declared straight away, so later lines can call them
+     * @return The procedures it declared, to be taken back with forgetDeclarations() if it never
+     *         runs; null if it declared none
+     */
+    public Declarations compileAhead(String line, CompiledScript script) {
+        if (line == null || line.trim().isEmpty()) {
+            return null;
+        }
+
+        String[] parts = line.trim().toLowerCase().split("\\s+", 2);
+        String commandName = parts[0];
+        String parameter = parts.length > 1 ? parts[1].trim() : null;
+
+        Declarations declarations = new Declarations();
+        try {
+            if (isStatement(commandName, parameter)) {
+                // Compiled on the side so a mistake halfway through leaves nothing behind
+                CompiledScript statement = new CompiledScript();
+                new StatementParser(line, statement, declarations).compileAll();
+                script.append(statement);
+            } else {
+                compileCommand(commandName, parameter, line, script);
+            }
+        } catch (IllegalArgumentException e) {
+            // Procedures defined earlier in the line would never run either
+            forgetDeclarations(declarations);
+            script.emit(CompiledScript.OP_INVALID, script.addConstant(line), script.addConstant(e.getMessage()));
+            return null;
+        }
+        return declarations.names.isEmpty() ? null : declarations;
+    }
+
+    /**
+     * Take back what a line compiled with compileAhead() declared, once it is certain not to run
+     * Each procedure goes back to what it was before, unless it has been declared again since.
+     * Dropped lines are taken back newest first
+     */
+    public synchronized void forgetDeclarations(Declarations declarations) {
+        for (int i = declarations.names.size() - 1; i >= 0; i--) {
+            String name = declarations.names.get(i);
+            if (procedures.get(name) == declarations.declared.get(i)) {
+                restoreProcedure(name, declarations.previous.get(i));
+            }
+        }
+    }
+
+    /**
+     * Whether a line uses repeat, procedures or variables rather than being a single plain command
+     */
+    public boolean isStatement(String line) {
+        if (line == null || line.trim().isEmpty()) {
+            return false;
+        }
+        String[] parts = line.trim().toLowerCase().split("\\s+", 2);
+        return isStatement(parts[0], parts.length > 1 ? parts[1] : null);
+    }
+
+    private boolean isStatement(String commandName, String parameter) {
+        if (KEYWORDS.contains(commandName) || procedures.containsKey(commandName)) {
+            return true;
+        }
+        Command command = registry.get(commandName);
+        if (command != null && (isPassThrough(command) || command.getParameterType() == Command.ParameterType.NONE)) {
+            return false;
+        }
+        return parameter != null && EXPRESSION.matcher(parameter).find();
+    }
+
+    /**
+     * A command run by the backend with its parameter as written: one without an instruction
+     * that takes free text, may leave its parameter out, or opens windows
+     */
+    private static boolean isPassThrough(Command command) {
+        return command.getOpcode() < 0 && (command.getParameterType() == Command.ParameterType.TEXT
+            || (command.getParameterType() == Command.ParameterType.INTEGERS && command.isParameterOptional())
+            || command.isEventThreadOnly());
+    }
+
+    /**
+     * A registered command, or null for the language's own words and unknown names
+     */
+    private Command registeredCommand(String name) {
+        return KEYWORDS.contains(name) ? null : registry.get(name);
+    }
+
+    /**
+     * Lines that define every procedure and variable again, for a compiler that has forgotten them
+     * A make for each variable comes first, in slot order so the variables get the same slots
+     * again, then the procedures in the order they were first declared
+     * @param globalValues Variables by slot, as ScriptInterpreter.copyGlobals() gives them
+     */
+    public synchronized List<String> describeState(int[] globalValues) {
+        List<String> lines = new ArrayList<>();
+        String[] bySlot = new String[globals.size()];
+        for (Map.Entry<String, Integer> global : globals.entrySet()) {
+            bySlot[global.getValue()] = global.getKey();
+        }
+        for (int slot = 0; slot < bySlot.length; slot++) {
+            lines.add("make " + bySlot[slot] + " " + (slot < globalValues.length ? globalValues[slot] : 0));
+        }
+
+        ProcedureSignature[] byId = new ProcedureSignature[procedureCount];
+        for (ProcedureSignature signature : procedures.values()) {
+            byId[signature.id] = signature;
+        }
+        for (ProcedureSignature signature : byId) {
+            if (signature != null && signature.source != null) {
+                lines.add(signature.source);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Compile what describeState() gave, after forgetAll()
+     * Every procedure is declared before any body is compiled, so definitions may call procedures
+     * defined after them
+     */
+    public void compileState(List<String> lines, CompiledScript script) {
+        Declarations declarations = new Declarations();
+        for (String line : lines) {
+            String[] words = line.trim().toLowerCase().split("\\s+");
+            if (words.length < 2 || !words[0].equals("to") || !NAME.matcher(words[1]).matches()) {
+                continue;
+            }
+            int parameterCount = 0;
+            while (parameterCount + 2 < words.length && words[parameterCount + 2].startsWith(":")) {
+                parameterCount++;
+            }
+            declareProcedure(words[1], parameterCount, declarations);
+        }
+        for (String line : lines) {
+            compileLine(line, script);
+        }
+    }
+
+    /**
+     * Forget every procedure and variable, e.g. before a saved session's own are compiled
+     */
+    public synchronized void forgetAll() {
+        globals.clear();
+        procedures.clear();
+        procedureCount = 0;
+    }
+
+    private synchronized int globalSlot(String name) {
+        Integer slot = globals.get(name);
+        if (slot == null) {
+            slot = globals.size();
+            globals.put(name, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Add or redefine a procedure; a redefined procedure keeps its number so earlier calls run the new body
+     * @param declarations Told about the declaration, so it can be taken back
+     */
+    private synchronized ProcedureSignature declareProcedure(String name, int parameterCount, Declarations declarations) {
+        ProcedureSignature previous = procedures.get(name);
+        ProcedureSignature signature = new ProcedureSignature(
+            previous != null ? previous.id : procedureCount++, parameterCount);
+        procedures.put(name, signature);
+        declarations.names.add(name);
+        declarations.previous.add(previous);
+        declarations.declared.add(signature);
+        return signature;
+    }
+
+    private synchronized void restoreProcedure(String name, ProcedureSignature previous) {
+        if (previous == null) {
+            procedures.remove(name);
+        } else {
+            procedures.put(name, previous);
+        }
+    }
+
+    private void compileCommand(String commandName, String parameter, String line, CompiledScript script) {
+        Command command = registeredCommand(commandName);
+        if (command == null) {
+            throw new IllegalArgumentException("Invalid command '" + commandName + "'. Type 'help' for a list of commands.");
+        }
+        if (command.getOpcode() < 0) {
+            script.emit(CompiledScript.OP_COMMAND, script.addConstant(line.trim()));
+            return;
+        }
+
+        String error = command.validate(parameter);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        int[] operands = command.getOperands();
+        if (operands.length == 0 && command.getParameterType() == Command.ParameterType.INTEGERS) {
+            operands = parseValues(parameter);
+        }
+        emitInstruction(command.getOpcode(), commandName, operands, script);
+    }
+
+    /**
+     * Emit an instruction once its values are in range
+     */
+    private void emitInstruction(int opcode, String commandName, int[] values, CompiledScript script) {
+        switch (opcode) {
+            case CompiledScript.OP_LEFT:
+            case CompiledScript.OP_RIGHT:
+                script.emit(opcode, values[0]);
+                break;
+            case CompiledScript.OP_PENCOLOUR:
+                script.emit(opcode, values.length == 1 ? values[0] : colour(values));
+                break;
+            case CompiledScript.OP_TRIANGLE:
+                if (values.length == 3) {
+                    compileTriangle(values, script);
+                    break;
+                }
+                script.emit(opcode, positive(commandName, values[0]));
+                break;
+            case CompiledScript.OP_MOVE:
+            case CompiledScript.OP_REVERSE:
+            case CompiledScript.OP_PENWIDTH:
+            case CompiledScript.OP_SQUARE:
+            case CompiledScript.OP_STAR:
+            case CompiledScript.OP_CIRCLE:
+            case CompiledScript.OP_HEXAGON:
+                script.emit(opcode, positive(commandName, values[0]));
+                break;
+            default:
+                script.emit(opcode);
+        }
+    }
+
+    private void compileTriangle(int[] sides, CompiledScript script) {
+        int a = positive("triangle", sides[0]);
+        int b = positive("triangle", sides[1]);
+        int c = positive("triangle", sides[2]);
+
+        if (a + b <= c || a + c <= b || b + c <= a) {
+            throw new IllegalArgumentException("Invalid triangle: The sum of any two sides must be greater than the third side.");
+        }
+        script.emit(CompiledScript.OP_TRIANGLE3, a, b, c);
+    }
+
+    private int colour(int[] rgb) {
+        int red = rgb[0];
+        int green = rgb[1];
+        int blue = rgb[2];
+
+        if (red < 0 || red > 255 || green < 0 || green > 255 || blue < 0 || blue > 255) {
+            throw new IllegalArgumentException("RGB values must be between 0 and 255. Example: pencolour 255,0,0");
+        }
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Comma separated whole numbers, already checked by Command.validate
+     */
+    private static int[] parseValues(String parameter) {
+        String[] parts = parameter.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private int positive(String commandName, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Parameter for '" + commandName + "' must be a positive number.");
+        }
+        return value;
+    }
+
+    /**
+     * Number a procedure is called by and how many values it takes
+     */
+    private static final class ProcedureSignature {
+        final int id;
+        final int parameterCount;
+        /** The whole definition, once its body has compiled */
+        volatile String source;
+
+        ProcedureSignature(int id, int parameterCount) {
+            this.id = id;
+            this.parameterCount = parameterCount;
+        }
+    }
+
+    /**
+     * Procedures one line declared, each with what its name meant before
+     */
+    public static final class Declarations {
+        private final List<String> names = new ArrayList<>();
+        private final List<ProcedureSignature> previous = new ArrayList<>();
+        private final List<ProcedureSignature> declared = new ArrayList<>();
+
+        private Declarations() {
+        }
+    }
+
+    /**
+     * Compiles one statement, which may hold any number of commands, blocks and definitions
+     * Words are separated by spaces and the brackets stand alone, so a value such as
+     * ':size*2' or '(:a+1)*2' must not contain spaces
+     */
+    private final class StatementParser {
+        private final String[] words;
+        private final CompiledScript script;
+        private final Declarations declarations;
+        private int position;
+        /** Parameters of the procedure being defined, or null outside one */
+        private Map<String, Integer> parameters;
+        /** Local where the loop counters of the outermost repeat start */
+        private int firstCounter;
+        private int loopDepth;
+        private int localsUsed;
+        /** Value being compiled and how far into it the expression parser is */
+        private String value;
+        private int at;
+
+        StatementParser(String text, CompiledScript script, Declarations declarations) {
+            this.words = text.trim().toLowerCase().replace("[", " [ ").replace("]", " ] ").trim().split("\\s+");
+            this.script = script;
+            this.declarations = declarations;
+        }
+
+        void compileAll() {
+            while (position < words.length) {
+                statement();
+            }
+            script.reserveLocals(localsUsed);
+        }
+
+        private void statement() {
+            String word = words[position++];
+            switch (word) {
+                case "repeat":
+                    repeat();
+                    break;
+                case "make":
+                    make();
+                    break;
+                case "to":
+                    define();
+                    break;
+                case "[":
+                case "]":
+                case "end":
+                case "repcount":
+                    throw new IllegalArgumentException("Unexpected '" + word + "'.");
+                default:
+                    command(word);
+            }
+        }
+
+        /**
+         * repeat count [ body ]
+         * Two locals per nesting level hold the remaining count and repcount
+         */
+        private void repeat() {
+            expression("repeat", next("Missing count for 'repeat'. Usage: repeat <count> [ <commands> ]"));
+            if (!"[".equals(next("Missing '[' after the count. Usage: repeat <count> [ <commands> ]"))) {
+                throw new IllegalArgumentException("Missing '[' after the count. Usage: repeat <count> [ <commands> ]");
+            }
+
+            int counter = firstCounter + 2 * loopDepth;
+            localsUsed = Math.max(localsUsed, counter + 2);
+            script.emit(CompiledScript.OP_REPEAT_START, counter);
+            int loop = script.size();
+            script.emit(CompiledScript.OP_REPEAT, counter, 0);
+
+            loopDepth++;
+            block("repeat");
+            loopDepth--;
+
+            script.emit(CompiledScript.OP_JUMP, loop - script.size());
+            script.patch(loop + 2, script.size() - loop);
+        }
+
+        /**
+         * Statements up to and including the closing ]
+         */
+        private void block(String owner) {
+            while (true) {
+                if (position >= words.length) {
+                    throw new IllegalArgumentException("Missing ']' to close '" + owner + "'.");
+                }
+                if (words[position].equals("]")) {
+                    position++;
+                    return;
+                }
+                statement();
+            }
+        }
+
+        /**
+         * make name value
+         * Inside a procedure a parameter's name sets the parameter, any other name a global
+         */
+        private void make() {
+            String name = variableName(next("Missing variable name. Usage: make <name> <value>"));
+            expression("make", next("Missing value for '" + name + "'. Usage: make <name> <value>"));
+
+            Integer local = parameters != null ? parameters.get(name) : null;
+            if (local != null) {
+                script.emit(CompiledScript.OP_STORE_LOCAL, local);
+            } else {
+                script.emit(CompiledScript.OP_STORE_GLOBAL, globalSlot(name));
+            }
+        }
+
+        /**
+         * to name :param ... [ body ] or the same with the body ended by 'end'
+         * The body is compiled inline and skipped; running the definition hands it to the interpreter
+         */
+        private void define() {
+            if (parameters != null || loopDepth > 0) {
+                throw new IllegalArgumentException("'to' cannot be used inside a repeat or another procedure.");
+            }
+            int first = position - 1;
+            String name = next("Missing procedure name. Usage: to <name> :<parameter> ... end");
+            if (!NAME.matcher(name).matches() || KEYWORDS.contains(name) || registry.contains(name)) {
+                throw new IllegalArgumentException("'" + name + "' cannot be used as a procedure name.");
+            }
+
+            Map<String, Integer> procedureParameters = new LinkedHashMap<>();
+            while (position < words.length && words[position].startsWith(":")) {
+                String parameter = variableName(words[position++]);
+                if (procedureParameters.putIfAbsent(parameter, procedureParameters.size()) != null) {
+                    throw new IllegalArgumentException("Parameter ':" + parameter + "' is listed twice.");
+                }
+            }
+
+            // Declared before the body so the procedure can call itself
+            ProcedureSignature signature = declareProcedure(name, procedureParameters.size(), declarations);
+            int outerLocals = localsUsed;
+            parameters = procedureParameters;
+            firstCounter = procedureParameters.size();
+            localsUsed = firstCounter;
+
+            int definition = script.size();
+            script.emit(CompiledScript.OP_DEFINE, signature.id, 0, 0);
+            // A mistake in the body is thrown on, and compileAhead() takes the declaration back
+            if (position < words.length && words[position].equals("[")) {
+                position++;
+                block("to " + name);
+            } else {
+                while (position >= words.length || !words[position].equals("end")) {
+                    if (position >= words.length) {
+                        throw new IllegalArgumentException("Missing 'end' for procedure '" + name + "'.");
+                    }
+                    statement();
+                }
+                position++;
+            }
+            script.emit(CompiledScript.OP_RETURN);
+            script.patch(definition + 2, localsUsed);
+            script.patch(definition + 3, script.size() - definition);
+            signature.source = String.join(" ", Arrays.copyOfRange(words, first, position));
+
+            parameters = null;
+            firstCounter = 0;
+            localsUsed = outerLocals;
+        }
+
+        /**
+         * A procedure call or a single command whose parameter may be an expression
+         */
+        private void command(String word) {
+            ProcedureSignature procedure = procedures.get(word);
+            if (procedure != null) {
+                for (int i = 0; i < procedure.parameterCount; i++) {
+                    expression(word, next("'" + word + "' needs " + procedure.parameterCount + " values."));
+                }
+                script.emit(CompiledScript.OP_CALL, procedure.id, procedure.parameterCount);
+                return;
+            }
+
+            Command registered = registeredCommand(word);
+            if (registered == null) {
+                throw new IllegalArgumentException("Invalid command '" + word + "'. Type 'help' for a list of commands.");
+            }
+            if (registered.getOpcode() < 0) {
+                compileRegistered(registered);
+                return;
+            }
+            if (registered.getParameterType() == Command.ParameterType.NONE) {
+                compileCommand(word, null, word, script);
+                return;
+            }
+
+            int opcode = registered.getOpcode();
+            String parameter = next("Missing parameter for '" + word + "'.");
+            if (!EXPRESSION.matcher(parameter).find()) {
+                compileCommand(word, parameter, word + " " + parameter, script);
+                return;
+            }
+
+            // Checked by the interpreter once the values are known
+            String[] values = parameter.split(",", -1);
+            int applied = opcode;
+            int expected = 1;
+            if (opcode == CompiledScript.OP_PENCOLOUR) {
+                expected = 3;
+            } else if (opcode == CompiledScript.OP_TRIANGLE && values.length == 3) {
+                applied = CompiledScript.OP_TRIANGLE3;
+                expected = 3;
+            }
+            if (values.length != expected) {
+                throw new IllegalArgumentException("Invalid number of parameters for '" + word + "'.");
+            }
+            for (String part : values) {
+                expression(word, part);
+            }
+            script.emit(CompiledScript.OP_APPLY, applied);
+        }
+
+        /**
+         * A command without an instruction, run by the backend with its parameter as written
+         * Its parameter is checked here, so it must be plain numbers that have to be given; free text,
+         * or a parameter that may be left out, could not be told apart from the rest of the block.
+         * Commands that open windows are refused too, rather than opened once per repeat
+         */
+        private void compileRegistered(Command registered) {
+            String name = registered.getName();
+            if (isPassThrough(registered)) {
+                throw new IllegalArgumentException("'" + name + "' cannot be used together with repeat, procedures or variables.");
+            }
+            if (registered.getParameterType() == Command.ParameterType.NONE) {
+                script.emit(CompiledScript.OP_COMMAND, script.addConstant(name));
+                return;
+            }
+
+            String parameter = next("Missing parameter for '" + name + "'. Usage: " + registered.getUsage());
+            if (EXPRESSION.matcher(parameter).find()) {
+                throw new IllegalArgumentException("Parameters for '" + name + "' must be plain numbers, not variables or sums.");
+            }
+            String error = registered.validate(parameter);
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            script.emit(CompiledScript.OP_COMMAND, script.addConstant(name + " " + parameter));
+        }
+
+        /**
+         * The next word, which must not be a bracket
+         */
+        private String next(String missing) {
+            if (position >= words.length || words[position].equals("]")) {
+                throw new IllegalArgumentException(missing);
+            }
+            return words[position++];
+        }
+
+        private String variableName(String word) {
+            String name = word.startsWith(":") || word.startsWith("\"") ? word.substring(1) : word;
+            if (!NAME.matcher(name).matches() || KEYWORDS.contains(name)) {
+                throw new IllegalArgumentException("'" + word + "' cannot be used as a variable name.");
+            }
+            return name;
+        }
+
+        // Expressions: + - * / % on whole numbers, brackets, :variables and repcount
+
+        private void expression(String owner, String text) {
+            value = text;
+            at = 0;
+            sum();
+            if (at < value.length()) {
+                throw new IllegalArgumentException("Cannot read '" + text + "' as a value for '" + owner + "'.");
+            }
+        }
+
+        private void sum() {
+            product();
+            while (at < value.length() && (value.charAt(at) == '+' || value.charAt(at) == '-')) {
+                char operator = value.charAt(at++);
+                product();
+                script.emit(operator == '+' ? CompiledScript.OP_ADD : CompiledScript.OP_SUB);
+            }
+        }
+
+        private void product() {
+            unary();
+            while (at < value.length() && "*/%".indexOf(value.charAt(at)) >= 0) {
+                char operator = value.charAt(at++);
+                unary();
+                script.emit(operator == '*' ? CompiledScript.OP_MUL
+                    : operator == '/' ? CompiledScript.OP_DIV : CompiledScript.OP_MOD);
+            }
+        }
+
+        private void unary() {
+            if (at < value.length() && value.charAt(at) == '-') {
+                at++;
+                unary();
+                script.emit(CompiledScript.OP_NEG);
+                return;
+            }
+            primary();
+        }
+
+        private void primary() {
+            if (at >= value.length()) {
+                throw new IllegalArgumentException("Value '" + value + "' ends too early.");
+            }
+            char c = value.charAt(at);
+            if (Character.isDigit(c)) {
+                int start = at;
+                while (at < value.length() && Character.isDigit(value.charAt(at))) {
+                    at++;
+                }
+                try {
+                    script.emit(CompiledScript.OP_PUSH, Integer.parseInt(value.substring(start, at)));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Number '" + value.substring(start, at) + "' is too large.");
+                }
+            } else if (c == '(') {
+                at++;
+                sum();
+                if (at >= value.length() || value.charAt(at) != ')') {
+                    throw new IllegalArgumentException("Missing ')' in '" + value + "'.");
+                }
+                at++;
+            } else if (c == ':') {
+                at++;
+                loadVariable(word());
+            } else if (Character.isLetter(c)) {
+                String word = word();
+                if (!word.equals("repcount")) {
+                    throw new IllegalArgumentException("Unknown value '" + word + "'. Variables are read with a colon, e.g. :" + word);
+                }
+                if (loopDepth == 0) {
+                    throw new IllegalArgumentException("'repcount' can only be used inside repeat.");
+                }
+                script.emit(CompiledScript.OP_LOAD_LOCAL, firstCounter + 2 * (loopDepth - 1) + 1);
+            } else {
+                throw new IllegalArgumentException("Unexpected '" + c + "' in '" + value + "'.");
+            }
+        }
+
+        private String word() {
+            int start = at;
+            while (at < value.length() && (Character.isLetterOrDigit(value.charAt(at)) || value.charAt(at) == '_')) {
+                at++;
+            }
+            return value.substring(start, at);
+        }
+
+        /**
+         * Parameters first, then globals; outside a procedure the variable must have been made already
+         */
+        private void loadVariable(String name) {
+            Integer local = parameters != null ? parameters.get(name) : null;
+            if (local != null) {
+                script.emit(CompiledScript.OP_LOAD_LOCAL, local);
+                return;
+            }
+            if (!NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException("':" + name + "' is not a variable name.");
+            }
+            if (parameters == null && !globals.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown variable ':" + name + "'. Give it a value first, e.g. make " + name + " 10");
+            }
+            script.emit(CompiledScript.OP_LOAD_GLOBAL, globalSlot(name));
+        }
+    }
+}
@@ -0,0 +1,458 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Runs a CompiledScript against a TurtleBackend
+ * Shapes are built from the backend's primitives, and typed commands run here too, so the
+ * GUI and the headless renderer produce the same picture from the same script.
+ * Loops, procedure calls and arithmetic run on an int stack with one array of locals per
+ * call, so a repeated body costs a few array reads per command and no parsing
+ */
+public class ScriptInterpreter {
+
+    /** Deepest procedure nesting before a call is refused, which keeps runaway recursion off the thread stack */
+    public static final int MAX_CALL_DEPTH = 1000;
+    private static final int[] NO_LOCALS = new int[0];
+
+    private final TurtleBackend backend;
+    private final CommandMetrics metrics;
+    /** Operands of the binary instruction being run; an interpreter is only used by one thread at a time */
+    private final int[] operands = new int[CompiledScript.MAX_ARITY];
+
+    private int[] stack = new int[32];
+    private int sp;
+    /** Variables set with make, by the slot the compiler gave them */
+    private int[] globals = new int[16];
+    /** Procedure bodies by number, filled in as definitions run */
+    private Procedure[] procedures = new Procedure[8];
+    private int callDepth;
+
+    public ScriptInterpreter(TurtleBackend backend) {
+        this(backend, null);
+    }
+
+    /**
+     * @param metrics Given the time taken by each instruction, may be null. OP_COMMAND and
+     *                OP_INVALID are left to the backend, which knows which command they ran
+     */
+    public ScriptInterpreter(TurtleBackend backend, CommandMetrics metrics) {
+        this.backend = backend;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Run every instruction in the script
+     */
+    public void run(CompiledScript script) {
+        run(script, 0, script.size());
+    }
+
+    /**
+     * Run the instructions between two code offsets
+     * The range must not cut through a repeat or a procedure definition. An error such as a
+     * division by zero stops the rest of the range and is reported to the backend
+     */
+    public void run(CompiledScript script, int from, int to) {
+        int savedSp = sp;
+        int savedDepth = callDepth;
+        try {
+            interpret(script, from, to, script.getLocalCount() == 0 ? NO_LOCALS : new int[script.getLocalCount()]);
+        } catch (ScriptError e) {
+            sp = savedSp;
+            callDepth = savedDepth;
+            backend.reportError(e.getMessage());
+        }
+    }
+
+    /**
+     * A copy of every variable set with make, by slot, to be put back with restoreGlobals()
+     */
+    public int[] copyGlobals() {
+        return globals.clone();
+    }
+
+    /**
+     * Put the variables back as copyGlobals() gave them; any set since then read as 0 again
+     */
+    public void restoreGlobals(int[] values) {
+        globals = values.clone();
+    }
+
+    /**
+     * Forget every variable and procedure, to go with ScriptCompiler.forgetAll()
+     */
+    public void forgetAll() {
+        globals = new int[16];
+        procedures = new Procedure[8];
+    }
+
+    private void interpret(CompiledScript script, int from, int to, int[] locals) {
+        int[] code = script.getCode();
+        IntFunction<String> constants = script::getConstant;
+        int pc = from;
+        while (pc < to) {
+            int opcode = code[pc];
+            switch (opcode) {
+                case CompiledScript.OP_PUSH:
+                    push(code[pc + 1]);
+                    break;
+                case CompiledScript.OP_LOAD_GLOBAL:
+                    push(code[pc + 1] < globals.length ? globals[code[pc + 1]] : 0);
+                    break;
+                case CompiledScript.OP_STORE_GLOBAL:
+                    storeGlobal(code[pc + 1], stack[--sp]);
+                    break;
+                case CompiledScript.OP_LOAD_LOCAL:
+                    push(locals[code[pc + 1]]);
+                    break;
+                case CompiledScript.OP_STORE_LOCAL:
+                    locals[code[pc + 1]] = stack[--sp];
+                    break;
+                case CompiledScript.OP_ADD:
+                    sp--;
+                    stack[sp - 1] += stack[sp];
+                    break;
+                case CompiledScript.OP_SUB:
+                    sp--;
+                    stack[sp - 1] -= stack[sp];
+                    break;
+                case CompiledScript.OP_MUL:
+                    sp--;
+                    stack[sp - 1] *= stack[sp];
+                    break;
+                case CompiledScript.OP_DIV:
+                case CompiledScript.OP_MOD:
+                    sp--;
+                    if (stack[sp] == 0) {
+                        throw new ScriptError("Division by zero.");
+                    }
+                    if (opcode == CompiledScript.OP_DIV) {
+                        stack[sp - 1] /= stack[sp];
+                    } else {
+                        stack[sp - 1] %= stack[sp];
+                    }
+                    break;
+                case CompiledScript.OP_NEG:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                case CompiledScript.OP_APPLY:
+                    apply(code[pc + 1], constants);
+                    break;
+                case CompiledScript.OP_REPEAT_START:
+                    locals[code[pc + 1]] = stack[--sp];
+                    locals[code[pc + 1] + 1] = 0;
+                    break;
+                case CompiledScript.OP_REPEAT: {
+                    int counter = code[pc + 1];
+                    if (locals[counter] <= 0) {
+                        pc += code[pc + 2];
+                        continue;
+                    }
+                    locals[counter]--;
+                    locals[counter + 1]++;
+                    break;
+                }
+                case CompiledScript.OP_JUMP:
+                    pc += code[pc + 1];
+                    continue;
+                case CompiledScript.OP_DEFINE: {
+                    int skip = code[pc + 3];
+                    define(code[pc + 1], new Procedure(script.slice(pc + 4, pc + skip), code[pc + 2]));
+                    pc += skip;
+                    continue;
+                }
+                case CompiledScript.OP_CALL:
+                    call(code[pc + 1], code[pc + 2]);
+                    break;
+                case CompiledScript.OP_RETURN:
+                    return;
+                default:
+                    execute(opcode, code, pc + 1, constants);
+            }
+            pc = script.next(pc);
+        }
+    }
+
+    private void push(int value) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp * 2);
+        }
+        stack[sp++] = value;
+    }
+
+    private void storeGlobal(int slot, int value) {
+        if (slot >= globals.length) {
+            globals = Arrays.copyOf(globals, Math.max(slot + 1, globals.length * 2));
+        }
+        globals[slot] = value;
+    }
+
+    private void define(int id, Procedure procedure) {
+        if (id >= procedures.length) {
+            procedures = Arrays.copyOf(procedures, Math.max(id + 1, procedures.length * 2));
+        }
+        procedures[id] = procedure;
+    }
+
+    /**
+     * Pop the arguments into a fresh set of locals and run the body
+     */
+    private void call(int id, int argumentCount) {
+        Procedure procedure = id < procedures.length ? procedures[id] : null;
+        if (procedure == null) {
+            throw new ScriptError("Procedure called before its definition was run.");
+        }
+        if (callDepth >= MAX_CALL_DEPTH) {
+            throw new ScriptError("Procedures nested more than " + MAX_CALL_DEPTH + " deep. Does a procedure call itself without stopping?");
+        }
+
+        int[] locals = new int[Math.max(procedure.localCount, argumentCount)];
+        sp -= argumentCount;
+        System.arraycopy(stack, sp, locals, 0, argumentCount);
+
+        callDepth++;
+        try {
+            interpret(procedure.body, 0, procedure.body.size(), locals);
+        } finally {
+            callDepth--;
+        }
+    }
+
+    /**
+     * Run a command whose values were worked out at run time, with the checks the compiler makes on literal values
+     */
+    private void apply(int opcode, IntFunction<String> constants) {
+        int count = opcode == CompiledScript.OP_PENCOLOUR || opcode == CompiledScript.OP_TRIANGLE3 ? 3 : 1;
+        sp -= count;
+        System.arraycopy(stack, sp, operands, 0, count);
+
+        String error = null;
+        switch (opcode) {
+            case CompiledScript.OP_LEFT:
+            case CompiledScript.OP_RIGHT:
+                break;
+            case CompiledScript.OP_PENCOLOUR:
+                for (int i = 0; i < 3; i++) {
+                    if (operands[i] < 0 || operands[i] > 255) {
+                        error = "RGB values must be between 0 and 255. Example: pencolour 255,0,0";
+                    }
+                }
+                operands[0] = (operands[0] << 16) | (operands[1] << 8) | operands[2];
+                break;
+            case CompiledScript.OP_TRIANGLE3:
+                int a = operands[0];
+                int b = operands[1];
+                int c = operands[2];
+                if (a <= 0 || b <= 0 || c <= 0) {
+                    error = "Parameter for 'triangle' must be a positive number.";
+                } else if (a + b <= c || a + c <= b || b + c <= a) {
+                    error = "Invalid triangle: The sum of any two sides must be greater than the third side.";
+                }
+                break;
+            default:
+                if (operands[0] <= 0) {
+                    error = "Parameter for '" + CompiledScript.opcodeName(opcode) + "' must be a positive number.";
+                }
+        }
+
+        if (error != null) {
+            if (metrics != null) {
+                metrics.recordOpcode(opcode, 0, true);
+            }
+            backend.reportError(error);
+            return;
+        }
+        execute(opcode, operands, 0, constants);
+    }
+
+    /**
+     * Run the single instruction at pc
+     * Only for single commands; loops and calls need run
+     * @return Offset of the next instruction
+     */
+    public int step(CompiledScript script, int pc) {
+        execute(script.getCode()[pc], script.getCode(), pc + 1, script::getConstant);
+        return script.next(pc);
+    }
+
+    /**
+     * Run every instruction of a binary script, decoding straight from its buffer
+     */
+    public void run(BinaryScript script) {
+        run(script, 0, script.size());
+    }
+
+    /**
+     * Run the instructions between two byte offsets of a binary script
+     * Operands are decoded into one reused array, so nothing is allocated per instruction
+     */
+    public void run(BinaryScript script, int from, int to) {
+        IntFunction<String> constants = script::getConstant;
+        int offset = from;
+        while (offset < to) {
+            int opcode = script.getOpcode(offset);
+            offset = script.decodeOperands(offset, operands);
+            execute(opcode, operands, 0, constants);
+        }
+    }
+
+    /**
+     * Carry out one instruction, timing it if there are metrics to record it in
+     * @param operands Array holding the instruction's operands
+     * @param at Index of the first operand in that array
+     * @param constants Looks up the strings OP_COMMAND and OP_INVALID refer to
+     */
+    private void execute(int opcode, int[] operands, int at, IntFunction<String> constants) {
+        if (metrics == null || opcode == CompiledScript.OP_COMMAND || opcode == CompiledScript.OP_INVALID) {
+            dispatch(opcode, operands, at, constants);
+            return;
+        }
+        // Any error the backend reported while it ran counts, not only the interpreter's own
+        long errorsBefore = backend.getErrorCount();
+        long start = System.nanoTime();
+        dispatch(opcode, operands, at, constants);
+        metrics.recordOpcode(opcode, System.nanoTime() - start, backend.getErrorCount() != errorsBefore);
+    }
+
+    private void dispatch(int opcode, int[] operands, int at, IntFunction<String> constants) {
+        switch (opcode) {
+            case CompiledScript.OP_PENUP:
+                backend.setPenDown(false);
+                break;
+            case CompiledScript.OP_PENDOWN:
+                backend.setPenDown(true);
+                break;
+            case CompiledScript.OP_LEFT:
+                backend.left(operands[at]);
+                break;
+            case CompiledScript.OP_RIGHT:
+                backend.right(operands[at]);
+                break;
+            case CompiledScript.OP_MOVE:
+                move(operands[at], "Move");
+                break;
+            case CompiledScript.OP_REVERSE:
+                move(-operands[at], "Reverse");
+                break;
+            case CompiledScript.OP_PENCOLOUR:
+                backend.setPenColour(new Color(operands[at]));
+                break;
+            case CompiledScript.OP_PENWIDTH:
+                backend.setPenWidth(operands[at]);
+                break;
+            case CompiledScript.OP_SQUARE:
+                drawReturningShape(operands[at], 4);
+                break;
+            case CompiledScript.OP_TRIANGLE:
+                drawReturningShape(operands[at], 3);
+                break;
+            case CompiledScript.OP_TRIANGLE3:
+                drawArbitraryTriangle(operands[at], operands[at + 1], operands[at + 2]);
+                break;
+            case CompiledScript.OP_STAR:
+                prepareForShapeDrawing();
+                repeatForward(operands[at], 5, 2);
+                break;
+            case CompiledScript.OP_CIRCLE:
+                prepareForShapeDrawing();
+                backend.circle(operands[at]);
+                break;
+            case CompiledScript.OP_HEXAGON:
+                prepareForShapeDrawing();
+                repeatForward(operands[at], 6, 1);
+                break;
+            case CompiledScript.OP_RESET:
+                backend.resetAll();
+                break;
+            case CompiledScript.OP_CLEAR:
+                backend.clear();
+                break;
+            case CompiledScript.OP_COMMAND:
+                backend.runCommand(constants.apply(operands[at]));
+                break;
+            case CompiledScript.OP_INVALID:
+                backend.invalidCommand(constants.apply(operands[at]), constants.apply(operands[at + 1]));
+                break;
+            default:
+                throw new IllegalStateException("Unknown opcode " + opcode);
+        }
+    }
+
+    /**
+     * Move, refusing to leave the canvas
+     */
+    private void move(int distance, String name) {
+        double radians = Math.toRadians(backend.getDirection());
+        double newX = backend.getPositionX() + distance * Math.cos(radians);
+        double newY = backend.getPositionY() + distance * Math.sin(radians);
+
+        if (newX < 0 || newX > backend.getCanvasWidth() || newY < 0 || newY > backend.getCanvasHeight()) {
+            backend.reportError(name + " out of bounds! The turtle cannot move off the screen.");
+            return;
+        }
+        backend.forward(distance);
+    }
+
+    /**
+     * Draw a shape and put the turtle back where it started
+     */
+    private void drawReturningShape(int size, int sides) {
+        prepareForShapeDrawing();
+        double startX = backend.getPositionX();
+        double startY = backend.getPositionY();
+        int startDirection = backend.getDirection();
+
+        repeatForward(size, sides, 1);
+
+        backend.moveTo(startX, startY, startDirection);
+    }
+
+    /**
+     * Law of cosines construction, see ShapeGeometry.arbitraryTriangle
+     */
+    private void drawArbitraryTriangle(int a, int b, int c) {
+        prepareForShapeDrawing();
+        double startX = backend.getPositionX();
+        double startY = backend.getPositionY();
+        int startDirection = backend.getDirection();
+
+        backend.drawShape(ShapeGeometry.arbitraryTriangle(startX, startY, startDirection, a, b, c));
+        backend.moveTo(startX, startY, startDirection);
+    }
+
+    /**
+     * Walk a regular path, see ShapeGeometry.regularWalk
+     */
+    private void repeatForward(int size, int times, int turns) {
+        backend.drawShape(ShapeGeometry.regularWalk(
+            backend.getPositionX(), backend.getPositionY(), backend.getDirection(), size, times, turns));
+    }
+
+    /**
+     * A procedure body copied out of the script that defined it
+     */
+    private static final class Procedure {
+        final CompiledScript body;
+        final int localCount;
+
+        Procedure(CompiledScript body, int localCount) {
+            this.body = body;
+            this.localCount = localCount;
+        }
+    }
+
+    /**
+     * Error found while running, e.g. a division by zero
+     */
+    private static final class ScriptError extends RuntimeException {
+        ScriptError(String message) {
+            super(message);
+        }
+    }
+
+    private void prepareForShapeDrawing() {
+        backend.setPenDown(true);
+        backend.setPenColour(Color.RED);
+    }
+}
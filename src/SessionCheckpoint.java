@@ -0,0 +1,124 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything needed to carry on drawing where a session stopped: the canvas pixels,
+ * where the turtle is and which way it faces, the pen, and the procedures and variables
+ * The command history is written and read alongside it, see SessionCheckpointFormat
+ */
+public final class SessionCheckpoint {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final double x;
+    private final double y;
+    private final int direction;
+    private final Color penColour;
+    private final int penWidth;
+    private final boolean penDown;
+    private final Color background;
+    private final List<String> script;
+
+    /**
+     * @param pixels ARGB, one row after another
+     * @param script Lines that define the procedures and variables again, see ScriptCompiler.describeState
+     */
+    public SessionCheckpoint(int width, int height, int[] pixels, double x, double y, int direction,
+                             Color penColour, int penWidth, boolean penDown, Color background, List<String> script) {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels but got " + pixels.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.x = x;
+        this.y = y;
+        this.direction = direction;
+        this.penColour = penColour;
+        this.penWidth = penWidth;
+        this.penDown = penDown;
+        this.background = background;
+        this.script = Collections.unmodifiableList(new ArrayList<>(script));
+    }
+
+    /**
+     * Take the pixels from an image
+     */
+    public SessionCheckpoint(BufferedImage image, double x, double y, int direction,
+                             Color penColour, int penWidth, boolean penDown, Color background, List<String> script) {
+        this(image.getWidth(), image.getHeight(),
+            image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()),
+            x, y, direction, penColour, penWidth, penDown, background, script);
+    }
+
+    /**
+     * Copy the pixels into an image of the same size
+     */
+    public void drawInto(BufferedImage image) {
+        if (image.getWidth() != width || image.getHeight() != height) {
+            throw new IllegalArgumentException("Checkpoint is " + width + "x" + height
+                + " but the image is " + image.getWidth() + "x" + image.getHeight());
+        }
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+    }
+
+    /**
+     * A new image holding the pixels
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.getRaster().setDataElements(0, 0, width, height, pixels);
+        return image;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * ARGB pixels, one row after another; not a copy
+     */
+    int[] getPixels() {
+        return pixels;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    public Color getPenColour() {
+        return penColour;
+    }
+
+    public int getPenWidth() {
+        return penWidth;
+    }
+
+    public boolean isPenDown() {
+        return penDown;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    public List<String> getScript() {
+        return script;
+    }
+}
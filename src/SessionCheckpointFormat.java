@@ -0,0 +1,307 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes a whole session in one file, so it can be resumed without replaying anything
+ * Layout, all integers big endian:
+ *   header    magic "TSC1", version (short), flags (short), width, height, turtle x and y (doubles),
+ *             direction, pen colour (ARGB), pen width, background (ARGB), pixel section length in
+ *             bytes (long), command count (long)
+ *   pixels    width * height ARGB ints, or when compressed the number of ints in their run length
+ *             encoding followed by that encoding deflated, see CanvasSnapshot
+ *   history   for each command, its UTF-8 length as a varint followed by the bytes
+ *   script    from version 2, the number of lines as a varint, then each line like a command
+ * Files are written through a FileChannel to a temporary file that then replaces the target,
+ * so an interrupted save never leaves half a checkpoint, and are read by mapping them
+ */
+public final class SessionCheckpointFormat {
+
+    /** "TSC1" in ASCII */
+    public static final int MAGIC = 0x54534331;
+    public static final short VERSION = 2;
+    public static final String EXTENSION = "tsc";
+
+    private static final int HEADER_SIZE = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final short FLAG_COMPRESSED = 1;
+    private static final short FLAG_PEN_DOWN = 2;
+
+    private SessionCheckpointFormat() {
+    }
+
+    /**
+     * Check the magic number at the start of a file
+     */
+    public static boolean isCheckpoint(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // Keep reading until the four bytes are in or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Write a checkpoint and the command history, replacing the file if it exists
+     * @param compress Run length encode and deflate the pixels; raw pixels are larger but read back faster
+     */
+    public static void write(SessionCheckpoint checkpoint, CommandHistoryStore history, Path path,
+                             boolean compress) throws IOException {
+        Path target = path.toAbsolutePath();
+        Path temporary = Files.createTempFile(target.getParent(), ".checkpoint-", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.position(HEADER_SIZE);
+                long pixelBytes = compress ? writeCompressedPixels(channel, checkpoint) : writeRawPixels(channel, checkpoint);
+                long commandCount = writeHistory(channel, history);
+                writeScript(channel, checkpoint.getScript());
+
+                short flags = (short) ((compress ? FLAG_COMPRESSED : 0) | (checkpoint.isPenDown() ? FLAG_PEN_DOWN : 0));
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putShort(VERSION).putShort(flags)
+                    .putInt(checkpoint.getWidth()).putInt(checkpoint.getHeight())
+                    .putDouble(checkpoint.getX()).putDouble(checkpoint.getY())
+                    .putInt(checkpoint.getDirection()).putInt(checkpoint.getPenColour().getRGB())
+                    .putInt(checkpoint.getPenWidth()).putInt(checkpoint.getBackground().getRGB())
+                    .putLong(pixelBytes).putLong(commandCount);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static long writeRawPixels(FileChannel channel, SessionCheckpoint checkpoint) throws IOException {
+        int[] pixels = checkpoint.getPixels();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        IntBuffer ints = buffer.asIntBuffer();
+        for (int offset = 0; offset < pixels.length; offset += ints.capacity()) {
+            int count = Math.min(ints.capacity(), pixels.length - offset);
+            ints.clear();
+            ints.put(pixels, offset, count);
+            buffer.clear().limit(count * Integer.BYTES);
+            writeFully(channel, buffer);
+        }
+        return (long) pixels.length * Integer.BYTES;
+    }
+
+    private static long writeCompressedPixels(FileChannel channel, SessionCheckpoint checkpoint) throws IOException {
+        int[] pixels = checkpoint.getPixels();
+        int[] runs = new int[pixels.length + 2];
+        int encodedLength = CanvasSnapshot.encodeRuns(pixels, runs);
+        ByteBuffer input = ByteBuffer.allocateDirect(encodedLength * Integer.BYTES);
+        input.asIntBuffer().put(runs, 0, encodedLength);
+
+        long start = channel.position();
+        ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        output.putInt(encodedLength);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflater.deflate(output);
+                if (!output.hasRemaining() || deflater.finished()) {
+                    output.flip();
+                    writeFully(channel, output);
+                    output.clear();
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return channel.position() - start;
+    }
+
+    private static long writeHistory(FileChannel channel, CommandHistoryStore history) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long[] count = new long[1];
+        try {
+            history.forEachCommand(command -> {
+                byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+                try {
+                    if (buffer.remaining() < 5 + bytes.length) {
+                        drain(channel, buffer);
+                    }
+                    BinaryScriptFormat.putVarint(buffer, bytes.length);
+                    if (bytes.length > buffer.remaining()) {
+                        drain(channel, buffer);
+                        writeFully(channel, ByteBuffer.wrap(bytes));
+                    } else {
+                        buffer.put(bytes);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        drain(channel, buffer);
+        return count[0];
+    }
+
+    private static void writeScript(FileChannel channel, List<String> script) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        BinaryScriptFormat.putVarint(buffer, script.size());
+        for (String line : script) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            if (buffer.remaining() < 5 + bytes.length) {
+                drain(channel, buffer);
+            }
+            BinaryScriptFormat.putVarint(buffer, bytes.length);
+            if (bytes.length > buffer.remaining()) {
+                drain(channel, buffer);
+                writeFully(channel, ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+        }
+        drain(channel, buffer);
+    }
+
+    /**
+     * Read a checkpoint, handing its commands to history in order
+     * Version 1 files have no procedures or variables, so they come back with none
+     */
+    public static SessionCheckpoint read(Path path, Consumer<String> history) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Checkpoint file is too large to map");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a session checkpoint");
+        }
+        short version = mapped.getShort(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+
+        try {
+            mapped.position(6);
+            short flags = mapped.getShort();
+            int width = mapped.getInt();
+            int height = mapped.getInt();
+            double x = mapped.getDouble();
+            double y = mapped.getDouble();
+            int direction = mapped.getInt();
+            Color penColour = new Color(mapped.getInt(), true);
+            int penWidth = mapped.getInt();
+            Color background = new Color(mapped.getInt(), true);
+            long pixelBytes = mapped.getLong();
+            long commandCount = mapped.getLong();
+            if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / Integer.BYTES || pixelBytes < 0) {
+                throw new IOException("Corrupt session checkpoint: bad canvas size");
+            }
+            if (HEADER_SIZE + pixelBytes > mapped.limit()) {
+                throw new IOException("Session checkpoint is truncated");
+            }
+
+            ByteBuffer pixelSection = mapped.slice(HEADER_SIZE, (int) pixelBytes);
+            int[] pixels = (flags & FLAG_COMPRESSED) != 0
+                ? readCompressedPixels(pixelSection, width * height)
+                : readRawPixels(pixelSection, width * height);
+
+            mapped.position(HEADER_SIZE + (int) pixelBytes);
+            for (long i = 0; i < commandCount; i++) {
+                byte[] bytes = new byte[BinaryScriptFormat.getVarint(mapped)];
+                mapped.get(bytes);
+                history.accept(new String(bytes, StandardCharsets.UTF_8));
+            }
+            List<String> script = new ArrayList<>();
+            int lineCount = version >= 2 ? BinaryScriptFormat.getVarint(mapped) : 0;
+            for (int i = 0; i < lineCount; i++) {
+                byte[] bytes = new byte[BinaryScriptFormat.getVarint(mapped)];
+                mapped.get(bytes);
+                script.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return new SessionCheckpoint(width, height, pixels, x, y, direction, penColour, penWidth,
+                (flags & FLAG_PEN_DOWN) != 0, background, script);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Session checkpoint is truncated", e);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt session checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    private static int[] readRawPixels(ByteBuffer section, int count) throws IOException {
+        if (section.limit() != count * Integer.BYTES) {
+            throw new IOException("Corrupt session checkpoint: wrong number of pixels");
+        }
+        int[] pixels = new int[count];
+        section.asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    private static int[] readCompressedPixels(ByteBuffer section, int count) throws IOException {
+        int encodedLength = section.getInt();
+        if (encodedLength < 0 || encodedLength > count + 2) {
+            throw new IOException("Corrupt session checkpoint: bad pixel encoding");
+        }
+        ByteBuffer encoded = ByteBuffer.allocate(encodedLength * Integer.BYTES);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(section);
+            while (encoded.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(encoded) == 0 && inflater.needsInput()) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt session checkpoint: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        if (encoded.hasRemaining()) {
+            throw new IOException("Corrupt session checkpoint: pixels are truncated");
+        }
+
+        int[] runs = new int[encodedLength];
+        encoded.flip();
+        encoded.asIntBuffer().get(runs);
+        int[] pixels = new int[count];
+        CanvasSnapshot.decodeRuns(runs, encodedLength, pixels);
+        return pixels;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many independent drawing sessions in one JVM, each a HeadlessTurtle with no windows
+ * Canvases come from a CanvasPool, so the memory they take together is capped. When a new
+ * session does not fit, the sessions used least recently are closed to make room, and any
+ * session left unused for longer than the idle timeout is closed by a background sweep.
+ * A session that is running a command is never closed under it
+ * Sessions are named by their callers, e.g. after the user they draw for. Commands for one
+ * session run one at a time; different sessions run at the same time on the callers' threads
+ */
+public class SessionManager implements Closeable {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 1024L * 1024 * 1024;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    private final CanvasPool canvasPool;
+    private final long idleTimeoutNanos;
+    private final ScheduledExecutorService sweeper;
+    /** In order of last use, least recent first; guarded by this */
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private long evictedCount;
+
+    /**
+     * Default memory budget and idle timeout
+     */
+    public SessionManager() {
+        this(DEFAULT_MEMORY_BUDGET, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param memoryBudget Most bytes the canvases of every session may hold together
+     * @param idleTimeoutMillis How long a session may go unused before it is closed
+     */
+    public SessionManager(long memoryBudget, long idleTimeoutMillis) {
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+        this.canvasPool = new CanvasPool(memoryBudget);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(10, idleTimeoutMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start a session on a blank canvas, closing least recently used sessions if it does not fit
+     * @throws IllegalArgumentException If a session of that name is already open
+     * @throws IllegalStateException If the canvas does not fit even with every idle session closed
+     */
+    public void open(String id, int width, int height, Color background) {
+        List<Session> evicted = new ArrayList<>();
+        try {
+            synchronized (this) {
+                if (sessions.containsKey(id)) {
+                    throw new IllegalArgumentException("Session '" + id + "' is already open");
+                }
+                if (CanvasPool.bytesFor(width, height) > canvasPool.getMemoryBudget()) {
+                    throw new IllegalStateException("A " + width + "x" + height + " canvas is larger than the whole memory budget");
+                }
+                BufferedImage canvas = canvasPool.acquire(width, height);
+                while (canvas == null) {
+                    Session leastRecent = leastRecentIdle();
+                    if (leastRecent == null) {
+                        throw new IllegalStateException("No room for a " + width + "x" + height
+                            + " canvas: every session within the memory budget is busy");
+                    }
+                    sessions.remove(leastRecent.id);
+                    evictedCount++;
+                    leastRecent.closed = true;
+                    // Given back straight away so the canvas can be reused for this session
+                    leastRecent.release(canvasPool);
+                    evicted.add(leastRecent);
+                    canvas = canvasPool.acquire(width, height);
+                }
+                sessions.put(id, new Session(id, new HeadlessTurtle(canvas, background)));
+            }
+        } finally {
+            for (Session session : evicted) {
+                session.disposeGraphics();
+            }
+        }
+    }
+
+    /**
+     * Run a command line in a session, as typed
+     * @return The errors it reported, empty if none
+     * @throws IllegalArgumentException If no session of that name is open
+     */
+    public List<String> run(String id, String command) {
+        Session session = use(id);
+        try {
+            synchronized (session) {
+                HeadlessTurtle turtle = session.turtle;
+                turtle.processCommand(command);
+                List<String> errors = new ArrayList<>(turtle.getErrors());
+                turtle.clearErrors();
+                return errors;
+            }
+        } finally {
+            doneWith(session);
+        }
+    }
+
+    /**
+     * A copy of a session's canvas
+     * @throws IllegalArgumentException If no session of that name is open
+     */
+    public BufferedImage snapshot(String id) {
+        Session session = use(id);
+        try {
+            synchronized (session) {
+                BufferedImage canvas = session.turtle.getBufferedImage();
+                return new BufferedImage(canvas.getColorModel(), canvas.copyData(null), canvas.isAlphaPremultiplied(), null);
+            }
+        } finally {
+            doneWith(session);
+        }
+    }
+
+    /**
+     * Close a session and give its canvas back to the pool
+     * A command it is running finishes first
+     * @return False if no session of that name was open
+     */
+    public boolean close(String id) {
+        Session session;
+        synchronized (this) {
+            session = sessions.remove(id);
+            if (session == null) {
+                return false;
+            }
+            session.closed = true;
+            if (session.users > 0) {
+                // The last user gives the canvas back, see doneWith()
+                return true;
+            }
+            session.release(canvasPool);
+        }
+        session.disposeGraphics();
+        return true;
+    }
+
+    /**
+     * Close every session that has gone unused for longer than the idle timeout
+     * Runs by itself every half timeout
+     * @return Sessions closed
+     */
+    public int evictIdle() {
+        List<Session> evicted = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (this) {
+            Iterator<Session> leastRecentFirst = sessions.values().iterator();
+            while (leastRecentFirst.hasNext()) {
+                Session session = leastRecentFirst.next();
+                if (now - session.lastUsed <= idleTimeoutNanos) {
+                    // Everything after it was used more recently
+                    break;
+                }
+                if (session.users > 0) {
+                    continue;
+                }
+                leastRecentFirst.remove();
+                evictedCount++;
+                session.closed = true;
+                session.release(canvasPool);
+                evicted.add(session);
+            }
+        }
+        for (Session session : evicted) {
+            session.disposeGraphics();
+        }
+        return evicted.size();
+    }
+
+    public synchronized boolean isOpen(String id) {
+        // Looked up without get(), which would count as a use
+        return sessions.containsKey(id);
+    }
+
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Sessions closed to make room or for being idle, since the manager was made
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public CanvasPool getCanvasPool() {
+        return canvasPool;
+    }
+
+    /**
+     * Stop the idle sweep and close every session
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        List<String> ids;
+        synchronized (this) {
+            ids = new ArrayList<>(sessions.keySet());
+        }
+        for (String id : ids) {
+            close(id);
+        }
+        canvasPool.trim();
+    }
+
+    /**
+     * Look a session up as the most recently used and keep it open until doneWith()
+     */
+    private synchronized Session use(String id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            throw new IllegalArgumentException("No session named '" + id + "' is open");
+        }
+        session.users++;
+        return session;
+    }
+
+    private void doneWith(Session session) {
+        boolean lastOfClosed;
+        synchronized (this) {
+            session.users--;
+            session.lastUsed = System.nanoTime();
+            lastOfClosed = session.closed && session.users == 0;
+            if (lastOfClosed) {
+                session.release(canvasPool);
+            } else if (!session.closed) {
+                // Moved to the most recent end again, so the order is by when sessions were last finished with
+                sessions.get(session.id);
+            }
+        }
+        if (lastOfClosed) {
+            session.disposeGraphics();
+        }
+    }
+
+    /**
+     * The session used least recently that nobody is using, or null if all are in use
+     */
+    private Session leastRecentIdle() {
+        for (Session session : sessions.values()) {
+            if (session.users == 0) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One user's turtle and canvas
+     * users, lastUsed and closed are guarded by the manager, the turtle by the session itself
+     */
+    private static final class Session {
+        private final String id;
+        private final HeadlessTurtle turtle;
+        private int users;
+        private long lastUsed = System.nanoTime();
+        private boolean closed;
+
+        Session(String id, HeadlessTurtle turtle) {
+            this.id = id;
+            this.turtle = turtle;
+        }
+
+        void release(CanvasPool pool) {
+            pool.release(turtle.getBufferedImage());
+        }
+
+        void disposeGraphics() {
+            synchronized (this) {
+                turtle.dispose();
+            }
+        }
+    }
+}
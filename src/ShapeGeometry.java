@@ -0,0 +1,213 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+
+/**
+ * The vertices a turtle passes through while drawing a shape, worked out all at once
+ * Vertices are exact, not rounded to pixels, so a shape closes where it started and a turtle
+ * walking the same edges one by one arrives at the same point. An outline is worked out once
+ * at the origin facing 0 degrees and shared through a ShapeGeometryCache; placing it at the
+ * turtle is only a translation and a rotation
+ */
+public final class ShapeGeometry {
+
+    private static final ShapeGeometryCache CACHE = new ShapeGeometryCache();
+
+    /** Vertices at the origin, facing 0 degrees */
+    private final double[] xPoints;
+    private final double[] yPoints;
+    /** Whole degrees turned from the first edge to the end direction */
+    private final int endTurn;
+    private final double originX;
+    private final double originY;
+    private final int direction;
+    private final double cos;
+    private final double sin;
+    /** Path at the origin, made on first use and shared by every placed copy */
+    private final Outline outline;
+
+    private ShapeGeometry(double[] xPoints, double[] yPoints, int endTurn,
+                          double originX, double originY, int direction, Outline outline) {
+        this.xPoints = xPoints;
+        this.yPoints = yPoints;
+        this.endTurn = endTurn;
+        this.originX = originX;
+        this.originY = originY;
+        this.direction = direction;
+        double radians = Math.toRadians(direction);
+        this.cos = Math.cos(radians);
+        this.sin = Math.sin(radians);
+        this.outline = outline;
+    }
+
+    /**
+     * Cache shared by regularWalk and arbitraryTriangle, e.g. to read its hit rate or resize it
+     */
+    public static ShapeGeometryCache getCache() {
+        return CACHE;
+    }
+
+    /**
+     * Walk forward by the same length a number of times, turning right after each edge
+     * The turn is 360 * turns / edges degrees, exactly, so any polygon closes
+     * @param x Start x position
+     * @param y Start y position
+     * @param direction Start direction in degrees
+     * @param length Length of each edge
+     * @param edges Number of edges
+     * @param turns Full turns made over the whole walk, 1 for a polygon and 2 for a five-pointed star
+     */
+    public static ShapeGeometry regularWalk(double x, double y, int direction, int length, int edges, int turns) {
+        return CACHE.regularWalk(length, edges, turns).place(x, y, direction);
+    }
+
+    /**
+     * Triangle from three side lengths, using the law of cosines for the turns
+     * The turtle turns after the first two sides only
+     */
+    public static ShapeGeometry arbitraryTriangle(double x, double y, int direction, int a, int b, int c) {
+        return CACHE.arbitraryTriangle(a, b, c).place(x, y, direction);
+    }
+
+    /**
+     * regularWalk from the origin facing 0 degrees, without the cache
+     */
+    static ShapeGeometry computeRegularWalk(int length, int edges, int turns) {
+        double[] xs = new double[edges + 1];
+        double[] ys = new double[edges + 1];
+        double angle = 360.0 * turns / edges;
+
+        for (int i = 1; i <= edges; i++) {
+            double radians = Math.toRadians(angle * (i - 1));
+            xs[i] = xs[i - 1] + length * Math.cos(radians);
+            ys[i] = ys[i - 1] + length * Math.sin(radians);
+        }
+        return new ShapeGeometry(xs, ys, 360 * turns, 0, 0, 0, new Outline());
+    }
+
+    /**
+     * arbitraryTriangle from the origin facing 0 degrees, without the cache
+     */
+    static ShapeGeometry computeArbitraryTriangle(int a, int b, int c) {
+        double degreeC = Math.toDegrees(Math.acos((a*a + b*b - c*c) / (2.0 * a * b)));
+        double degreeA = Math.toDegrees(Math.acos((b*b + c*c - a*a) / (2.0 * b * c)));
+
+        int[] lengths = {a, b, c};
+        double[] turns = {180 - degreeC, 180 - degreeA, 0};
+        double[] xs = new double[4];
+        double[] ys = new double[4];
+
+        double heading = 0;
+        for (int i = 0; i < 3; i++) {
+            double radians = Math.toRadians(heading);
+            xs[i + 1] = xs[i] + lengths[i] * Math.cos(radians);
+            ys[i + 1] = ys[i] + lengths[i] * Math.sin(radians);
+            heading += turns[i];
+        }
+        return new ShapeGeometry(xs, ys, (int) Math.round(heading), 0, 0, 0, new Outline());
+    }
+
+    /**
+     * The same outline starting somewhere else and facing another way; the vertex arrays are shared, not copied
+     */
+    public ShapeGeometry place(double x, double y, int direction) {
+        return new ShapeGeometry(xPoints, yPoints, endTurn, x, y, direction, outline);
+    }
+
+    /**
+     * All edges as one open path, ready to be stroked in a single call
+     */
+    public Path2D toPath() {
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, xPoints.length);
+        path.moveTo(getX(0), getY(0));
+        for (int i = 1; i < xPoints.length; i++) {
+            path.lineTo(getX(i), getY(i));
+        }
+        return path;
+    }
+
+    /**
+     * Stroke every edge with the graphics' current colour and stroke
+     * The path built once at the origin is drawn through a translation and a rotation
+     */
+    public void draw(Graphics2D g) {
+        AffineTransform saved = g.getTransform();
+        try {
+            g.translate(originX, originY);
+            g.transform(AffineTransform.getRotateInstance(cos, sin));
+            g.draw(outline.path(this));
+        } finally {
+            g.setTransform(saved);
+        }
+    }
+
+    /**
+     * Smallest whole pixel rectangle holding every vertex, grown by the pen width
+     */
+    public Rectangle getBounds(int penWidth) {
+        double minX = getX(0);
+        double minY = getY(0);
+        double maxX = minX;
+        double maxY = minY;
+        for (int i = 1; i < xPoints.length; i++) {
+            minX = Math.min(minX, getX(i));
+            minY = Math.min(minY, getY(i));
+            maxX = Math.max(maxX, getX(i));
+            maxY = Math.max(maxY, getY(i));
+        }
+        int pad = penWidth / 2 + 1;
+        int left = (int) Math.floor(minX) - pad;
+        int top = (int) Math.floor(minY) - pad;
+        return new Rectangle(left, top, (int) Math.ceil(maxX) + pad - left, (int) Math.ceil(maxY) + pad - top);
+    }
+
+    public int getPointCount() {
+        return xPoints.length;
+    }
+
+    public double getX(int index) {
+        return originX + xPoints[index] * cos - yPoints[index] * sin;
+    }
+
+    public double getY(int index) {
+        return originY + xPoints[index] * sin + yPoints[index] * cos;
+    }
+
+    public double getEndX() {
+        return getX(xPoints.length - 1);
+    }
+
+    public double getEndY() {
+        return getY(yPoints.length - 1);
+    }
+
+    /**
+     * Direction the turtle faces after the last edge
+     */
+    public int getEndDirection() {
+        return normalise(direction + endTurn);
+    }
+
+    private static int normalise(int degrees) {
+        int result = degrees % 360;
+        return result < 0 ? result + 360 : result;
+    }
+
+    /**
+     * Path relative to the start point, facing 0 degrees
+     * Two threads may both build it on first use; either result is the same
+     */
+    private static final class Outline {
+        private volatile Path2D path;
+
+        Path2D path(ShapeGeometry shape) {
+            Path2D result = path;
+            if (result == null) {
+                result = shape.place(0, 0, 0).toPath();
+                path = result;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of shape geometry worked out at the origin, facing 0 degrees
+ * Scripts draw the same few shapes again and again; a hit skips the trigonometry and only
+ * the translation and rotation to the turtle's position and heading is left, so one entry
+ * serves a shape at every heading. Safe to use from any thread
+ */
+public class ShapeGeometryCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final LinkedHashMap<Key, ShapeGeometry> entries = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ShapeGeometry> eldest) {
+            return size() > capacity;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int capacity;
+
+    public ShapeGeometryCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Most shapes kept, 0 turns caching off
+     */
+    public ShapeGeometryCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Outline of ShapeGeometry.regularWalk starting at the origin
+     */
+    public ShapeGeometry regularWalk(int length, int edges, int turns) {
+        Key key = new Key(Key.WALK, length, edges, turns);
+        ShapeGeometry shape = lookUp(key);
+        if (shape == null) {
+            shape = ShapeGeometry.computeRegularWalk(length, edges, turns);
+            store(key, shape);
+        }
+        return shape;
+    }
+
+    /**
+     * Outline of ShapeGeometry.arbitraryTriangle starting at the origin
+     */
+    public ShapeGeometry arbitraryTriangle(int a, int b, int c) {
+        Key key = new Key(Key.TRIANGLE, a, b, c);
+        ShapeGeometry shape = lookUp(key);
+        if (shape == null) {
+            shape = ShapeGeometry.computeArbitraryTriangle(a, b, c);
+            store(key, shape);
+        }
+        return shape;
+    }
+
+    private synchronized ShapeGeometry lookUp(Key key) {
+        ShapeGeometry shape = entries.get(key);
+        if (shape != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return shape;
+    }
+
+    private synchronized void store(Key key, ShapeGeometry shape) {
+        if (capacity > 0) {
+            entries.put(key, shape);
+        }
+    }
+
+    /**
+     * Change how many shapes are kept, dropping the least recently used ones if it shrinks
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity cannot be negative");
+        }
+        this.capacity = capacity;
+        Iterator<Map.Entry<Key, ShapeGeometry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > capacity && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Share of look ups answered from the cache, from 0 to 1
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Forget the hit and miss counts, keeping the cached shapes
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Kind of shape and three numbers describing it
+     */
+    private static final class Key {
+        static final int WALK = 0;
+        static final int TRIANGLE = 1;
+
+        final int kind;
+        final int first;
+        final int second;
+        final int third;
+
+        Key(int kind, int first, int second, int third) {
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+            this.third = third;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return kind == key.kind
+                && first == key.first && second == key.second && third == key.third;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = kind;
+            hash = 31 * hash + first;
+            hash = 31 * hash + second;
+            return 31 * hash + third;
+        }
+    }
+}
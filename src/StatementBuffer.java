@@ -0,0 +1,81 @@
+/**
+ * Joins the lines of a block that spans several lines into one statement
+ * A statement is complete once every [ has its ] and a 'to' written without brackets has
+ * reached its 'end'. Lines are joined with spaces, which the compiler reads the same as
+ * line breaks
+ */
+public class StatementBuffer {
+
+    private final StringBuilder pending = new StringBuilder();
+    private int depth;
+    private boolean inProcedure;
+
+    /**
+     * Add the next line
+     * @return The complete statement, the line itself if it needs nothing after it,
+     *         or null if the statement goes on in the lines that follow
+     */
+    public String add(String line) {
+        String trimmed = line.trim();
+        boolean starting = pending.length() == 0;
+        if (starting) {
+            if (trimmed.isEmpty()) {
+                return line;
+            }
+            String[] words = trimmed.toLowerCase().split("\\s+");
+            inProcedure = words[0].equals("to") && trimmed.indexOf('[') < 0;
+        } else {
+            pending.append(' ');
+        }
+
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            }
+        }
+
+        boolean complete = depth <= 0 && (!inProcedure || endsWithEnd(trimmed));
+        if (complete && starting) {
+            clear();
+            return line;
+        }
+        pending.append(trimmed);
+        if (!complete) {
+            return null;
+        }
+        String statement = pending.toString();
+        clear();
+        return statement;
+    }
+
+    /**
+     * Whether lines have been taken that do not yet make a whole statement
+     */
+    public boolean isPending() {
+        return pending.length() > 0;
+    }
+
+    /**
+     * The lines of the unfinished statement joined so far
+     */
+    public String getPending() {
+        return pending.toString();
+    }
+
+    /**
+     * Drop an unfinished statement
+     */
+    public void clear() {
+        pending.setLength(0);
+        depth = 0;
+        inProcedure = false;
+    }
+
+    private static boolean endsWithEnd(String line) {
+        String[] words = line.toLowerCase().split("\\s+");
+        return words[words.length - 1].equals("end");
+    }
+}
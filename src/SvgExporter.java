@@ -0,0 +1,80 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Base64;
+import javax.imageio.ImageIO;
+
+/**
+ * Writes a DisplayList as an SVG document
+ * Strokes use the same square caps and miter joins as java.awt.BasicStroke, so the SVG
+ * lines up with the PNG drawn from the same list
+ */
+public class SvgExporter {
+
+    private SvgExporter() {
+    }
+
+    /**
+     * Write the whole list in drawing order
+     * @param backdrop Raster the strokes were drawn over, e.g. a loaded image, or null for a plain background
+     */
+    public static void write(DisplayList displayList, int width, int height, Color background,
+                             BufferedImage backdrop, Writer out) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height
+            + "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+        out.write("<rect width=\"100%\" height=\"100%\" fill=\"" + hex(background.getRGB()) + "\"/>\n");
+        if (backdrop != null) {
+            out.write("<image width=\"" + backdrop.getWidth() + "\" height=\"" + backdrop.getHeight()
+                + "\" href=\"data:image/png;base64," + pngBase64(backdrop) + "\"/>\n");
+        }
+        out.write("<g fill=\"none\" stroke-linecap=\"square\" stroke-linejoin=\"miter\" stroke-miterlimit=\"10\">\n");
+
+        int size = displayList.size();
+        int i = 0;
+        while (i < size) {
+            String stroke = " stroke=\"" + hex(displayList.getColour(i)) + "\" stroke-width=\""
+                + number(displayList.getWidth(i)) + "\"/>\n";
+
+            if (displayList.getKind(i) == DisplayList.CIRCLE) {
+                out.write("<circle cx=\"" + number(displayList.getX1(i)) + "\" cy=\"" + number(displayList.getY1(i))
+                    + "\" r=\"" + number(displayList.getX2(i)) + "\"" + stroke);
+                i++;
+                continue;
+            }
+
+            // A run of joined lines becomes one path, as it is stroked as one path on the canvas
+            StringBuilder path = new StringBuilder("<path d=\"M")
+                .append(number(displayList.getX1(i))).append(' ').append(number(displayList.getY1(i)));
+            int end = i;
+            do {
+                path.append(" L").append(number(displayList.getX2(end))).append(' ').append(number(displayList.getY2(end)));
+                end++;
+            } while (end < size && displayList.getKind(end) == DisplayList.JOINED_LINE);
+            out.write(path.append('"').append(stroke).toString());
+            i = end;
+        }
+
+        out.write("</g>\n</svg>\n");
+    }
+
+    private static String hex(int rgb) {
+        return String.format("#%06x", rgb & 0xFFFFFF);
+    }
+
+    /**
+     * Whole numbers are written without a fraction, which is nearly every coordinate the turtle produces
+     * Others are written to float precision, far finer than a pixel and half as long
+     */
+    private static String number(double value) {
+        return value == (int) value ? Integer.toString((int) value) : Float.toString((float) value);
+    }
+
+    private static String pngBase64(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,182 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders a DisplayList by splitting the canvas into square tiles and drawing the tiles in parallel
+ * Each item is binned into every tile its bounds touch; a tile then draws its items in their
+ * original order into its own clipped region of the result image. The result has the same
+ * pixels as drawing the same commands straight onto one image with HeadlessTurtle
+ */
+public class TileRasterizer {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private final int tileSize;
+    private final ForkJoinPool pool;
+
+    public TileRasterizer() {
+        this(DEFAULT_TILE_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param tileSize Width and height of a tile in pixels
+     * @param pool Pool the tiles are drawn on
+     */
+    public TileRasterizer(int tileSize, ForkJoinPool pool) {
+        this.tileSize = tileSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Trace a compiled script and render the result
+     */
+    public BufferedImage render(CompiledScript script, int width, int height, Color background) {
+        PathTracer tracer = new PathTracer(width, height);
+        tracer.run(script);
+        return render(tracer.getDisplayList(), width, height, background);
+    }
+
+    /**
+     * Render a display list onto a new image
+     */
+    public BufferedImage render(DisplayList displayList, int width, int height, Color background) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        int[][] bins = binItems(displayList, tilesX, tilesY);
+
+        pool.invoke(new TileTask(image, displayList, bins, tilesX, background, 0, tilesX * tilesY));
+        return image;
+    }
+
+    /**
+     * Build, for every tile, the indexes of the items that touch it, in list order
+     * A run of joined lines is binned whole wherever any of it lands, so every tile strokes the
+     * same path the full canvas would; a path cut into pieces would blend twice where it crosses itself
+     * Done in two passes, counting then filling, so each bin is one exactly sized array
+     */
+    private int[][] binItems(DisplayList displayList, int tilesX, int tilesY) {
+        int[] counts = new int[tilesX * tilesY];
+        int size = displayList.size();
+
+        for (int start = 0, end; start < size; start = end) {
+            end = runEnd(displayList, start);
+            int[] tiles = tileRange(displayList, start, end, tilesX, tilesY);
+            for (int ty = tiles[2]; ty <= tiles[3]; ty++) {
+                for (int tx = tiles[0]; tx <= tiles[1]; tx++) {
+                    counts[ty * tilesX + tx] += end - start;
+                }
+            }
+        }
+
+        int[][] bins = new int[counts.length][];
+        for (int t = 0; t < counts.length; t++) {
+            bins[t] = new int[counts[t]];
+            counts[t] = 0;
+        }
+
+        for (int start = 0, end; start < size; start = end) {
+            end = runEnd(displayList, start);
+            int[] tiles = tileRange(displayList, start, end, tilesX, tilesY);
+            for (int ty = tiles[2]; ty <= tiles[3]; ty++) {
+                for (int tx = tiles[0]; tx <= tiles[1]; tx++) {
+                    int t = ty * tilesX + tx;
+                    for (int i = start; i < end; i++) {
+                        bins[t][counts[t]++] = i;
+                    }
+                }
+            }
+        }
+        return bins;
+    }
+
+    /**
+     * Index after the last item stroked in the same path as the one at start
+     */
+    private static int runEnd(DisplayList displayList, int start) {
+        int end = start + 1;
+        while (end < displayList.size() && displayList.getKind(end) == DisplayList.JOINED_LINE) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * First and last tile column, then first and last tile row, that a run of items touches
+     */
+    private int[] tileRange(DisplayList displayList, int start, int end, int tilesX, int tilesY) {
+        double minX = displayList.getMinX(start);
+        double minY = displayList.getMinY(start);
+        double maxX = displayList.getMaxX(start);
+        double maxY = displayList.getMaxY(start);
+        for (int i = start + 1; i < end; i++) {
+            minX = Math.min(minX, displayList.getMinX(i));
+            minY = Math.min(minY, displayList.getMinY(i));
+            maxX = Math.max(maxX, displayList.getMaxX(i));
+            maxY = Math.max(maxY, displayList.getMaxY(i));
+        }
+        return new int[] {tileIndex(minX, tilesX), tileIndex(maxX, tilesX), tileIndex(minY, tilesY), tileIndex(maxY, tilesY)};
+    }
+
+    private int tileIndex(double coordinate, int tiles) {
+        int index = (int) Math.floor(coordinate / tileSize);
+        return Math.max(0, Math.min(tiles - 1, index));
+    }
+
+    /**
+     * Draws a range of tiles, splitting the range in half until it is a single tile
+     */
+    private class TileTask extends RecursiveAction {
+        private final BufferedImage image;
+        private final DisplayList displayList;
+        private final int[][] bins;
+        private final int tilesX;
+        private final Color background;
+        private final int from;
+        private final int to;
+
+        TileTask(BufferedImage image, DisplayList displayList, int[][] bins, int tilesX,
+                 Color background, int from, int to) {
+            this.image = image;
+            this.displayList = displayList;
+            this.bins = bins;
+            this.tilesX = tilesX;
+            this.background = background;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileTask(image, displayList, bins, tilesX, background, from, middle),
+                          new TileTask(image, displayList, bins, tilesX, background, middle, to));
+                return;
+            }
+            renderTile(from);
+        }
+
+        private void renderTile(int tile) {
+            int x = (tile % tilesX) * tileSize;
+            int y = (tile / tilesX) * tileSize;
+            int width = Math.min(tileSize, image.getWidth() - x);
+            int height = Math.min(tileSize, image.getHeight() - y);
+
+            // Tiles never overlap, so each task can draw into its own clip of the shared image
+            Graphics2D g = image.createGraphics();
+            try {
+                g.clipRect(x, y, width, height);
+                g.setColor(background);
+                g.fillRect(x, y, width, height);
+                DisplayList.smoothStrokes(g);
+                displayList.draw(g, bins[tile], bins[tile].length);
+            } finally {
+                g.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.awt.Color;
+
+/**
+ * The drawing primitives a compiled script needs
+ * ScriptInterpreter builds every command out of these, so the same script can drive
+ * the Swing canvas in TurtleGraphics or the BufferedImage in HeadlessTurtle.
+ * Positions are exact rather than whole pixels, so long chains of moves do not drift
+ */
+public interface TurtleBackend {
+
+    /**
+     * Move the turtle, drawing a line if the pen is down; negative distances move backwards
+     */
+    void forward(int distance);
+
+    void left(int degrees);
+
+    void right(int degrees);
+
+    void setPenDown(boolean down);
+
+    void setPenColour(Color colour);
+
+    void setPenWidth(int width);
+
+    /**
+     * Stroke every edge of a shape in one go and leave the turtle at its last vertex,
+     * facing its end direction
+     */
+    void drawShape(ShapeGeometry shape);
+
+    /**
+     * Draw a circle centred on the turtle
+     */
+    void circle(int radius);
+
+    /**
+     * Jump to a position and direction without drawing
+     */
+    void moveTo(double x, double y, int direction);
+
+    /**
+     * Reset position, direction, pen colour and pen width
+     */
+    void resetAll();
+
+    void clear();
+
+    double getPositionX();
+
+    double getPositionY();
+
+    int getDirection();
+
+    int getCanvasWidth();
+
+    int getCanvasHeight();
+
+    /**
+     * Report a problem found while running a command
+     */
+    void reportError(String message);
+
+    /**
+     * Errors reported so far, however they were reported, so a caller can tell whether what it ran failed
+     */
+    long getErrorCount();
+
+    /**
+     * Run a valid command that has no opcode of its own, e.g. 'save image' or 'help'
+     */
+    void runCommand(String command);
+
+    /**
+     * Handle a line the compiler rejected
+     * @param command The original line
+     * @param message Why it was rejected
+     */
+    void invalidCommand(String command, String message);
+}
@@ -0,0 +1,196 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extra turtles sharing one canvas, each with its own position, heading and pen
+ * Every turtle runs its commands in order, but different turtles run at the same time on a
+ * small pool of threads. A turtle never touches the canvas: it records strokes into its own
+ * layer, and composite() merges the layers onto the canvas from whichever single thread owns it
+ */
+public class TurtleFlock {
+
+    public static final int MAX_TURTLES = 1000;
+    /** Commands one turtle runs before giving its thread to the next, so a long queue cannot starve the others */
+    private static final int COMMANDS_PER_TURN = 64;
+
+    private final int width;
+    private final int height;
+    private final ExecutorService pool;
+    private final Runnable onDrawn;
+    /** Sorted by number, so layers are always composited in the same order */
+    private final Map<Integer, Member> turtles = new ConcurrentSkipListMap<>();
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger busy = new AtomicInteger();
+
+    /**
+     * @param width Canvas width in pixels
+     * @param height Canvas height in pixels
+     * @param threads Most turtles running at once
+     * @param onDrawn Called from a pool thread after a turtle has run commands, e.g. to schedule composite()
+     */
+    public TurtleFlock(int width, int height, int threads, Runnable onDrawn) {
+        this.width = width;
+        this.height = height;
+        this.onDrawn = onDrawn;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "turtle-flock-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue a command for one turtle, creating the turtle in the middle of the canvas if it is new
+     * @param number From 1 to MAX_TURTLES
+     */
+    public void submit(int number, String command) {
+        if (number < 1 || number > MAX_TURTLES) {
+            throw new IllegalArgumentException("Turtle numbers go from 1 to " + MAX_TURTLES + ".");
+        }
+        Member turtle = turtles.computeIfAbsent(number, Member::new);
+        turtle.pending.add(command);
+        schedule(turtle);
+    }
+
+    /**
+     * Queue a command for every turtle there is
+     * @return Number of turtles the command was given to
+     */
+    public int submitAll(String command) {
+        int count = 0;
+        for (Member turtle : turtles.values()) {
+            turtle.pending.add(command);
+            schedule(turtle);
+            count++;
+        }
+        return count;
+    }
+
+    private void schedule(Member turtle) {
+        if (turtle.scheduled.compareAndSet(false, true)) {
+            busy.incrementAndGet();
+            pool.execute(() -> runTurn(turtle));
+        }
+    }
+
+    /**
+     * Run some of a turtle's queued commands, then let the next turtle have the thread
+     */
+    private void runTurn(Member turtle) {
+        try {
+            String command;
+            int ran = 0;
+            while (ran < COMMANDS_PER_TURN && (command = turtle.pending.poll()) != null) {
+                synchronized (turtle) {
+                    turtle.tracer.processCommand(command);
+                    for (String error : turtle.tracer.getErrors()) {
+                        errors.add("Turtle " + turtle.number + ": " + error);
+                    }
+                    turtle.tracer.clearErrors();
+                }
+                ran++;
+            }
+        } finally {
+            turtle.scheduled.set(false);
+            if (!turtle.pending.isEmpty()) {
+                schedule(turtle);
+            }
+            busy.decrementAndGet();
+            onDrawn.run();
+        }
+    }
+
+    /**
+     * Draw everything the turtles recorded since the last call, one layer after another, and empty the layers
+     * @param canvas Graphics of the shared canvas
+     * @param record List the strokes are also copied to, so exports include them
+     * @return Area that changed, or null if no turtle drew anything
+     */
+    public Rectangle composite(Graphics2D canvas, DisplayList record) {
+        Rectangle dirty = null;
+        for (Member turtle : turtles.values()) {
+            synchronized (turtle) {
+                DisplayList layer = turtle.tracer.getDisplayList();
+                Rectangle bounds = layer.getBounds();
+                if (bounds == null) {
+                    continue;
+                }
+                layer.draw(canvas);
+                record.addAll(layer);
+                layer.clear();
+                if (dirty == null) {
+                    dirty = bounds;
+                } else {
+                    dirty.add(bounds);
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Errors the turtles reported since the last call, each starting with the turtle's number
+     */
+    public List<String> takeErrors() {
+        List<String> taken = new ArrayList<>();
+        String error;
+        while ((error = errors.poll()) != null) {
+            taken.add(error);
+        }
+        return taken;
+    }
+
+    /**
+     * Drop queued commands and strokes not yet composited, and remove every turtle
+     * A command that is running finishes, but what it draws is never composited
+     */
+    public void dismiss() {
+        for (Member turtle : turtles.values()) {
+            turtle.pending.clear();
+        }
+        turtles.clear();
+        errors.clear();
+    }
+
+    /**
+     * Whether no turtle has commands running or waiting
+     */
+    public boolean isIdle() {
+        return busy.get() == 0;
+    }
+
+    public int size() {
+        return turtles.size();
+    }
+
+    public void shutdown() {
+        dismiss();
+        pool.shutdownNow();
+    }
+
+    /**
+     * One turtle: its state, its layer and the commands waiting for it
+     */
+    private final class Member {
+        final int number;
+        final PathTracer tracer;
+        final Queue<String> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Member(int number) {
+            this.number = number;
+            this.tracer = new PathTracer(width, height);
+        }
+    }
+}
@@ -1,1184 +1,2680 @@
-import java.awt.Color;
-import java.awt.GridLayout;
-import java.awt.image.BufferedImage;
-import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import javax.imageio.ImageIO;
-import javax.swing.*;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
-import uk.ac.leedsbeckett.oop.LBUGraphics;
-
-/**
- * TurtleGraphics extends LBUGraphics to implement a turtle graphics system
- * This class contains all the command processing functionality
- */
-public class TurtleGraphics extends LBUGraphics {
-    
-    private final Map<String, String> commandSuggestions = new HashMap<>();
-    private JTextArea commandHistoryArea;
-    private List<String> commandHistory = new ArrayList<>();
-    private boolean imageSaved = true;
-    private boolean commandsSaved = true;
-    private JFrame historyFrame;
-    private JFrame fileOperationsFrame;
-    private int defaultPenWidth = 1;
-    private Color defaultPenColor = Color.BLACK;
-    
-    /**
-     * Constructor - initializes the turtle graphics
-     */
-    public TurtleGraphics() {
-        super();
-        reset();
-        createCommandHistoryPanel();
-        createFileOperationsPanel();
-        initializeCommandSuggestions();
-        
-        displayMessage("Welcome! Type 'help' to see available commands.");
-        
-        SwingUtilities.invokeLater(() -> {
-            if (getTopLevelAncestor() instanceof JFrame) {
-                JFrame frame = (JFrame) getTopLevelAncestor();
-                frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-                frame.addWindowListener(new WindowAdapter() {
-                    @Override
-                    public void windowClosing(WindowEvent e) {
-                        exitApplication();
-                    }
-                });
-            }
-        });
-    }
-    
-    /**
-     * Override the about method to add a personal message
-     */
-    @Override
-    public void about() {
-        super.about();
-        displayMessage("Turtle Graphics by Dipsan - OOP Assignment");
-        
-        SwingUtilities.invokeLater(() -> {
-            JOptionPane.showMessageDialog(this, 
-                "Turtle Graphics by Dipsan\nOOP Assignment", 
-                "About This Program", 
-                JOptionPane.INFORMATION_MESSAGE);
-        });
-    }
-    
-
-    private void createCommandHistoryPanel() {
-        historyFrame = new JFrame("Command History");
-        historyFrame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
-        
-        commandHistoryArea = new JTextArea(10, 40);
-        commandHistoryArea.setEditable(false);
-        JScrollPane scrollPane = new JScrollPane(commandHistoryArea);
-        
-        historyFrame.add(scrollPane);
-        historyFrame.pack();
-        historyFrame.setLocationRelativeTo(this);
-    }
-    
-    /**
-     * Create the file operations panel but don't show it yet
-     */
-    private void createFileOperationsPanel() {
-        fileOperationsFrame = new JFrame("File Operations");
-        fileOperationsFrame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
-        
-        JPanel panel = new JPanel(new GridLayout(2, 2, 10, 10));
-        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        
-        JButton loadImageBtn = new JButton("Load Image");
-        JButton saveImageBtn = new JButton("Save Image");
-        JButton loadCommandsBtn = new JButton("Load Commands");
-        JButton saveCommandsBtn = new JButton("Save Commands");
-        
-        loadImageBtn.addActionListener(_ -> loadImage());
-        saveImageBtn.addActionListener(_ -> saveImage());
-        loadCommandsBtn.addActionListener(_ -> loadCommands());
-        saveCommandsBtn.addActionListener(_ -> saveCommands());
-        
-        panel.add(loadImageBtn);
-        panel.add(saveImageBtn);
-        panel.add(loadCommandsBtn);
-        panel.add(saveCommandsBtn);
-        
-        fileOperationsFrame.add(panel);
-        fileOperationsFrame.pack();
-        fileOperationsFrame.setLocationRelativeTo(this);
-    }
-    
-    /**
-     * Show the command history window
-     */
-    private void showCommandHistory() {
-        updateCommandHistoryDisplay();
-        
-        if (!historyFrame.isVisible()) {
-            historyFrame.setVisible(true);
-        } else {
-            historyFrame.toFront();
-        }
-        displayMessage("Command history displayed");
-    }
-    
-    /**
-     * Show the file operations window
-     */
-    private void showFileOperations() {
-        if (!fileOperationsFrame.isVisible()) {
-            fileOperationsFrame.setVisible(true);
-        } else {
-            fileOperationsFrame.toFront();
-        }
-        displayMessage("File operations panel displayed");
-    }
-    
-    /**
-     * Initialize command suggestions for typo correction
-     */
-    private void initializeCommandSuggestions() {
-        commandSuggestions.put("penp", "penup");
-        commandSuggestions.put("pen", "pendown");
-        commandSuggestions.put("pend", "pendown");
-        commandSuggestions.put("penu", "penup");
-        commandSuggestions.put("lft", "left");
-        commandSuggestions.put("rght", "right");
-        commandSuggestions.put("mov", "move");
-        commandSuggestions.put("forward", "move");
-        commandSuggestions.put("rev", "reverse");
-        commandSuggestions.put("back", "reverse");
-        commandSuggestions.put("backwards", "reverse");
-        commandSuggestions.put("rd", "red");
-        commandSuggestions.put("grn", "green");
-        commandSuggestions.put("blu", "blue");
-        commandSuggestions.put("wht", "white");
-        commandSuggestions.put("blk", "black");
-        commandSuggestions.put("orng", "orange");
-        commandSuggestions.put("purp", "purple");
-        commandSuggestions.put("sqr", "square");
-        commandSuggestions.put("squ", "square");
-        commandSuggestions.put("squar", "square");
-        commandSuggestions.put("suqare", "square");
-        commandSuggestions.put("cir", "circle");
-        commandSuggestions.put("circ", "circle");
-        commandSuggestions.put("tri", "triangle");
-        commandSuggestions.put("hex", "hexagon");
-        commandSuggestions.put("fop", "foperation");
-        commandSuggestions.put("fileop", "foperation");
-        commandSuggestions.put("fileoper", "foperation");
-        commandSuggestions.put("penc", "pencolour");
-        commandSuggestions.put("pencolor", "pencolour");
-        commandSuggestions.put("penw", "penwidth");
-        commandSuggestions.put("tri", "triangle");
-    }
-    
-
-    @Override
-    public void processCommand(String command) {
-        if (command == null || command.trim().isEmpty()) {
-            return;
-        }
-        
-        try {
-            addToCommandHistory(command);
-            
-            if (!command.startsWith("load commands")) {
-                imageSaved = false;
-                commandsSaved = false;
-            }
-            
-            String[] parts = command.trim().toLowerCase().split("\\s+", 2);
-            String commandName = parts[0];
-            String parameter = parts.length > 1 ? parts[1] : null;
-            
-            if (!isValidCommand(commandName) && commandSuggestions.containsKey(commandName)) {
-                String suggestion = commandSuggestions.get(commandName);
-                String message = "Did you mean '" + suggestion + "'? Using that instead.";
-                showErrorDialog(message);
-                commandName = suggestion;
-            }
-            
-            switch (commandName) {
-                case "about":
-                    about();
-                    displayMessage("About information displayed");
-                    break;
-                    
-                case "penup":
-                    drawOff();
-                    displayMessage("Pen is now up");
-                    break;
-                    
-                case "pendown":
-                    drawOn();
-                    displayMessage("Pen is now down");
-                    break;
-                    
-                case "left":
-                    handleLeftCommand(parameter);
-                    break;
-                    
-                case "right":
-                    handleRightCommand(parameter);
-                    break;
-                    
-                case "move":
-                    handleMoveCommand(parameter);
-                    break;
-                    
-                case "reverse":
-                    handleReverseCommand(parameter);
-                    break;
-                    
-                case "black":
-                    setPenColour(Color.BLACK);
-                    displayMessage("Pen color set to black");
-                    break;
-                    
-                case "green":
-                    setPenColour(Color.GREEN);
-                    displayMessage("Pen color set to green");
-                    break;
-                    
-                case "red":
-                    setPenColour(Color.RED);
-                    displayMessage("Pen color set to red");
-                    break;
-                    
-                case "white":
-                    setPenColour(Color.WHITE);
-                    displayMessage("Pen color set to white");
-                    break;
-                    
-                case "blue":
-                    setPenColour(Color.BLUE);
-                    displayMessage("Pen color set to blue");
-                    break;
-                    
-                case "yellow":
-                    setPenColour(Color.YELLOW);
-                    displayMessage("Pen color set to yellow");
-                    break;
-                    
-                case "orange":
-                    setPenColour(Color.ORANGE);
-                    displayMessage("Pen color set to orange");
-                    break;
-                    
-                case "purple":
-                    setPenColour(new Color(128, 0, 128));
-                    displayMessage("Pen color set to purple");
-                    break;
-                    
-                case "pink":
-                    setPenColour(Color.PINK);
-                    displayMessage("Pen color set to pink");
-                    break;
-                    
-                case "cyan":
-                    setPenColour(Color.CYAN);
-                    displayMessage("Pen color set to cyan");
-                    break;
-                
-                case "square":
-                    handleSquareCommand(parameter);
-                    break;
-                    
-                case "star":
-                    handleStarCommand(parameter);
-                    break;
-                    
-                case "circle":
-                    handleCircleCommand(parameter);
-                    break;
-                    
-                case "triangle":
-                    handleTriangleCommand(parameter);
-                    break;
-                    
-                case "hexagon":
-                    handleHexagonCommand(parameter);
-                    break;
-                    
-                case "reset":
-                    resetAll();
-                    displayMessage("Reset to initial position and default settings");
-                    break;
-                    
-                case "clear":
-                    clear();
-                    displayMessage("Display cleared");
-                    break;
-                    
-                case "history":
-                    showCommandHistory();
-                    break;
-                    
-                case "foperation":
-                    showFileOperations();
-                    break;
-                    
-                case "save":
-                    if (parameter == null) {
-                        showErrorDialog("Missing parameter. Usage: save image|commands");
-                        return;
-                    }
-                    if (parameter.equals("image")) {
-                        saveImage();
-                    } else if (parameter.equals("commands")) {
-                        saveCommands();
-                    } else {
-                        showErrorDialog("Invalid parameter. Use 'save image' or 'save commands'");
-                    }
-                    break;
-                    
-                case "load":
-                    if (parameter == null) {
-                        showErrorDialog("Missing parameter. Usage: load image|commands");
-                        return;
-                    }
-                    if (parameter.equals("image")) {
-                        loadImage();
-                    } else if (parameter.equals("commands")) {
-                        loadCommands();
-                    } else {
-                        showErrorDialog("Invalid parameter. Use 'load image' or 'load commands'");
-                    }
-                    break;
-                    
-                case "exit":
-                    exitApplication();
-                    break;
-                    
-                case "help":
-                    showHelpDialog();
-                    break;
-                    
-                case "pencolour":
-                    handlePenColourCommand(parameter);
-                    break;
-                    
-                case "penwidth":
-                    handlePenWidthCommand(parameter);
-                    break;
-                    
-                default:
-                    showErrorDialog("Invalid command '" + commandName + "'. Type 'help' for a list of commands.");
-                    break;
-            }
-        } catch (Exception e) {
-            showErrorDialog("Error: " + e.getMessage());
-        }
-    }
-    
-    /**
-     * Check if a command is valid
-     */
-    private boolean isValidCommand(String command) {
-        return command.equals("about") || command.equals("penup") || command.equals("pendown") ||
-               command.equals("left") || command.equals("right") || command.equals("move") ||
-               command.equals("reverse") || command.equals("black") || command.equals("green") ||
-               command.equals("red") || command.equals("white") || command.equals("blue") ||
-               command.equals("yellow") || command.equals("orange") || command.equals("purple") ||
-               command.equals("pink") || command.equals("cyan") || command.equals("square") ||
-               command.equals("star") || command.equals("circle") || command.equals("triangle") ||
-               command.equals("hexagon") || command.equals("reset") || command.equals("clear") ||
-               command.equals("help") || command.equals("save") || command.equals("load") ||
-               command.equals("exit") || command.equals("history") || command.equals("foperation") ||
-               command.equals("pencolour") || command.equals("penwidth");
-    }
-    
-    /**
-     * Handle the pencolour command with validation
-     * Format: pencolour <red>,<green>,<blue>
-     */
-    private void handlePenColourCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameters for 'pencolour'. Usage: pencolour <red>,<green>,<blue>\nExample: pencolour 255,0,0");
-            return;
-        }
-        
-        try {
-            String[] colorParams = parameter.split(",");
-            
-            if (colorParams.length != 3) {
-                showErrorDialog("Invalid number of parameters. Usage: pencolour <red>,<green>,<blue>\nExample: pencolour 255,0,0");
-                return;
-            }
-            
-            int red = Integer.parseInt(colorParams[0].trim());
-            int green = Integer.parseInt(colorParams[1].trim());
-            int blue = Integer.parseInt(colorParams[2].trim());
-            
-            if (red < 0 || red > 255 || green < 0 || green > 255 || blue < 0 || blue > 255) {
-                showErrorDialog("RGB values must be between 0 and 255. Example: pencolour 255,0,0");
-                return;
-            }
-            
-            Color newColor = new Color(red, green, blue);
-            setPenColour(newColor);
-            displayMessage("Pen color set to RGB(" + red + "," + green + "," + blue + ")");
-        } catch (NumberFormatException e) {
-            showErrorDialog("RGB values must be numbers. Usage: pencolour <red>,<green>,<blue>\nExample: pencolour 255,0,0");
-        }
-    }
-    
-    /**
-     * Handle the penwidth command with validation
-     * Format: penwidth <width>
-     */
-    private void handlePenWidthCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'penwidth'. Usage: penwidth <width>\nExample: penwidth 3");
-            return;
-        }
-        
-        try {
-            int width = Integer.parseInt(parameter.trim());
-            
-            if (width <= 0) {
-                showErrorDialog("Width must be a positive number. Example: penwidth 3");
-                return;
-            }
-            
-            setStroke(width);
-            displayMessage("Pen width set to " + width);
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'penwidth' must be a number. Example: penwidth 3");
-        }
-    }
-    
-    /**
-     * Handle the square command with validation - keeps turtle at original position
-     * Format: square <length>
-     */
-    private void handleSquareCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'square'. Usage: square <size>\nExample: square 100");
-            return;
-        }
-        
-        try {
-            int size = Integer.parseInt(parameter.trim());
-            
-            if (size <= 0) {
-                showErrorDialog("Size must be a positive number. Example: square 100");
-                return;
-            }
-            
-            prepareForShapeDrawing();
-            
-            int startX = getxPos();
-            int startY = getyPos();
-            int startDirection = getDirection();
-            
-            drawSquare(size);
-            
-            setPenState(false);
-            setxPos(startX);
-            setyPos(startY);
-            pointTurtle(startDirection);
-            setPenState(true);
-            
-            displayMessage("Drew a square with size " + size);
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'square' must be a number. Example: square 100");
-        }
-    }
-    
-    /**
-     * Handle the triangle command with validation
-     * Supports both triangle <size> and triangle <side1>,<side2>,<side3> formats
-     */
-    private void handleTriangleCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'triangle'. Usage: triangle <size> or triangle <side1>,<side2>,<side3>");
-            return;
-        }
-        
-        if (parameter.contains(",")) {
-            handleThreeSidedTriangle(parameter);
-        } else {
-            handleEquilateralTriangle(parameter);
-        }
-    }
-    
-    /**
-     * Handle equilateral triangle with one size parameter
-     */
-    private void handleEquilateralTriangle(String parameter) {
-        try {
-            int size = Integer.parseInt(parameter.trim());
-            
-            if (size <= 0) {
-                showErrorDialog("Size must be a positive number. Example: triangle 100");
-                return;
-            }
-            
-            prepareForShapeDrawing();
-            
-            int startX = getxPos();
-            int startY = getyPos();
-            int startDirection = getDirection();
-            
-            drawTriangle(size);
-            
-            setPenState(false);
-            setxPos(startX);
-            setyPos(startY);
-            pointTurtle(startDirection);
-            setPenState(true);
-            
-            displayMessage("Drew an equilateral triangle with side length " + size);
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'triangle' must be a number. Example: triangle 100");
-        }
-    }
-    
-    /**
-     * Handle triangle with three side parameters
-     */
-    private void handleThreeSidedTriangle(String parameter) {
-        try {
-            String[] sideParams = parameter.split(",");
-            
-            if (sideParams.length != 3) {
-                showErrorDialog("Invalid number of parameters. Usage: triangle <side1>,<side2>,<side3>");
-                return;
-            }
-            
-            int side1 = Integer.parseInt(sideParams[0].trim());
-            int side2 = Integer.parseInt(sideParams[1].trim());
-            int side3 = Integer.parseInt(sideParams[2].trim());
-            
-            if (side1 <= 0 || side2 <= 0 || side3 <= 0) {
-                showErrorDialog("Side lengths must be positive numbers.");
-                return;
-            }
-            
-            if (side1 + side2 <= side3 || side1 + side3 <= side2 || side2 + side3 <= side1) {
-                showErrorDialog("Invalid triangle: The sum of any two sides must be greater than the third side.");
-                return;
-            }
-            
-            prepareForShapeDrawing();
-            
-            int startX = getxPos();
-            int startY = getyPos();
-            int startDirection = getDirection();
-            
-            drawArbitraryTriangle(side1, side2, side3);
-            
-            setPenState(false);
-            setxPos(startX);
-            setyPos(startY);
-            pointTurtle(startDirection);
-            setPenState(true);
-            
-            displayMessage("Drew a triangle with sides " + side1 + ", " + side2 + ", " + side3);
-        } catch (NumberFormatException e) {
-            showErrorDialog("Side lengths must be numbers. Usage: triangle <side1>,<side2>,<side3>");
-        }
-    }
-    
-    /**
-     * Reset all settings including pen color, pen width, position, and direction
-     */
-    private void resetAll() {
-        reset();
-        setPenColour(defaultPenColor);
-        setStroke(defaultPenWidth);
-    }
-    
-    /**
-     * Draw an equilateral triangle
-     * @param size Size of each side
-     */
-    private void drawTriangle(int size) {
-        for (int i = 0; i < 3; i++) {
-            forward(size);
-            right(120);
-        }
-    }
-    
-    /**
-     * Draw a triangle with arbitrary side lengths
-     * Implements the law of cosines to calculate angles
-     * @param a First side length
-     * @param b Second side length
-     * @param c Third side length
-     */
-    private void drawArbitraryTriangle(int a, int b, int c) {
-        double angleC = Math.acos((a*a + b*b - c*c) / (2.0 * a * b));
-        double angleA = Math.acos((b*b + c*c - a*a) / (2.0 * b * c));
-        
-        int degreeC = (int) Math.round(Math.toDegrees(angleC));
-        int degreeA = (int) Math.round(Math.toDegrees(angleA));
-        
-        forward(a);
-        right(180 - degreeC);
-        forward(b);
-        right(180 - degreeA);
-        forward(c);
-    }
-    
-    /**
-     * Show help information in a popup dialog
-     */
-    private void showHelpDialog() {
-        StringBuilder help = new StringBuilder();
-        help.append("Available commands:\n\n");
-        help.append("about - Show about information\n\n");
-        help.append("penup - Lift pen up\n");
-        help.append("pendown - Put pen down\n");
-        help.append("pencolour <red>,<green>,<blue> - Set custom RGB pen color\n");
-        help.append("penwidth <width> - Set pen width\n\n");
-        help.append("left <degrees> - Turn left\n");
-        help.append("right <degrees> - Turn right\n");
-        help.append("move <distance> - Move forward\n");
-        help.append("reverse <distance> - Move backward\n\n");
-        help.append("Colors: black, white, red, green, blue, yellow, orange, purple, pink, cyan\n\n");
-        help.append("Shapes:\n");
-        help.append("square <size> - Draw square and return to original position\n");
-        help.append("triangle <size> - Draw equilateral triangle\n");
-        help.append("triangle <side1>,<side2>,<side3> - Draw any triangle\n");
-        help.append("star <size>, circle <radius>, hexagon <size>\n\n");
-        help.append("reset - Reset position, pen color and width\n");
-        help.append("clear - Clear the canvas\n\n");
-        help.append("history - Show command history\n");
-        help.append("foperation - Show file operations panel\n\n");
-        help.append("File Operations:\n");
-        help.append("save image - Save the current image\n");
-        help.append("save commands - Save the command history\n");
-        help.append("load image - Load an image from a file\n");
-        help.append("load commands - Load and execute commands from a file\n");
-        help.append("exit - Exit the application");
-        
-        SwingUtilities.invokeLater(() -> {
-            JOptionPane.showMessageDialog(this, help.toString(), "Turtle Graphics Help", JOptionPane.INFORMATION_MESSAGE);
-        });
-        
-        displayMessage("Help information displayed");
-    }
-    
-    /**
-     * Set drawing state before drawing shapes
-     */
-    private void prepareForShapeDrawing() {
-        drawOn();
-        setPenColour(Color.RED);
-    }
-    
-    /**
-     * Handle the left command with validation
-     */
-    private void handleLeftCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'left'. Usage: left <degrees>");
-            return;
-        }
-        
-        try {
-            int degrees = Integer.parseInt(parameter);
-            left(degrees);
-            displayMessage("Turned left " + degrees + " degrees");
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'left' must be a number. Example: left 90");
-        }
-    }
-    
-    /**
-     * Handle the right command with validation
-     */
-    private void handleRightCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'right'. Usage: right <degrees>");
-            return;
-        }
-        
-        try {
-            int degrees = Integer.parseInt(parameter);
-            right(degrees);
-            displayMessage("Turned right " + degrees + " degrees");
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'right' must be a number. Example: right 90");
-        }
-    }
-    
-    /**
-     * Handle the move command with validation and bounds checking
-     */
-    private void handleMoveCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'move'. Usage: move <distance>");
-            return;
-        }
-
-        try {
-            int distance = Integer.parseInt(parameter);
-
-            if (distance <= 0) {
-                showErrorDialog("Distance must be a positive number. Example: move 100");
-                return;
-            }
-
-            // Calculate the new position
-            int newX = getxPos() + (int) (distance * Math.cos(Math.toRadians(getDirection())));
-            int newY = getyPos() + (int) (distance * Math.sin(Math.toRadians(getDirection())));
-
-            // Check if the new position is within bounds
-            if (newX < 0 || newX > getWidth() || newY < 0 || newY > getHeight()) {
-                showErrorDialog("Move out of bounds! The turtle cannot move off the screen.");
-                return;
-            }
-
-            forward(distance); // Move the turtle forward
-            displayMessage("Moved forward " + distance + " units");
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'move' must be a number. Example: move 100");
-        }
-    }
-
-    /**
-     * Handle the reverse command with validation and bounds checking
-     */
-    private void handleReverseCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'reverse'. Usage: reverse <distance>");
-            return;
-        }
-
-        try {
-            int distance = Integer.parseInt(parameter);
-
-            if (distance <= 0) {
-                showErrorDialog("Distance must be a positive number. Example: reverse 100");
-                return;
-            }
-
-            // Calculate the new position
-            int newX = getxPos() - (int) (distance * Math.cos(Math.toRadians(getDirection())));
-            int newY = getyPos() - (int) (distance * Math.sin(Math.toRadians(getDirection())));
-
-            // Check if the new position is within bounds
-            if (newX < 0 || newX > getWidth() || newY < 0 || newY > getHeight()) {
-                showErrorDialog("Reverse out of bounds! The turtle cannot move off the screen.");
-                return;
-            }
-
-            forward(-distance); // Move the turtle backward
-            displayMessage("Moved backward " + distance + " units");
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'reverse' must be a number. Example: reverse 100");
-        }
-    }
-    
-    /**
-     * Handle the star command with validation
-     */
-    private void handleStarCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'star'. Usage: star <size>\nExample: star 100");
-            return;
-        }
-        
-        try {
-            int size = Integer.parseInt(parameter);
-            
-            if (size <= 0) {
-                showErrorDialog("Size must be a positive number. Example: star 100");
-                return;
-            }
-            
-            prepareForShapeDrawing();
-            
-            drawStar(size);
-            displayMessage("Drew a star with size " + size);
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'star' must be a number. Example: star 100");
-        }
-    }
-    
-    /**
-     * Handle the circle command with validation
-     */
-    private void handleCircleCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'circle'. Usage: circle <radius>\nExample: circle 50");
-            return;
-        }
-        
-        try {
-            int radius = Integer.parseInt(parameter);
-            
-            if (radius <= 0) {
-                showErrorDialog("Radius must be a positive number. Example: circle 50");
-                return;
-            }
-            
-            prepareForShapeDrawing();
-            
-            circle(radius);
-            displayMessage("Drew a circle with radius " + radius);
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'circle' must be a number. Example: circle 50");
-        }
-    }
-    
-    /**
-     * Handle the hexagon command with validation
-     */
-    private void handleHexagonCommand(String parameter) {
-        if (parameter == null) {
-            showErrorDialog("Missing parameter for 'hexagon'. Usage: hexagon <size>\nExample: hexagon 50");
-            return;
-        }
-        
-        try {
-            int size = Integer.parseInt(parameter);
-            
-            if (size <= 0) {
-                showErrorDialog("Size must be a positive number. Example: hexagon 50");
-                return;
-            }
-            
-            prepareForShapeDrawing();
-            
-            drawRegularPolygon(6, size);
-            displayMessage("Drew a hexagon with size " + size);
-        } catch (NumberFormatException e) {
-            showErrorDialog("Parameter for 'hexagon' must be a number. Example: hexagon 50");
-        }
-    }
-    
-    /**
-     * Draw a square pattern
-     */
-    private void drawSquare(int size) {
-        for (int i = 0; i < 4; i++) {
-            forward(size);
-            right(90);
-        }
-    }
-    
-    /**
-     * Draw a star pattern
-     */
-    private void drawStar(int size) {
-        for (int i = 0; i < 5; i++) {
-            forward(size);
-            right(144);
-        }
-    }
-    
-    /**
-     * Draw a regular polygon with specified number of sides
-     */
-    private void drawRegularPolygon(int sides, int size) {
-        int angle = 360 / sides;
-        for (int i = 0; i < sides; i++) {
-            forward(size);
-            right(angle);
-        }
-    }
-    
-    /**
-     * Show an error message in a popup dialog
-     */
-    private void showErrorDialog(String message) {
-        SwingUtilities.invokeLater(() -> {
-            JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
-        });
-        displayMessage(message);
-    }
-    
-    /**
-     * Add a command to the command history
-     */
-    private void addToCommandHistory(String command) {
-        commandHistory.add(command);
-        updateCommandHistoryDisplay();
-    }
-    
-    /**
-     * Update the command history display
-     */
-    private void updateCommandHistoryDisplay() {
-        StringBuilder historyText = new StringBuilder();
-        for (String cmd : commandHistory) {
-            historyText.append(cmd).append("\n");
-        }
-        commandHistoryArea.setText(historyText.toString());
-        commandHistoryArea.setCaretPosition(commandHistoryArea.getDocument().getLength());
-    }
-    
-    /**
-     * Save the current image to a file
-     */
-    private void saveImage() {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Save Image");
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("PNG Images", "png"));
-        
-        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            if (!file.getName().toLowerCase().endsWith(".png")) {
-                file = new File(file.getAbsolutePath() + ".png");
-            }
-            
-            try {
-                BufferedImage image = getBufferedImage();
-                ImageIO.write(image, "png", file);
-                imageSaved = true;
-                displayMessage("Image saved to " + file.getName());
-            } catch (IOException e) {
-                showErrorDialog("Error saving image: " + e.getMessage());
-            }
-        }
-    }
-    
-    /**
-     * Load an image from a file
-     */
-    private void loadImage() {
-        if (!imageSaved) {
-            int response = JOptionPane.showConfirmDialog(
-                this,
-                "Current image is not saved. Do you want to save it first?",
-                "Unsaved Changes",
-                JOptionPane.YES_NO_CANCEL_OPTION,
-                JOptionPane.WARNING_MESSAGE
-            );
-            
-            if (response == JOptionPane.YES_OPTION) {
-                saveImage();
-            } else if (response == JOptionPane.CANCEL_OPTION) {
-                return;
-            }
-        }
-        
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Load Image");
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("PNG Images", "png"));
-        
-        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            
-            try {
-                BufferedImage image = ImageIO.read(file);
-                
-                if (image != null) {
-                    setBufferedImage(image);
-                    imageSaved = true;
-                    displayMessage("Image loaded from " + file.getName());
-                } else {
-                    showErrorDialog("Error: Could not load image. Invalid format.");
-                }
-            } catch (IOException e) {
-                showErrorDialog("Error loading image: " + e.getMessage());
-            }
-        }
-    }
-    
-    /**
-     * Save the command history to a file
-     */
-    private void saveCommands() {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Save Commands");
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Text Files", "txt"));
-        
-        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            if (!file.getName().toLowerCase().endsWith(".txt")) {
-                file = new File(file.getAbsolutePath() + ".txt");
-            }
-            
-            try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
-                for (String cmd : commandHistory) {
-                    writer.println(cmd);
-                }
-                commandsSaved = true;
-                displayMessage("Commands saved to " + file.getName());
-            } catch (IOException e) {
-                showErrorDialog("Error saving commands: " + e.getMessage());
-            }
-        }
-    }
-    
-    /**
-     * Load and execute commands from a file
-     */
-    private void loadCommands() {
-        if (!commandsSaved) {
-            int response = JOptionPane.showConfirmDialog(
-                this,
-                "Current commands are not saved. Do you want to save them first?",
-                "Unsaved Changes",
-                JOptionPane.YES_NO_CANCEL_OPTION,
-                JOptionPane.WARNING_MESSAGE
-            );
-            
-            if (response == JOptionPane.YES_OPTION) {
-                saveCommands();
-            } else if (response == JOptionPane.CANCEL_OPTION) {
-                return;
-            }
-        }
-        
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Load Commands");
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Text Files", "txt"));
-        
-        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                int clearResponse = JOptionPane.showConfirmDialog(
-                    this,
-                    "Do you want to clear the current command history?",
-                    "Clear History",
-                    JOptionPane.YES_NO_OPTION
-                );
-                
-                if (clearResponse == JOptionPane.YES_OPTION) {
-                    commandHistory.clear();
-                    updateCommandHistoryDisplay();
-                }
-                
-                String line;
-                ProgressMonitor progressMonitor = new ProgressMonitor(
-                    this, 
-                    "Executing commands from file...", 
-                    "", 0, 100);
-                progressMonitor.setMillisToDecideToPopup(10);
-                
-                int totalLines = countLines(file);
-                int processedLines = 0;
-                
-                while ((line = reader.readLine()) != null) {
-                    if (!line.trim().isEmpty()) {
-                        if (!line.toLowerCase().startsWith("load commands")) {
-                            processCommand(line);
-                            processedLines++;
-                            int progress = (processedLines * 100) / totalLines;
-                            progressMonitor.setProgress(progress);
-                            progressMonitor.setNote("Processed " + processedLines + " of " + totalLines + " commands");
-                            
-                            if (progressMonitor.isCanceled()) {
-                                break;
-                            }
-                            
-                            try {
-                                Thread.sleep(100);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                            }
-                        } else {
-                            showErrorDialog("Nested command loading is not allowed.");
-                        }
-                    }
-                }
-                
-                progressMonitor.close();
-                displayMessage("Commands loaded from " + file.getName());
-                commandsSaved = true;
-            } catch (IOException e) {
-                showErrorDialog("Error loading commands: " + e.getMessage());
-            }
-        }
-    }
-    
-    /**
-     * Count lines in a file
-     */
-    private int countLines(File file) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            int lines = 0;
-            while (reader.readLine() != null) lines++;
-            return lines;
-        }
-    }
-    
-    /**
-     * Exit the application with confirmation if work is not saved
-     */
-    private void exitApplication() {
-        boolean needsSave = !imageSaved || !commandsSaved;
-        
-        if (needsSave) {
-            int response = JOptionPane.showConfirmDialog(
-                this,
-                "You have unsaved work. Do you want to save before exiting?",
-                "Unsaved Changes",
-                JOptionPane.YES_NO_CANCEL_OPTION,
-                JOptionPane.WARNING_MESSAGE
-            );
-            
-            if (response == JOptionPane.YES_OPTION) {
-                String[] options = {"Image", "Commands", "Both", "Cancel"};
-                int saveChoice = JOptionPane.showOptionDialog(
-                    this,
-                    "What would you like to save?",
-                    "Save Options",
-                    JOptionPane.DEFAULT_OPTION,
-                    JOptionPane.QUESTION_MESSAGE,
-                    null,
-                    options,
-                    options[0]
-                );
-                
-                switch (saveChoice) {
-                    case 0:
-                        saveImage();
-                        break;
-                    case 1:
-                        saveCommands();
-                        break;
-                    case 2:
-                        saveImage();
-                        saveCommands();
-                        break;
-                    case 3:
-                        return;
-                }
-            } else if (response == JOptionPane.CANCEL_OPTION) {
-                return;
-            }
-        }
-        
-        System.exit(0);
-    }
-    
-    /**
-     * Clear the display with a warning if the current image is not saved
-     */
-    @Override
-    public void clear() {
-        if (!imageSaved) {
-            int response = JOptionPane.showConfirmDialog(
-                this,
-                "The current image is not saved. Do you want to save it before clearing?",
-                "Unsaved Changes",
-                JOptionPane.YES_NO_CANCEL_OPTION,
-                JOptionPane.WARNING_MESSAGE
-            );
-
-            if (response == JOptionPane.YES_OPTION) {
-                saveImage(); // Save the image if the user chooses to save
-            } else if (response == JOptionPane.CANCEL_OPTION) {
-                return; // Do not clear the display if the user cancels
-            }
-        }
-
-        super.clear(); // Clear the display
-        displayMessage("Display cleared");
-    }
-}
\ No newline at end of file
+import java.awt.BasicStroke;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Cursor;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GridLayout;
+import java.awt.Rectangle;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import javax.imageio.ImageIO;
+import javax.management.JMException;
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import uk.ac.leedsbeckett.oop.LBUGraphics;
+
+/**
+ * TurtleGraphics extends LBUGraphics to implement a turtle graphics system
+ * This class contains all the command processing functionality
+ */
+public class TurtleGraphics extends LBUGraphics {
+    
+    private final CommandRegistry commandRegistry = new CommandRegistry();
+    private static final int HISTORY_DISPLAY_LIMIT = 10000;
+    private final CommandHistoryListModel commandHistoryModel = new CommandHistoryListModel(HISTORY_DISPLAY_LIMIT);
+    private JList<String> commandHistoryList;
+    private final CommandHistoryStore commandHistory = new CommandHistoryStore();
+    private volatile boolean imageSaved = true;
+    private volatile boolean commandsSaved = true;
+    private JFrame historyFrame;
+    private JFrame fileOperationsFrame;
+    private int defaultPenWidth = 1;
+    private Color defaultPenColor = Color.BLACK;
+    private Color penColour = defaultPenColor;
+    private int penWidth = defaultPenWidth;
+    private final CommandMetrics metrics = new CommandMetrics();
+    /** Set by showError so the command that was running is counted as failed; command thread only */
+    private boolean commandFailed;
+    /** Set by showError on the event thread, so a command run there can hand its failure back to the command thread */
+    private volatile boolean eventThreadCommandFailed;
+    /** Errors reported on the command thread, so the interpreter can tell which instruction failed; command thread only */
+    private long commandErrorCount;
+    private final ScriptCompiler scriptCompiler = new ScriptCompiler(commandRegistry);
+    private final ScriptInterpreter scriptInterpreter = new ScriptInterpreter(new CanvasBackend(), metrics);
+    /** Lines of a block being typed, only used on the command thread */
+    private final StatementBuffer typedStatements = new StatementBuffer();
+    /** Scratch space for runBinaryInstructions, which only runs on the command thread */
+    private final int[] binaryOperands = new int[CompiledScript.MAX_ARITY];
+    private final StringBuilder binaryHistoryText = new StringBuilder();
+    private volatile CompiledScript lastLoadedScript;
+    private static final int COMMAND_QUEUE_CAPACITY = 1024;
+    private static final int BINARY_BATCH_SIZE = 1024;
+    private static final String METRICS_FILE = "metrics.txt";
+    private final CommandExecutor commandExecutor = new CommandExecutor(
+        "turtle-commands", COMMAND_QUEUE_CAPACITY, e -> showError("Error: " + e.getMessage()));
+    private boolean replaying = false;
+    private PlaybackMode playbackMode = PlaybackMode.ANIMATED;
+    private int throttledCommandsPerSecond = 100;
+    private static final int TURTLE_MARGIN = 30;
+    private RepaintScheduler repaintScheduler;
+    private final ImageExporter imageExporter = new ImageExporter();
+    private final ImageLoader imageLoader = new ImageLoader();
+    private SwingWorker<BufferedImage, BufferedImage> imageLoad;
+    /** Painted over the canvas while an image decodes, null otherwise; only used on the EDT */
+    private BufferedImage imagePreview;
+    private boolean penDown = true;
+    /** Exact turtle position; LBUGraphics only keeps it to the nearest pixel, for the sprite */
+    private double exactX;
+    private double exactY;
+    /** Whether lines are held back and stroked as one path, see flushStrokes() */
+    private boolean batchStrokes;
+    private Path2D.Double pendingStroke;
+    private Rectangle pendingStrokeArea;
+    /** Replaced rather than emptied on clear, so undo can go back to the old one */
+    private volatile DisplayList displayList = new DisplayList();
+    private volatile BufferedImage displayListBackdrop;
+    /** Turtles started with the 'turtle' command, created on first use by the command thread */
+    private TurtleFlock flock;
+    private final AtomicBoolean flockCompositeQueued = new AtomicBoolean();
+    /** Whether the flock has drawn since the last undo point; only used on the command thread */
+    private boolean flockDrawnSinceUndoPoint;
+    private Color canvasBackground;
+    /** Only used on the command thread */
+    private UndoHistory<UndoPoint> undoHistory;
+    private static final int DEFAULT_SERVER_PORT = 4242;
+    private final CommandServer commandServer = new CommandServer(new RemoteTarget());
+    /** Errors of the batch a CommandServer client sent while it runs, otherwise null; only used on the command thread */
+    private List<String> remoteErrors;
+    private int remoteCommandNumber;
+    private final DiagnosticsCollector diagnostics = new DiagnosticsCollector();
+    private final AtomicBoolean statusUpdateQueued = new AtomicBoolean();
+    private JLabel statusBar;
+    private JFrame problemsFrame;
+    private final DefaultListModel<String> problemsModel = new DefaultListModel<>();
+    private final JLabel problemsSummary = new JLabel();
+    /** Script and line of the command running, so its problems can say where they are; only used on the command thread */
+    private String problemSource;
+    private int problemLine;
+    /** Sections whose commands only change what an UndoPoint holds, so undo can run them again */
+    private static final Set<String> UNDOABLE_SECTIONS = new HashSet<>();
+    
+    static {
+        UNDOABLE_SECTIONS.add("Pen");
+        UNDOABLE_SECTIONS.add("Colors");
+        UNDOABLE_SECTIONS.add("Movement");
+        UNDOABLE_SECTIONS.add("Shapes");
+        UNDOABLE_SECTIONS.add("Canvas");
+        UNDOABLE_SECTIONS.add("Programming");
+    }
+    
+    /**
+     * Constructor - initializes the turtle graphics
+     */
+    public TurtleGraphics() {
+        super();
+        repaintScheduler = new RepaintScheduler(area -> super.repaint(0, area.x, area.y, area.width, area.height));
+        reset();
+        canvasBackground = new Color(getBufferedImage().getRGB(0, 0));
+        undoHistory = new UndoHistory<>(this::captureUndoPoint, this::restoreUndoPoint, UndoPoint::getSize);
+        imageExporter.register(new PngExportFormat());
+        imageExporter.register(new RawRgbaExportFormat());
+        createCommandHistoryPanel();
+        createFileOperationsPanel();
+        createProblemsPanel();
+        diagnostics.setListener(this::scheduleStatusUpdate);
+        registerCommands();
+        commandExecutor.setIdleHandler(this::flushStrokes);
+        try {
+            metrics.registerMBean("canvas-" + Integer.toHexString(System.identityHashCode(this)));
+        } catch (JMException e) {
+            // The 'metrics' command still works without JMX
+        }
+        
+        displayMessage("Welcome! Type 'help' to see available commands.");
+        
+        SwingUtilities.invokeLater(() -> {
+            if (getTopLevelAncestor() instanceof JFrame) {
+                JFrame frame = (JFrame) getTopLevelAncestor();
+                frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+                frame.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosing(WindowEvent e) {
+                        exitApplication();
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Override the about method to add a personal message
+     */
+    @Override
+    public void about() {
+        super.about();
+        displayMessage("Turtle Graphics by Dipsan - OOP Assignment");
+        
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(this, 
+                "Turtle Graphics by Dipsan\nOOP Assignment", 
+                "About This Program", 
+                JOptionPane.INFORMATION_MESSAGE);
+        });
+    }
+    
+
+    private void createCommandHistoryPanel() {
+        historyFrame = new JFrame("Command History");
+        historyFrame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+        
+        // Fixed cell size lets the JList only lay out the rows that are on screen
+        commandHistoryList = new JList<>(commandHistoryModel);
+        commandHistoryList.setPrototypeCellValue("pencolour 255,255,255 and some room");
+        commandHistoryList.setVisibleRowCount(10);
+        JScrollPane scrollPane = new JScrollPane(commandHistoryList);
+        
+        commandHistoryModel.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                if (historyFrame.isVisible()) {
+                    commandHistoryList.ensureIndexIsVisible(e.getIndex1());
+                }
+            }
+            
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+            }
+            
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+            }
+        });
+        
+        historyFrame.add(scrollPane);
+        historyFrame.pack();
+        historyFrame.setLocationRelativeTo(this);
+    }
+    
+    /**
+     * Create the file operations panel but don't show it yet
+     */
+    private void createFileOperationsPanel() {
+        fileOperationsFrame = new JFrame("File Operations");
+        fileOperationsFrame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+        
+        JPanel panel = new JPanel(new GridLayout(3, 2, 10, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        
+        JButton loadImageBtn = new JButton("Load Image");
+        JButton saveImageBtn = new JButton("Save Image");
+        JButton loadCommandsBtn = new JButton("Load Commands");
+        JButton saveCommandsBtn = new JButton("Save Commands");
+        JButton loadSessionBtn = new JButton("Load Session");
+        JButton saveSessionBtn = new JButton("Save Session");
+        
+        loadImageBtn.addActionListener(_ -> loadImage());
+        saveImageBtn.addActionListener(_ -> saveImage());
+        loadCommandsBtn.addActionListener(_ -> loadCommands());
+        saveCommandsBtn.addActionListener(_ -> saveCommands());
+        // Sessions go through the command queue, so they see the canvas between two commands
+        loadSessionBtn.addActionListener(_ -> processCommand("load session"));
+        saveSessionBtn.addActionListener(_ -> processCommand("save session"));
+        
+        panel.add(loadImageBtn);
+        panel.add(saveImageBtn);
+        panel.add(loadCommandsBtn);
+        panel.add(saveCommandsBtn);
+        panel.add(loadSessionBtn);
+        panel.add(saveSessionBtn);
+        
+        fileOperationsFrame.add(panel);
+        fileOperationsFrame.pack();
+        fileOperationsFrame.setLocationRelativeTo(this);
+    }
+    
+    /**
+     * Show the command history window
+     */
+    private void showCommandHistory() {
+        int lastIndex = commandHistoryModel.getSize() - 1;
+        if (lastIndex >= 0) {
+            commandHistoryList.ensureIndexIsVisible(lastIndex);
+        }
+        
+        if (!historyFrame.isVisible()) {
+            historyFrame.setVisible(true);
+        } else {
+            historyFrame.toFront();
+        }
+        displayMessage("Command history displayed");
+    }
+    
+    /**
+     * Show the file operations window
+     */
+    private void showFileOperations() {
+        if (!fileOperationsFrame.isVisible()) {
+            fileOperationsFrame.setVisible(true);
+        } else {
+            fileOperationsFrame.toFront();
+        }
+        displayMessage("File operations panel displayed");
+    }
+    
+    /**
+     * Register every built-in command
+     * The help dialog and the typo suggestions are generated from these entries
+     */
+    private void registerCommands() {
+        commandRegistry.register(new Command("about", "Show about information", "General", _ -> {
+            about();
+            displayMessage("About information displayed");
+        }).onEventThread());
+        commandRegistry.register(new Command("help", "Show this help", "General", _ -> showHelpDialog()));
+        
+        BuiltInCommands.registerDrawing(commandRegistry);
+        
+        commandRegistry.register(new Command("undo", "undo [count]", "Undo the last command, or the last few",
+            "Edit", Command.ParameterType.INTEGERS, 0, 1, this::handleUndoCommand));
+        commandRegistry.register(new Command("redo", "redo [count]", "Redo a command that was undone, or a few",
+            "Edit", Command.ParameterType.INTEGERS, 0, 1, this::handleRedoCommand));
+        commandRegistry.register(new Command("undosnapshots", "undosnapshots <commands>,<megabytes>",
+            "Snapshot the canvas every few commands for undo, keeping at most this much memory", "Edit",
+            Command.ParameterType.INTEGERS, 2, 2, this::handleUndoSnapshotsCommand));
+        
+        commandRegistry.register(new Command("history", "Show command history", "Windows", _ -> showCommandHistory())
+            .onEventThread());
+        commandRegistry.register(new Command("foperation", "Show file operations panel", "Windows", _ -> showFileOperations())
+            .withAliases("fop", "fileop", "fileoper").onEventThread());
+        commandRegistry.register(new Command("problems", "problems [clear]", "Show every error and correction so far, or forget them",
+            "Windows", Command.ParameterType.TEXT, 0, 1, this::handleProblemsCommand).withAliases("errors").onEventThread());
+        
+        commandRegistry.register(new Command("save", "save image|commands|session [raw]",
+            "Save the current image, the command history, or both with the turtle as a session checkpoint",
+            "File Operations", Command.ParameterType.TEXT, 1, 1, this::handleSaveCommand).onEventThread());
+        commandRegistry.register(new Command("load", "load image|commands|session",
+            "Load an image, load and execute commands, or resume a saved session",
+            "File Operations", Command.ParameterType.TEXT, 1, 1, this::handleLoadCommand).onEventThread());
+        commandRegistry.register(new Command("export", "export svg | export png <scale>", "Export the drawing as SVG, or as PNG at any scale",
+            "File Operations", Command.ParameterType.TEXT, 1, 1, this::handleExportCommand).onEventThread());
+        commandRegistry.register(new Command("compression", "compression <0-9>|fast", "Set the PNG compression level, fast for quick previews",
+            "File Operations", Command.ParameterType.TEXT, 1, 1, this::handleCompressionCommand));
+        commandRegistry.register(new Command("imagebudget", "imagebudget <megapixels>", "Set the largest image that can be loaded",
+            "File Operations", Command.ParameterType.INTEGERS, 1, 1, this::handleImageBudgetCommand));
+        commandRegistry.register(new Command("replay", "Run the last loaded commands again", "File Operations",
+            _ -> handleReplayCommand()));
+        commandRegistry.register(new Command("playback", "playback instant|animated|throttled <rate>", "Set how loaded commands are replayed",
+            "File Operations", Command.ParameterType.TEXT, 1, 1, this::handlePlaybackCommand));
+        commandRegistry.register(new Command("exit", "Exit the application", "File Operations", _ -> exitApplication())
+            .onEventThread());
+        
+        commandRegistry.register(new Command("metrics", "metrics [reset | dump <seconds> | dump off]",
+            "Show command timings, or reset them, or write them to metrics.txt periodically", "Diagnostics",
+            Command.ParameterType.TEXT, 0, 1, this::handleMetricsCommand).withAliases("stats", "metric"));
+        commandRegistry.register(new Command("shapecache", "shapecache <shapes>", "Set how many shape outlines are kept for reuse, 0 for none",
+            "Diagnostics", Command.ParameterType.INTEGERS, 1, 1, this::handleShapeCacheCommand));
+        commandRegistry.register(new Command("drawmode", "drawmode immediate|batched",
+            "Draw each line as it is made, or join lines and draw them once the turtle stops", "Diagnostics",
+            Command.ParameterType.TEXT, 1, 1, this::handleDrawModeCommand));
+        
+        commandRegistry.register(new Command("turtle", "turtle <number>|<from>-<to>|all <command> | turtle dismiss",
+            "Give a command to other turtles, which draw at the same time as this one", "Turtles",
+            Command.ParameterType.TEXT, 1, 1, this::handleTurtleCommand));
+        
+        commandRegistry.register(new Command("server", "server [start [port] | stop]",
+            "Let other programs on this computer send commands and fetch the canvas over a socket", "Remote",
+            Command.ParameterType.TEXT, 0, 1, this::handleServerCommand));
+        
+        BuiltInCommands.registerProgramming(commandRegistry);
+    }
+    
+    /**
+     * Registry of all commands understood by processCommand
+     * Subclasses and other code can register extra commands here, at any time. Inside repeat and
+     * procedures they can be used too, as long as they take no parameter or plain numbers
+     */
+    public CommandRegistry getCommandRegistry() {
+        return commandRegistry;
+    }
+    
+
+    @Override
+    public void processCommand(String command) {
+        if (command == null || command.trim().isEmpty()) {
+            return;
+        }
+        
+        // Typed commands are queued without waiting so the EDT never blocks on a full queue
+        if (!commandExecutor.trySubmit(() -> runTypedLine(command))) {
+            showError("Too many commands waiting. Try again when the current script has finished.");
+            return;
+        }
+        
+        addToCommandHistory(command);
+        
+        if (!command.startsWith("load commands")) {
+            imageSaved = false;
+            commandsSaved = false;
+        }
+    }
+    
+    /**
+     * Run a typed line once the statement it belongs to is complete
+     * Runs on the command thread, the only user of typedStatements
+     */
+    private void runTypedLine(String line) {
+        String statement = typedStatements.add(line);
+        if (statement == null) {
+            displayMessage("Block continues. Close it with ']' or 'end'.");
+            return;
+        }
+        runCommandText(statement);
+        recordUndo(statement, () -> runCommandText(statement));
+    }
+    
+    /**
+     * Add a command that has just run to the undo history, if it changed anything undo restores
+     * A command that failed part way, or was corrected from a typo, is snapshotted rather than
+     * run again, so undo never repeats its error
+     * @param replay Runs the command again
+     */
+    private void recordUndo(String command, Runnable replay) {
+        boolean statement = scriptCompiler.isStatement(command);
+        Command registered = null;
+        if (!statement) {
+            String name = command.trim().toLowerCase().split("\\s+", 2)[0];
+            registered = commandRegistry.get(name);
+            if (registered == null && commandRegistry.getSuggestion(name) != null) {
+                registered = commandRegistry.get(commandRegistry.getSuggestion(name));
+            }
+            if (registered == null || !UNDOABLE_SECTIONS.contains(registered.getSection())) {
+                return;
+            }
+        }
+        
+        recordUndoStep(registered != null && registered.isEventThreadOnly(), replay);
+    }
+    
+    /**
+     * Add a step that undo restores and that has just run
+     * @param snapshot Whether it must be snapshotted rather than run again, e.g. it may have asked the user something
+     * @param replay Runs the step again
+     */
+    private void recordUndoStep(boolean snapshot, Runnable replay) {
+        if (commandFailed || flockDrawnSinceUndoPoint || snapshot) {
+            // Strokes the flock merged in meanwhile cannot be replayed, so they go in the same snapshot
+            flockDrawnSinceUndoPoint = false;
+            undoHistory.recordChange();
+        } else {
+            undoHistory.record(replay);
+        }
+    }
+    
+    /**
+     * Parse and run a command without adding it to the history
+     * Drawing commands are compiled and run by scriptInterpreter, as they are in scripts; the
+     * rest run their registered handler
+     */
+    private void runCommandText(String command) {
+        long start = System.nanoTime();
+        String metricName = CommandMetrics.UNKNOWN_COMMAND;
+        commandFailed = false;
+        try {
+            String[] parts = command.trim().toLowerCase().split("\\s+", 2);
+            String commandName = parts[0];
+            String parameter = parts.length > 1 ? parts[1] : null;
+            
+            if (scriptCompiler.isStatement(command)) {
+                metricName = commandRegistry.get(commandName) != null ? commandName : "procedure";
+                runStatement(command);
+                return;
+            }
+            
+            Command registered = commandRegistry.get(commandName);
+            if (registered == null) {
+                String suggestion = commandRegistry.getSuggestion(commandName);
+                if (suggestion == null) {
+                    showError("Invalid command '" + commandName + "'. Type 'help' for a list of commands.");
+                    return;
+                }
+                showWarning("Did you mean '" + suggestion + "'? Using that instead.");
+                registered = commandRegistry.get(suggestion);
+            }
+            metricName = registered.getName();
+            if (!registered.getSection().equals("Movement")) {
+                flushStrokes();
+            }
+            
+            if (registered.getOpcode() >= 0) {
+                String line = parameter == null ? registered.getName() : registered.getName() + " " + parameter;
+                CompiledScript script = new CompiledScript(4);
+                scriptCompiler.compileLine(line, script);
+                int[] code = script.getCode();
+                if (code[0] == CompiledScript.OP_INVALID) {
+                    showError(script.getConstant(code[2]));
+                    return;
+                }
+                // The interpreter times the instruction itself
+                metricName = null;
+                scriptInterpreter.run(script);
+                if (!commandFailed) {
+                    displayMessage("Ran '" + line + "'");
+                }
+                return;
+            }
+            
+            String error = registered.validate(parameter);
+            if (error != null) {
+                showError(error);
+                return;
+            }
+            
+            if (registered.isEventThreadOnly()) {
+                Command dialogCommand = registered;
+                runOnEventThread(() -> {
+                    eventThreadCommandFailed = false;
+                    dialogCommand.execute(parameter);
+                });
+                if (eventThreadCommandFailed) {
+                    commandFailed = true;
+                }
+            } else {
+                registered.execute(parameter);
+            }
+        } catch (Exception e) {
+            showError("Error: " + e.getMessage());
+        } finally {
+            if (metricName != null) {
+                metrics.record(metricName, System.nanoTime() - start, commandFailed);
+            }
+        }
+    }
+    
+    /**
+     * Compile and run a line using repeat, procedures or variables
+     * Loops run from the compiled code, so a body is parsed once however often it repeats
+     */
+    private void runStatement(String statement) {
+        CompiledScript script = new CompiledScript();
+        scriptCompiler.compileLine(statement, script);
+        scriptInterpreter.run(script);
+    }
+    
+    /**
+     * Run code that opens windows or dialogs on the EDT and wait for it to finish,
+     * so commands after it still run in order
+     */
+    private void runOnEventThread(Runnable task) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            showError("Error: " + e.getCause().getMessage());
+        }
+    }
+    
+    /**
+     * Handle the save command
+     * Format: save image|commands
+     */
+    private void handleSaveCommand(String parameter) {
+        if (parameter.equals("image")) {
+            saveImage();
+        } else if (parameter.equals("commands")) {
+            saveCommands();
+        } else if (parameter.equals("session")) {
+            saveSession(true);
+        } else if (parameter.equals("session raw")) {
+            saveSession(false);
+        } else {
+            showError("Invalid parameter. Use 'save image', 'save commands' or 'save session'");
+        }
+    }
+    
+    /**
+     * Handle the load command
+     * Format: load image|commands
+     */
+    private void handleLoadCommand(String parameter) {
+        if (parameter.equals("image")) {
+            loadImage();
+        } else if (parameter.equals("commands")) {
+            loadCommands();
+        } else if (parameter.equals("session")) {
+            loadSession();
+        } else {
+            showError("Invalid parameter. Use 'load image', 'load commands' or 'load session'");
+        }
+    }
+    
+    /**
+     * Handle the export command
+     * Both formats are produced from the display list, so no commands are run again
+     * Format: export svg | export png <scale>
+     */
+    private void handleExportCommand(String parameter) {
+        String[] exportParams = parameter.trim().split("\\s+");
+        if (exportParams[0].equals("svg") && exportParams.length == 1) {
+            exportSvg();
+            return;
+        }
+        if (!exportParams[0].equals("png")) {
+            showError("Invalid parameter. Use 'export svg' or 'export png <scale>'");
+            return;
+        }
+        
+        double scale = 1;
+        if (exportParams.length > 1) {
+            try {
+                scale = Double.parseDouble(exportParams[1]);
+            } catch (NumberFormatException e) {
+                showError("Scale must be a number. Example: export png 4");
+                return;
+            }
+        }
+        if (scale <= 0 || scale > 16) {
+            showError("Scale must be greater than 0 and at most 16. Example: export png 4");
+            return;
+        }
+        exportPng(scale);
+    }
+    
+    /**
+     * Handle the compression command which sets how hard saved PNG images are compressed
+     * Format: compression <level 0-9> or compression fast
+     */
+    private void handleCompressionCommand(String parameter) {
+        String value = parameter.trim();
+        int level;
+        if (value.equals("fast")) {
+            level = PngExportFormat.FAST_LEVEL;
+        } else {
+            try {
+                level = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                showError("Compression must be a number from 0 to 9 or 'fast'. Example: compression 9");
+                return;
+            }
+            if (level < 0 || level > 9) {
+                showError("Compression level must be between 0 and 9. Example: compression 9");
+                return;
+            }
+        }
+        
+        imageExporter.replace(new PngExportFormat(level, ForkJoinPool.commonPool()));
+        displayMessage("PNG compression level set to " + level + (level == PngExportFormat.FAST_LEVEL ? " (fast)" : ""));
+    }
+    
+    /**
+     * Handle the playback command which sets how loadCommands replays a file
+     * Format: playback instant|animated or playback throttled <commands per second>
+     */
+    private void handlePlaybackCommand(String parameter) {
+        if (parameter == null) {
+            showError("Missing parameter for 'playback'. Usage: playback instant|animated|throttled <commands per second>");
+            return;
+        }
+        
+        String[] playbackParams = parameter.trim().split("\\s+");
+        PlaybackMode mode = PlaybackMode.fromName(playbackParams[0]);
+        
+        if (mode == null) {
+            showError("Invalid playback mode. Use 'instant', 'throttled' or 'animated'");
+            return;
+        }
+        
+        if (mode == PlaybackMode.THROTTLED) {
+            if (playbackParams.length != 2) {
+                showError("Missing rate for 'playback throttled'. Example: playback throttled 500");
+                return;
+            }
+            try {
+                int rate = Integer.parseInt(playbackParams[1]);
+                if (rate <= 0) {
+                    showError("Rate must be a positive number. Example: playback throttled 500");
+                    return;
+                }
+                throttledCommandsPerSecond = rate;
+            } catch (NumberFormatException e) {
+                showError("Rate for 'playback throttled' must be a number. Example: playback throttled 500");
+                return;
+            }
+        }
+        
+        playbackMode = mode;
+        displayMessage("Playback mode set to " + mode.name().toLowerCase()
+            + (mode == PlaybackMode.THROTTLED ? " at " + throttledCommandsPerSecond + " commands per second" : ""));
+    }
+    
+    /**
+     * Handle the metrics command
+     * Format: metrics, metrics reset, metrics dump <seconds> or metrics dump off
+     */
+    private void handleMetricsCommand(String parameter) {
+        String[] metricsParams = parameter == null ? new String[0] : parameter.trim().split("\\s+");
+        if (metricsParams.length == 0) {
+            showMetricsDialog();
+            return;
+        }
+        
+        if (metricsParams[0].equals("reset") && metricsParams.length == 1) {
+            metrics.reset();
+            displayMessage("Metrics reset");
+            return;
+        }
+        
+        if (!metricsParams[0].equals("dump") || metricsParams.length != 2) {
+            showError("Invalid metrics option. Usage: metrics [reset | dump <seconds> | dump off]");
+            return;
+        }
+        if (metricsParams[1].equals("off")) {
+            metrics.stopDump();
+            displayMessage("Metrics dump stopped");
+            return;
+        }
+        
+        int seconds;
+        try {
+            seconds = Integer.parseInt(metricsParams[1]);
+        } catch (NumberFormatException e) {
+            showError("Dump interval must be a number of seconds. Example: metrics dump 10");
+            return;
+        }
+        if (seconds <= 0) {
+            showError("Dump interval must be a positive number of seconds. Example: metrics dump 10");
+            return;
+        }
+        
+        File file = new File(METRICS_FILE).getAbsoluteFile();
+        metrics.startDump(file.toPath(), seconds, e -> showError("Metrics dump stopped: " + e.getMessage()));
+        displayMessage("Writing metrics to " + file + " every " + seconds + " seconds");
+    }
+    
+    /**
+     * Show the metrics report in a popup, in a fixed width font so the columns line up
+     */
+    private void showMetricsDialog() {
+        String report = metrics.getReport();
+        
+        SwingUtilities.invokeLater(() -> {
+            JTextArea text = new JTextArea(report);
+            text.setEditable(false);
+            text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JOptionPane.showMessageDialog(this, new JScrollPane(text), "Command Metrics", JOptionPane.INFORMATION_MESSAGE);
+        });
+        
+        displayMessage("Metrics displayed");
+    }
+    
+    /**
+     * Handle the turtle command which drives the extra turtles
+     * Format: turtle <number>|<from>-<to>|all <command>, or turtle dismiss
+     */
+    private void handleTurtleCommand(String parameter) {
+        String[] turtleParams = parameter.trim().split("\\s+", 2);
+        if (turtleParams.length == 1 && turtleParams[0].equals("dismiss")) {
+            if (flock != null) {
+                flock.dismiss();
+            }
+            displayMessage("All other turtles dismissed");
+            return;
+        }
+        if (turtleParams.length < 2) {
+            showError("Missing command. Usage: turtle <number>|<from>-<to>|all <command>");
+            return;
+        }
+        
+        String target = turtleParams[0];
+        String command = turtleParams[1];
+        if (command.startsWith("turtle")) {
+            showError("A turtle cannot give commands to other turtles.");
+            return;
+        }
+        
+        TurtleFlock turtles = getFlock();
+        if (target.equals("all")) {
+            if (turtles.submitAll(command) == 0) {
+                showError("There are no other turtles yet. Start some with e.g. 'turtle 1-100 reset'");
+            }
+            return;
+        }
+        
+        int first;
+        int last;
+        try {
+            int dash = target.indexOf('-', 1);
+            first = Integer.parseInt(dash < 0 ? target : target.substring(0, dash));
+            last = dash < 0 ? first : Integer.parseInt(target.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            showError("Invalid turtle '" + target + "'. Use a number, a range such as 1-100, or all");
+            return;
+        }
+        if (first < 1 || last > TurtleFlock.MAX_TURTLES || first > last) {
+            showError("Turtle numbers go from 1 to " + TurtleFlock.MAX_TURTLES + ", e.g. turtle 1-100 move 50");
+            return;
+        }
+        for (int number = first; number <= last; number++) {
+            turtles.submit(number, command);
+        }
+    }
+    
+    private TurtleFlock getFlock() {
+        if (flock == null) {
+            BufferedImage canvas = getBufferedImage();
+            flock = new TurtleFlock(canvas.getWidth(), canvas.getHeight(),
+                Runtime.getRuntime().availableProcessors(), this::queueFlockComposite);
+        }
+        return flock;
+    }
+    
+    /**
+     * Called by the flock's threads when turtles have drawn
+     * The layers are merged by the command thread, the only thread that draws on the canvas;
+     * while a merge is already queued further calls add nothing
+     */
+    private void queueFlockComposite() {
+        if (!flockCompositeQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // Queued even after a cancel, or strokes already drawn by the turtles would never be shown
+            commandExecutor.submitAlways(this::compositeFlock);
+        } catch (InterruptedException e) {
+            flockCompositeQueued.set(false);
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Draw what the other turtles recorded onto the canvas and repaint just that area
+     * Errors they reported are shown together in one dialog. What they drew becomes one
+     * undo point once every turtle has finished, or with the next command that is recorded
+     */
+    private void compositeFlock() {
+        flockCompositeQueued.set(false);
+        flushStrokes();
+        Graphics2D g = canvasGraphics();
+        Rectangle dirty;
+        try {
+            dirty = flock.composite(g, displayList);
+        } finally {
+            g.dispose();
+        }
+        if (dirty != null) {
+            imageSaved = false;
+            repaintScheduler.markDirty(dirty);
+            flockDrawnSinceUndoPoint = true;
+        }
+        // The last turtle to finish always queues one more merge, so this is reached once it is idle
+        if (flockDrawnSinceUndoPoint && flock.isIdle()) {
+            flockDrawnSinceUndoPoint = false;
+            undoHistory.recordChange();
+        }
+        
+        List<String> errors = flock.takeErrors();
+        if (!errors.isEmpty()) {
+            showError(errors.get(0) + (errors.size() > 1 ? " (and " + (errors.size() - 1) + " more)" : ""));
+        }
+    }
+    
+    /**
+     * Run the last loaded command file again from its compiled form
+     */
+    private void handleReplayCommand() {
+        if (lastLoadedScript == null) {
+            showError("Nothing to replay. Use 'load commands' first.");
+            return;
+        }
+        if (replaying) {
+            showError("Nested replay is not allowed.");
+            return;
+        }
+        
+        replaying = true;
+        long start = System.nanoTime();
+        try {
+            scriptInterpreter.run(lastLoadedScript);
+        } finally {
+            replaying = false;
+            undoHistory.recordChange();
+        }
+        metrics.recordScript(lastLoadedScript.getInstructionCount(), System.nanoTime() - start);
+        displayMessage("Replayed " + lastLoadedScript.getInstructionCount() + " commands");
+    }
+    
+    /**
+     * Reset all settings including pen color, pen width, position, and direction
+     */
+    private void resetAll() {
+        reset();
+        setPenColour(defaultPenColor);
+        setStroke(defaultPenWidth);
+    }
+    
+    /**
+     * Show help information in a popup dialog
+     */
+    private void showHelpDialog() {
+        String help = commandRegistry.getHelpText();
+        
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(this, help, "Turtle Graphics Help", JOptionPane.INFORMATION_MESSAGE);
+        });
+        
+        displayMessage("Help information displayed");
+    }
+    
+    /**
+     * Stroke a whole shape onto the canvas as one path and repaint once,
+     * rather than going through forward() and right() for every edge
+     * The turtle ends up where the edge by edge drawing would have left it
+     */
+    private void drawShapePath(ShapeGeometry shape) {
+        flushStrokes();
+        Graphics2D g = canvasGraphics();
+        try {
+            g.setColor(penColour);
+            g.setStroke(new BasicStroke(penWidth));
+            shape.draw(g);
+        } finally {
+            g.dispose();
+        }
+        recordShape(shape);
+        
+        double startX = turtleX();
+        double startY = turtleY();
+        setPenState(false);
+        placeTurtle(shape.getEndX(), shape.getEndY());
+        pointTurtle(shape.getEndDirection());
+        setPenState(true);
+        
+        Rectangle dirty = shape.getBounds(penWidth);
+        dirty.add(turtleArea(startX, startY));
+        dirty.add(turtleArea(shape.getEndX(), shape.getEndY()));
+        repaintScheduler.markDirty(dirty);
+    }
+    
+    /**
+     * Move the turtle in a straight line, drawing on the image directly when the pen is down
+     * Only the segment and the turtle's old and new positions are marked for repainting
+     */
+    private void moveTurtle(int distance) {
+        double startX = turtleX();
+        double startY = turtleY();
+        double radians = Math.toRadians(getDirection());
+        double endX = startX + distance * Math.cos(radians);
+        double endY = startY + distance * Math.sin(radians);
+        boolean drawing = penDown;
+        
+        Rectangle dirty = turtleArea(startX, startY);
+        dirty.add(turtleArea(endX, endY));
+        if (drawing) {
+            Rectangle line = lineArea(startX, startY, endX, endY);
+            if (batchStrokes) {
+                addToPendingStroke(startX, startY, endX, endY, line);
+            } else {
+                Graphics2D g = canvasGraphics();
+                try {
+                    g.setColor(penColour);
+                    g.setStroke(new BasicStroke(penWidth));
+                    g.draw(new Line2D.Double(startX, startY, endX, endY));
+                } finally {
+                    g.dispose();
+                }
+                displayList.addLine(startX, startY, endX, endY, penRgb(), penWidth, false);
+                dirty.add(line);
+            }
+        }
+        
+        setPenState(false);
+        placeTurtle(endX, endY);
+        setPenState(drawing);
+        repaintScheduler.markDirty(dirty);
+    }
+    
+    /**
+     * Continue the path being held back with one more line, starting a new path if there is none
+     * Lines after the first are recorded as joined, so exports stroke them as one path too
+     */
+    private void addToPendingStroke(double startX, double startY, double endX, double endY, Rectangle area) {
+        boolean joined = pendingStroke != null;
+        if (joined) {
+            pendingStrokeArea.add(area);
+        } else {
+            pendingStroke = new Path2D.Double();
+            pendingStroke.moveTo(startX, startY);
+            pendingStrokeArea = area;
+        }
+        pendingStroke.lineTo(endX, endY);
+        displayList.addLine(startX, startY, endX, endY, penRgb(), penWidth, joined);
+    }
+    
+    /**
+     * Stroke the lines held back in batched draw mode as one path, touching the canvas once
+     * Called before anything that would end the path: a shape, a jump, a pen change, a command
+     * that is not a move or turn, and whenever the command queue runs empty
+     */
+    private void flushStrokes() {
+        if (pendingStroke == null) {
+            return;
+        }
+        Graphics2D g = canvasGraphics();
+        try {
+            g.setColor(penColour);
+            g.setStroke(new BasicStroke(penWidth));
+            g.draw(pendingStroke);
+        } finally {
+            g.dispose();
+        }
+        repaintScheduler.markDirty(pendingStrokeArea);
+        pendingStroke = null;
+        pendingStrokeArea = null;
+    }
+    
+    /**
+     * Whole pixel area a line can touch with the current pen
+     */
+    private Rectangle lineArea(double startX, double startY, double endX, double endY) {
+        int pad = penWidth / 2 + 1;
+        int left = (int) Math.floor(Math.min(startX, endX)) - pad;
+        int top = (int) Math.floor(Math.min(startY, endY)) - pad;
+        return new Rectangle(left, top, (int) Math.ceil(Math.max(startX, endX)) + pad - left,
+            (int) Math.ceil(Math.max(startY, endY)) + pad - top);
+    }
+    
+    /**
+     * Graphics for the canvas image, drawing smooth strokes like every other renderer
+     */
+    private Graphics2D canvasGraphics() {
+        Graphics2D g = getBufferedImage().createGraphics();
+        DisplayList.smoothStrokes(g);
+        return g;
+    }
+    
+    /**
+     * Exact x position, or the sprite's own if LBUGraphics has moved the turtle since, e.g. on reset
+     */
+    private double turtleX() {
+        return Math.round(exactX) == getxPos() ? exactX : getxPos();
+    }
+    
+    private double turtleY() {
+        return Math.round(exactY) == getyPos() ? exactY : getyPos();
+    }
+    
+    /**
+     * Set the exact position and put the sprite on the nearest pixel, without drawing
+     */
+    private void placeTurtle(double x, double y) {
+        exactX = x;
+        exactY = y;
+        setxPos((int) Math.round(x));
+        setyPos((int) Math.round(y));
+    }
+    
+    /**
+     * Jump to a position and direction without drawing, e.g. back to where a shape started
+     */
+    private void jumpTo(double x, double y, int direction) {
+        flushStrokes();
+        setPenState(false);
+        placeTurtle(x, y);
+        pointTurtle(direction);
+        setPenState(true);
+    }
+    
+    /**
+     * Add the edges of a shape to the display list, joined so they are stroked as one path again
+     */
+    private void recordShape(ShapeGeometry shape) {
+        int rgb = penRgb();
+        for (int i = 1; i < shape.getPointCount(); i++) {
+            displayList.addLine(shape.getX(i - 1), shape.getY(i - 1), shape.getX(i), shape.getY(i),
+                rgb, penWidth, i > 1);
+        }
+    }
+    
+    private int penRgb() {
+        return penColour.getRGB() & 0xFFFFFF;
+    }
+    
+    /**
+     * Draw a circle around the turtle and record it in the display list
+     */
+    @Override
+    public void circle(int radius) {
+        flushStrokes();
+        double x = turtleX();
+        double y = turtleY();
+        Graphics2D g = canvasGraphics();
+        try {
+            g.setColor(penColour);
+            g.setStroke(new BasicStroke(penWidth));
+            g.draw(new Ellipse2D.Double(x - radius, y - radius, radius * 2, radius * 2));
+        } finally {
+            g.dispose();
+        }
+        displayList.addCircle(x, y, radius, penRgb(), penWidth);
+        repaintScheduler.markDirty(lineArea(x - radius, y - radius, x + radius, y + radius));
+    }
+    
+    /**
+     * Area covered by the turtle sprite when it sits at a position
+     */
+    private Rectangle turtleArea(double x, double y) {
+        int left = (int) Math.floor(x) - TURTLE_MARGIN;
+        int top = (int) Math.floor(y) - TURTLE_MARGIN;
+        return new Rectangle(left, top, TURTLE_MARGIN * 2 + 1, TURTLE_MARGIN * 2 + 1);
+    }
+    
+    /**
+     * Remember the pen colour so shapes drawn directly on the image can use it
+     */
+    @Override
+    public void setPenColour(Color colour) {
+        flushStrokes();
+        super.setPenColour(colour);
+        penColour = colour;
+    }
+    
+    /**
+     * Remember the pen width so shapes drawn directly on the image can use it
+     */
+    @Override
+    public void setStroke(int width) {
+        flushStrokes();
+        super.setStroke(width);
+        penWidth = width;
+    }
+    
+    /**
+     * Track the pen state for lines drawn directly on the image
+     */
+    @Override
+    public void setPenState(boolean state) {
+        super.setPenState(state);
+        penDown = state;
+    }
+    
+    @Override
+    public void drawOn() {
+        super.drawOn();
+        penDown = true;
+    }
+    
+    @Override
+    public void drawOff() {
+        flushStrokes();
+        super.drawOff();
+        penDown = false;
+    }
+    
+    /**
+     * Report an error without stopping to show it
+     * It goes into the problems list and the status bar. While a script is loading it is given the
+     * script's name and line and not shown on the canvas, so the script runs on at full speed and
+     * its problems are shown together once it has finished
+     */
+    private void showError(String message) {
+        reportProblem(DiagnosticsCollector.Severity.ERROR, message);
+    }
+    
+    /**
+     * Report a command that ran, but not as written, e.g. after a typo was corrected
+     */
+    private void showWarning(String message) {
+        reportProblem(DiagnosticsCollector.Severity.WARNING, message);
+    }
+    
+    private void reportProblem(DiagnosticsCollector.Severity severity, String message) {
+        boolean commandThread = commandExecutor.isWorkerThread();
+        // A warning means the command still ran, so only errors count it as failed
+        if (severity == DiagnosticsCollector.Severity.ERROR) {
+            if (commandThread) {
+                commandFailed = true;
+                commandErrorCount++;
+            } else if (SwingUtilities.isEventDispatchThread()) {
+                eventThreadCommandFailed = true;
+            }
+        }
+        if (isReplaying()) {
+            return;
+        }
+        if (remoteErrors != null && commandThread) {
+            // The client that sent the command is told instead
+            remoteErrors.add(remoteCommandNumber + ": " + message);
+            displayMessage(message);
+            return;
+        }
+        String source = commandThread ? problemSource : null;
+        diagnostics.report(severity, source, source != null ? problemLine : 0, message);
+        if (source == null) {
+            displayMessage(message);
+        }
+    }
+    
+    /**
+     * Whether undo or redo is running commands again
+     * The undo history belongs to the command thread, and nothing is replayed anywhere else
+     */
+    private boolean isReplaying() {
+        return commandExecutor.isWorkerThread() && undoHistory.isReplaying();
+    }
+    
+    /**
+     * Show the latest problem and how many there are, at most once per event
+     */
+    private void scheduleStatusUpdate() {
+        if (statusUpdateQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::updateStatusBar);
+        }
+    }
+    
+    private void updateStatusBar() {
+        statusUpdateQueued.set(false);
+        DiagnosticsCollector.Diagnostic latest = diagnostics.getLatest();
+        if (latest == null) {
+            statusBar.setText("No problems");
+            statusBar.setForeground(Color.DARK_GRAY);
+            return;
+        }
+        statusBar.setText(diagnostics.getSummary() + " - " + latest + " (click to see them all)");
+        statusBar.setForeground(diagnostics.getErrorCount() > 0 ? Color.RED.darker() : Color.ORANGE.darker());
+        if (problemsFrame.isVisible()) {
+            refreshProblems();
+        }
+    }
+    
+    /**
+     * Line under the canvas with the latest problem; clicking it opens the problems window
+     * Whoever puts the canvas in a window adds this below it
+     */
+    public JComponent getStatusBar() {
+        return statusBar;
+    }
+    
+    /**
+     * Create the problems window but don't show it yet
+     */
+    private void createProblemsPanel() {
+        statusBar = new JLabel("No problems");
+        statusBar.setForeground(Color.DARK_GRAY);
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        statusBar.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        statusBar.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                showProblems();
+            }
+        });
+        
+        problemsFrame = new JFrame("Problems");
+        problemsFrame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+        JList<String> problemsList = new JList<>(problemsModel);
+        problemsList.setPrototypeCellValue("commands.txt:1000: Invalid command 'mvoe'. Type 'help' for a list of commands.");
+        problemsList.setVisibleRowCount(15);
+        
+        JButton clearBtn = new JButton("Clear");
+        clearBtn.addActionListener(_ -> {
+            diagnostics.clear();
+            updateStatusBar();
+            refreshProblems();
+        });
+        JPanel buttons = new JPanel();
+        buttons.add(problemsSummary);
+        buttons.add(clearBtn);
+        
+        problemsFrame.add(new JScrollPane(problemsList), BorderLayout.CENTER);
+        problemsFrame.add(buttons, BorderLayout.SOUTH);
+        problemsFrame.pack();
+        problemsFrame.setLocationRelativeTo(this);
+    }
+    
+    private void refreshProblems() {
+        problemsModel.clear();
+        List<String> lines = new ArrayList<>();
+        for (DiagnosticsCollector.Diagnostic diagnostic : diagnostics.getDiagnostics()) {
+            lines.add(diagnostic.toString());
+        }
+        problemsModel.addAll(lines);
+        problemsSummary.setText(diagnostics.getSummary());
+    }
+    
+    /**
+     * Show every problem collected in one window
+     */
+    private void showProblems() {
+        refreshProblems();
+        if (!problemsFrame.isVisible()) {
+            problemsFrame.setVisible(true);
+        } else {
+            problemsFrame.toFront();
+        }
+    }
+    
+    /**
+     * Handle the problems command
+     * Format: problems [clear]
+     */
+    private void handleProblemsCommand(String parameter) {
+        if (parameter == null) {
+            showProblems();
+            displayMessage(diagnostics.getSummary());
+        } else if (parameter.trim().equals("clear")) {
+            diagnostics.clear();
+            updateStatusBar();
+            refreshProblems();
+            displayMessage("Problems cleared");
+        } else {
+            showError("Unknown problems option '" + parameter.trim() + "'. Use problems or problems clear.");
+        }
+    }
+    
+    /**
+     * Add a command to the command history
+     */
+    private void addToCommandHistory(String command) {
+        commandHistory.add(command);
+        commandHistoryModel.append(command);
+    }
+    
+    /**
+     * Rebuild the command history display from the full history
+     * Only needed when the history is replaced, normal commands are appended one at a time
+     */
+    private void updateCommandHistoryDisplay() {
+        commandHistoryModel.clear();
+        try {
+            commandHistory.forEachRecent(commandHistoryModel.getCapacity(), commandHistoryModel::append);
+        } catch (IOException e) {
+            showError("Error reading command history: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Save the current image to a file
+     * The canvas is copied and then written on the export thread, so the window and the
+     * command thread carry on while a large image is compressed
+     * @return Completes when the file has been written, or null if the dialog was cancelled
+     */
+    private CompletableFuture<Void> saveImage() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Image");
+        Map<javax.swing.filechooser.FileFilter, ImageExportFormat> filterFormats = new HashMap<>();
+        for (ImageExportFormat format : imageExporter.getFormats()) {
+            javax.swing.filechooser.FileNameExtensionFilter filter =
+                new javax.swing.filechooser.FileNameExtensionFilter(format.getDescription(), format.getExtension());
+            fileChooser.addChoosableFileFilter(filter);
+            filterFormats.put(filter, format);
+            if (filterFormats.size() == 1) {
+                fileChooser.setFileFilter(filter);
+            }
+        }
+        
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+        File file = fileChooser.getSelectedFile();
+        ImageExportFormat format = imageExporter.formatFor(file);
+        if (format == null) {
+            format = filterFormats.getOrDefault(fileChooser.getFileFilter(), imageExporter.getFormats().get(0));
+            file = new File(file.getAbsolutePath() + "." + format.getExtension());
+        }
+        
+        BufferedImage image = getBufferedImage();
+        BufferedImage snapshot = new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+        return writeImageInBackground(snapshot, file, format).thenRun(() -> imageSaved = true);
+    }
+    
+    /**
+     * Write an image on the export thread with a progress monitor, reporting the outcome when done
+     * @param image Image that nothing else will change while it is written
+     */
+    private CompletableFuture<Void> writeImageInBackground(BufferedImage image, File file, ImageExportFormat format) {
+        ProgressMonitor progressMonitor = new ProgressMonitor(this, "Saving image...", file.getName(), 0, 100);
+        progressMonitor.setMillisToDecideToPopup(200);
+        displayMessage("Saving image to " + file.getName());
+        
+        return imageExporter.exportAsync(image, file, format,
+                progress -> SwingUtilities.invokeLater(() -> progressMonitor.setProgress(progress)))
+            .whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+                progressMonitor.close();
+                if (error == null) {
+                    displayMessage("Image saved to " + file.getName() + " (" + image.getWidth() + "x" + image.getHeight() + ")");
+                } else {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    showError("Error saving image: " + cause.getMessage());
+                }
+            }));
+    }
+    
+    /**
+     * Export the display list as an SVG file
+     */
+    private void exportSvg() {
+        File file = chooseExportFile("Export SVG", "SVG Images", "svg");
+        if (file == null) {
+            return;
+        }
+        
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+            BufferedImage canvas = getBufferedImage();
+            SvgExporter.write(displayList, canvas.getWidth(), canvas.getHeight(), canvasBackground, displayListBackdrop, writer);
+            displayMessage("Drawing exported to " + file.getName());
+        } catch (IOException e) {
+            showError("Error exporting SVG: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Draw the display list again at a larger or smaller size and save it as PNG
+     */
+    private void exportPng(double scale) {
+        File file = chooseExportFile("Export PNG", "PNG Images", "png");
+        if (file == null) {
+            return;
+        }
+        
+        BufferedImage canvas = getBufferedImage();
+        BufferedImage image = displayList.rasterize(canvas.getWidth(), canvas.getHeight(), scale, canvasBackground, displayListBackdrop);
+        writeImageInBackground(image, file, imageExporter.formatFor(file));
+    }
+    
+    /**
+     * Ask for a file to export to, adding the extension if it is missing
+     * @return The chosen file, or null if the dialog was cancelled
+     */
+    private File chooseExportFile(String title, String description, String extension) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle(title);
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(description, extension));
+        
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+        File file = fileChooser.getSelectedFile();
+        if (!file.getName().toLowerCase().endsWith("." + extension)) {
+            file = new File(file.getAbsolutePath() + "." + extension);
+        }
+        return file;
+    }
+    
+    /**
+     * Load an image from a file
+     */
+    private void loadImage() {
+        if (!imageSaved) {
+            int response = JOptionPane.showConfirmDialog(
+                this,
+                "Current image is not saved. Do you want to save it first?",
+                "Unsaved Changes",
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.WARNING_MESSAGE
+            );
+            
+            if (response == JOptionPane.YES_OPTION) {
+                saveImage();
+            } else if (response == JOptionPane.CANCEL_OPTION) {
+                return;
+            }
+        }
+        
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Load Image");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "Images", ImageIO.getReaderFileSuffixes()));
+        
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            
+            startImageLoad(file);
+        }
+    }
+    
+    /**
+     * Decode an image on a background thread, subsampled to fit the canvas
+     * While it decodes a copy of what has arrived so far is painted over the canvas, so a large
+     * image appears straight away and fills in. The canvas itself is only replaced once the whole
+     * image is in, on the command thread. Starting another load abandons the one in progress
+     */
+    private void startImageLoad(File file) {
+        if (imageLoad != null) {
+            imageLoad.cancel(false);
+        }
+        BufferedImage canvas = getBufferedImage();
+        int maxWidth = canvas.getWidth();
+        int maxHeight = canvas.getHeight();
+        displayMessage("Loading image from " + file.getName());
+        
+        imageLoad = new SwingWorker<BufferedImage, BufferedImage>() {
+            @Override
+            protected BufferedImage doInBackground() throws IOException, InterruptedException {
+                BufferedImage image = imageLoader.read(file, maxWidth, maxHeight, preview -> {
+                    if (!isCancelled()) {
+                        // The decoder keeps writing into its image, so only a copy leaves this thread
+                        publish(copyOf(preview));
+                    }
+                });
+                // Queued from here rather than done(), so the EDT never waits for room in the queue
+                commandExecutor.submitAlways(() -> {
+                    if (!isCancelled()) {
+                        installLoadedImage(image, file);
+                    }
+                });
+                return image;
+            }
+            
+            @Override
+            protected void process(List<BufferedImage> previews) {
+                if (isCancelled() || isDone()) {
+                    return;
+                }
+                imagePreview = previews.get(previews.size() - 1);
+                displayMessage("Loading image from " + file.getName() + "...");
+                repaint();
+            }
+            
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    hideImagePreview();
+                    return;
+                }
+                try {
+                    get();
+                } catch (ExecutionException e) {
+                    hideImagePreview();
+                    showError("Error loading image: " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        imageLoad.execute();
+    }
+    
+    private void hideImagePreview() {
+        if (imagePreview != null) {
+            imagePreview = null;
+            repaint();
+        }
+    }
+    
+    private static BufferedImage copyOf(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+    
+    /**
+     * Put a fully loaded image on the canvas
+     * Runs on the command thread, between commands, so nothing is drawing on the old canvas meanwhile
+     */
+    private void installLoadedImage(BufferedImage image, File file) {
+        flushStrokes();
+        setBufferedImage(image);
+        // Strokes drawn from now on go onto this image, so the display list keeps its own copy
+        displayList = new DisplayList();
+        BufferedImage backdrop = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = backdrop.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        displayListBackdrop = backdrop;
+        imageSaved = true;
+        undoHistory.recordChange();
+        SwingUtilities.invokeLater(this::hideImagePreview);
+        displayMessage("Image loaded from " + file.getName() + " (" + image.getWidth() + "x" + image.getHeight() + ")");
+    }
+    
+    /**
+     * Handle the undo command
+     * Format: undo [count]
+     */
+    private void handleUndoCommand(String parameter) {
+        int count = parseStepCount(parameter, "undo");
+        if (count <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        int undone = runUndoSteps(() -> undoHistory.undo(count));
+        if (undone == 0) {
+            showError("Nothing to undo.");
+            return;
+        }
+        displayMessage(String.format("Undid %d command%s in %.1f ms (%d more can be undone)",
+            undone, undone == 1 ? "" : "s", (System.nanoTime() - start) / 1e6, undoHistory.getUndoCount()));
+    }
+    
+    /**
+     * Handle the redo command
+     * Format: redo [count]
+     */
+    private void handleRedoCommand(String parameter) {
+        int count = parseStepCount(parameter, "redo");
+        if (count <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        int redone = runUndoSteps(() -> undoHistory.redo(count));
+        if (redone == 0) {
+            showError("Nothing to redo.");
+            return;
+        }
+        displayMessage(String.format("Redid %d command%s in %.1f ms (%d more can be redone)",
+            redone, redone == 1 ? "" : "s", (System.nanoTime() - start) / 1e6, undoHistory.getRedoCount()));
+    }
+    
+    /**
+     * Number of steps for undo or redo, 1 if none is given
+     * The parameter has already been validated as a number
+     * @return The count, or 0 after reporting a bad one
+     */
+    private int parseStepCount(String parameter, String command) {
+        if (parameter == null || parameter.trim().isEmpty()) {
+            return 1;
+        }
+        int count = Integer.parseInt(parameter.trim());
+        if (count <= 0) {
+            showError("Invalid count for '" + command + "'. Example: " + command + " 5");
+            return 0;
+        }
+        return count;
+    }
+    
+    /**
+     * Move through the undo history without repainting each replayed command, then repaint once
+     */
+    private int runUndoSteps(IntSupplier steps) {
+        flushStrokes();
+        boolean wasSuspended = repaintScheduler.isSuspended();
+        repaintScheduler.setSuspended(true);
+        try {
+            return steps.getAsInt();
+        } finally {
+            BufferedImage canvas = getBufferedImage();
+            repaintScheduler.markDirty(0, 0, canvas.getWidth(), canvas.getHeight());
+            repaintScheduler.setSuspended(wasSuspended);
+            imageSaved = false;
+        }
+    }
+    
+    /**
+     * Handle the undosnapshots command
+     * Format: undosnapshots <commands>,<megabytes>
+     */
+    private void handleUndoSnapshotsCommand(String parameter) {
+        String[] values = parameter.split(",");
+        int interval = Integer.parseInt(values[0].trim());
+        int megabytes = Integer.parseInt(values[1].trim());
+        if (interval < 1 || megabytes < 0) {
+            showError("Use at least 1 command between snapshots and a budget of 0 MB or more. Example: undosnapshots 50,64");
+            return;
+        }
+        undoHistory.setInterval(interval);
+        undoHistory.setMemoryBudget(megabytes * 1024L * 1024);
+        displayMessage(String.format("Undo snapshot every %d commands, up to %d MB (%d snapshots, %.1f MB in use)",
+            interval, megabytes, undoHistory.getSnapshotCount(), undoHistory.getMemoryUsed() / (1024.0 * 1024)));
+    }
+    
+    /**
+     * Everything undo puts back: the compressed canvas, the turtle, the pen, the display list
+     * and the values of the script variables
+     */
+    private UndoPoint captureUndoPoint() {
+        flushStrokes();
+        UndoPoint point = new UndoPoint();
+        point.pixels = CanvasSnapshot.capture(getBufferedImage());
+        point.x = turtleX();
+        point.y = turtleY();
+        point.direction = getDirection();
+        point.penColour = penColour;
+        point.penWidth = penWidth;
+        point.penDown = penDown;
+        point.displayList = displayList;
+        point.displayListSize = displayList.size();
+        point.displayListBackdrop = displayListBackdrop;
+        point.canvasBackground = canvasBackground;
+        point.globals = scriptInterpreter.copyGlobals();
+        return point;
+    }
+    
+    private void restoreUndoPoint(UndoPoint point) {
+        pendingStroke = null;
+        pendingStrokeArea = null;
+        BufferedImage canvas = getBufferedImage();
+        if (point.pixels.fits(canvas)) {
+            point.pixels.restoreInto(canvas);
+        } else {
+            setBufferedImage(point.pixels.toImage());
+        }
+        // Redo can restore a later snapshot than the list's length; undo history drops those
+        // snapshots before anything new is added, so the items they count are still there
+        point.displayList.restoreSize(point.displayListSize);
+        displayList = point.displayList;
+        displayListBackdrop = point.displayListBackdrop;
+        canvasBackground = point.canvasBackground;
+        // Replayed steps may read variables, e.g. 'move :side', so they must hold what they did then
+        scriptInterpreter.restoreGlobals(point.globals);
+        setPenColour(point.penColour);
+        setStroke(point.penWidth);
+        jumpTo(point.x, point.y, point.direction);
+        setPenState(point.penDown);
+    }
+    
+    /**
+     * Handle the shapecache command which sizes the shared ShapeGeometryCache
+     * Format: shapecache <shapes>
+     */
+    private void handleShapeCacheCommand(String parameter) {
+        int capacity = Integer.parseInt(parameter.trim());
+        if (capacity < 0) {
+            showError("Shape cache size cannot be negative. Example: shapecache 1024");
+            return;
+        }
+        ShapeGeometryCache cache = ShapeGeometry.getCache();
+        cache.setCapacity(capacity);
+        displayMessage(String.format("Shape cache holds up to %d shapes (hit rate so far %.1f%%)",
+            capacity, cache.getHitRate() * 100));
+    }
+    
+    /**
+     * Handle the server command which lets other programs draw, see CommandServer
+     * Format: server [start [port] | stop]
+     */
+    private void handleServerCommand(String parameter) {
+        String[] serverParams = parameter == null ? new String[0] : parameter.trim().split("\\s+");
+        if (serverParams.length == 0) {
+            if (commandServer.isRunning()) {
+                displayMessage("Command server is listening on port " + commandServer.getPort()
+                    + " with " + commandServer.getConnectionCount() + " connection(s)");
+            } else {
+                displayMessage("Command server is not running. Start it with 'server start [port]'");
+            }
+            return;
+        }
+        
+        switch (serverParams[0]) {
+            case "start":
+                int port = DEFAULT_SERVER_PORT;
+                if (serverParams.length > 1) {
+                    try {
+                        port = Integer.parseInt(serverParams[1]);
+                    } catch (NumberFormatException e) {
+                        port = -1;
+                    }
+                }
+                if (port < 0 || port > 65535) {
+                    showError("Port must be a number from 0 to 65535, 0 for any free port. Example: server start " + DEFAULT_SERVER_PORT);
+                    return;
+                }
+                if (commandServer.isRunning()) {
+                    showError("Command server is already listening on port " + commandServer.getPort() + ".");
+                    return;
+                }
+                try {
+                    commandServer.start(port);
+                    displayMessage("Command server is listening on 127.0.0.1 port " + commandServer.getPort());
+                } catch (IOException e) {
+                    showError("Could not start the command server: " + e.getMessage());
+                }
+                break;
+            case "stop":
+                if (!commandServer.isRunning()) {
+                    showError("Command server is not running.");
+                    return;
+                }
+                try {
+                    commandServer.close();
+                    displayMessage("Command server stopped");
+                } catch (IOException e) {
+                    showError("Error stopping the command server: " + e.getMessage());
+                }
+                break;
+            default:
+                showError("Unknown server option '" + serverParams[0] + "'. Use server start [port] or server stop.");
+                break;
+        }
+    }
+    
+    /**
+     * Handle the drawmode command
+     * Format: drawmode immediate|batched
+     */
+    private void handleDrawModeCommand(String parameter) {
+        switch (parameter.trim()) {
+            case "immediate":
+                flushStrokes();
+                batchStrokes = false;
+                displayMessage("Each line is drawn as soon as the turtle moves");
+                break;
+            case "batched":
+                batchStrokes = true;
+                displayMessage("Lines are joined and drawn when the turtle stops or the pen changes");
+                break;
+            default:
+                showError("Unknown draw mode '" + parameter.trim() + "'. Use immediate or batched.");
+                break;
+        }
+    }
+    
+    /**
+     * Handle the imagebudget command which limits how large an image file may be loaded
+     * Format: imagebudget <megapixels>
+     */
+    private void handleImageBudgetCommand(String parameter) {
+        int megapixels = Integer.parseInt(parameter.trim());
+        if (megapixels <= 0) {
+            showError("Image budget must be a positive number of megapixels. Example: imagebudget 64");
+            return;
+        }
+        imageLoader.setPixelBudget(megapixels * 1_000_000L);
+        displayMessage("Images up to " + megapixels + " megapixels can be loaded");
+    }
+    
+    /**
+     * Save the command history to a file
+     */
+    private void saveCommands() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Commands");
+        javax.swing.filechooser.FileNameExtensionFilter textFilter =
+            new javax.swing.filechooser.FileNameExtensionFilter("Text Files", "txt");
+        javax.swing.filechooser.FileNameExtensionFilter binaryFilter =
+            new javax.swing.filechooser.FileNameExtensionFilter("Binary Command Scripts", BinaryScriptFormat.EXTENSION);
+        fileChooser.addChoosableFileFilter(textFilter);
+        fileChooser.addChoosableFileFilter(binaryFilter);
+        fileChooser.setFileFilter(textFilter);
+        
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            String name = file.getName().toLowerCase();
+            boolean binary = name.endsWith("." + BinaryScriptFormat.EXTENSION)
+                || (fileChooser.getFileFilter() == binaryFilter && !name.endsWith(".txt"));
+            
+            if (binary) {
+                if (!name.endsWith("." + BinaryScriptFormat.EXTENSION)) {
+                    file = new File(file.getAbsolutePath() + "." + BinaryScriptFormat.EXTENSION);
+                }
+                saveBinaryCommands(file);
+                return;
+            }
+            if (!name.endsWith(".txt")) {
+                file = new File(file.getAbsolutePath() + ".txt");
+            }
+            
+            try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+                commandHistory.forEachCommand(writer::println);
+                commandsSaved = true;
+                displayMessage("Commands saved to " + file.getName());
+            } catch (IOException e) {
+                showError("Error saving commands: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Save the command history in the binary script format
+     * Every command is compiled first; commands without an opcode are stored as their text.
+     * Histories using repeat, procedures or variables are refused, see BinaryScriptFormat
+     */
+    private void saveBinaryCommands(File file) {
+        try {
+            CompiledScript script = new CompiledScript();
+            StatementBuffer statements = new StatementBuffer();
+            commandHistory.forEachCommand(command -> {
+                String statement = statements.add(command);
+                if (statement != null) {
+                    scriptCompiler.compileLine(statement, script);
+                }
+            });
+            BinaryScriptFormat.write(script, file.toPath());
+            commandsSaved = true;
+            displayMessage("Commands saved to " + file.getName() + " (" + script.getInstructionCount() + " commands)");
+        } catch (IOException e) {
+            showError("Error saving commands: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Save the canvas, the turtle, the pen, the procedures and variables and the command history together
+     * as a session checkpoint
+     * @param compress Whether to compress the pixels, see SessionCheckpointFormat
+     */
+    private void saveSession(boolean compress) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Session");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "Session Checkpoints", SessionCheckpointFormat.EXTENSION));
+        
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            if (!file.getName().toLowerCase().endsWith("." + SessionCheckpointFormat.EXTENSION)) {
+                file = new File(file.getAbsolutePath() + "." + SessionCheckpointFormat.EXTENSION);
+            }
+            
+            long start = System.nanoTime();
+            SessionCheckpoint checkpoint = new SessionCheckpoint(getBufferedImage(), turtleX(), turtleY(), getDirection(),
+                penColour, penWidth, penDown, canvasBackground, scriptCompiler.describeState(scriptInterpreter.copyGlobals()));
+            try {
+                SessionCheckpointFormat.write(checkpoint, commandHistory, file.toPath(), compress);
+                imageSaved = true;
+                commandsSaved = true;
+                displayMessage(String.format("Session saved to %s (%d KB in %.0f ms)",
+                    file.getName(), file.length() / 1024, (System.nanoTime() - start) / 1e6));
+            } catch (IOException e) {
+                showError("Error saving session: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Resume a session checkpoint exactly as it was saved, without replaying any commands
+     */
+    private void loadSession() {
+        if (!imageSaved || !commandsSaved) {
+            int response = JOptionPane.showConfirmDialog(
+                this,
+                "The current session is not saved. Do you want to save it first?",
+                "Unsaved Changes",
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.WARNING_MESSAGE
+            );
+            
+            if (response == JOptionPane.YES_OPTION) {
+                saveSession(true);
+            } else if (response == JOptionPane.CANCEL_OPTION) {
+                return;
+            }
+        }
+        
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Load Session");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "Session Checkpoints", SessionCheckpointFormat.EXTENSION));
+        
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            long start = System.nanoTime();
+            try {
+                // The history is only replaced once the whole file has been read
+                List<String> commands = new ArrayList<>();
+                SessionCheckpoint checkpoint = SessionCheckpointFormat.read(file.toPath(), commands::add);
+                restoreSession(checkpoint, commands);
+                displayMessage(String.format("Session restored from %s (%d commands in %.0f ms)",
+                    file.getName(), commands.size(), (System.nanoTime() - start) / 1e6));
+            } catch (IOException e) {
+                showError("Error loading session: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Put a checkpoint's canvas, turtle, pen, procedures, variables and history in place of the current ones
+     * Runs on the EDT while the command thread waits for the 'load' command, so nothing draws meanwhile
+     */
+    private void restoreSession(SessionCheckpoint checkpoint, List<String> commands) {
+        BufferedImage canvas = getBufferedImage();
+        if (canvas.getWidth() == checkpoint.getWidth() && canvas.getHeight() == checkpoint.getHeight()) {
+            checkpoint.drawInto(canvas);
+        } else {
+            setBufferedImage(checkpoint.toImage());
+        }
+        // Like a loaded image, the restored pixels are the backdrop for exports
+        displayList = new DisplayList();
+        displayListBackdrop = checkpoint.toImage();
+        canvasBackground = checkpoint.getBackground();
+        
+        setPenColour(checkpoint.getPenColour());
+        setStroke(checkpoint.getPenWidth());
+        jumpTo(checkpoint.getX(), checkpoint.getY(), checkpoint.getDirection());
+        setPenState(checkpoint.isPenDown());
+        
+        // The procedures and variables the saved session had, in place of this one's
+        scriptCompiler.forgetAll();
+        scriptInterpreter.forgetAll();
+        CompiledScript definitions = new CompiledScript();
+        scriptCompiler.compileState(checkpoint.getScript(), definitions);
+        scriptInterpreter.run(definitions);
+        
+        commandHistory.clear();
+        for (String command : commands) {
+            commandHistory.add(command);
+        }
+        updateCommandHistoryDisplay();
+        imageSaved = true;
+        commandsSaved = true;
+        undoHistory.recordChange();
+        repaint();
+    }
+    
+    /**
+     * Load and execute commands from a file
+     */
+    private void loadCommands() {
+        if (!commandsSaved) {
+            int response = JOptionPane.showConfirmDialog(
+                this,
+                "Current commands are not saved. Do you want to save them first?",
+                "Unsaved Changes",
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.WARNING_MESSAGE
+            );
+            
+            if (response == JOptionPane.YES_OPTION) {
+                saveCommands();
+            } else if (response == JOptionPane.CANCEL_OPTION) {
+                return;
+            }
+        }
+        
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Load Commands");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "Command Scripts", "txt", BinaryScriptFormat.EXTENSION));
+        
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            
+            int clearResponse = JOptionPane.showConfirmDialog(
+                this,
+                "Do you want to clear the current command history?",
+                "Clear History",
+                JOptionPane.YES_NO_OPTION
+            );
+            
+            if (clearResponse == JOptionPane.YES_OPTION) {
+                commandHistory.clear();
+                updateCommandHistoryDisplay();
+            }
+            
+            ProgressMonitor progressMonitor = new ProgressMonitor(
+                this, 
+                "Executing commands from file...", 
+                "", 0, 100);
+            progressMonitor.setMillisToDecideToPopup(10);
+            
+            // The monitor can only be asked about Cancel on the EDT; cancelling drops every queued
+            // command, so drawing stops as soon as the current command is done
+            Timer cancelPoll = new Timer(100, null);
+            cancelPoll.addActionListener(_ -> {
+                if (progressMonitor.isCanceled()) {
+                    commandExecutor.cancel();
+                    cancelPoll.stop();
+                }
+            });
+            cancelPoll.start();
+            
+            Thread loader = new Thread(() -> {
+                if (isBinaryScript(file)) {
+                    streamBinaryCommands(file, progressMonitor, cancelPoll);
+                } else {
+                    streamCommands(file, progressMonitor, cancelPoll);
+                }
+            }, "turtle-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+    
+    /**
+     * Read a command file in one pass and feed it to the command executor a compiled line at a time
+     * Runs on its own thread; when drawing falls behind the bounded queue makes it wait
+     */
+    private void streamCommands(File file, ProgressMonitor progressMonitor, Timer cancelPoll) {
+        long generation = commandExecutor.getGeneration();
+        long totalBytes = Math.max(1, file.length());
+        CompiledScript loadedScript = new CompiledScript();
+        PlaybackClock clock = new PlaybackClock(playbackMode, throttledCommandsPerSecond);
+        AtomicInteger processedLines = new AtomicInteger();
+        long startNanos = System.nanoTime();
+        long problemsBefore = diagnostics.getCount();
+        String source = file.getName();
+        // Procedures declared by lines that are queued but have not run yet, oldest first
+        Deque<ScriptCompiler.Declarations> unrunDeclarations = new ConcurrentLinkedDeque<>();
+        
+        repaintScheduler.setSuspended(playbackMode == PlaybackMode.INSTANT);
+        try (FileInputStream input = new FileInputStream(file);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
+            String line;
+            StatementBuffer statements = new StatementBuffer();
+            boolean endOfFile = false;
+            int lineNumber = 0;
+            int statementLine = 0;
+            while (commandExecutor.getGeneration() == generation && !endOfFile) {
+                line = reader.readLine();
+                if (line == null) {
+                    // An unclosed block still runs, so its error is reported
+                    endOfFile = true;
+                    line = statements.getPending();
+                    statements.clear();
+                } else {
+                    lineNumber++;
+                    // A block's problems are reported at the line it starts on
+                    if (!statements.isPending()) {
+                        statementLine = lineNumber;
+                    }
+                    line = statements.add(line);
+                }
+                if (line == null || line.trim().isEmpty()) {
+                    continue;
+                }
+                if (line.toLowerCase().startsWith("load commands")) {
+                    diagnostics.report(DiagnosticsCollector.Severity.ERROR, source, statementLine,
+                        "Nested command loading is not allowed.");
+                    continue;
+                }
+                
+                // Keep the compiled form so 'replay' can run the file again without parsing it
+                String command = line;
+                CompiledScript lineScript = new CompiledScript(4);
+                ScriptCompiler.Declarations declarations = scriptCompiler.compileAhead(command, lineScript);
+                if (declarations != null) {
+                    unrunDeclarations.addLast(declarations);
+                }
+                loadedScript.append(lineScript);
+                
+                // Progress comes from how far into the file we are, so the file is only read once
+                int progress = (int) (Math.min(input.getChannel().position(), totalBytes) * 100 / totalBytes);
+                int commandLine = statementLine;
+                commandExecutor.submit(() -> {
+                    if (declarations != null) {
+                        unrunDeclarations.remove(declarations);
+                    }
+                    addToCommandHistory(command);
+                    imageSaved = false;
+                    commandFailed = false;
+                    problemSource = source;
+                    problemLine = commandLine;
+                    try {
+                        scriptInterpreter.run(lineScript);
+                    } finally {
+                        problemSource = null;
+                    }
+                    recordUndo(command, () -> scriptInterpreter.run(lineScript));
+                    clock.reportProgress(progressMonitor, progress, processedLines.incrementAndGet());
+                    clock.pace();
+                });
+            }
+        } catch (IOException e) {
+            showError("Error loading commands: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            boolean completed = commandExecutor.getGeneration() == generation;
+            if (!completed) {
+                forgetUnrunDeclarations(unrunDeclarations);
+            }
+            finishLoading(file, completed ? () -> loadedScript : null, processedLines, startNanos, problemsBefore,
+                progressMonitor, cancelPoll);
+        }
+    }
+    
+    /**
+     * Queue taking back the procedures declared by lines a cancelled load dropped
+     * Their definitions never ran, so without this the compiler would go on calling bodies the
+     * interpreter does not have, or an old body with a new number of values
+     */
+    private void forgetUnrunDeclarations(Deque<ScriptCompiler.Declarations> unrunDeclarations) {
+        try {
+            // Behind any line still running, which takes its own declarations off the list first
+            commandExecutor.submitAlways(() -> {
+                Iterator<ScriptCompiler.Declarations> newestFirst = unrunDeclarations.descendingIterator();
+                while (newestFirst.hasNext()) {
+                    scriptCompiler.forgetDeclarations(newestFirst.next());
+                }
+                unrunDeclarations.clear();
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Run a binary command script straight from the mapped file
+     * In instant mode each queued task runs a whole batch of instructions; the other modes
+     * queue one instruction at a time so they can be paced
+     */
+    private void streamBinaryCommands(File file, ProgressMonitor progressMonitor, Timer cancelPoll) {
+        long generation = commandExecutor.getGeneration();
+        PlaybackClock clock = new PlaybackClock(playbackMode, throttledCommandsPerSecond);
+        AtomicInteger processedLines = new AtomicInteger();
+        int batchSize = playbackMode == PlaybackMode.INSTANT ? BINARY_BATCH_SIZE : 1;
+        BinaryScript script = null;
+        long startNanos = System.nanoTime();
+        long problemsBefore = diagnostics.getCount();
+        String source = file.getName();
+        
+        repaintScheduler.setSuspended(playbackMode == PlaybackMode.INSTANT);
+        try {
+            script = BinaryScriptFormat.map(file.toPath());
+            BinaryScript binary = script;
+            long totalBytes = Math.max(1, binary.size());
+            int offset = 0;
+            int instructionCount = 0;
+            while (commandExecutor.getGeneration() == generation && offset < binary.size()) {
+                int from = offset;
+                int count = 0;
+                while (count < batchSize && offset < binary.size()) {
+                    offset = binary.next(offset);
+                    count++;
+                }
+                int to = offset;
+                int instructions = count;
+                int firstInstruction = instructionCount + 1;
+                instructionCount += count;
+                int progress = (int) (to * 100L / totalBytes);
+                commandExecutor.submit(() -> {
+                    // Binary scripts have no lines, so problems give the instruction number
+                    problemSource = source;
+                    problemLine = firstInstruction;
+                    try {
+                        runBinaryInstructions(binary, from, to);
+                    } finally {
+                        problemSource = null;
+                    }
+                    imageSaved = false;
+                    clock.reportProgress(progressMonitor, progress, processedLines.addAndGet(instructions));
+                    clock.pace();
+                });
+            }
+        } catch (IOException e) {
+            showError("Error loading commands: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            BinaryScript loaded = script;
+            boolean completed = loaded != null && commandExecutor.getGeneration() == generation;
+            finishLoading(file, completed ? loaded::toCompiledScript : null, processedLines, startNanos, problemsBefore,
+                progressMonitor, cancelPoll);
+        }
+    }
+    
+    /**
+     * Run binary instructions and add them to the history, refusing nested loads like the text loader
+     * Drawing instructions never become Strings one by one: their text is written into the history
+     * for a whole run of them at once, and before any command, so that the command sees them there.
+     * Whether an instruction can be undone comes from its opcode
+     */
+    private void runBinaryInstructions(BinaryScript binary, int from, int to) {
+        int unrecorded = from;
+        for (int at = from; at < to; at = binary.next(at)) {
+            int offset = at;
+            int opcode = binary.getOpcode(offset);
+            int next = binary.next(offset);
+            if (opcode == CompiledScript.OP_COMMAND || opcode == CompiledScript.OP_INVALID) {
+                addToCommandHistory(binary, unrecorded, offset);
+                unrecorded = next;
+                binary.decodeOperands(offset, binaryOperands);
+                String command = binary.getConstant(binaryOperands[0]);
+                if (opcode == CompiledScript.OP_COMMAND && command.toLowerCase().startsWith("load commands")) {
+                    showError("Nested command loading is not allowed.");
+                } else {
+                    addToCommandHistory(command);
+                    commandFailed = false;
+                    scriptInterpreter.run(binary, offset, next);
+                    recordUndo(command, () -> scriptInterpreter.run(binary, offset, next));
+                }
+            } else {
+                commandFailed = false;
+                scriptInterpreter.run(binary, offset, next);
+                // clear may ask about saving, so it is snapshotted like other commands that use the EDT
+                recordUndoStep(opcode == CompiledScript.OP_CLEAR, () -> scriptInterpreter.run(binary, offset, next));
+            }
+            problemLine++;
+        }
+        addToCommandHistory(binary, unrecorded, to);
+    }
+    
+    /**
+     * Add the text of a run of binary instructions to the history in one go
+     */
+    private void addToCommandHistory(BinaryScript binary, int from, int to) {
+        if (from == to) {
+            return;
+        }
+        binaryHistoryText.setLength(0);
+        binary.appendCommandText(from, to, binaryOperands, binaryHistoryText);
+        String lines = binaryHistoryText.toString();
+        commandHistory.addLines(lines);
+        commandHistoryModel.appendLines(lines);
+    }
+    
+    /**
+     * Queue the clean up after a command file has been streamed, behind the file's own commands
+     * @param loadedScript Gives the script 'replay' should run, or null if loading did not finish
+     * @param startNanos When loading started, for the throughput in the metrics
+     * @param problemsBefore Problems collected before loading started; any found since are shown together
+     */
+    private void finishLoading(File file, Supplier<CompiledScript> loadedScript, AtomicInteger processedLines,
+                               long startNanos, long problemsBefore, ProgressMonitor progressMonitor, Timer cancelPoll) {
+        try {
+            commandExecutor.submitAlways(() -> {
+                repaintScheduler.setSuspended(false);
+                SwingUtilities.invokeLater(() -> {
+                    cancelPoll.stop();
+                    progressMonitor.close();
+                });
+                if (loadedScript != null) {
+                    metrics.recordScript(processedLines.get(), System.nanoTime() - startNanos);
+                    lastLoadedScript = loadedScript.get();
+                    commandsSaved = true;
+                }
+                long problems = diagnostics.getCount() - problemsBefore;
+                if (problems > 0) {
+                    SwingUtilities.invokeLater(this::showProblems);
+                    displayMessage("Commands loaded from " + file.getName() + " (" + processedLines.get() + " commands, "
+                        + problems + (problems == 1 ? " problem" : " problems") + ")");
+                } else {
+                    displayMessage("Commands loaded from " + file.getName() + " (" + processedLines.get() + " commands)");
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private boolean isBinaryScript(File file) {
+        try {
+            return BinaryScriptFormat.isBinaryScript(file.toPath());
+        } catch (IOException e) {
+            // Let the text loader report the problem
+            return false;
+        }
+    }
+    
+    /**
+     * Paces loaded commands on the command thread according to the playback mode
+     * and passes progress to the monitor whenever the percentage changes
+     */
+    private static class PlaybackClock {
+        private final PlaybackMode mode;
+        private final long nanosPerCommand;
+        private long nextCommandTime = System.nanoTime();
+        private int lastProgress = -1;
+        
+        PlaybackClock(PlaybackMode mode, int commandsPerSecond) {
+            this.mode = mode;
+            this.nanosPerCommand = 1_000_000_000L / commandsPerSecond;
+        }
+        
+        void reportProgress(ProgressMonitor progressMonitor, int progress, int processedLines) {
+            if (progress != lastProgress) {
+                lastProgress = progress;
+                SwingUtilities.invokeLater(() -> {
+                    progressMonitor.setProgress(progress);
+                    progressMonitor.setNote("Processed " + processedLines + " commands (" + progress + "%)");
+                });
+            }
+        }
+        
+        void pace() {
+            try {
+                if (mode == PlaybackMode.ANIMATED) {
+                    Thread.sleep(100);
+                } else if (mode == PlaybackMode.THROTTLED) {
+                    // Schedule against a fixed timeline so slow commands don't lower the overall rate
+                    nextCommandTime += nanosPerCommand;
+                    long wait = nextCommandTime - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    } else {
+                        nextCommandTime = System.nanoTime();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Time each paint of the canvas for the metrics
+     * An image that is still loading is painted over the canvas, see startImageLoad()
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        super.paintComponent(g);
+        if (imagePreview != null) {
+            g.drawImage(imagePreview, 0, 0, null);
+        }
+        metrics.recordRepaint(System.nanoTime() - start);
+    }
+    
+    /**
+     * Route every repaint, including the ones LBUGraphics makes, through the scheduler
+     * so they are merged into at most one repaint per frame
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (repaintScheduler == null) {
+            // Still inside the LBUGraphics constructor
+            super.repaint(tm, x, y, width, height);
+            return;
+        }
+        repaintScheduler.markDirty(x, y, width, height);
+    }
+    
+    /**
+     * Exit the application with confirmation if work is not saved
+     */
+    private void exitApplication() {
+        boolean needsSave = !imageSaved || !commandsSaved;
+        CompletableFuture<Void> imageExport = null;
+        
+        if (needsSave) {
+            int response = JOptionPane.showConfirmDialog(
+                this,
+                "You have unsaved work. Do you want to save before exiting?",
+                "Unsaved Changes",
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.WARNING_MESSAGE
+            );
+            
+            if (response == JOptionPane.YES_OPTION) {
+                String[] options = {"Image", "Commands", "Both", "Cancel"};
+                int saveChoice = JOptionPane.showOptionDialog(
+                    this,
+                    "What would you like to save?",
+                    "Save Options",
+                    JOptionPane.DEFAULT_OPTION,
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    options,
+                    options[0]
+                );
+                
+                switch (saveChoice) {
+                    case 0:
+                        imageExport = saveImage();
+                        break;
+                    case 1:
+                        saveCommands();
+                        break;
+                    case 2:
+                        imageExport = saveImage();
+                        saveCommands();
+                        break;
+                    case 3:
+                        return;
+                }
+            } else if (response == JOptionPane.CANCEL_OPTION) {
+                return;
+            }
+        }
+        
+        if (imageExport != null) {
+            // Exit once the image is written; if writing fails the error is shown and the program stays open
+            imageExport.thenRun(() -> System.exit(0));
+            return;
+        }
+        
+        System.exit(0);
+    }
+    
+    /**
+     * Clear the display with a warning if the current image is not saved
+     */
+    @Override
+    public void clear() {
+        // Undo runs clear again only to get back to a state it already left once,
+        // and a client of the command server cannot answer the question
+        if (!imageSaved && !isReplaying() && remoteErrors == null) {
+            int response = JOptionPane.showConfirmDialog(
+                this,
+                "The current image is not saved. Do you want to save it before clearing?",
+                "Unsaved Changes",
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.WARNING_MESSAGE
+            );
+
+            if (response == JOptionPane.YES_OPTION) {
+                saveImage(); // Save the image if the user chooses to save
+            } else if (response == JOptionPane.CANCEL_OPTION) {
+                return; // Do not clear the display if the user cancels
+            }
+        }
+
+        super.clear(); // Clear the display
+        displayList = new DisplayList();
+        displayListBackdrop = null;
+        canvasBackground = new Color(getBufferedImage().getRGB(0, 0));
+        displayMessage("Display cleared");
+    }
+    
+    /**
+     * State of the canvas at one step of the undo history
+     */
+    private static class UndoPoint {
+        CanvasSnapshot pixels;
+        double x;
+        double y;
+        int direction;
+        Color penColour;
+        int penWidth;
+        boolean penDown;
+        DisplayList displayList;
+        int displayListSize;
+        BufferedImage displayListBackdrop;
+        Color canvasBackground;
+        int[] globals;
+        
+        long getSize() {
+            return pixels.getCompressedSize() + (long) globals.length * Integer.BYTES;
+        }
+    }
+    
+    /**
+     * Runs the batches CommandServer clients send on the command thread, after anything already queued
+     * Commands go into the history and undo as if typed, but their errors are sent back
+     * to the client rather than shown in dialogs
+     */
+    private class RemoteTarget implements CommandServer.Target {
+        
+        @Override
+        public CompletableFuture<CommandServer.BatchResult> runBatch(List<String> commands) throws InterruptedException {
+            CompletableFuture<CommandServer.BatchResult> result = new CompletableFuture<>();
+            // Always run, so the client gets its answer even if typed commands are cancelled
+            commandExecutor.submitAlways(() -> {
+                List<String> errors = new ArrayList<>();
+                int failed = 0;
+                remoteErrors = errors;
+                try {
+                    for (int i = 0; i < commands.size(); i++) {
+                        remoteCommandNumber = i + 1;
+                        if (runRemoteCommand(commands.get(i))) {
+                            failed++;
+                        }
+                    }
+                    result.complete(new CommandServer.BatchResult(failed, errors));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    remoteErrors = null;
+                }
+            });
+            return result;
+        }
+        
+        @Override
+        public CompletableFuture<BufferedImage> snapshot() throws InterruptedException {
+            CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+            commandExecutor.submitAlways(() -> {
+                flushStrokes();
+                BufferedImage canvas = getBufferedImage();
+                result.complete(new BufferedImage(canvas.getColorModel(), canvas.copyData(null), canvas.isAlphaPremultiplied(), null));
+            });
+            return result;
+        }
+        
+        /**
+         * Run one command of a batch the way processCommand runs a typed one
+         * Commands that open windows are refused, as nobody may be at the screen to close them
+         * @return Whether it failed
+         */
+        private boolean runRemoteCommand(String command) {
+            addToCommandHistory(command);
+            imageSaved = false;
+            commandsSaved = false;
+            
+            Command registered = commandRegistry.get(command.trim().toLowerCase().split("\\s+", 2)[0]);
+            if (registered != null && registered.isEventThreadOnly() && !registered.getSection().equals("Canvas")) {
+                showError("'" + registered.getName() + "' opens a window, so it cannot be sent to the command server.");
+                return true;
+            }
+            runCommandText(command);
+            boolean failed = commandFailed;
+            recordUndo(command, () -> runCommandText(command));
+            return failed;
+        }
+    }
+    
+    /**
+     * Lets ScriptInterpreter draw on this canvas
+     * Commands without an opcode, and lines the compiler rejected, go back through
+     * runCommandText so they get the same handling and messages as typed commands
+     */
+    private class CanvasBackend implements TurtleBackend {
+        
+        @Override
+        public void forward(int distance) {
+            moveTurtle(distance);
+        }
+        
+        @Override
+        public void left(int degrees) {
+            TurtleGraphics.this.left(degrees);
+        }
+        
+        @Override
+        public void right(int degrees) {
+            TurtleGraphics.this.right(degrees);
+        }
+        
+        @Override
+        public void setPenDown(boolean down) {
+            if (down) {
+                drawOn();
+            } else {
+                drawOff();
+            }
+        }
+        
+        @Override
+        public void setPenColour(Color colour) {
+            TurtleGraphics.this.setPenColour(colour);
+        }
+        
+        @Override
+        public void setPenWidth(int width) {
+            setStroke(width);
+        }
+        
+        @Override
+        public void drawShape(ShapeGeometry shape) {
+            drawShapePath(shape);
+        }
+        
+        @Override
+        public void circle(int radius) {
+            TurtleGraphics.this.circle(radius);
+        }
+        
+        @Override
+        public void moveTo(double x, double y, int direction) {
+            jumpTo(x, y, direction);
+        }
+        
+        @Override
+        public void resetAll() {
+            TurtleGraphics.this.resetAll();
+        }
+        
+        @Override
+        public void clear() {
+            flushStrokes();
+            // clear() may ask about saving first
+            runOnEventThread(TurtleGraphics.this::clear);
+        }
+        
+        @Override
+        public double getPositionX() {
+            return turtleX();
+        }
+        
+        @Override
+        public double getPositionY() {
+            return turtleY();
+        }
+        
+        @Override
+        public int getDirection() {
+            return TurtleGraphics.this.getDirection();
+        }
+        
+        @Override
+        public int getCanvasWidth() {
+            return getWidth();
+        }
+        
+        @Override
+        public int getCanvasHeight() {
+            return getHeight();
+        }
+        
+        @Override
+        public void reportError(String message) {
+            showError(message);
+        }
+        
+        @Override
+        public long getErrorCount() {
+            return commandErrorCount;
+        }
+        
+        @Override
+        public void runCommand(String command) {
+            runCommandText(command);
+        }
+        
+        @Override
+        public void invalidCommand(String command, String message) {
+            // Running a statement again would only compile it to the same error
+            if (scriptCompiler.isStatement(command)) {
+                showError(message);
+            } else {
+                runCommandText(command);
+            }
+        }
+    }
+}
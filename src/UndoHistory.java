@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Undo and redo built on snapshots taken every few commands plus running commands again
+ * Undo restores the nearest snapshot at or before the step wanted and replays only the
+ * steps after it, so it never runs more than one interval of commands however long the
+ * history is. A change that cannot be run again, such as a loaded image, is followed by a
+ * snapshot straight away. Once the snapshots outgrow the memory budget the oldest one is
+ * dropped together with the steps before the next, so undo reaches less far back
+ * Not thread safe; use it from the thread that runs the commands
+ * @param <S> What a snapshot holds
+ */
+public class UndoHistory<S> {
+
+    public static final int DEFAULT_INTERVAL = 50;
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private final Supplier<S> capture;
+    private final Consumer<S> restore;
+    private final ToLongFunction<S> sizeOf;
+    /** Step i leads from position first + i to the next; null for a change that is only restored */
+    private final List<Runnable> steps = new ArrayList<>();
+    private final TreeMap<Integer, S> snapshots = new TreeMap<>();
+    private int first;
+    private int position;
+    private int interval = DEFAULT_INTERVAL;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private long memoryUsed;
+    private boolean replaying;
+
+    /**
+     * Takes the first snapshot straight away
+     * @param capture Takes a snapshot of the current state
+     * @param restore Puts a snapshot back
+     * @param sizeOf Bytes a snapshot holds, for the memory budget
+     */
+    public UndoHistory(Supplier<S> capture, Consumer<S> restore, ToLongFunction<S> sizeOf) {
+        this.capture = capture;
+        this.restore = restore;
+        this.sizeOf = sizeOf;
+        reset();
+    }
+
+    /**
+     * Forget every step and start again from a snapshot of the current state
+     */
+    public void reset() {
+        steps.clear();
+        snapshots.clear();
+        memoryUsed = 0;
+        first = 0;
+        position = 0;
+        addSnapshot();
+    }
+
+    /**
+     * Add a step that has just run, dropping anything that could have been redone
+     * Ignored while undo or redo is replaying steps
+     * @param replay Runs the step again
+     */
+    public void record(Runnable replay) {
+        if (replaying) {
+            return;
+        }
+        add(replay);
+        if (position - snapshots.lastKey() >= interval) {
+            addSnapshot();
+        }
+    }
+
+    /**
+     * Add a step that cannot be run again and take a snapshot of what it did
+     */
+    public void recordChange() {
+        if (replaying) {
+            return;
+        }
+        add(null);
+        addSnapshot();
+    }
+
+    /**
+     * Go back a number of steps
+     * @return Steps undone, fewer than asked if the history does not reach that far back
+     */
+    public int undo(int count) {
+        int target = Math.max(first, position - Math.max(0, count));
+        int undone = position - target;
+        moveTo(target);
+        return undone;
+    }
+
+    /**
+     * Go forward again over steps that were undone
+     * @return Steps redone, fewer than asked if there are not that many
+     */
+    public int redo(int count) {
+        int target = Math.min(first + steps.size(), position + Math.max(0, count));
+        int redone = target - position;
+        moveTo(target);
+        return redone;
+    }
+
+    /**
+     * Restore the latest snapshot at or before the target when it saves replaying, then replay the rest
+     * Every step that cannot be replayed has a snapshot right after it, so none is ever replayed
+     */
+    private void moveTo(int target) {
+        if (target == position) {
+            return;
+        }
+        Map.Entry<Integer, S> nearest = snapshots.floorEntry(target);
+        replaying = true;
+        try {
+            if (target < position || nearest.getKey() > position) {
+                restore.accept(nearest.getValue());
+                position = nearest.getKey();
+            }
+            while (position < target) {
+                steps.get(position - first).run();
+                position++;
+            }
+        } finally {
+            replaying = false;
+        }
+    }
+
+    private void add(Runnable step) {
+        dropRedo();
+        steps.add(step);
+        position++;
+    }
+
+    private void dropRedo() {
+        steps.subList(position - first, steps.size()).clear();
+        NavigableMap<Integer, S> later = snapshots.tailMap(position, false);
+        for (S snapshot : later.values()) {
+            memoryUsed -= sizeOf.applyAsLong(snapshot);
+        }
+        later.clear();
+    }
+
+    private void addSnapshot() {
+        S snapshot = capture.get();
+        S replaced = snapshots.put(position, snapshot);
+        if (replaced != null) {
+            memoryUsed -= sizeOf.applyAsLong(replaced);
+        }
+        memoryUsed += sizeOf.applyAsLong(snapshot);
+        trimToBudget();
+    }
+
+    /**
+     * Drop the oldest snapshots and their steps until the rest fit, then if need be what could be redone
+     * The newest snapshot at or before the current position is always kept
+     */
+    private void trimToBudget() {
+        while (memoryUsed > memoryBudget) {
+            Integer next = snapshots.higherKey(snapshots.firstKey());
+            if (next == null) {
+                return;
+            }
+            if (next > position) {
+                dropRedo();
+                continue;
+            }
+            memoryUsed -= sizeOf.applyAsLong(snapshots.pollFirstEntry().getValue());
+            steps.subList(0, next - first).clear();
+            first = next;
+        }
+    }
+
+    /**
+     * Set how many steps may pass between snapshots, which is the most undo ever replays
+     */
+    public void setInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be at least 1");
+        }
+        this.interval = interval;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Set the most memory the snapshots may hold, dropping the oldest ones if they hold more
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Memory budget cannot be negative");
+        }
+        memoryBudget = bytes;
+        trimToBudget();
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public int getSnapshotCount() {
+        return snapshots.size();
+    }
+
+    /**
+     * Steps that can be undone
+     */
+    public int getUndoCount() {
+        return position - first;
+    }
+
+    /**
+     * Steps that can be redone
+     */
+    public int getRedoCount() {
+        return first + steps.size() - position;
+    }
+
+    /**
+     * Whether undo or redo is running steps again, e.g. to keep dialogs from opening twice
+     */
+    public boolean isReplaying() {
+        return replaying;
+    }
+}
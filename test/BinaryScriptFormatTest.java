@@ -0,0 +1,109 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Scripts written in the binary format read back as the same instructions
+ */
+class BinaryScriptFormatTest {
+
+    private static final String SCRIPT = String.join("\n",
+        "move 100", "left 90", "right -45", "reverse 20", "penup", "pendown",
+        "pencolour 12,200,255", "red", "penwidth 3", "square 40", "triangle 30",
+        "triangle 3,4,5", "star 25", "circle 70000", "hexagon 15", "reset", "clear",
+        "save drawing.png", "bogus 1", "move -5");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writtenScriptMapsBackToTheSameInstructions() throws IOException {
+        CompiledScript compiled = compile(SCRIPT);
+        Path file = directory.resolve("script.tbs");
+        BinaryScriptFormat.write(compiled, file);
+
+        assertTrue(BinaryScriptFormat.isBinaryScript(file));
+        BinaryScript binary = BinaryScriptFormat.map(file);
+        assertEquals(compiled.getInstructionCount(), binary.getInstructionCount());
+
+        CompiledScript back = binary.toCompiledScript();
+        assertArrayEquals(codeOf(compiled), codeOf(back));
+        for (int i = 0; i < compiled.getConstantCount(); i++) {
+            assertEquals(compiled.getConstant(i), back.getConstant(i));
+        }
+    }
+
+    @Test
+    void textOfABinaryScriptCompilesToTheSameInstructions() throws IOException {
+        CompiledScript compiled = compile(SCRIPT);
+        Path file = directory.resolve("script.tbs");
+        BinaryScriptFormat.write(compiled, file);
+
+        StringWriter text = new StringWriter();
+        BinaryScriptFormat.writeText(BinaryScriptFormat.map(file), text);
+        CompiledScript again = compile(text.toString());
+        assertArrayEquals(codeOf(compiled), codeOf(again));
+    }
+
+    @Test
+    void historyTextOfARangeMatchesEachInstruction() throws IOException {
+        Path file = directory.resolve("script.tbs");
+        BinaryScriptFormat.write(compile(SCRIPT), file);
+        BinaryScript binary = BinaryScriptFormat.map(file);
+
+        StringBuilder expected = new StringBuilder();
+        int from = binary.next(0);
+        int to = from;
+        for (int i = 0; i < 10; i++) {
+            expected.append(binary.toCommandText(to)).append('\n');
+            to = binary.next(to);
+        }
+        StringBuilder text = new StringBuilder();
+        binary.appendCommandText(from, to, new int[CompiledScript.MAX_ARITY], text);
+        assertEquals(expected.toString(), text.toString());
+        assertTrue(text.toString().startsWith("left 90\nright -45\n"), text.toString());
+    }
+
+    @Test
+    void varintsKeepEveryValue() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        int[] values = {0, 1, -1, 63, -64, 127, 128, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            BinaryScriptFormat.putVarint(buffer, BinaryScriptFormat.zigzag(value));
+        }
+        buffer.flip();
+        for (int value : values) {
+            assertEquals(value, BinaryScriptFormat.unzigzag(BinaryScriptFormat.getVarint(buffer)));
+        }
+    }
+
+    @Test
+    void scriptsWithBlocksAreRefused() {
+        CompiledScript compiled = compile("repeat 4 [ move 10 right 90 ]");
+        assertThrows(IOException.class, () -> BinaryScriptFormat.write(compiled, directory.resolve("loop.tbs")));
+    }
+
+    private static int[] codeOf(CompiledScript script) {
+        return Arrays.copyOf(script.getCode(), script.size());
+    }
+
+    private static CompiledScript compile(String text) {
+        try {
+            return new ScriptCompiler().compile(new BufferedReader(new StringReader(text)));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
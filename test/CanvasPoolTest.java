@@ -0,0 +1,88 @@
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Canvases given back are reused for the same size, and the budget counts every canvas made
+ */
+class CanvasPoolTest {
+
+    private static final long ONE = CanvasPool.bytesFor(100, 50);
+
+    @Test
+    void releasedCanvasIsReusedForTheSameSize() {
+        CanvasPool pool = new CanvasPool(10 * ONE);
+        BufferedImage first = pool.acquire(100, 50);
+        pool.release(first);
+
+        assertEquals(1, pool.getFreeCount());
+        assertSame(first, pool.acquire(100, 50));
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(ONE, pool.getMemoryUsed());
+    }
+
+    @Test
+    void canvasesInUseCountAgainstTheBudget() {
+        CanvasPool pool = new CanvasPool(2 * ONE);
+        assertNotNull(pool.acquire(100, 50));
+        assertNotNull(pool.acquire(100, 50));
+
+        assertNull(pool.acquire(100, 50));
+        assertEquals(2 * ONE, pool.getMemoryUsed());
+    }
+
+    @Test
+    void waitingCanvasesAreDroppedOldestFirstToMakeRoom() {
+        CanvasPool pool = new CanvasPool(2 * ONE);
+        BufferedImage wide = pool.acquire(100, 50);
+        BufferedImage tall = pool.acquire(50, 100);
+        pool.release(wide);
+        pool.release(tall);
+
+        BufferedImage other = pool.acquire(200, 25);
+        assertNotNull(other);
+        assertEquals(1, pool.getFreeCount());
+        assertSame(tall, pool.acquire(50, 100));
+        assertNull(pool.acquire(100, 50));
+    }
+
+    @Test
+    void loweringTheBudgetDropsOnlyWaitingCanvases() {
+        CanvasPool pool = new CanvasPool(3 * ONE);
+        BufferedImage kept = pool.acquire(100, 50);
+        pool.release(pool.acquire(100, 50));
+        pool.release(pool.acquire(100, 50));
+
+        pool.setMemoryBudget(0);
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(ONE, pool.getMemoryUsed());
+
+        pool.release(kept);
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(0, pool.getMemoryUsed());
+    }
+
+    @Test
+    void trimDropsEveryWaitingCanvas() {
+        CanvasPool pool = new CanvasPool(4 * ONE);
+        pool.release(pool.acquire(100, 50));
+        pool.release(pool.acquire(50, 100));
+        pool.trim();
+
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(0, pool.getMemoryUsed());
+    }
+
+    @Test
+    void badSizesAndBudgetsAreRefused() {
+        CanvasPool pool = new CanvasPool(ONE);
+        assertThrows(IllegalArgumentException.class, () -> pool.acquire(0, 50));
+        assertThrows(IllegalArgumentException.class, () -> pool.setMemoryBudget(-1));
+    }
+}
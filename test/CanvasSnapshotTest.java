@@ -0,0 +1,94 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Run length encoding and snapshots give back exactly the pixels they were made from
+ */
+class CanvasSnapshotTest {
+
+    @Test
+    void runsDecodeToThePixelsTheyWereMadeFrom() {
+        Random random = new Random(42);
+        int[][] cases = {
+            {},
+            {7},
+            {7, 7},
+            {7, 7, 7},
+            {1, 2, 3, 3, 3, 3, 4, 5, 5, 6},
+            random.ints(1000, 0, 3).toArray(),
+            random.ints(1000).toArray()
+        };
+        for (int[] pixels : cases) {
+            int[] runs = new int[pixels.length + 2];
+            int length = CanvasSnapshot.encodeRuns(pixels, runs);
+            int[] decoded = new int[pixels.length];
+            CanvasSnapshot.decodeRuns(runs, length, decoded);
+            assertArrayEquals(pixels, decoded, Arrays.toString(pixels));
+        }
+    }
+
+    @Test
+    void longRunsTakeTwoInts() {
+        int[] pixels = new int[10000];
+        Arrays.fill(pixels, 0xFFFFFF);
+        int[] runs = new int[pixels.length + 2];
+        assertEquals(2, CanvasSnapshot.encodeRuns(pixels, runs));
+    }
+
+    @Test
+    void restoredCanvasMatchesTheCapturedOne() {
+        BufferedImage image = drawing(BufferedImage.TYPE_INT_RGB);
+        int[] before = pixels(image);
+        CanvasSnapshot snapshot = CanvasSnapshot.capture(image);
+        assertTrue(snapshot.getCompressedSize() < before.length * Integer.BYTES);
+
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.MAGENTA);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+        snapshot.restoreInto(image);
+        assertArrayEquals(before, pixels(image));
+        assertArrayEquals(before, pixels(snapshot.toImage()));
+    }
+
+    @Test
+    void imagesThatAreNotIntPerPixelKeepTheirColours() {
+        BufferedImage image = drawing(BufferedImage.TYPE_3BYTE_BGR);
+        CanvasSnapshot snapshot = CanvasSnapshot.capture(image);
+        assertArrayEquals(pixels(image), pixels(snapshot.toImage()));
+    }
+
+    @Test
+    void restoringIntoAnotherSizeIsRefused() {
+        CanvasSnapshot snapshot = CanvasSnapshot.capture(drawing(BufferedImage.TYPE_INT_RGB));
+        assertThrows(IllegalArgumentException.class,
+            () -> snapshot.restoreInto(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB)));
+    }
+
+    static BufferedImage drawing(int type) {
+        BufferedImage image = new BufferedImage(200, 120, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 200, 120);
+        g.setColor(new Color(30, 120, 250));
+        g.drawOval(20, 10, 90, 90);
+        g.setColor(Color.RED);
+        g.drawLine(0, 119, 199, 0);
+        g.dispose();
+        return image;
+    }
+
+    static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
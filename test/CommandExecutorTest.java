@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Commands run one at a time in order, and cancel() drops what is queued but not the clean up
+ */
+class CommandExecutorTest {
+
+    private final List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+    private final CommandExecutor executor = new CommandExecutor("test-commands", 4, errors::add);
+
+    @Test
+    void commandsRunInOrderOnTheWorker() throws InterruptedException {
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        List<Boolean> onWorker = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 100; i++) {
+            int command = i;
+            executor.submit(() -> {
+                ran.add(command);
+                onWorker.add(executor.isWorkerThread());
+            });
+        }
+        awaitQueue();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, ran.get(i));
+        }
+        assertFalse(onWorker.contains(false));
+        assertFalse(executor.isWorkerThread());
+    }
+
+    @Test
+    void cancelDropsQueuedCommandsButNotWorkThatMustRun() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        executor.submit(() -> {
+            running.countDown();
+            await(release);
+            ran.add("running");
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        executor.submit(() -> ran.add("queued"));
+        executor.submitAlways(() -> ran.add("clean up"));
+        long generation = executor.getGeneration();
+
+        executor.cancel();
+        assertTrue(executor.getGeneration() != generation);
+        release.countDown();
+        executor.submit(() -> ran.add("after"));
+        awaitQueue();
+
+        assertEquals(List.of("running", "clean up", "after"), ran);
+    }
+
+    @Test
+    void fullQueueRefusesCommandsThatCannotWait() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            running.countDown();
+            await(release);
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(executor.trySubmit(() -> { }));
+        }
+
+        assertFalse(executor.trySubmit(() -> { }));
+        assertEquals(4, executor.getQueuedCount());
+        release.countDown();
+        awaitQueue();
+    }
+
+    @Test
+    void errorsAreReportedAndLaterCommandsStillRun() throws InterruptedException {
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        executor.submit(() -> {
+            throw new IllegalStateException("broken");
+        });
+        executor.submit(() -> ran.add("next"));
+        awaitQueue();
+
+        assertEquals(1, errors.size());
+        assertEquals("broken", errors.get(0).getMessage());
+        assertEquals(List.of("next"), ran);
+    }
+
+    @Test
+    void commandsSubmittedFromTheWorkerRunStraightAway() throws InterruptedException {
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        executor.submit(() -> {
+            ran.add("outer");
+            try {
+                executor.submit(() -> ran.add("inner"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.add("outer done");
+        });
+        awaitQueue();
+
+        assertEquals(List.of("outer", "inner", "outer done"), ran);
+    }
+
+    @Test
+    void idleHandlerRunsOnceTheQueueIsEmpty() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        executor.setIdleHandler(() -> {
+            ran.add("idle");
+            idle.countDown();
+        });
+        executor.submit(() -> ran.add("command"));
+
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+        assertEquals("command", ran.get(0));
+        assertEquals("idle", ran.get(1));
+    }
+
+    /**
+     * Wait until everything submitted so far has run
+     */
+    private void awaitQueue() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.submitAlways(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
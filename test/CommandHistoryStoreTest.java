@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The history reads back whole and in order while segments are being spilled in the background
+ */
+class CommandHistoryStoreTest {
+
+    @Test
+    void everyCommandIsVisitedInOrder() throws IOException {
+        CommandHistoryStore history = new CommandHistoryStore(4, 2);
+        List<String> commands = new ArrayList<>();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                commands.add("move " + i);
+                history.add("move " + i);
+            }
+            assertEquals(commands, visitAll(history));
+
+            List<String> recent = new ArrayList<>();
+            history.forEachRecent(10, recent::add);
+            assertEquals(commands.subList(990, 1000), recent);
+            assertEquals(1000, history.size());
+        } finally {
+            history.close();
+        }
+    }
+
+    @Test
+    void linesAddedTogetherAreSeparateCommands() throws IOException {
+        CommandHistoryStore history = new CommandHistoryStore(4, 2);
+        try {
+            history.add("penup");
+            history.addLines("move 10\nleft 90\n\u00e9t\u00e9 5\n");
+            history.addLines("");
+            history.add("pendown");
+            assertEquals(List.of("penup", "move 10", "left 90", "\u00e9t\u00e9 5", "pendown"), visitAll(history));
+            assertEquals(5, history.size());
+        } finally {
+            history.close();
+        }
+    }
+
+    @Test
+    void visitDuringAddsSeesAnUnbrokenPrefix() throws Exception {
+        CommandHistoryStore history = new CommandHistoryStore(8, 2);
+        Thread adder = new Thread(() -> {
+            for (int i = 0; i < 20000; i++) {
+                history.add("move " + i);
+            }
+        });
+        try {
+            adder.start();
+            while (adder.isAlive()) {
+                List<String> seen = visitAll(history);
+                for (int i = 0; i < seen.size(); i++) {
+                    assertEquals("move " + i, seen.get(i));
+                }
+            }
+            adder.join();
+            assertEquals(20000, visitAll(history).size());
+        } finally {
+            history.close();
+        }
+        assertTrue(history.isEmpty());
+    }
+
+    private static List<String> visitAll(CommandHistoryStore history) throws IOException {
+        List<String> seen = new ArrayList<>();
+        history.forEachCommand(seen::add);
+        return seen;
+    }
+}
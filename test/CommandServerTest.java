@@ -0,0 +1,216 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Batches sent over the socket are run by the target and answered in the order they were sent
+ */
+class CommandServerTest {
+
+    private final HeadlessTurtle turtle = new HeadlessTurtle(400, 300, Color.WHITE);
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+    private CommandServer server;
+
+    @AfterEach
+    void stop() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        turtle.dispose();
+    }
+
+    @Test
+    void batchIsAnsweredWithItsErrorsAndCounts() throws IOException {
+        start(new TurtleTarget());
+        try (Socket socket = connect()) {
+            send(socket, "move 10\nfly 10\nright 90\n.\nquit\n");
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            assertTrue(readLine(in).startsWith("error 1 2: "));
+            assertEquals("ok 1 3 1", readLine(in));
+            assertEquals(null, readLine(in));
+        }
+        assertEquals(List.of(List.of("move 10", "fly 10", "right 90")), batches);
+        assertEquals(210, turtle.getPositionX());
+    }
+
+    @Test
+    void blockSpanningLinesIsOneCommand() throws IOException {
+        start(new TurtleTarget());
+        try (Socket socket = connect()) {
+            send(socket, "repeat 4 [\nmove 10\nright 90\n]\n.\nquit\n");
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            assertEquals("ok 1 1 0", readLine(in));
+        }
+        assertEquals(1, batches.get(0).size());
+        assertEquals(200, turtle.getPositionX());
+        assertEquals(150, turtle.getPositionY());
+    }
+
+    @Test
+    void answersComeBackInTheOrderAskedEvenIfBatchesFinishOutOfOrder() throws Exception {
+        List<CompletableFuture<CommandServer.BatchResult>> pending = Collections.synchronizedList(new ArrayList<>());
+        start(new CommandServer.Target() {
+            @Override
+            public CompletableFuture<CommandServer.BatchResult> runBatch(List<String> commands) {
+                CompletableFuture<CommandServer.BatchResult> result = new CompletableFuture<>();
+                pending.add(result);
+                return result;
+            }
+
+            @Override
+            public CompletableFuture<BufferedImage> snapshot() {
+                return CompletableFuture.failedFuture(new IllegalStateException("no canvas"));
+            }
+        });
+        try (Socket socket = connect()) {
+            send(socket, "move 1\n.\nmove 2\nmove 3\n.\nmove 4\n.\n");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pending.size() < 3) {
+                assertTrue(System.nanoTime() < deadline, "batches were not queued");
+                Thread.sleep(5);
+            }
+            pending.get(2).complete(new CommandServer.BatchResult(0, List.of()));
+            pending.get(1).completeExceptionally(new IllegalStateException("cancelled\nby test"));
+            pending.get(0).complete(new CommandServer.BatchResult(0, List.of()));
+            send(socket, "quit\n");
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            assertEquals("ok 1 1 0", readLine(in));
+            assertEquals("error 2 0: cancelled by test", readLine(in));
+            assertEquals("ok 2 2 2", readLine(in));
+            assertEquals("ok 3 1 0", readLine(in));
+        }
+    }
+
+    @Test
+    void snapshotEndsTheBatchAndSendsThePng() throws IOException {
+        start(new TurtleTarget());
+        try (Socket socket = connect()) {
+            send(socket, "move 50\nsnapshot\nquit\n");
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            assertEquals("ok 1 1 0", readLine(in));
+            String header = readLine(in);
+            assertTrue(header.startsWith("png "), header);
+            byte[] bytes = new byte[Integer.parseInt(header.substring(4))];
+            in.readFully(bytes);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            assertEquals(400, image.getWidth());
+            assertEquals(300, image.getHeight());
+            assertEquals(turtle.getBufferedImage().getRGB(220, 150), image.getRGB(220, 150));
+            assertEquals(null, readLine(in));
+        }
+    }
+
+    @Test
+    void endOfInputEndsTheLastBatch() throws IOException {
+        start(new TurtleTarget());
+        try (Socket socket = connect()) {
+            send(socket, "move 10\n");
+            socket.shutdownOutput();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            assertEquals("ok 1 1 0", readLine(in));
+            assertEquals(null, readLine(in));
+        }
+    }
+
+    @Test
+    void serverCanOnlyBeStartedOnceAndStopsOnClose() throws IOException {
+        start(new TurtleTarget());
+        assertTrue(server.isRunning());
+        assertTrue(server.getPort() > 0);
+        assertThrows(IllegalStateException.class, () -> server.start(0));
+
+        server.close();
+        assertFalse(server.isRunning());
+        assertEquals(-1, server.getPort());
+    }
+
+    private void start(CommandServer.Target target) throws IOException {
+        server = new CommandServer(target);
+        server.start(0);
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * One answer line without its line break, or null at the end of the stream
+     */
+    private static String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs batches on the test's turtle straight away, the way the GUI does on its own worker
+     */
+    private final class TurtleTarget implements CommandServer.Target {
+
+        @Override
+        public synchronized CompletableFuture<CommandServer.BatchResult> runBatch(List<String> commands) {
+            batches.add(commands);
+            List<String> errors = new ArrayList<>();
+            int failed = 0;
+            for (int i = 0; i < commands.size(); i++) {
+                turtle.processCommand(commands.get(i));
+                if (!turtle.getErrors().isEmpty()) {
+                    failed++;
+                    for (String error : turtle.getErrors()) {
+                        errors.add((i + 1) + ": " + error);
+                    }
+                    turtle.clearErrors();
+                }
+            }
+            return CompletableFuture.completedFuture(new CommandServer.BatchResult(failed, errors));
+        }
+
+        @Override
+        public synchronized CompletableFuture<BufferedImage> snapshot() {
+            BufferedImage image = turtle.getBufferedImage();
+            BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            copy.getGraphics().drawImage(image, 0, 0, null);
+            return CompletableFuture.completedFuture(copy);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A command's metadata decides which parameters get through to its handler
+ */
+class CommandTest {
+
+    private static final Command MOVE = new Command("move", "move <distance>", "Move forward", "Movement",
+        Command.ParameterType.INTEGERS, 1, 1, _ -> { });
+    private static final Command UNDO = new Command("undo", "undo [count]", "Undo", "Edit",
+        Command.ParameterType.INTEGERS, 0, 1, _ -> { });
+    private static final Command METRICS = new Command("metrics", "metrics [reset]", "Metrics", "Diagnostics",
+        Command.ParameterType.TEXT, 0, 1, _ -> { });
+    private static final Command SAVE = new Command("save", "save image|commands", "Save", "File Operations",
+        Command.ParameterType.TEXT, 1, 1, _ -> { });
+
+    @Test
+    void requiredParametersMustBeGiven() {
+        assertNotNull(MOVE.validate(null));
+        assertNotNull(MOVE.validate("  "));
+        assertNotNull(SAVE.validate(null));
+        assertFalse(MOVE.isParameterOptional());
+        assertFalse(SAVE.isParameterOptional());
+    }
+
+    @Test
+    void optionalParametersMayBeLeftOut() {
+        assertNull(UNDO.validate(null));
+        assertNull(METRICS.validate(""));
+        assertTrue(UNDO.isParameterOptional());
+        assertTrue(METRICS.isParameterOptional());
+    }
+
+    @Test
+    void optionalNumbersAreStillChecked() {
+        assertNull(UNDO.validate("5"));
+        assertNotNull(UNDO.validate("five"));
+        assertNotNull(UNDO.validate("1,2"));
+        assertNull(METRICS.validate("dump 10"));
+    }
+
+    @Test
+    void numbersAreCountedAgainstTheLimits() {
+        Command triangle = new Command("triangle", "triangle <size> | <a>,<b>,<c>", "Triangle", "Shapes",
+            Command.ParameterType.INTEGERS, 1, 3, _ -> { });
+        assertNull(triangle.validate("10"));
+        assertNull(triangle.validate("3, 4, 5"));
+        assertNotNull(triangle.validate("1,2,3,4"));
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Percentiles come back within the bucket resolution, and recording from many threads loses nothing
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void percentilesAreWithinTheBucketResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        assertClose(50_000_000, histogram.getPercentileNanos(50));
+        assertClose(99_000_000, histogram.getPercentileNanos(99));
+        assertEquals(100_000_000, histogram.getPercentileNanos(100));
+        assertEquals(100_000_000, histogram.getMaxNanos());
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(50_000_500.0, histogram.getMeanNanos(), 1e-6);
+    }
+
+    @Test
+    void smallDurationsAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int nanos = 0; nanos < 16; nanos++) {
+            histogram.record(nanos);
+        }
+        histogram.record(-5);
+
+        assertEquals(0, histogram.getPercentileNanos(0));
+        assertEquals(7, histogram.getPercentileNanos(50));
+        assertEquals(15, histogram.getPercentileNanos(100));
+        assertEquals(17, histogram.getCount());
+        assertEquals(120, histogram.getTotalNanos());
+    }
+
+    @Test
+    void everyValueFallsInsideItsBucket() {
+        long previousBucket = -1;
+        for (long value = 0; value < 1 << 20; value += 1 + value / 64) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket >= previousBucket, "buckets go up with the value at " + value);
+            assertTrue(LatencyHistogram.upperEdgeOf(bucket) >= value, "edge below " + value);
+            assertTrue(LatencyHistogram.upperEdgeOf(bucket) <= value + value / 16, "bucket too wide at " + value);
+            previousBucket = bucket;
+        }
+        assertTrue(LatencyHistogram.upperEdgeOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)) >= Long.MAX_VALUE / 2);
+    }
+
+    @Test
+    void resetForgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(99));
+        assertEquals(0.0, histogram.getMeanNanos());
+    }
+
+    @Test
+    void recordingFromManyThreadsLosesNothing() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= 10_000; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(4 * 50_005_000L, histogram.getTotalNanos());
+        assertEquals(10_000, histogram.getMaxNanos());
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16, "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,75 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * PNGs written by the parallel encoder decode to the exact pixels of the canvas
+ */
+class PngExportFormatTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void everyLevelDecodesToTheSamePixels() throws IOException {
+        BufferedImage image = CanvasSnapshotTest.drawing(BufferedImage.TYPE_INT_RGB);
+        int[] levels = {0, PngExportFormat.FAST_LEVEL, PngExportFormat.DEFAULT_LEVEL, 9};
+        for (int level : levels) {
+            BufferedImage decoded = decode(encode(image, new PngExportFormat(level, ForkJoinPool.commonPool())));
+            assertArrayEquals(CanvasSnapshotTest.pixels(image), CanvasSnapshotTest.pixels(decoded), "level " + level);
+        }
+    }
+
+    @Test
+    void alphaIsKept() throws IOException {
+        BufferedImage image = new BufferedImage(97, 61, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(7);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        BufferedImage decoded = decode(encode(image, new PngExportFormat()));
+        assertArrayEquals(CanvasSnapshotTest.pixels(image), CanvasSnapshotTest.pixels(decoded));
+    }
+
+    @Test
+    void imagesTallerThanOneBandDecodeWhole() throws IOException {
+        BufferedImage image = new BufferedImage(1200, 900, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.setRGB(y % image.getWidth(), y, 0x336699);
+        }
+        Path file = directory.resolve("tall.png");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            new PngExportFormat().write(image, channel, _ -> { });
+        }
+        BufferedImage decoded = ImageIO.read(file.toFile());
+        assertEquals(image.getHeight(), decoded.getHeight());
+        assertArrayEquals(CanvasSnapshotTest.pixels(image), CanvasSnapshotTest.pixels(decoded));
+    }
+
+    private static byte[] encode(BufferedImage image, PngExportFormat format) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        format.write(image, Channels.newChannel(bytes), _ -> { });
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] png) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+}
@@ -0,0 +1,172 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Procedures declared by lines that never run are taken back, and registered commands compile inside blocks
+ * according to their registry entry
+ */
+class ScriptCompilerTest {
+
+    private final ScriptCompiler compiler = new ScriptCompiler();
+    private final HeadlessTurtle turtle = new HeadlessTurtle(400, 300, Color.WHITE);
+    private final ScriptInterpreter interpreter = new ScriptInterpreter(turtle);
+
+    @Test
+    void forgottenRedefinitionLeavesTheOldOneCallable() {
+        run("to step :n move :n end");
+        CompiledScript dropped = new CompiledScript();
+        ScriptCompiler.Declarations declarations = compiler.compileAhead("to step :a :b move :a+:b end", dropped);
+        assertNotNull(declarations);
+        compiler.forgetDeclarations(declarations);
+
+        run("step 30");
+        assertEquals(200 + 30, turtle.getPositionX(), 1e-9);
+        assertTrue(turtle.getErrors().isEmpty(), turtle.getErrors().toString());
+    }
+
+    @Test
+    void forgottenNewProcedureIsNotACommand() {
+        ScriptCompiler.Declarations declarations = compiler.compileAhead("to jump move 50 end", new CompiledScript());
+        compiler.forgetDeclarations(declarations);
+
+        run("jump");
+        assertEquals(1, turtle.getErrors().size());
+        assertTrue(turtle.getErrors().get(0).contains("Invalid command 'jump'"), turtle.getErrors().get(0));
+    }
+
+    @Test
+    void laterDeclarationsAreKept() {
+        ScriptCompiler.Declarations dropped = compiler.compileAhead("to jump move 50 end", new CompiledScript());
+        run("to jump move 20 end");
+        compiler.forgetDeclarations(dropped);
+
+        run("jump");
+        assertEquals(200 + 20, turtle.getPositionX(), 1e-9);
+    }
+
+    @Test
+    void lineThatFailsTakesBackItsEarlierDefinitions() {
+        CompiledScript script = new CompiledScript();
+        assertNull(compiler.compileAhead("to hop move 10 end to skip [ move", script));
+        assertEquals(CompiledScript.OP_INVALID, script.getCode()[0]);
+
+        run("hop");
+        assertEquals(1, turtle.getErrors().size());
+        assertTrue(turtle.getErrors().get(0).contains("Invalid command 'hop'"), turtle.getErrors().get(0));
+    }
+
+    @Test
+    void plainCommandsDeclareNothing() {
+        assertNull(compiler.compileAhead("move 10", new CompiledScript()));
+        assertNull(compiler.compileAhead("repeat 2 [ move 10 ]", new CompiledScript()));
+    }
+
+    @Test
+    void registeredCommandsRunInsideRepeatAndProcedures() {
+        ScriptCompiler extended = new ScriptCompiler(registryWithExtraCommands());
+        List<String> ran = new ArrayList<>();
+        HeadlessTurtle recording = new HeadlessTurtle(400, 300, Color.WHITE) {
+            @Override
+            public void runCommand(String command) {
+                ran.add(command);
+            }
+        };
+        CompiledScript script = new CompiledScript();
+        extended.compileLine("to mark stamp dots 3 end repeat 2 [ mark ]", script);
+        extended.compileLine("dots 1,2", script);
+        new ScriptInterpreter(recording).run(script);
+
+        assertEquals(Arrays.asList("stamp", "dots 3", "stamp", "dots 3", "dots 1,2"), ran);
+        assertTrue(recording.getErrors().isEmpty(), recording.getErrors().toString());
+    }
+
+    @Test
+    void registeredCommandTakesOnlyPlainNumbersInsideBlocks() {
+        ScriptCompiler extended = new ScriptCompiler(registryWithExtraCommands());
+        CompiledScript script = new CompiledScript();
+        extended.compileLine("repeat 2 [ dots repcount ]", script);
+        assertEquals(CompiledScript.OP_INVALID, script.getCode()[0]);
+        assertTrue(script.getConstant(script.getCode()[2]).contains("plain numbers"), script.getConstant(script.getCode()[2]));
+    }
+
+    @Test
+    void registeredInstructionsCompileLikeTheBuiltInOnes() {
+        CommandRegistry registry = registryWithExtraCommands();
+        registry.register(new Command("teal", "Set pen color", "Colors", null)
+            .compiledTo(CompiledScript.OP_PENCOLOUR, 0x008080));
+        ScriptCompiler extended = new ScriptCompiler(registry);
+        CompiledScript script = new CompiledScript();
+        extended.compileLine("repeat 2 [ teal ]", script);
+        extended.compileLine("teal", script);
+
+        HeadlessTurtle drawing = new HeadlessTurtle(400, 300, Color.WHITE);
+        new ScriptInterpreter(drawing).run(script);
+        assertEquals(new Color(0x008080), drawing.getPenColour());
+        assertTrue(drawing.getErrors().isEmpty(), drawing.getErrors().toString());
+    }
+
+    @Test
+    void textAndWindowCommandsAreRefusedInsideBlocks() {
+        CommandRegistry registry = registryWithExtraCommands();
+        registry.register(new Command("note", "note <text>", "Write a note", "Extras",
+            Command.ParameterType.TEXT, 1, 1, _ -> { }));
+        registry.register(new Command("palette", "Show the palette", "Extras", _ -> { }).onEventThread());
+        ScriptCompiler extended = new ScriptCompiler(registry);
+
+        for (String line : Arrays.asList("repeat 2 [ note hello ]", "repeat 2 [ palette ]")) {
+            CompiledScript script = new CompiledScript();
+            extended.compileLine(line, script);
+            assertEquals(CompiledScript.OP_INVALID, script.getCode()[0], line);
+        }
+        CompiledScript script = new CompiledScript();
+        extended.compileLine("note a:b", script);
+        assertEquals(CompiledScript.OP_COMMAND, script.getCode()[0]);
+    }
+
+    @Test
+    void describedStateCompilesBackIntoAFreshSession() {
+        run("make size 40 make turns -2");
+        run("to side right 90 end");
+        run("to corner right 90 end");
+        // Redefined to call a procedure declared after it
+        run("to side :n move :n corner end");
+        List<String> state = compiler.describeState(interpreter.copyGlobals());
+
+        ScriptCompiler restored = new ScriptCompiler();
+        HeadlessTurtle drawing = new HeadlessTurtle(400, 300, Color.WHITE);
+        ScriptInterpreter restoredInterpreter = new ScriptInterpreter(drawing);
+        CompiledScript definitions = new CompiledScript();
+        restored.compileState(state, definitions);
+        restoredInterpreter.run(definitions);
+
+        CompiledScript script = new CompiledScript();
+        restored.compileLine("repeat :turns*-1 [ side :size ]", script);
+        restoredInterpreter.run(script);
+        assertTrue(drawing.getErrors().isEmpty(), drawing.getErrors().toString());
+        assertEquals(200 + 40, drawing.getPositionX(), 1e-9);
+        assertEquals(150 + 40, drawing.getPositionY(), 1e-9);
+    }
+
+    private static CommandRegistry registryWithExtraCommands() {
+        CommandRegistry registry = BuiltInCommands.newRegistry();
+        registry.register(new Command("stamp", "Stamp the turtle", "Extras", _ -> { }));
+        registry.register(new Command("dots", "dots <count>[,<gap>]", "Draw a row of dots", "Extras",
+            Command.ParameterType.INTEGERS, 1, 2, _ -> { }));
+        return registry;
+    }
+
+    private void run(String line) {
+        CompiledScript script = new CompiledScript();
+        compiler.compileLine(line, script);
+        interpreter.run(script);
+    }
+}
@@ -0,0 +1,145 @@
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A script draws the same whether it is typed line by line, compiled whole or run from a binary file
+ */
+class ScriptInterpreterTest {
+
+    private static final List<String> PLAIN = Arrays.asList(
+        "penwidth 3", "move 100", "right 90", "pencolour 200,30,90", "move 60", "left 45",
+        "square 40", "penup", "reverse 30", "pendown", "green", "triangle 50", "triangle 30,40,50",
+        "star 35", "circle 25", "hexagon 20", "move 500", "bogus", "move -1", "reset", "blue", "move 80");
+
+    private static final List<String> BLOCKS = Arrays.asList(
+        "make side 30",
+        "to poly :n :len",
+        "  repeat :n [ move :len right 360/:n ]",
+        "end",
+        "repeat 6 [ poly repcount+2 :side right 60 ]",
+        "make side :side*2",
+        "penwidth :side/20",
+        "poly 5 :side",
+        "to spiral :len",
+        "  repeat 20 [ move :len+repcount*3 right 91 ]",
+        "end",
+        "spiral 5");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void compiledScriptDrawsAsTypedLines() {
+        HeadlessTurtle typed = typed(PLAIN);
+        HeadlessTurtle compiled = newTurtle();
+        compiled.run(compile(PLAIN));
+        assertSameDrawing(typed, compiled);
+    }
+
+    @Test
+    void binaryScriptDrawsAsTypedLines() throws IOException {
+        Path file = directory.resolve("plain.tbs");
+        BinaryScriptFormat.write(compile(PLAIN), file);
+        BinaryScript binary = BinaryScriptFormat.map(file);
+        HeadlessTurtle mapped = newTurtle();
+        mapped.run(binary, 0, binary.size());
+        assertSameDrawing(typed(PLAIN), mapped);
+    }
+
+    @Test
+    void blocksAndProceduresDrawAsTypedLines() {
+        HeadlessTurtle typed = typed(BLOCKS);
+        HeadlessTurtle compiled = newTurtle();
+        compiled.run(compile(BLOCKS));
+        assertSameDrawing(typed, compiled);
+    }
+
+    @Test
+    void repeatDrawsAsItsUnrolledBody() {
+        HeadlessTurtle looped = typed(Arrays.asList("repeat 4 [ move 50 right 90 ]", "circle 10"));
+        HeadlessTurtle unrolled = typed(Arrays.asList(
+            "move 50", "right 90", "move 50", "right 90", "move 50", "right 90", "move 50", "right 90", "circle 10"));
+        assertSameDrawing(unrolled, looped);
+    }
+
+    @Test
+    void restoredVariablesAreReadAsTheyWereWhenCopied() {
+        HeadlessTurtle turtle = newTurtle();
+        ScriptInterpreter interpreter = new ScriptInterpreter(turtle);
+        ScriptCompiler compiler = new ScriptCompiler();
+        interpreter.run(compile(compiler, "make side 10"));
+        int[] saved = interpreter.copyGlobals();
+        interpreter.run(compile(compiler, "make side 50 make other 7"));
+        interpreter.restoreGlobals(saved);
+        interpreter.run(compile(compiler, "move :side+:other"));
+        assertEquals(200 + 10, turtle.getPositionX(), 1e-9);
+    }
+
+    @Test
+    void errorsAreReportedOncePerBadCommand() {
+        HeadlessTurtle turtle = typed(PLAIN);
+        assertEquals(3, turtle.getErrors().size(), turtle.getErrors().toString());
+    }
+
+    @Test
+    void metricsCountErrorsTheBackendReportsForAnyInstruction() {
+        HeadlessTurtle turtle = new HeadlessTurtle(400, 300, Color.WHITE) {
+            @Override
+            public void circle(int radius) {
+                reportError("No room for a circle");
+            }
+        };
+        CommandMetrics metrics = new CommandMetrics();
+        new ScriptInterpreter(turtle, metrics).run(compile(Arrays.asList("circle 10", "move 10", "circle 20")));
+        assertEquals(2, metrics.getCount("circle"));
+        assertEquals(2, metrics.getErrors("circle"));
+        assertEquals(0, metrics.getErrors("move"));
+    }
+
+    private static HeadlessTurtle typed(List<String> lines) {
+        HeadlessTurtle turtle = newTurtle();
+        for (String line : lines) {
+            turtle.processCommand(line);
+        }
+        turtle.flushStatement();
+        return turtle;
+    }
+
+    private static CompiledScript compile(List<String> lines) {
+        try {
+            return new ScriptCompiler().compile(new BufferedReader(new StringReader(String.join("\n", lines))));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static CompiledScript compile(ScriptCompiler compiler, String line) {
+        CompiledScript script = new CompiledScript();
+        compiler.compileLine(line, script);
+        return script;
+    }
+
+    private static HeadlessTurtle newTurtle() {
+        return new HeadlessTurtle(400, 300, Color.WHITE);
+    }
+
+    private static void assertSameDrawing(HeadlessTurtle expected, HeadlessTurtle actual) {
+        assertEquals(expected.getErrors(), actual.getErrors());
+        assertEquals(expected.getPositionX(), actual.getPositionX(), 1e-9);
+        assertEquals(expected.getPositionY(), actual.getPositionY(), 1e-9);
+        assertEquals(expected.getDirection(), actual.getDirection());
+        assertArrayEquals(CanvasSnapshotTest.pixels(expected.getBufferedImage()),
+            CanvasSnapshotTest.pixels(actual.getBufferedImage()));
+    }
+}
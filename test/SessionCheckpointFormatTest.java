@@ -0,0 +1,81 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checkpoints read back with the same canvas, turtle, pen and history
+ */
+class SessionCheckpointFormatTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void compressedCheckpointReadsBackWhole() throws IOException {
+        roundTrip(true);
+    }
+
+    @Test
+    void rawCheckpointReadsBackWhole() throws IOException {
+        roundTrip(false);
+    }
+
+    @Test
+    void otherFilesAreRefused() throws IOException {
+        Path file = directory.resolve("not-a-checkpoint.tsc");
+        Files.write(file, "move 100".getBytes());
+        assertFalse(SessionCheckpointFormat.isCheckpoint(file));
+        assertThrows(IOException.class, () -> SessionCheckpointFormat.read(file, _ -> { }));
+    }
+
+    private void roundTrip(boolean compress) throws IOException {
+        BufferedImage image = CanvasSnapshotTest.drawing(BufferedImage.TYPE_INT_RGB);
+        SessionCheckpoint checkpoint = new SessionCheckpoint(image, 12.5, -3.25, 270,
+            new Color(10, 20, 30), 4, false, Color.WHITE, List.of("make size 40", "to box :n repeat 4 [ move :n right 90 ]"));
+        // Small segments so part of the history is read back from the spill file
+        CommandHistoryStore history = new CommandHistoryStore(4, 2);
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            commands.add("move " + i);
+            history.add("move " + i);
+        }
+        commands.add("pencolour 10,20,30 é");
+        history.add("pencolour 10,20,30 é");
+
+        Path file = directory.resolve("session.tsc");
+        try {
+            SessionCheckpointFormat.write(checkpoint, history, file, compress);
+        } finally {
+            history.close();
+        }
+        assertTrue(SessionCheckpointFormat.isCheckpoint(file));
+
+        List<String> readHistory = new ArrayList<>();
+        SessionCheckpoint read = SessionCheckpointFormat.read(file, readHistory::add);
+        assertEquals(commands, readHistory);
+        assertEquals(checkpoint.getWidth(), read.getWidth());
+        assertEquals(checkpoint.getHeight(), read.getHeight());
+        assertEquals(checkpoint.getX(), read.getX());
+        assertEquals(checkpoint.getY(), read.getY());
+        assertEquals(checkpoint.getDirection(), read.getDirection());
+        assertEquals(checkpoint.getPenColour(), read.getPenColour());
+        assertEquals(checkpoint.getPenWidth(), read.getPenWidth());
+        assertEquals(checkpoint.isPenDown(), read.isPenDown());
+        assertEquals(checkpoint.getBackground(), read.getBackground());
+        assertEquals(checkpoint.getScript(), read.getScript());
+        assertArrayEquals(CanvasSnapshotTest.pixels(image), CanvasSnapshotTest.pixels(read.toImage()));
+    }
+}
@@ -0,0 +1,126 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sessions draw independently, fit in the memory budget by closing the least recently used,
+ * and give their canvases back to the pool when they close
+ */
+class SessionManagerTest {
+
+    private static final long ONE = CanvasPool.bytesFor(200, 100);
+
+    private SessionManager sessions = new SessionManager(2 * ONE, SessionManager.DEFAULT_IDLE_TIMEOUT_MILLIS);
+
+    @AfterEach
+    void closeSessions() {
+        sessions.close();
+    }
+
+    @Test
+    void sessionsDrawIndependently() {
+        sessions.open("alice", 200, 100, Color.WHITE);
+        sessions.open("bob", 200, 100, Color.BLACK);
+
+        assertEquals(List.of(), sessions.run("alice", "move 50"));
+        List<String> errors = sessions.run("bob", "fly 10");
+        assertEquals(1, errors.size());
+
+        BufferedImage alice = sessions.snapshot("alice");
+        BufferedImage bob = sessions.snapshot("bob");
+        assertNotEquals(Color.WHITE.getRGB(), alice.getRGB(120, 50));
+        assertEquals(Color.BLACK.getRGB(), bob.getRGB(120, 50));
+    }
+
+    @Test
+    void snapshotIsACopy() {
+        sessions.open("alice", 200, 100, Color.WHITE);
+        BufferedImage before = sessions.snapshot("alice");
+        sessions.run("alice", "move 50");
+
+        assertEquals(Color.WHITE.getRGB(), before.getRGB(120, 50));
+        assertNotEquals(Color.WHITE.getRGB(), sessions.snapshot("alice").getRGB(120, 50));
+    }
+
+    @Test
+    void unknownAndDuplicateSessionsAreRefused() {
+        sessions.open("alice", 200, 100, Color.WHITE);
+
+        assertThrows(IllegalArgumentException.class, () -> sessions.open("alice", 200, 100, Color.WHITE));
+        assertThrows(IllegalArgumentException.class, () -> sessions.run("bob", "move 10"));
+        assertThrows(IllegalArgumentException.class, () -> sessions.snapshot("bob"));
+        assertThrows(IllegalStateException.class, () -> sessions.open("huge", 400, 200, Color.WHITE));
+        assertFalse(sessions.close("bob"));
+    }
+
+    @Test
+    void leastRecentlyUsedSessionMakesRoom() {
+        sessions.open("alice", 200, 100, Color.WHITE);
+        sessions.open("bob", 200, 100, Color.WHITE);
+        sessions.run("alice", "move 10");
+        sessions.open("carol", 200, 100, Color.WHITE);
+
+        assertTrue(sessions.isOpen("alice"));
+        assertFalse(sessions.isOpen("bob"));
+        assertTrue(sessions.isOpen("carol"));
+        assertEquals(1, sessions.getEvictedCount());
+        assertEquals(2 * ONE, sessions.getCanvasPool().getMemoryUsed());
+    }
+
+    @Test
+    void closedSessionsCanvasIsReusedBlank() {
+        sessions.open("alice", 200, 100, Color.WHITE);
+        sessions.run("alice", "move 50");
+        assertTrue(sessions.close("alice"));
+        assertEquals(1, sessions.getCanvasPool().getFreeCount());
+
+        sessions.open("bob", 200, 100, Color.WHITE);
+        assertEquals(0, sessions.getCanvasPool().getFreeCount());
+        assertEquals(ONE, sessions.getCanvasPool().getMemoryUsed());
+        assertEquals(Color.WHITE.getRGB(), sessions.snapshot("bob").getRGB(120, 50));
+    }
+
+    @Test
+    void idleSessionsAreClosedBySweep() throws InterruptedException {
+        sessions.close();
+        sessions = new SessionManager(2 * ONE, 50);
+        sessions.open("alice", 200, 100, Color.WHITE);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sessions.isOpen("alice")) {
+            assertTrue(System.nanoTime() < deadline, "idle session was not closed");
+            Thread.sleep(10);
+        }
+        assertEquals(0, sessions.getSessionCount());
+        assertEquals(1, sessions.getEvictedCount());
+        assertEquals(1, sessions.getCanvasPool().getFreeCount());
+    }
+
+    @Test
+    void recentlyUsedSessionsAreNotIdle() {
+        sessions.open("alice", 200, 100, Color.WHITE);
+
+        assertEquals(0, sessions.evictIdle());
+        assertTrue(sessions.isOpen("alice"));
+    }
+
+    @Test
+    void closingTheManagerClosesEverySession() {
+        sessions.open("alice", 200, 100, Color.WHITE);
+        sessions.open("bob", 200, 100, Color.WHITE);
+        sessions.close();
+
+        assertEquals(0, sessions.getSessionCount());
+        assertEquals(0, sessions.getCanvasPool().getMemoryUsed());
+    }
+}
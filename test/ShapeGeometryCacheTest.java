@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Repeated shapes come from the cache, the least recently used ones are dropped first,
+ * and a cached outline placed anywhere matches one worked out from scratch
+ */
+class ShapeGeometryCacheTest {
+
+    @Test
+    void repeatedShapeIsAnsweredFromTheCache() {
+        ShapeGeometryCache cache = new ShapeGeometryCache();
+        ShapeGeometry first = cache.regularWalk(40, 4, 1);
+        ShapeGeometry second = cache.regularWalk(40, 4, 1);
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void walkAndTriangleWithTheSameNumbersAreDifferentShapes() {
+        ShapeGeometryCache cache = new ShapeGeometryCache();
+        ShapeGeometry walk = cache.regularWalk(3, 4, 5);
+        ShapeGeometry triangle = cache.arbitraryTriangle(3, 4, 5);
+
+        assertNotSame(walk, triangle);
+        assertEquals(5, walk.getPointCount());
+        assertEquals(4, triangle.getPointCount());
+        assertEquals(2, cache.getMisses());
+        assertSame(triangle, cache.arbitraryTriangle(3, 4, 5));
+    }
+
+    @Test
+    void leastRecentlyUsedShapeIsDroppedFirst() {
+        ShapeGeometryCache cache = new ShapeGeometryCache(2);
+        ShapeGeometry square = cache.regularWalk(10, 4, 1);
+        ShapeGeometry hexagon = cache.regularWalk(10, 6, 1);
+        assertSame(square, cache.regularWalk(10, 4, 1));
+        cache.regularWalk(10, 3, 1);
+
+        assertEquals(2, cache.size());
+        assertSame(square, cache.regularWalk(10, 4, 1));
+        assertNotSame(hexagon, cache.regularWalk(10, 6, 1));
+    }
+
+    @Test
+    void shrinkingDropsTheOldestShapes() {
+        ShapeGeometryCache cache = new ShapeGeometryCache();
+        for (int length = 1; length <= 10; length++) {
+            cache.regularWalk(length, 4, 1);
+        }
+        cache.setCapacity(3);
+
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getCapacity());
+        cache.resetStatistics();
+        cache.regularWalk(10, 4, 1);
+        cache.regularWalk(1, 4, 1);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertThrows(IllegalArgumentException.class, () -> cache.setCapacity(-1));
+    }
+
+    @Test
+    void capacityZeroKeepsNothing() {
+        ShapeGeometryCache cache = new ShapeGeometryCache(0);
+        ShapeGeometry first = cache.regularWalk(40, 4, 1);
+
+        assertNotSame(first, cache.regularWalk(40, 4, 1));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void clearKeepsTheStatistics() {
+        ShapeGeometryCache cache = new ShapeGeometryCache();
+        cache.regularWalk(40, 4, 1);
+        cache.regularWalk(40, 4, 1);
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHits());
+        cache.resetStatistics();
+        assertEquals(0.0, cache.getHitRate());
+    }
+
+    @Test
+    void cachedOutlinePlacedAnywhereMatchesAFreshOne() {
+        ShapeGeometryCache cache = new ShapeGeometryCache();
+        for (int direction = 0; direction < 360; direction += 45) {
+            ShapeGeometry cached = cache.regularWalk(50, 5, 2).place(120, 80, direction);
+            ShapeGeometry fresh = ShapeGeometry.computeRegularWalk(50, 5, 2).place(120, 80, direction);
+            assertSame(cache.regularWalk(50, 5, 2), cache.regularWalk(50, 5, 2));
+
+            assertEquals(fresh.getPointCount(), cached.getPointCount());
+            for (int i = 0; i < fresh.getPointCount(); i++) {
+                assertEquals(fresh.getX(i), cached.getX(i), 1e-9);
+                assertEquals(fresh.getY(i), cached.getY(i), 1e-9);
+            }
+            assertEquals(120, cached.getX(0), 1e-9);
+            assertEquals(80, cached.getY(0), 1e-9);
+            assertEquals(fresh.getEndDirection(), cached.getEndDirection());
+        }
+    }
+
+    @Test
+    void squareEndsWhereItStarted() {
+        ShapeGeometry square = new ShapeGeometryCache().regularWalk(40, 4, 1).place(100, 50, 90);
+
+        assertEquals(100, square.getEndX(), 1e-9);
+        assertEquals(50, square.getEndY(), 1e-9);
+        assertEquals(100, square.getX(1), 1e-9);
+        assertEquals(90, square.getY(1), 1e-9);
+        assertEquals(90, square.getEndDirection());
+    }
+}
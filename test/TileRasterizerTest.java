@@ -0,0 +1,81 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Tiled rendering gives the same pixels as drawing straight onto one image, whatever the tile size
+ */
+class TileRasterizerTest {
+
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 700;
+
+    @Test
+    void tilesMatchTheDirectDrawing() {
+        for (long seed = 1; seed <= 3; seed++) {
+            List<String> commands = randomDrawing(new Random(seed));
+            HeadlessTurtle direct = new HeadlessTurtle(WIDTH, HEIGHT, Color.WHITE);
+            PathTracer tracer = new PathTracer(WIDTH, HEIGHT);
+            for (String command : commands) {
+                direct.processCommand(command);
+                tracer.processCommand(command);
+            }
+            int[] expected = CanvasSnapshotTest.pixels(direct.getBufferedImage());
+
+            for (int tileSize : new int[] {WIDTH, TileRasterizer.DEFAULT_TILE_SIZE, 64, 16}) {
+                BufferedImage tiled = new TileRasterizer(tileSize, ForkJoinPool.commonPool())
+                    .render(tracer.getDisplayList(), WIDTH, HEIGHT, Color.WHITE);
+                assertArrayEquals(expected, CanvasSnapshotTest.pixels(tiled), "seed " + seed + ", tile size " + tileSize);
+            }
+        }
+    }
+
+    /**
+     * Lines, turns, shapes that cross themselves and circles with several pen widths and colours
+     */
+    private static List<String> randomDrawing(Random random) {
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            switch (random.nextInt(9)) {
+                case 0:
+                    commands.add("right " + (random.nextInt(359) + 1));
+                    break;
+                case 1:
+                    commands.add("penwidth " + (random.nextInt(6) + 1));
+                    break;
+                case 2:
+                    commands.add("square " + (random.nextInt(60) + 5));
+                    break;
+                case 3:
+                    commands.add("circle " + (random.nextInt(40) + 2));
+                    break;
+                case 4:
+                    commands.add("star " + (random.nextInt(40) + 5));
+                    break;
+                case 5:
+                    commands.add("hexagon " + (random.nextInt(30) + 5));
+                    break;
+                case 6:
+                    commands.add("triangle " + (random.nextInt(50) + 5));
+                    break;
+                case 7:
+                    commands.add("pencolour " + random.nextInt(256) + "," + random.nextInt(256) + "," + random.nextInt(256));
+                    break;
+                default:
+                    commands.add("move " + (random.nextInt(80) + 1));
+                    break;
+            }
+            if (random.nextInt(10) == 0) {
+                commands.add("reset");
+            }
+        }
+        return commands;
+    }
+}
@@ -0,0 +1,134 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Each turtle keeps its own state and runs its commands in order, and composite() moves
+ * what they drew onto the canvas once
+ */
+class TurtleFlockTest {
+
+    private final TurtleFlock flock = new TurtleFlock(400, 300, 4, () -> { });
+    private final BufferedImage canvas = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+
+    @AfterEach
+    void shutDown() {
+        flock.shutdown();
+    }
+
+    @Test
+    void eachTurtleRunsItsCommandsInOrder() throws InterruptedException {
+        for (int number = 1; number <= 8; number++) {
+            flock.submit(number, "right " + (number * 10));
+            for (int i = 0; i < 100; i++) {
+                flock.submit(number, "move 1");
+            }
+        }
+        awaitIdle();
+        DisplayList record = composite();
+
+        assertEquals(8, flock.size());
+        assertEquals(8 * 100, record.size());
+        for (int i = 0; i < record.size(); i++) {
+            int number = i / 100 + 1;
+            int step = i % 100;
+            double radians = Math.toRadians(number * 10);
+            assertEquals(200 + step * Math.cos(radians), record.getX1(i), 1e-6);
+            assertEquals(150 + step * Math.sin(radians), record.getY1(i), 1e-6);
+        }
+        assertTrue(flock.takeErrors().isEmpty());
+    }
+
+    @Test
+    void strokesAreCompositedOnlyOnce() throws InterruptedException {
+        flock.submit(1, "move 50");
+        awaitIdle();
+
+        Graphics2D g = canvas.createGraphics();
+        try {
+            DisplayList record = new DisplayList();
+            Rectangle dirty = flock.composite(g, record);
+            assertNotNull(dirty);
+            assertTrue(dirty.contains(200, 150) && dirty.contains(249, 150));
+            assertEquals(1, record.size());
+            assertNull(flock.composite(g, record));
+            assertEquals(1, record.size());
+        } finally {
+            g.dispose();
+        }
+    }
+
+    @Test
+    void submitAllReachesEveryTurtle() throws InterruptedException {
+        flock.submit(3, "penup");
+        flock.submit(7, "penup");
+        assertEquals(2, flock.submitAll("move 10"));
+        TurtleFlock empty = new TurtleFlock(400, 300, 1, () -> { });
+        assertEquals(0, empty.submitAll("move 10"));
+        empty.shutdown();
+        awaitIdle();
+
+        assertNull(composite().getBounds());
+    }
+
+    @Test
+    void errorsSayWhichTurtleReportedThem() throws InterruptedException {
+        flock.submit(5, "move sideways");
+        flock.submit(5, "fly 10");
+        awaitIdle();
+
+        List<String> errors = flock.takeErrors();
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0).startsWith("Turtle 5: "));
+        assertTrue(errors.get(1).startsWith("Turtle 5: "));
+        assertTrue(flock.takeErrors().isEmpty());
+    }
+
+    @Test
+    void turtleNumbersAreChecked() {
+        assertThrows(IllegalArgumentException.class, () -> flock.submit(0, "move 10"));
+        assertThrows(IllegalArgumentException.class, () -> flock.submit(TurtleFlock.MAX_TURTLES + 1, "move 10"));
+        assertEquals(0, flock.size());
+    }
+
+    @Test
+    void dismissRemovesEveryTurtle() throws InterruptedException {
+        flock.submit(1, "move 10");
+        flock.submit(2, "move 10");
+        awaitIdle();
+        flock.dismiss();
+
+        assertEquals(0, flock.size());
+        assertNull(composite().getBounds());
+    }
+
+    private DisplayList composite() {
+        DisplayList record = new DisplayList();
+        Graphics2D g = canvas.createGraphics();
+        try {
+            flock.composite(g, record);
+        } finally {
+            g.dispose();
+        }
+        return record;
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!flock.isIdle()) {
+            assertTrue(System.nanoTime() < deadline, "turtles did not finish");
+            Thread.sleep(5);
+        }
+    }
+}
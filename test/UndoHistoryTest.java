@@ -0,0 +1,169 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Undo and redo put back the canvas and the display list as they were, whether a step is replayed or restored
+ */
+class UndoHistoryTest {
+
+    private final HeadlessTurtle turtle = new HeadlessTurtle(400, 300, Color.WHITE);
+    private final DisplayList displayList = new DisplayList();
+    private final List<Runnable> ran = new ArrayList<>();
+
+    @Test
+    void redoAcrossALaterSnapshotRestoresEveryStroke() {
+        UndoHistory<Point> history = new UndoHistory<>(this::capture, this::restore, Point::getSize);
+        List<int[]> pixelsAt = new ArrayList<>();
+        pixelsAt.add(CanvasSnapshotTest.pixels(turtle.getBufferedImage()));
+        for (int i = 0; i < 100; i++) {
+            step();
+            history.record(this::step);
+            pixelsAt.add(CanvasSnapshotTest.pixels(turtle.getBufferedImage()));
+        }
+        assertEquals(3, history.getSnapshotCount());
+
+        assertEquals(40, history.undo(40));
+        assertEquals(60, displayList.size());
+        assertArrayEquals(pixelsAt.get(60), CanvasSnapshotTest.pixels(turtle.getBufferedImage()));
+
+        assertEquals(40, history.redo(40));
+        assertEquals(100, displayList.size());
+        assertArrayEquals(pixelsAt.get(100), CanvasSnapshotTest.pixels(turtle.getBufferedImage()));
+        assertArrayEquals(pixelsAt.get(100), CanvasSnapshotTest.pixels(render()));
+    }
+
+    @Test
+    void newStepAfterUndoDropsWhatCouldBeRedone() {
+        UndoHistory<Point> history = new UndoHistory<>(this::capture, this::restore, Point::getSize);
+        history.setInterval(10);
+        for (int i = 0; i < 25; i++) {
+            step();
+            history.record(this::step);
+        }
+        history.undo(12);
+        ran.clear();
+        step();
+        history.record(this::step);
+
+        assertEquals(0, history.getRedoCount());
+        assertEquals(14, history.getUndoCount());
+        assertEquals(0, history.redo(5));
+        assertEquals(14, displayList.size());
+    }
+
+    @Test
+    void undoReplaysNoMoreThanOneInterval() {
+        UndoHistory<Point> history = new UndoHistory<>(this::capture, this::restore, Point::getSize);
+        history.setInterval(10);
+        for (int i = 0; i < 40; i++) {
+            step();
+            history.record(() -> {
+                ran.add(null);
+                step();
+            });
+        }
+        history.undo(3);
+        assertEquals(7, ran.size());
+        assertEquals(37, displayList.size());
+    }
+
+    @Test
+    void budgetDropsTheOldestSnapshotsAndTheirSteps() {
+        UndoHistory<Point> history = new UndoHistory<>(this::capture, this::restore, _ -> 1000);
+        history.setInterval(10);
+        history.setMemoryBudget(3000);
+        for (int i = 0; i < 50; i++) {
+            step();
+            history.record(this::step);
+        }
+        assertEquals(3, history.getSnapshotCount());
+        assertEquals(20, history.getUndoCount());
+        assertEquals(20, history.undo(100));
+        assertEquals(30, displayList.size());
+    }
+
+    @Test
+    void stepsRecordedWhileReplayingAreIgnored() {
+        UndoHistory<Point> history = new UndoHistory<>(this::capture, this::restore, Point::getSize);
+        history.setInterval(10);
+        for (int i = 0; i < 5; i++) {
+            step();
+            history.record(() -> {
+                step();
+                history.record(this::step);
+            });
+        }
+        history.undo(2);
+        history.redo(2);
+        assertEquals(5, history.getUndoCount());
+        assertEquals(0, history.getRedoCount());
+    }
+
+    @Test
+    void restoreSizeRejectsLengthsTheListNeverHeld() {
+        assertThrows(IllegalArgumentException.class, () -> displayList.restoreSize(-1));
+        assertThrows(IllegalArgumentException.class, () -> displayList.restoreSize(1 << 20));
+    }
+
+    /**
+     * One move on a spiral, drawn on the canvas and kept in the display list
+     */
+    private void step() {
+        double x = turtle.getPositionX();
+        double y = turtle.getPositionY();
+        turtle.processCommand("move 3");
+        turtle.processCommand("right 7");
+        displayList.addLine(x, y, turtle.getPositionX(), turtle.getPositionY(), Color.BLACK.getRGB(), 1, false);
+    }
+
+    private BufferedImage render() {
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 400, 300);
+        DisplayList.smoothStrokes(g);
+        displayList.draw(g);
+        g.dispose();
+        return image;
+    }
+
+    private Point capture() {
+        Point point = new Point();
+        point.pixels = CanvasSnapshot.capture(turtle.getBufferedImage());
+        point.x = turtle.getPositionX();
+        point.y = turtle.getPositionY();
+        point.direction = turtle.getDirection();
+        point.displayListSize = displayList.size();
+        return point;
+    }
+
+    private void restore(Point point) {
+        point.pixels.restoreInto(turtle.getBufferedImage());
+        turtle.moveTo(point.x, point.y, point.direction);
+        displayList.restoreSize(point.displayListSize);
+    }
+
+    /**
+     * What TurtleGraphics keeps in an undo point, less the pen and the variables
+     */
+    private static final class Point {
+        CanvasSnapshot pixels;
+        double x;
+        double y;
+        int direction;
+        int displayListSize;
+
+        long getSize() {
+            return pixels.getCompressedSize();
+        }
+    }
+}